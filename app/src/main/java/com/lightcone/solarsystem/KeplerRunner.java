@@ -1,126 +1,218 @@
 package com.lightcone.solarsystem;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.drawable.ShapeDrawable;
-import android.graphics.drawable.shapes.OvalShape;
-import android.os.Handler;
+import android.graphics.RectF;
+import android.graphics.Typeface;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnLongClickListener;
 import android.view.View.OnClickListener;
 import android.widget.Toast;
 
-public class KeplerRunner extends View implements OnClickListener, OnLongClickListener {
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.lightcone.solarsystem.kepler.ApproachFinder;
+import com.lightcone.solarsystem.kepler.BodySet;
+import com.lightcone.solarsystem.kepler.CatalogLoader;
+import com.lightcone.solarsystem.kepler.CatalogSnapshot;
+import com.lightcone.solarsystem.kepler.DensityGrid;
+import com.lightcone.solarsystem.kepler.EphemerisCache;
+import com.lightcone.solarsystem.kepler.FrameStats;
+import com.lightcone.solarsystem.kepler.KeplerPropagator;
+import com.lightcone.solarsystem.kepler.NBodyIntegrator;
+import com.lightcone.solarsystem.kepler.OrbitEvent;
+import com.lightcone.solarsystem.kepler.OrbitGeometry;
+import com.lightcone.solarsystem.kepler.PipelineMetrics;
+import com.lightcone.solarsystem.kepler.PositionFrame;
+import com.lightcone.solarsystem.kepler.ScreenGrid;
+import com.lightcone.solarsystem.kepler.SimulationCheckpoint;
+import com.lightcone.solarsystem.kepler.SimulationClock;
+import com.lightcone.solarsystem.kepler.SimulationWorker;
+
+public class KeplerRunner extends View implements OnClickListener, OnLongClickListener,
+        Choreographer.FrameCallback {
 
     private static final String TAG = "ANIM";         // Diagnostic label
 
-    // class constants defining state of the thread
-    private static final int DONE = 0;
-    private static final int RUNNING = 1;
-
     private static final int ORBIT_COLOR = Color.argb(255, 220, 220, 220);
     private static final int PLANET_COLOR = Color.argb(255, 255, 255, 255);
     private static final int LABEL_COLOR = Color.argb(255, 255, 255, 255);
     private static final int SUN_COLOR = Color.YELLOW;
     private static final int nsteps = 600;             // number animation steps around orbit
-    private static final int numpoints = 100;           // number points used to draw orbit as line segments
-    // angular increment for orbit straight-line segment
-    private static final float dphi = (float) (2 * Math.PI / (float) numpoints);
-    private static final double THIRD = 1.0 / 3.0;
     private static final int planetRadius = 7;         // radius of spherical planet (pixels)
+    private static final int labelSize = 30;           // label font size (pixels)
+    private static final float labelDx = 10 - planetRadius;   // label offset from body (pixels)
+    private static final float labelDy = -planetRadius;
+    private static final int maxLabels = 200;          // most labels drawn at once
+    private static final float tapRadius = 40;         // largest distance of a tap from a body (pixels)
+    private static final int SELECT_COLOR = Color.argb(255, 255, 200, 0);
+    private static final int METRICS_COLOR = Color.argb(255, 0, 255, 128);
+    private static final int metricsSize = 24;         // overlay font size (pixels)
     private static final int sunRadius = 12;            // radius of sun (pixels)
     private static final float X0 = 0;                 // x offset from center (pixels)
     private static final float Y0 = 0;                 // y offset from center (pixels)
     private static final double direction = -1;        // Orbit direction: counter-clockwise -1; clockwise +1
     private static final double fracWidth = 0.95;      // Fraction of screen width to use for display
-    private static final int numObjects = 12;          // Number of bodies to include (max = 12)
-
-      /* Data for 8 planets, dwarf planet Pluto, 2 Apollo (Earth-crossing) asteroids,  and Halley's
-      Comet. (See http://neo.jpl.nasa.gov/orbits/ for asteroid and comet orbits.) The semimajor
-      elliptical axis a is in astronomical units (AU),  eccentricity epsilon is dimensionless,  period is
-      in years, and theta0 (initial angle) is in radians (there are 57.3 degrees per radian), with
-      clockwise positive and measured from the 12-o'clock position.  orientDeg[] is the relative
-      orientation of the ellipse in degrees.  The variable retroFac controls whether the motion is
-      direct (+1) or retrograde (-1). The relative orientations of the ellipses were eyeballed
-      from a plot, so are only approximately correct.  Likewise, the initial orientation angles theta0
-      were eyeballed from plots and are approximately correct for the date October 6, 2010.
-      The period and semimajor axis length are not independent, being related by Kepler's 3rd
-      law P = a^{3/2} in these units.  We include them as separate static final arrays for
-      computational efficiency. */
-
-    private static final String planetName[] = {"Mercury", "Venus", "Earth", "Mars", "Jupiter", "Saturn",
-            "Uranus", "Neptune", "Pluto", "2008 VB4", "2009 FG", "Halley"};
-    private static final double epsilon[] = {0.206, 0.007, 0.017, 0.093, 0.048, 0.056,
-            0.047, 0.009, 0.248, 0.617, 0.529, 0.967};
-    private static final double a[] = {0.387, 0.723, 1.0, 1.524, 5.203, 9.54,
-            19.18, 30.06, 39.53, 2.35, 1.97, 17.83};
-    private static final double period[] = {0.241, 0.615, 1.0, 1.881, 11.86, 29.46,
-            84.01, 164.8, 248.5, 3.61, 2.76, 75.32};
-    private static final double theta0[] = {5.1, 1.4, 1.2, 1.6, 1.2, 4.4, 1.2, 2.0, 5.6, 3.1, 3.1, 3.1};
-    private static final float orientDeg[] = {0f, 0.0f, 0f, 100f, 0f, 0f, 0f, 0f, 200f, 70f, -45f, 115f};
-    private static final double retroFac[] = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1};  // +1 direct; -1 retrograde
-
-    private Paint paint;                           // Paint object controlling format of screen draws
-    private ShapeDrawable planet;                  // Planet symbol
-    private float X[];                             // Current X position of planet (pixels)
-    private float Y[];                             // Current Y position of planet (pixels)
+    private static final long EPOCH_MILLIS = 1286323200000L;  // October 6, 2010 (simulation time 0), UTC
+    private static final double YEAR_MILLIS = 365.25 * 24 * 3600 * 1000;
+    private static final int EARTH = 2;                // Index of Earth in the BodySet
+    private static final double EVENT_YEARS = 10;      // Window searched for events (years)
+    private static final double APPROACH_AU = 0.05;    // Distance counting as a close approach
+    private static final int EVENTS_SHOWN = 5;
+
+      /* The orbital data for the planets, dwarf planet, asteroids, and comet (semimajor axes,
+      eccentricities, periods, initial angles, and orientations) are held in the BodySet of the
+      kepler library module, and the positions are computed by its KeplerPropagator, which
+      solves Kepler's equation for the position at any time rather than stepping the angle.
+      Neither depends on Android, so they can be tested and profiled off-device.  The propagator
+      and its clock belong to a SimulationWorker thread, which publishes complete frames of
+      positions that onDraw picks up without locking (see TripleBuffer).  The bodies of an element
+      catalog may be added to them (see loadCatalog()); the orbits and labels stay those of the
+      solar system. */
+
+    private final BodySet bodies = BodySet.solarSystem();    // Bodies shown, with any catalog
+    private final BodySet planets = BodySet.solarSystem();   // The solar system alone
+    private final int spriteBodies = planets.size();         // Bodies always drawn as sprites
+    private KeplerPropagator propagator;           // Engine giving body positions at a given time
+    private OrbitGeometry orbits;                  // Cached orbit paths, rescaled only on zoom or layout
+    private ForkJoinPool pool;                     // Threads for propagating large body sets
+    private SimulationClock clock;                 // Simulation time, advanced in fixed timesteps
+    private SimulationWorker worker;               // Thread computing positions for each frame
+    private EphemerisCache ephemeris;              // Tables of positions for seeking and playing
+    private FrameStats frameStats;                 // Frame-time and dropped-frame counters
+    private PipelineMetrics metrics;               // Stage timings and counters of the pipeline
+    private NBodyIntegrator integrator;            // Mutual gravity of the bodies (made on first use)
+    private ApproachFinder finder;                 // Search for events (made on first use)
+    private boolean catalogLoading;                // Whether catalog bodies are still being added
+    private final ExecutorService io = Executors.newSingleThreadExecutor();   // File I/O, in order
+
+    private Paint sunPaint;                        // Paint objects controlling format of screen draws,
+    private Paint orbitPaint;                      // one for each kind of object so that nothing
+    private Paint planetPaint;                     // has to be changed while drawing a frame
+    private Paint labelPaint;
+    private Paint selectPaint;                     // Ring around the selected body
+    private Paint metricsPaint;                    // Text of the performance overlay
+    private Paint densityPaint;                    // Heat map of crowded bodies
+    private Bitmap densityBitmap;                  // One pixel per bin of the heat map
+    private final RectF densityRect = new RectF(); // Screen area of the heat map
+    private float labelWidth[];                    // Width of the label of each body (pixels)
+    private PositionFrame frame;                   // Frame of positions drawn last
+    private int selected = -1;                     // Index of the body selected by a tap (-1 if none)
+    private float touchX;                          // Position of the last touch (pixels)
+    private float touchY;
     private float centerX;                         // X for center of display (pixels)
     private float centerY;                         // Y for center of display (pixels)
-    private float R0[];                            // Radius of planetary orbit in pixels
-    private double theta[];                        // Planet angle (radians clockwise from 12 o'clock)
-    private double dTheta[];                       // Angular increment each step (radians)
     private double pixelScale;                     // Scale factor: number of pixels per AU
-    private double c1[];                           // The constant distance scale factor a*(1+epsilon^2)
-    private double c2[];                           // Constant used to computer dTheta[i] from dt
     private double dt;                             // Animation timestep (years)
-    private long delay = 20;                       // Milliseconds of delay in the update loop
+    private long delay = 20;                       // Milliseconds of wall-clock time per timestep
     private double zoomFac = 1.0;                  // Zoom factor (relative to 1) for display
+    private double tiltDeg = 0;                    // Tilt of the view from the ecliptic pole (degrees)
     public boolean showLabels = false;             // Whether to show planet labels
-    private static int mState = DONE;              // Whether thread runs
-    private static boolean isAnimating = true;     // Whether planet motion is updated on screen
+    public boolean showMetrics = false;            // Whether to show the performance overlay
+    private boolean isAnimating = true;            // Whether planet motion is updated on screen
+    private boolean resumed;                       // Whether the activity is in the foreground
+    private boolean laidOut;                       // Whether the screen geometry is known
     private boolean showOrbits = true;             // Whether to show the orbital paths as curves
+    private boolean orbitsPending;                 // Whether saved orbits are still being read
     private boolean showToast1 = true;             // Whether to Toast indicating short-press action
     private boolean showToast2 = true;             // Whether to Toast indicating long-press action
 
-    // Handler to implement updates from the background thread to views
-    // on the main UI
-
-    private Handler handler = new Handler();
-
 
     public KeplerRunner(Context context) {
         super(context);
-        X = new float[numObjects];
-        Y = new float[numObjects];
-        theta = new double[numObjects];
-        dTheta = new double[numObjects];
-        R0 = new float[numObjects];
-        c1 = new double[numObjects];
-        c2 = new double[numObjects];
         dt = 1 / (double) nsteps;
+        clock = new SimulationClock(dt, 1000.0 / delay);
+        propagator = new KeplerPropagator(bodies, direction);
+        // Large sets are split across cores; small ones (like the default 12 bodies) stay serial
+        pool = new ForkJoinPool();
+        propagator.setPool(pool);
+        orbits = new OrbitGeometry(planets, direction);
+        worker = new SimulationWorker(propagator, clock);
+        // Ephemeris tables are built in the background on the same pool
+        ephemeris = new EphemerisCache(bodies, direction, pool);
+        worker.setEphemeris(ephemeris);
+        metrics = new PipelineMetrics();
+        metrics.watch(ephemeris, orbits);
+        worker.setMetrics(metrics);
+        // Catalog bodies added to the solar system are drawn as a heat map when too crowded for
+        // sprites (see drawBodies())
+        DensityGrid density = new DensityGrid(DensityGrid.DEFAULT_BIN, planetRadius);
+        density.setPool(pool);
+        worker.setDensity(density, spriteBodies);
 
         // Add click and long click listeners
         setOnClickListener(this);
         setOnLongClickListener(this);
 
-        for (int i = 0; i < numObjects; i++) {
-            theta[i] = -direction * theta0[i];
+        // Set up the Paint objects that will control format of screen draws.  The planets are
+        // drawn as points with a round cap as wide as the planet symbol.
+        sunPaint = new Paint();
+        sunPaint.setAntiAlias(true);
+        sunPaint.setColor(SUN_COLOR);
+        sunPaint.setStyle(Paint.Style.FILL);
+
+        orbitPaint = new Paint();
+        orbitPaint.setAntiAlias(true);
+        orbitPaint.setColor(ORBIT_COLOR);
+        orbitPaint.setStyle(Paint.Style.STROKE);
+        orbitPaint.setStrokeWidth(0);
+
+        planetPaint = new Paint();
+        planetPaint.setAntiAlias(true);
+        planetPaint.setColor(PLANET_COLOR);
+        planetPaint.setStrokeWidth(2 * planetRadius);
+        planetPaint.setStrokeCap(Paint.Cap.ROUND);
+
+        labelPaint = new Paint();
+        labelPaint.setAntiAlias(true);
+        labelPaint.setColor(LABEL_COLOR);
+        labelPaint.setTextSize(labelSize);
+
+        selectPaint = new Paint();
+        selectPaint.setAntiAlias(true);
+        selectPaint.setColor(SELECT_COLOR);
+        selectPaint.setStyle(Paint.Style.STROKE);
+        selectPaint.setStrokeWidth(3);
+
+        metricsPaint = new Paint();
+        metricsPaint.setAntiAlias(true);
+        metricsPaint.setColor(METRICS_COLOR);
+        metricsPaint.setTextSize(metricsSize);
+        metricsPaint.setTypeface(Typeface.MONOSPACE);
+
+        densityPaint = new Paint();
+        densityPaint.setFilterBitmap(true);
+
+        // Measure the labels once, for placing them without overlaps
+        labelWidth = new float[planets.size()];
+        for (int i = 0; i < planets.size(); i++) {
+            if (planets.name(i) != null) labelWidth[i] = labelPaint.measureText(planets.name(i));
         }
 
-        // Define the planet as circular shape
-        planet = new ShapeDrawable(new OvalShape());
-        planet.getPaint().setColor(PLANET_COLOR);
-        planet.setBounds(0, 0, 2 * planetRadius, 2 * planetRadius);
-
-        // Set up the Paint object that will control format of screen draws
-        paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setTextSize(12);
-        paint.setStrokeWidth(0);
-
     }
 
 
@@ -139,99 +231,94 @@ public class KeplerRunner extends View implements OnClickListener, OnLongClickLi
 
         // Make orbital radius a fraction of minimum of width and height of display and scale
         // by zoomFac.
-        pixelScale = zoomFac * fracWidth * Math.min(centerX, centerY) / a[4];
-
-        // Set the initial position of the planet (translate by planetRadius so center of planet
-        // is at this position)
-        for (int i = 0; i < numObjects; i++) {
-            // Compute scales c1[] and c2[] carrying distance units in pixels
-            c1[i] = pixelScale * a[i] * (1 - epsilon[i] * epsilon[i]);
-            c2[i] = direction * 2 * Math.PI * Math.sqrt(1 - epsilon[i] * epsilon[i])
-                    * dt * (pixelScale * a[i]) * (pixelScale * a[i]) / period[i];
-            R0[i] = (float) distanceFromFocus(c1[i], epsilon[i], theta[i]);
-            // The change in theta consistent with Kepler's 2nd law (equal areas in equal time)
-            dTheta[i] = c2[i] / R0[i] / R0[i];
-            // New values of X and Y for planet
-            X[i] = centerX - R0[i] * (float) Math.sin(theta[i]) - planetRadius;
-            Y[i] = centerY - R0[i] * (float) Math.cos(theta[i]) - planetRadius;
-        }
+        pixelScale = zoomFac * fracWidth * Math.min(centerX, centerY) / bodies.a(4);
+
+        // Set the position of the planets and the orbit paths for this scale, and the screen
+        // geometry used to cull the bodies that are off-screen
+        worker.setScale(pixelScale);
+        worker.setViewport(w, h, centerX, centerY, planetRadius);
+        orbits.setScale(pixelScale);
 
-        // Start the animation thread now that we have the screen geometry
+        // Start the animation now that we have the screen geometry
 
+        laidOut = true;
         startAnimation();
     }
 
-    // Method to start the animation thread
+      /* The animation is driven by the display's vsync through Choreographer rather than by a
+      thread sleeping between updates.  On each frame doFrame() hands the vsync timestamp to the
+      simulation worker, which advances the simulation clock by as many fixed timesteps as the
+      wall-clock time since the last frame calls for (see SimulationClock), computes the positions
+      for the new simulation time, and publishes them; the view is invalidated so that onDraw
+      shows the newest complete frame.  Nothing is allocated per frame, and no more redraws are
+      requested than the display can show.
 
-    public void startAnimation() {
+      The animation runs only while the activity is resumed, the view has been laid out, and
+      motion has not been switched off with a long press.  startAnimation() and stopAnimation()
+      may be called any number of times; there is never more than one worker thread or more than
+      one pending frame callback. */
 
-        // Operation on background thread that updates the main thread through handler.
+    public void startAnimation() {
 
+        if (!isAnimating || !resumed || !laidOut) return;
         Log.i(TAG, "startAnimation()");
 
-        KeplerRunner.mState = RUNNING;
-        KeplerRunner.isAnimating = true;
-
-        new Thread(new Runnable() {
-            public void run() {
-                while (KeplerRunner.mState == RUNNING && KeplerRunner.isAnimating) {
-
-                    // Update the X and Y coordinates for all planets
-                    newXY();
-
-                    // The method Thread.sleep throws an InterruptedException if Thread.interrupt()
-                    // were to be issued while thread is sleeping; the exception must be caught.
-                    try {
-                        // Control speed of update (but precision of delay not guaranteed)
-                        Thread.sleep(delay);
-                    } catch (InterruptedException e) {
-                        Log.e("ERROR", "Thread Interruption");
-                    }
+        if (frameStats == null) {
+            Display display = getDisplay();
+            float refreshRate = display != null ? display.getRefreshRate() : 60;
+            frameStats = new FrameStats((long) (1e9 / refreshRate));
+        }
+        frameStats.resume();
+        worker.start();
 
-                    // Update the animation by invalidating the view to force a redraw.
-                    // We cannot update views on the main UI directly from this thread, so we use
-                    // handler to do it.
+        // Remove any pending callback first so that there is never more than one per frame
+        Choreographer choreographer = Choreographer.getInstance();
+        choreographer.removeFrameCallback(this);
+        choreographer.postFrameCallback(this);
+    }
 
-                    handler.post(new Runnable() {
-                        public void run() {
-                            // Each time through the animation loop,  invalidate the main UI
-                            // view to force a redraw.
-                            invalidate();
-                        }
-                    });
-                }
-            }
-        }).start();
+    // Stop the frame callbacks and wait for the worker thread to finish
+    public void stopAnimation() {
+        Choreographer.getInstance().removeFrameCallback(this);
+        worker.stop();
     }
 
-      /* Method to increment angle theta and compute the new X and Y .  The orbits of the
-      planets are ellipses with the Sun at one focus.   */
+    // Called by Choreographer at the start of each display frame
+    @Override
+    public void doFrame(long frameTimeNanos) {
 
-    private void newXY() {
-        for (int i = 0; i < numObjects; i++) {
-            dTheta[i] = retroFac[i] * c2[i] / R0[i] / R0[i];
-            theta[i] += dTheta[i];
-            R0[i] = (float) distanceFromFocus(c1[i], epsilon[i], theta[i]);
-            X[i] = (float) (R0[i] * Math.sin(theta[i])) + centerX - planetRadius;
-            Y[i] = centerY - (float) (R0[i] * Math.cos(theta[i])) - planetRadius;
-        }
+        // Ask the worker for the positions at this frame; onDraw shows the newest published ones
+        worker.requestFrame(frameTimeNanos);
+        frameStats.record(frameTimeNanos);
+
+        invalidate();
+        Choreographer.getInstance().postFrameCallback(this);
     }
 
-    // Method to change the zoom factor
+    // Method to change the zoom factor.  Zooming out past the scale at which the catalog bodies
+    // crowd together fades them into the heat map, and zooming in fades them back (see drawBodies()).
     void setZoom(double scale) {
         if (!isAnimating) return;
         zoomFac *= scale;
-        pixelScale = zoomFac * fracWidth * Math.min(centerX, centerY) / a[4];
-        for (int i = 0; i < numObjects; i++) {
-            c1[i] = pixelScale * a[i] * (1 - epsilon[i] * epsilon[i]);
-            c2[i] = direction * 2 * Math.PI * Math.sqrt(1 - epsilon[i] * epsilon[i])
-                    * dt * (pixelScale * a[i]) * (pixelScale * a[i]) / period[i];
-        }
+        pixelScale = zoomFac * fracWidth * Math.min(centerX, centerY) / bodies.a(4);
+        worker.setScale(pixelScale);
+        orbits.setScale(pixelScale);
+    }
+
+    // Method to tilt the view by degrees, between looking down on the ecliptic (0) and looking
+    // along it (90).  Returns the new tilt.
+    double setTilt(double degrees) {
+        tiltDeg = Math.min(Math.max(tiltDeg + degrees, 0), 90);
+        worker.setTilt(tiltDeg);
+        orbits.setTilt(tiltDeg);
+        invalidate();
+        return tiltDeg;
     }
 
-    // Method to change the speed of the animation.  Returns long int equal to the new
-    // delay, or -1 if no delay change because the animation is not active, or -2 if
-    // the requested new delay would be less than 1.
+    // Method to change the speed of the animation.  The delay is the wall-clock time (ms) per
+    // simulation timestep, so it sets the time scale rather than a sleep.  Returns long int
+    // equal to the new delay, or -1 if no delay change because the animation is not active,
+    // or -2 if the requested new delay would be less than 1.
 
     long setDelay(double factor) {
         if (!isAnimating) return -1;
@@ -240,16 +327,307 @@ public class KeplerRunner extends View implements OnClickListener, OnLongClickLi
         // allow it to increase from small values.
         delay = Math.max((long) (delay * factor), 1);
         if (delay < 10 && factor > 1) delay += 2;
+        clock.setRate((clock.getRate() < 0 ? -1000.0 : 1000.0) / delay);
         return delay;
     }
 
+    // Switch between independent two-body orbits and N-body gravity, in which the planets pull on
+    // each other and on the asteroids and the comet.  The integration starts from the orbits at
+    // the current time.  Returns whether gravity is now on.
+    public boolean toggleGravity() {
+        if (integrator == null) {
+            integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+            integrator.setPool(pool);
+        }
+        boolean on = propagator.getIntegrator() == null;
+        // The propagator belongs to the worker thread while it runs
+        stopAnimation();
+        worker.setIntegrator(on ? integrator : null);
+        metrics.watch(on ? integrator : null);
+        startAnimation();
+        invalidate();
+        return on;
+    }
+
+    // Search the next ten years for approaches to Earth within 0.05 AU and for conjunctions of
+    // the planets, on the pool, and Toast the first few events found.  The search reads the bodies
+    // on the pool, so it waits until a catalog has finished loading.
+    public void showEvents() {
+        if (catalogLoading) {
+            Toast.makeText(getContext(), "Still loading the catalog", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (finder == null) {
+            finder = new ApproachFinder(bodies, EARTH);
+            finder.setPool(pool);
+        }
+        final double t0 = clock.getTime();
+        execute(pool, new Runnable() {
+            @Override
+            public void run() {
+                List<OrbitEvent> events = finder.closeApproaches(t0, t0 + EVENT_YEARS, APPROACH_AU);
+                int planets[] = {0, 1, 3, 4, 5};
+                events.addAll(finder.conjunctions(planets, t0, t0 + EVENT_YEARS,
+                        ApproachFinder.DEFAULT_CONJUNCTION_STEP));
+                Collections.sort(events);
+                final String text = describe(events);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getContext(), text, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
+    // One line for each of the first EVENTS_SHOWN events
+    private String describe(List<OrbitEvent> events) {
+        if (events.isEmpty()) return "No events in the next " + (int) EVENT_YEARS + " years";
+        StringBuilder text = new StringBuilder();
+        for (int k = 0; k < Math.min(events.size(), EVENTS_SHOWN); k++) {
+            OrbitEvent event = events.get(k);
+            if (k > 0) text.append('\n');
+            text.append(formatDate(event.time())).append(' ').append(bodyName(event.body()));
+            if (event.type() == OrbitEvent.CLOSE_APPROACH) {
+                text.append(String.format(Locale.US, " passes Earth at %.3f AU", event.value()));
+            } else {
+                text.append(" in conjunction with ").append(event.other() == OrbitEvent.SUN
+                        ? "the Sun" : bodyName(event.other()));
+            }
+        }
+        return text.toString();
+    }
+
+    private String bodyName(int i) {
+        String name = bodies.name(i);
+        return name != null ? name : "Body " + i;
+    }
+
+      /* Checkpoints.  When the activity is paused the simulation time and rate, the view, and the
+      sampled orbits and ephemeris tables are written to a file (on a background thread), and when
+      the process is started again they are read back, so that it resumes where it was instead of
+      at October 6, 2010 with everything computed afresh.  The state is restored before the first
+      frame; the caches follow from the background thread, the orbits being left undrawn until they
+      arrive (or fail to). */
+
+    public void restoreCheckpoint(final File file) {
+        final SimulationCheckpoint checkpoint;
+        try {
+            checkpoint = SimulationCheckpoint.readState(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read checkpoint", e);
+            return;
+        }
+        if (checkpoint == null || !checkpoint.matches(planets)) return;
+        if (checkpoint.getDelay() >= 1 && checkpoint.getRate() != 0) {
+            delay = checkpoint.getDelay();
+            clock.setRate(checkpoint.getRate());
+        }
+        worker.seek(checkpoint.getTime());
+        zoomFac = checkpoint.getZoom();
+        tiltDeg = checkpoint.getTilt();
+        worker.setTilt(tiltDeg);
+        orbits.setTilt(tiltDeg);
+        showOrbits = checkpoint.hasFlag(SimulationCheckpoint.SHOW_ORBITS);
+        showLabels = checkpoint.hasFlag(SimulationCheckpoint.SHOW_LABELS);
+        showMetrics = checkpoint.hasFlag(SimulationCheckpoint.SHOW_METRICS);
+        isAnimating = checkpoint.hasFlag(SimulationCheckpoint.ANIMATING);
+        int s = checkpoint.getSelected();
+        selected = s >= -1 && s < bodies.size() ? s : -1;
+        // The integration starts again from the orbits at the saved time
+        if (checkpoint.hasFlag(SimulationCheckpoint.GRAVITY)) toggleGravity();
+
+        orbitsPending = true;
+        boolean queued = execute(io, new Runnable() {
+            @Override
+            public void run() {
+                boolean read = false;
+                try {
+                    checkpoint.readCaches(file);
+                    checkpoint.restoreEphemeris(ephemeris);
+                    read = true;
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read checkpoint caches", e);
+                } finally {
+                    // The orbits are drawn again however the read ended
+                    final boolean useOrbits = read;
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (useOrbits) checkpoint.restoreOrbits(orbits);
+                            orbitsPending = false;
+                            invalidate();
+                        }
+                    });
+                }
+            }
+        });
+        if (!queued) orbitsPending = false;
+    }
+
+    // Write a checkpoint to file on the I/O thread.  Call while the animation is stopped.  The
+    // checkpoints are written one at a time in the order they were taken, so a quick pause, resume
+    // and pause again never leaves the older one on disk.
+    public void saveCheckpoint(final File file) {
+        final SimulationCheckpoint checkpoint = new SimulationCheckpoint(planets);
+        checkpoint.setTime(clock.getTime());
+        checkpoint.setRate(clock.getRate());
+        checkpoint.setDelay(delay);
+        checkpoint.setZoom(zoomFac);
+        checkpoint.setTilt(tiltDeg);
+        int flags = 0;
+        if (showOrbits) flags |= SimulationCheckpoint.SHOW_ORBITS;
+        if (showLabels) flags |= SimulationCheckpoint.SHOW_LABELS;
+        if (showMetrics) flags |= SimulationCheckpoint.SHOW_METRICS;
+        if (isAnimating) flags |= SimulationCheckpoint.ANIMATING;
+        if (propagator.getIntegrator() != null) flags |= SimulationCheckpoint.GRAVITY;
+        checkpoint.setFlags(flags);
+        checkpoint.setSelected(selected);
+        checkpoint.saveCaches(orbitsPending ? null : orbits, ephemeris);
+        execute(io, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint.write(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot write checkpoint", e);
+                }
+            }
+        });
+    }
+
+      /* Catalogs.  The bodies of an orbital element catalog (MPCORB.DAT or a JPL element file, see
+      CatalogLoader) are added to the solar system while the animation runs.  On the I/O thread the
+      catalog is read from its binary snapshot if that was made from the file as it is now, and
+      otherwise parsed, after which a new snapshot is written for the next start (see
+      CatalogSnapshot).  It is read into a BodySet of its own, and each batch parsed is posted to
+      the UI thread and appended to the bodies shown (see SimulationWorker.addBodies()), so the
+      first bodies are drawn long before a large file is finished; a snapshot is posted whole.
+      Only the UI thread and the worker, which is stopped while the set grows, touch the bodies
+      during the load:  the event search waits for the load to end, and the ephemeris tables, whose
+      builds read the bodies on the pool, are switched off until it has.  The checkpoints describe
+      the solar system alone, so they are still used on the next start before the catalog is loaded
+      again. */
+
+    public void loadCatalog(final File file, final File snapshot) {
+        if (catalogLoading) return;
+        catalogLoading = true;
+        stopAnimation();
+        worker.setEphemeris(null);
+        startAnimation();
+
+        final BodySet catalog = new BodySet(CatalogLoader.DEFAULT_BATCH);
+        final CatalogLoader loader = new CatalogLoader(CatalogLoader.MJD_2010_OCT_6);
+        final int shown[] = new int[1];           // Bodies of catalog posted so far (I/O thread)
+        loader.setListener(new CatalogLoader.Listener() {
+            @Override
+            public void onBatch(BodySet catalog, int from, int to) {
+                showBodies(catalog, from, to);
+                shown[0] = to;
+            }
+        });
+        boolean queued = execute(io, new Runnable() {
+            @Override
+            public void run() {
+                int n = 0;
+                try {
+                    n = CatalogSnapshot.loadOrParse(snapshot, file, loader, catalog);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read catalog " + file, e);
+                }
+                // The snapshot is read in one piece, with no batches
+                if (catalog.size() > shown[0]) showBodies(catalog, shown[0], catalog.size());
+                final int loaded = n;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        catalogLoaded(file, loaded);
+                    }
+                });
+            }
+        });
+        if (!queued) catalogLoaded(file, 0);
+    }
+
+    // Hand the catalog bodies from (inclusive) to to (exclusive) to the UI thread to be shown.
+    // Runs on the I/O thread, which alone uses catalog, so they are copied first.
+    private void showBodies(BodySet catalog, int from, int to) {
+        final BodySet batch = new BodySet(to - from);
+        batch.addAll(catalog, from, to);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                worker.addBodies(batch);
+                invalidate();
+            }
+        });
+    }
+
+    // Called on the UI thread once the catalog file has been read (loaded bodies, 0 if it failed)
+    private void catalogLoaded(File file, int loaded) {
+        catalogLoading = false;
+        stopAnimation();
+        worker.setEphemeris(ephemeris);
+        startAnimation();
+        String text = loaded > 0 ? "Added " + loaded + " bodies from " + file.getName()
+                : "No bodies read from " + file.getName();
+        Toast.makeText(getContext(), text, Toast.LENGTH_SHORT).show();
+    }
+
+      /* Time seeking.  Simulation time t is in years from October 6, 2010, the date for which the
+      initial angles of the bodies were set, and may be negative.  A seek takes effect at the next
+      frame (at once if the motion is stopped), wherever t is:  the positions are computed in
+      closed form, interpolated from ephemeris tables once the tables for the time have been built
+      in the background.  The rate of play is kept, including its direction.  With N-body gravity
+      on, a seek of more than a year restarts the integration from the orbits at the new time. */
+
+    public void seek(double t) {
+        worker.seek(t);
+        invalidate();
+    }
+
+    // Move the simulation time by years (negative to go back)
+    public void seekBy(double years) {
+        seek(clock.getTime() + years);
+    }
+
+    // Move to the given date (month 1-12), UTC
+    public void seekToDate(int year, int month, int day) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        seek((calendar.getTimeInMillis() - EPOCH_MILLIS) / YEAR_MILLIS);
+    }
+
+    // Move to the present date
+    public void seekToNow() {
+        seek((System.currentTimeMillis() - EPOCH_MILLIS) / YEAR_MILLIS);
+    }
+
+    // Play backward if playing forward, and forward if playing backward
+    public void reverse() {
+        clock.reverse();
+    }
+
+    // Simulation time (years from October 6, 2010)
+    public double getSimulationTime() {
+        return clock.getTime();
+    }
+
+    // Date of simulation time t as yyyy-MM-dd (UTC)
+    public static String formatDate(double t) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(EPOCH_MILLIS + Math.round(t * YEAR_MILLIS)));
+    }
+
 
       /* This method will be called each time the screen is redrawn. The draw is
       on the Canvas object, with formatting controlled by the Paint object.
       When to redraw is under Android control, but we can request a redraw
       using the method invalidate() inherited from the View superclass.  In this
-      case the method handler() calls invalidate() when it receives a message from
-      the animation thread that it has completed one pass through the animation loop. */
+      case doFrame() calls invalidate() on every display frame while the animation runs. */
 
     @Override
     public void onDraw(Canvas canvas) {
@@ -257,128 +635,238 @@ public class KeplerRunner extends View implements OnClickListener, OnLongClickLi
         super.onDraw(canvas);
 
                /* The equations we are solving for Kepler's laws define elliptical motion for a planet,
-            comet, or asteroid about the Sun at one focus of the ellipse.  But the objects in the
-            Solar System generally have different orientations for the long axis of the ellipse, so
-            to plot the correct relative orientation of different elliptical orbits on the same plot we
-            must rotate each solution by a specific amount (given in the array orientDeg[]).
-            This rotation can be implemented in one of two ways.  (1) We can define
-            our own 2-dimensional rotation matrix and use it to rotate the coordinates for
-            the instantaneous position of each planet, and the shape defining its orbit, before
-            plotting it.  (2) We can use the translate(dx, dy) and rotate(angle) methods of the
-            Canvas class to transform the canvas appropriately for each object before plotting it.
-            Both approaches are complicated by the fact that the origin of the computer graphics
-            coordinate system is at the upper left corner, but we are executing elliptical motion
-            about a point at the center of the screen, so these transformation involve both
-            translations and rotations.  In the following example we employ the 2nd approach and
-            use the rotate and translate methods of Canvas to rotate orbits. Notice also that
-            we are adopting the fiction that all bodies being considered have the same plane for
-            their ellipses.  Except for Pluto and Comet Halley, this is almost true for the objects
-            considered here.  Pluto's orbit is tilted about 17 degrees out of the plane of the ecliptic
-            (plane defined by the Earth's orbit), Halley's orbit by about 70 degrees, and Mercury's
-            orbit by 7 degrees.  All others are within several degrees of the ecliptic plane.  Thus,
-            the model in this example is an idealized but almost correct one where the realistic
-            elliptical orbits have been tilted when necessary to coincide with the ecliptic plane,
-            but their relative orientations within the ecliptic plane are approximately correct.
-            To treat the orbits more correctly we need 3D graphics.*/
+            comet, or asteroid about the Sun at one focus of the ellipse, in the plane of the orbit.
+            But the objects in the Solar System have different orientations for the long axis of
+            the ellipse, and their orbits lie in different planes:  Pluto's orbit is tilted about
+            17 degrees out of the plane of the ecliptic (plane defined by the Earth's orbit),
+            Halley's orbit by about 18 degrees (it goes round the other way, so its inclination is
+            given as 162 degrees), and Mercury's orbit by 7 degrees.  So to plot the orbits on the
+            same screen each solution must be turned in space by the three angles of its orbit
+            (the inclination, the longitude of the ascending node and the argument of
+            perihelion) and then projected onto the screen, which looks down on the ecliptic
+            tilted by tiltDeg.  This could be done with the translate(dx, dy) and rotate(angle)
+            methods of the Canvas class only for orbits in the plane of the screen.  Instead the
+            rotations and the projection, which are all linear, are combined into one 2 x 2 matrix
+            for each body (see OrbitProjection), and the orbits (OrbitGeometry) and the positions
+            (KeplerPropagator) are transformed by it once when they are computed, so every body
+            can be drawn in a single call after one translation of the canvas to the Sun, with no
+            per-body matrix changes.  The origin of the computer graphics coordinate system is at
+            the upper left corner, but we are executing elliptical motion about a point at the
+            center of the screen, so that translation is still needed.*/
+
+        // The time of the frame is recorded in metrics:  the orbit segments (tessellate) apart
+        // from the rest of the drawing
+        long start = System.nanoTime();
 
         // First draw the background (Sun and orbital paths)
-        drawBackground(paint, canvas);
-        paint.setColor(LABEL_COLOR);  // Label font color
-        paint.setTextSize(30);        // Label font size
-
-        // Now loop over the planets, asteroids, dwarf planets, and comets, placing the
-        // corresponding symbol at the appropriate position.
-
-        for (int i = 0; i < numObjects; i++) {
+        long tessellate = drawBackground(canvas);
+
+        // Now draw the bodies
+        drawBodies(canvas);
+        metrics.record(PipelineMetrics.DRAW, System.nanoTime() - start - tessellate);
+
+        // The performance overlay, whose text changes once a second
+        if (showMetrics) {
+            metrics.sample(System.nanoTime());
+            String lines[] = metrics.lines();
+            for (int k = 0; k < lines.length; k++) {
+                canvas.drawText(lines[k], metricsSize / 2, (k + 1.5f) * metricsSize, metricsPaint);
+            }
+        }
+    }
 
-            // The nested sets of save() .. restore() below keep the matrix transformations
-            // (translations and rotations in this case) from affecting the drawing on the canvas
-            // outside of the save() .. restore() blocks.  Note: for each save() there is
-            // a matching restore().
+    // Called by onDraw to draw the planets, asteroids, dwarf planets, and comets at the positions
+    // of the newest complete frame published by the simulation worker.  The positions are already
+    // projected into place, and the worker has sorted them into a grid over the screen that leaves
+    // out the bodies off-screen, so the visible bodies are drawn with one call, and the labels
+    // (which stay horizontal) in a separate pass.  Nothing here allocates but the bitmap of the
+    // heat map, once for each screen size.
+    private void drawBodies(Canvas canvas) {
+
+        frame = worker.acquireFrame();
+        ScreenGrid grid = frame.grid();
+        if (grid == null) {
+            // Screen geometry not yet known to the worker
+            canvas.save();
+            canvas.translate(centerX, centerY);
+            canvas.drawPoints(frame.points(), 0, 2 * frame.size(), planetPaint);
+            canvas.restore();
+            return;
+        }
 
+        // Only the bodies on the screen are drawn, in screen coordinates.  When they are too
+        // crowded at this zoom for sprites to show anything, the worker has made a heat map of
+        // them instead, and near the crowded scale the two are cross-faded by its weight, so
+        // zooming goes smoothly from one to the other.  The bodies of the solar system are
+        // always drawn as sprites.
+        float weight = frame.densityWeight();
+        if (weight > 0) drawDensity(canvas, weight);
+        if (weight < 1) {
+            planetPaint.setAlpha(Math.round(255 * (1 - weight)));
+            canvas.drawPoints(grid.visiblePoints(), 0, 2 * grid.visibleCount(), planetPaint);
+            planetPaint.setAlpha(255);
+        }
+        if (weight > 0) {
             canvas.save();
             canvas.translate(centerX, centerY);
-            canvas.rotate(orientDeg[i]);
-            canvas.translate(X[i] - centerX, Y[i] - centerY);
-            planet.draw(canvas);
+            canvas.drawPoints(frame.points(), 0, 2 * Math.min(spriteBodies, frame.size()), planetPaint);
+            canvas.restore();
+        }
+
+        // Labels that would overlap a label of a body earlier in the list are left out.  Only the
+        // bodies of the solar system have labels, so none is drawn over the heat map.
+        if (showLabels) {
+            int count = grid.declutter(labelWidth, labelSize, labelDx, labelDy, maxLabels);
+            for (int k = 0; k < count; k++) {
+                int i = grid.label(k);
+                canvas.drawText(bodies.name(i), grid.screenX(i) + labelDx, grid.screenY(i) + labelDy,
+                        labelPaint);
+            }
+        }
+
+        // The selected body is ringed and always labeled
+        if (grid.isVisible(selected)) {
+            float x = grid.screenX(selected);
+            float y = grid.screenY(selected);
+            canvas.drawCircle(x, y, planetRadius + 6, selectPaint);
+            if (bodies.name(selected) != null) {
+                canvas.drawText(bodies.name(selected), x + labelDx, y + labelDy, labelPaint);
+            }
+        }
+    }
 
-            // Rotate the canvas back before drawing label so it will be horizontal instead of
-            // having the orientation of the ellipse. This save() .. restore() block is nested inside
-            // the outer one, so this inverse rotation affects only the orientation of the label.
+    // Draw the heat map of the crowded bodies at weight against their sprites, one pixel of its
+    // bitmap for each bin scaled up (and filtered) to the screen
+    private void drawDensity(Canvas canvas, float weight) {
+        int cols = frame.densityCols();
+        int rows = frame.densityRows();
+        if (densityBitmap == null || densityBitmap.getWidth() != cols
+                || densityBitmap.getHeight() != rows) {
+            densityBitmap = Bitmap.createBitmap(cols, rows, Bitmap.Config.ARGB_8888);
+        }
+        densityBitmap.setPixels(frame.density(), 0, cols, 0, 0, cols, rows);
+        densityRect.set(0, 0, cols * frame.densityBin(), rows * frame.densityBin());
+        densityPaint.setAlpha(Math.round(255 * weight));
+        canvas.drawBitmap(densityBitmap, null, densityRect, densityPaint);
+    }
 
+    // Called by onDraw to draw the background.  Returns the time taken to compute the orbit
+    // segments (nanoseconds), which is recorded in metrics.
+    private long drawBackground(Canvas canvas) {
+
+        // Draw the Sun
+        canvas.drawCircle(centerX, centerY, sunRadius, sunPaint);
+
+        // Orbits drawn with line segments if showOrbits is true.  The segments for all orbits
+        // are computed once for each zoom level and drawn with a single call.
+        long tessellate = 0;
+        if (showOrbits && !orbitsPending) {
+            long start = System.nanoTime();
+            float lines[] = orbits.lines();
+            tessellate = System.nanoTime() - start;
+            metrics.record(PipelineMetrics.TESSELLATE, tessellate);
             canvas.save();
-            canvas.rotate(-orientDeg[i]);
-            if (showLabels) canvas.drawText(planetName[i], 10, 0, paint);
-            canvas.restore();
+            canvas.translate(centerX, centerY);
+            canvas.drawLines(lines, 0, orbits.lineCount(), orbitPaint);
             canvas.restore();
         }
+        return tessellate;
     }
 
-    // Called by onDraw to draw the background
-    private void drawBackground(Paint paint, Canvas canvas) {
+    // Counters and timings of the animation pipeline
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
 
-        // Draw the Sun
-        paint.setColor(SUN_COLOR);
-        paint.setStyle(Paint.Style.FILL);
-        canvas.drawCircle(centerX, centerY, sunRadius, paint);
-
-        // Orbits drawn with line segments if showOrbits is true
-        if (showOrbits) {
-            paint.setStyle(Paint.Style.STROKE);
-            paint.setColor(ORBIT_COLOR);
-            double phi = 0;
-
-            // Loop over each object, drawing its orbit as a sequence of numpoints line segments
-            for (int i = 0; i < numObjects; i++) {
-
-                // Starting points to draw orbit.  Note that the sign of the y coordinate is flipped
-                float lastxx = 0;
-                float lastyy = -(float) (distanceFromFocus(c1[i], epsilon[i], phi) * Math.cos(phi));
-
-                canvas.save();
-                canvas.translate(centerX, centerY);
-                canvas.rotate(orientDeg[i]);
-                phi = 0;
-
-                // Increase density of plot points for very elliptical orbits to resolve their shapes
-                int plotpoints = numpoints;
-                double delphi = dphi;
-                if (epsilon[i] > 0.7) {
-                    plotpoints *= 3;
-                    delphi *= THIRD;
-                }
-                // Draw the orbit for object i
-                for (int j = 0; j < plotpoints; j++) {
-                    phi += delphi;
-                    float rr = (float) distanceFromFocus(c1[i], epsilon[i], phi);
-                    float xx = (float) (rr * Math.sin(phi));
-                    float yy = -(float) (rr * Math.cos(phi));  // Sign flipped
-                    canvas.drawLine(lastxx, lastyy, xx, yy, paint);
-                    lastxx = xx;
-                    lastyy = yy;
+    // Write the pipeline metrics to file on the I/O thread and Toast where they went.
+    // The text is taken here, on the UI thread, so it is the metrics at the time of the call.
+    public void exportMetrics(final File file) {
+        final StringWriter text = new StringWriter();
+        try {
+            metrics.write(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // A StringWriter does not throw
+        }
+        execute(io, new Runnable() {
+            @Override
+            public void run() {
+                boolean written = false;
+                try {
+                    Writer out = new FileWriter(file);
+                    try {
+                        out.write(text.toString());
+                    } finally {
+                        out.close();
+                    }
+                    written = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot write metrics", e);
                 }
-                canvas.restore();
+                final boolean done = written;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (done) {
+                            Toast.makeText(getContext(), "Metrics written to " + file,
+                                    Toast.LENGTH_LONG).show();
+                        } else {
+                            Toast.makeText(getContext(), "Cannot write metrics",
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
             }
-        }
+        });
     }
 
-    // Return distance from focus for elliptical orbit (in units of c1)
-    private double distanceFromFocus(double c1, double epsilon, double theta) {
-        return (c1 / (1 + epsilon * Math.cos(theta)));
+    // Run task on executor, or drop it if the view has been detached and the executor shut down.
+    // Returns whether the task will run.
+    private boolean execute(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "View detached, background task dropped");
+            return false;
+        }
     }
 
-    // Stop the thread loop
+    // Stop the animation loop (activity paused)
     public void stopLooper() {
-        mState = DONE;
-        isAnimating = false;
+        resumed = false;
+        stopAnimation();
     }
 
-    // Start the thread loop
+    // Frame-time and dropped-frame counters (null before the first layout)
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    // Simulation clock: simulated time, timesteps taken, and rate
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    // Start the animation loop (activity resumed)
     public void startLooper() {
+        resumed = true;
         if (!isAnimating) {
             String ts = "Long-press to toggle motion on/off";
             Toast.makeText(this.getContext(), ts, Toast.LENGTH_LONG).show();
         }
+        startAnimation();
+    }
+
+    // Make sure no worker thread outlives the view.  The pool (for computing) and the I/O thread
+    // (for files) are made for each view, so they are shut down with it (every recreation of the
+    // activity makes new ones); tasks already queued, such as the checkpoint written on pause,
+    // still run, and any asked for later are dropped (see execute()).
+    @Override
+    protected void onDetachedFromWindow() {
+        stopAnimation();
+        pool.shutdown();
+        io.shutdown();
+        super.onDetachedFromWindow();
     }
 
     // Use long-press to toggle motion on and off.
@@ -388,10 +876,9 @@ public class KeplerRunner extends View implements OnClickListener, OnLongClickLi
         String ts = "Long-press toggles planet motion on/off";
         isAnimating = !isAnimating;
         if (isAnimating) {
-            mState = RUNNING;
             startAnimation();
         } else {
-            mState = DONE;
+            stopAnimation();
         }
         if (showToast2) Toast.makeText(this.getContext(), ts, Toast.LENGTH_LONG).show();
         showToast2 = false;   // Show only the first time
@@ -402,9 +889,33 @@ public class KeplerRunner extends View implements OnClickListener, OnLongClickLi
 
     @Override
     public void onClick(View v) {
+
+        // A tap on (or near) a body selects it, or deselects it if it was selected already
+        ScreenGrid grid = frame != null ? frame.grid() : null;
+        int hit = grid != null ? grid.nearest(touchX, touchY, tapRadius) : -1;
+        if (hit >= 0 && hit < bodies.size()) {
+            selected = hit == selected ? -1 : hit;
+            if (selected >= 0 && bodies.name(selected) != null) {
+                Toast.makeText(this.getContext(), bodies.name(selected), Toast.LENGTH_SHORT).show();
+            }
+            invalidate();
+            return;
+        }
+
+        // Elsewhere a tap toggles the orbits
         String ts = "Short-press toggles orbit visibility";
         showOrbits = !showOrbits;
         if (showToast1) Toast.makeText(this.getContext(), ts, Toast.LENGTH_LONG).show();
         showToast1 = false;   // Show only the first time
     }
+
+    // Remember where the screen was touched, for selecting a body in onClick
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            touchX = event.getX();
+            touchY = event.getY();
+        }
+        return super.onTouchEvent(event);
+    }
 }
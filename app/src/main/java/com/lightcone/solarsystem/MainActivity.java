@@ -13,12 +13,20 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 import android.support.v7.widget.Toolbar;
 
+import java.io.File;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final double delayScaler = 1.2;
     private static final double zoomScaler = 1.1;
+    private static final double seekYears = 10;
+    private static final double tiltStep = 15;
     private static final int BACKGROUND_COLOR = Color.argb(255, 0, 0, 0);
+    private static final String CHECKPOINT_FILE = "checkpoint.bin";
+    private static final String CATALOG_FILE = "MPCORB.DAT";
+    private static final String SNAPSHOT_FILE = "catalog.ksnp";
     private KeplerRunner krunner;
+    private File checkpoint;                        // Where the simulation is saved on pause
     Toolbar toolbar;
     LinearLayout LL1;
 
@@ -67,6 +75,12 @@ public class MainActivity extends AppCompatActivity {
         krunner = new KeplerRunner(this);
         krunner.setLayoutParams(lp);
         krunner.setBackgroundColor(BACKGROUND_COLOR);
+        // Take up where the last process left off, if it saved a checkpoint
+        checkpoint = new File(getFilesDir(), CHECKPOINT_FILE);
+        krunner.restoreCheckpoint(checkpoint);
+        // Add the bodies of an element catalog, if one has been put where the app can find it
+        File catalog = catalogFile();
+        if (catalog != null) krunner.loadCatalog(catalog, new File(getCacheDir(), SNAPSHOT_FILE));
         LL1.addView(krunner);
 
         // Set the view as the display
@@ -89,6 +103,8 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
         // Stop animation loop if going into background
         krunner.stopLooper();
+        // Save the state in the background, in case the process is killed
+        krunner.saveCheckpoint(checkpoint);
         Log.i("ANIM", "onPause");
     }
 
@@ -134,11 +150,69 @@ public class MainActivity extends AppCompatActivity {
                 krunner.setZoom(zoomScaler);
                 return true;
 
+            // Tilt the view toward or away from the plane of the ecliptic
+            case R.id.tilt_up:
+                krunner.setTilt(tiltStep);
+                return true;
+
+            case R.id.tilt_down:
+                krunner.setTilt(-tiltStep);
+                return true;
+
+            // Play backward or forward
+            case R.id.reverse:
+                krunner.reverse();
+                return true;
+
+            // Jump a decade back or forward, to the present, or to Halley's return
+            case R.id.seek_back:
+                krunner.seekBy(-seekYears);
+                showDate();
+                return true;
+
+            case R.id.seek_forward:
+                krunner.seekBy(seekYears);
+                showDate();
+                return true;
+
+            case R.id.seek_now:
+                krunner.seekToNow();
+                showDate();
+                return true;
+
+            case R.id.seek_halley:
+                krunner.seekToDate(2061, 7, 28);
+                showDate();
+                return true;
+
+            // Switch N-body gravity on or off
+            case R.id.toggle_gravity:
+                boolean gravity = krunner.toggleGravity();
+                Toast.makeText(this, gravity ? "N-body gravity on" : "Two-body orbits",
+                        Toast.LENGTH_SHORT).show();
+                return true;
+
             // Toggle labels
             case R.id.toggle_labels:
                 krunner.showLabels = !krunner.showLabels;
                 return true;
 
+            // Show or hide the performance overlay
+            case R.id.toggle_metrics:
+                krunner.showMetrics = !krunner.showMetrics;
+                krunner.invalidate();
+                return true;
+
+            // List the coming close approaches and conjunctions
+            case R.id.show_events:
+                krunner.showEvents();
+                return true;
+
+            // Write the performance counters to a file
+            case R.id.export_metrics:
+                exportMetrics();
+                return true;
+
             // Settings page
             case R.id.action_settings:
                 // Actions for settings page
@@ -148,4 +222,28 @@ public class MainActivity extends AppCompatActivity {
                 return super.onOptionsItemSelected(item);
         }
     }
+
+    // MPCORB.DAT (or a JPL element file of that name) in the app's external files directory, where
+    // it can be copied with adb push, or null if there is none.  Its parsed bodies are kept in a
+    // snapshot in the cache directory, so that it is only parsed again when it changes.
+    private File catalogFile() {
+        File dir = getExternalFilesDir(null);
+        File file = dir != null ? new File(dir, CATALOG_FILE) : null;
+        return file != null && file.isFile() ? file : null;
+    }
+
+    // Write the pipeline metrics to metrics-<time>.txt in the app's external files directory
+    // (internal storage if there is none), where they can be pulled for offline analysis.  The
+    // file is written in the background (see KeplerRunner.exportMetrics()).
+    private void exportMetrics() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) dir = getFilesDir();
+        krunner.exportMetrics(new File(dir, "metrics-" + System.currentTimeMillis() + ".txt"));
+    }
+
+    // Show the date the simulation has moved to
+    private void showDate() {
+        Toast.makeText(this, KeplerRunner.formatDate(krunner.getSimulationTime()),
+                Toast.LENGTH_SHORT).show();
+    }
 }
@@ -0,0 +1,77 @@
+package com.lightcone.solarsystem.exporter;
+
+import com.lightcone.solarsystem.kepler.BodySet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* Frames per second of an ExportPipeline exporting 1920x1080 frames of the solar system plus
+   bodyCount asteroids, against the number of rendering threads and the format, with the frames
+   thrown away (so the disk is not measured).  Each invocation exports FRAMES frames of a
+   year's fly-through, the view changing every frame, so the orbits are drawn for every frame as
+   in HeadlessExport. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final int FRAMES = 60;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"png", "raw"})
+    public String format;
+
+    @Param({"0", "10000"})
+    public int bodyCount;
+
+    private ExportPipeline pipeline;
+    private long bytes;
+
+    private final FrameSink discard = new FrameSink() {
+        @Override
+        public void write(int index, byte data[], int length) {
+            bytes += length;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BodySet.solarSystem();
+        Random random = new Random(42);
+        for (int i = 0; i < bodyCount; i++) {
+            double a = 2.1 + 1.2 * random.nextDouble();            // Main belt
+            bodies.add("Asteroid " + i, 0.3 * random.nextDouble(), a, Math.pow(a, 1.5),
+                    2 * Math.PI * random.nextDouble(), 360 * random.nextFloat(), 1);
+        }
+        pipeline = new ExportPipeline(bodies, -1, 1920, 1080);
+        pipeline.setThreads(threads);
+        pipeline.setFormat("raw".equals(format) ? ExportPipeline.RAW : ExportPipeline.PNG);
+        pipeline.setView(40, 0, 150, 60);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long frames() throws Exception {
+        pipeline.export(0, 1, FRAMES, discard);
+        return bytes;
+    }
+}
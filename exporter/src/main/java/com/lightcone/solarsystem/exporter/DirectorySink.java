@@ -0,0 +1,41 @@
+package com.lightcone.solarsystem.exporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/* Writes each frame to its own file, prefix000000.extension, prefix000001.extension and so on,
+   in a directory (created if need be):  an image sequence such as ffmpeg reads with
+   -i prefix%06d.png. */
+
+public class DirectorySink implements FrameSink {
+
+    private final File directory;
+    private final String prefix;
+    private final String extension;
+
+    public DirectorySink(File directory, String prefix, String extension) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.extension = extension;
+    }
+
+    public File file(int index) {
+        return new File(directory, String.format(Locale.US, "%s%06d.%s", prefix, index, extension));
+    }
+
+    @Override
+    public void write(int index, byte data[], int length) throws IOException {
+        OutputStream out = new FileOutputStream(file(index));
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+}
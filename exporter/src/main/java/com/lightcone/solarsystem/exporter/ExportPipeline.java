@@ -0,0 +1,298 @@
+package com.lightcone.solarsystem.exporter;
+
+import com.lightcone.solarsystem.kepler.BodySet;
+import com.lightcone.solarsystem.kepler.KeplerPropagator;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+/* Headless export of the animation as a sequence of frames, in three stages joined by bounded
+   queues:
+
+        PROPAGATE    the calling thread solves for the positions of every body at the time of
+                     each frame (KeplerPropagator) and copies them into a free frame buffer
+        RENDER       threads rasterize the frames (FrameRenderer, one each) and ENCODE them as
+                     PNG or raw RGBA bytes, in parallel and so out of order
+        WRITE        one thread puts the frames back in order and hands them to a FrameSink
+
+   There is a fixed number of frame buffers, and a buffer goes back to the free queue only once
+   its frame is written, so the propagation blocks when the rendering or the writing falls
+   behind, memory stays bounded whatever the length of the export, and the frames in flight are
+   always within that many of the next one to write (which is how the writer reorders them, in
+   an array with a slot per buffer).  The first exception in any stage stops the others and is
+   thrown from export().
+
+   The view moves linearly from the start (pixels per AU and tilt) to the end over the export,
+   for a fly-through; with the two equal the orbits are drawn once per rendering thread.  The
+   time of each stage is summed over the frames (stageNanos()), and export() returns the frames
+   per second of the whole. */
+
+public class ExportPipeline {
+
+    public static final int PNG = 0;
+    public static final int RAW = 1;
+
+    public static final int PROPAGATE = 0;
+    public static final int RENDER = 1;
+    public static final int ENCODE = 2;
+    public static final int WRITE = 3;
+    public static final int STAGES = 4;
+
+    private static final String FORMAT_NAMES[] = {"png", "rgba"};
+
+    private final BodySet bodies;
+    private final double direction;                // Orbit direction: counter-clockwise -1; clockwise +1
+    private final int width;                       // Image size (pixels)
+    private final int height;
+    private int format = PNG;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int buffers;                           // Frame buffers (0 for twice threads plus two)
+    private double startScale;                     // View at the first and last frames
+    private double endScale;
+    private double startTilt;
+    private double endTilt;
+    private int bodyRadius = FrameRenderer.DEFAULT_BODY_RADIUS;
+    private boolean showOrbits = true;
+    private boolean showLabels = true;
+    private boolean showDate = true;
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES);
+    private volatile long framesWritten;
+
+    // A frame on its way through the pipeline
+    private static final class Frame {
+        int index;                                 // -1 for the end of the export
+        double time;
+        double pixelScale;
+        double tiltDeg;
+        float points[];
+        final Bytes output = new Bytes();
+
+        Frame(int index) {
+            this.index = index;
+        }
+    }
+
+    // Encoded frame, written out without copying
+    private static final class Bytes extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public ExportPipeline(BodySet bodies, double direction, int width, int height) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Empty image");
+        this.bodies = bodies;
+        this.direction = direction;
+        this.width = width;
+        this.height = height;
+        // Jupiter's orbit filling 95% of the shorter side, as in KeplerRunner at zoom 1
+        startScale = endScale = 0.95 * 0.5 * Math.min(width, height) / bodies.a(Math.min(4, bodies.size() - 1));
+    }
+
+    // PNG (the default) or RAW
+    public void setFormat(int format) {
+        if (format != PNG && format != RAW) throw new IllegalArgumentException("No format " + format);
+        this.format = format;
+    }
+
+    // File extension of the format
+    public String extension() {
+        return FORMAT_NAMES[format];
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Need a rendering thread");
+        this.threads = threads;
+    }
+
+    // Number of frames in flight at once (at least 2)
+    public void setBuffers(int buffers) {
+        if (buffers < 2) throw new IllegalArgumentException("Need at least two buffers");
+        this.buffers = buffers;
+    }
+
+    public int getBuffers() {
+        return buffers > 0 ? buffers : 2 * threads + 2;
+    }
+
+    // View at the first frame and at the last (pixels per AU, tilt from the ecliptic pole in
+    // degrees)
+    public void setView(double startScale, double startTilt, double endScale, double endTilt) {
+        this.startScale = startScale;
+        this.startTilt = startTilt;
+        this.endScale = endScale;
+        this.endTilt = endTilt;
+    }
+
+    public void setBodyRadius(int bodyRadius) {
+        this.bodyRadius = bodyRadius;
+    }
+
+    public void setShowOrbits(boolean showOrbits) {
+        this.showOrbits = showOrbits;
+    }
+
+    public void setShowLabels(boolean showLabels) {
+        this.showLabels = showLabels;
+    }
+
+    public void setShowDate(boolean showDate) {
+        this.showDate = showDate;
+    }
+
+    // Time spent in stage over the last export, summed over its threads (nanoseconds)
+    public long stageNanos(int stage) {
+        return stageNanos.get(stage);
+    }
+
+    // Frames written so far by the current or last export
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    // Render frames evenly spaced from simulation time t0 to t1 (years; both included when
+    // there is more than one frame) and write them in order to sink.  Returns the frames per
+    // second.
+    public double export(double t0, double t1, final int frames, final FrameSink sink)
+            throws IOException, InterruptedException {
+        if (frames < 0) throw new IllegalArgumentException("Negative frame count");
+        for (int s = 0; s < STAGES; s++) stageNanos.set(s, 0);
+        framesWritten = 0;
+        ImageIO.setUseCache(false);                // Encode in memory, not through temporary files
+        long start = System.nanoTime();
+        final int count = getBuffers();
+        final BlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(count);
+        final BlockingQueue<Frame> toRender = new ArrayBlockingQueue<Frame>(count + 1);
+        final BlockingQueue<Frame> toWrite = new ArrayBlockingQueue<Frame>(count);
+        final Frame end = new Frame(-1);
+        for (int k = 0; k < count; k++) free.add(new Frame(0));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> workers = new ArrayList<Thread>();
+        final Thread producer = Thread.currentThread();
+
+        // Stop every other thread at the first failure
+        final Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                for (Thread t : workers) {
+                    if (t != Thread.currentThread()) t.interrupt();
+                }
+                if (producer != Thread.currentThread()) producer.interrupt();
+            }
+        };
+
+        for (int r = 0; r < threads; r++) {
+            workers.add(new Thread("export-render-" + r) {
+                @Override
+                public void run() {
+                    try {
+                        FrameRenderer renderer = new FrameRenderer(bodies, direction, width, height);
+                        renderer.setBodyRadius(bodyRadius);
+                        renderer.setShowOrbits(showOrbits);
+                        renderer.setShowLabels(showLabels);
+                        renderer.setShowDate(showDate);
+                        for (Frame frame = toRender.take(); frame != end; frame = toRender.take()) {
+                            render(renderer, frame);
+                            toWrite.put(frame);
+                        }
+                        toRender.put(end);         // For the other rendering threads
+                    } catch (Throwable e) {
+                        if (failure.compareAndSet(null, e)) abort.run();
+                    }
+                }
+            });
+        }
+        workers.add(new Thread("export-write") {
+            @Override
+            public void run() {
+                try {
+                    Frame pending[] = new Frame[count];
+                    for (int next = 0; next < frames; ) {
+                        Frame frame = toWrite.take();
+                        pending[frame.index % count] = frame;
+                        // Write every frame that is now next in order
+                        while (next < frames && pending[next % count] != null) {
+                            Frame ready = pending[next % count];
+                            pending[next % count] = null;
+                            long t = System.nanoTime();
+                            sink.write(ready.index, ready.output.buffer(), ready.output.size());
+                            stageNanos.addAndGet(WRITE, System.nanoTime() - t);
+                            framesWritten = ++next;
+                            free.put(ready);
+                        }
+                    }
+                } catch (Throwable e) {
+                    if (failure.compareAndSet(null, e)) abort.run();
+                }
+            }
+        });
+        for (Thread t : workers) t.start();
+
+        // Propagate on this thread
+        try {
+            KeplerPropagator propagator = new KeplerPropagator(bodies, direction);
+            int n = bodies.size();
+            for (int k = 0; k < frames; k++) {
+                Frame frame = free.take();
+                long t = System.nanoTime();
+                double u = frames > 1 ? (double) k / (frames - 1) : 0;
+                frame.index = k;
+                frame.time = t0 + u * (t1 - t0);
+                frame.pixelScale = startScale + u * (endScale - startScale);
+                frame.tiltDeg = startTilt + u * (endTilt - startTilt);
+                propagator.setScale(frame.pixelScale);
+                propagator.setTilt(frame.tiltDeg);
+                propagator.propagate(frame.time);
+                if (frame.points == null) frame.points = new float[2 * n];
+                System.arraycopy(propagator.points(), 0, frame.points, 0, 2 * n);
+                stageNanos.addAndGet(PROPAGATE, System.nanoTime() - t);
+                toRender.put(frame);
+            }
+            toRender.put(end);
+            for (Thread w : workers) w.join();
+        } catch (InterruptedException e) {
+            if (failure.get() == null) {
+                // Interrupted from outside:  stop the export
+                for (Thread w : workers) w.interrupt();
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            if (failure.compareAndSet(null, e)) abort.run();
+        }
+        Throwable e = failure.get();
+        if (e != null) {
+            for (Thread w : workers) w.join();
+            Thread.interrupted();                  // Clear an interrupt from abort
+            if (e instanceof IOException) throw (IOException) e;
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            if (e instanceof Error) throw (Error) e;
+            throw new IOException("Export failed", e);
+        }
+        return frames * 1e9 / (System.nanoTime() - start);
+    }
+
+    // Rasterize and encode frame
+    private void render(FrameRenderer renderer, Frame frame) throws IOException {
+        long t = System.nanoTime();
+        BufferedImage image = renderer.render(frame.points, bodies.size(), frame.time,
+                frame.pixelScale, frame.tiltDeg);
+        long rendered = System.nanoTime();
+        stageNanos.addAndGet(RENDER, rendered - t);
+        frame.output.reset();
+        if (format == PNG) {
+            if (!ImageIO.write(image, "png", frame.output)) throw new IOException("No PNG writer");
+        } else {
+            renderer.writeRgba(frame.output);
+        }
+        stageNanos.addAndGet(ENCODE, System.nanoTime() - rendered);
+    }
+}
@@ -0,0 +1,301 @@
+package com.lightcone.solarsystem.exporter;
+
+import com.lightcone.solarsystem.kepler.BodySet;
+import com.lightcone.solarsystem.kepler.OrbitGeometry;
+import com.lightcone.solarsystem.kepler.ScreenGrid;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/* Software renderer of one frame of the animation into a BufferedImage, without a View:  the Sun
+   and the orbits as KeplerRunner.drawBackground() draws them, the bodies and their labels as in
+   drawBodies(), and the date.  The Sun and the orbits depend only on the view (pixels per AU and
+   tilt), so they are drawn once into a background raster that is copied into each frame while the
+   view stays the same, the orbits by a line rasterizer of its own.  The bodies are stamped
+   straight into the pixel array as disks, one Arrays.fill() per row, so a frame of 10^5 bodies
+   costs no more than a few Graphics2D calls; only the text goes through Graphics2D.  Off-screen
+   bodies are culled, and labels decluttered, with a ScreenGrid.
+
+   Positions are given as by KeplerPropagator.points():  x, y pairs in pixels relative to the Sun,
+   which is at the center of the image.  A renderer belongs to one thread at a time; the
+   ExportPipeline gives each of its rendering threads its own. */
+
+public class FrameRenderer {
+
+    public static final int BACKGROUND_COLOR = 0x000000;
+    public static final int ORBIT_COLOR = 0xDCDCDC;        // A grey (drawLine() relies on it)
+    public static final int BODY_COLOR = 0xFFFFFF;
+    public static final int LABEL_COLOR = 0xFFFFFF;
+    public static final int SUN_COLOR = 0xFFFF00;
+    public static final int DEFAULT_BODY_RADIUS = 7;       // Pixels, as planetRadius in KeplerRunner
+    public static final int SUN_RADIUS = 12;
+    public static final int LABEL_SIZE = 30;
+    public static final int MAX_LABELS = 200;
+
+    private static final long EPOCH_MILLIS = 1286323200000L;  // October 6, 2010 (simulation time 0), UTC
+    private static final double YEAR_MILLIS = 365.25 * 24 * 3600 * 1000;
+    private static final int ORBIT_LEVEL = ORBIT_COLOR & 0xFF;
+
+    private final BodySet bodies;
+    private final int width;                       // Image size (pixels)
+    private final int height;
+    private final float originX;                   // Screen position of the Sun
+    private final float originY;
+    private final BufferedImage image;
+    private final int pixels[];                    // Pixels of image, 0xRRGGBB (top byte unused)
+    private final Graphics2D graphics;             // Text on image
+    private final BufferedImage backgroundImage;   // Sun and orbits for the view below
+    private final int background[];
+    private final OrbitGeometry orbits;
+    private final ScreenGrid grid = new ScreenGrid();
+    private final float labelWidth[];              // Width of the label of each body (pixels)
+    private final SimpleDateFormat dateFormat;
+    private double backgroundScale = Double.NaN;   // View the background was drawn for
+    private double backgroundTilt = Double.NaN;
+    private int bodyRadius = DEFAULT_BODY_RADIUS;
+    private int span[];                            // Half-width of the disk of a body on each row
+    private boolean showOrbits = true;
+    private boolean showLabels = true;
+    private boolean showDate = true;
+
+    public FrameRenderer(BodySet bodies, double direction, int width, int height) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Empty image");
+        this.bodies = bodies;
+        this.width = width;
+        this.height = height;
+        originX = width / 2;
+        originY = height / 2;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        backgroundImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        background = ((DataBufferInt) backgroundImage.getRaster().getDataBuffer()).getData();
+        orbits = new OrbitGeometry(bodies, direction);
+
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, LABEL_SIZE));
+        graphics.setColor(new Color(LABEL_COLOR));
+        FontMetrics metrics = graphics.getFontMetrics();
+        labelWidth = new float[bodies.size()];
+        for (int i = 0; i < bodies.size(); i++) {
+            if (bodies.name(i) != null) labelWidth[i] = metrics.stringWidth(bodies.name(i));
+        }
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        setBodyRadius(DEFAULT_BODY_RADIUS);
+    }
+
+    public void setBodyRadius(int bodyRadius) {
+        if (bodyRadius < 0) throw new IllegalArgumentException("Negative radius");
+        this.bodyRadius = bodyRadius;
+        span = new int[2 * bodyRadius + 1];
+        for (int dy = -bodyRadius; dy <= bodyRadius; dy++) {
+            span[dy + bodyRadius] = (int) Math.sqrt(bodyRadius * bodyRadius - dy * dy);
+        }
+    }
+
+    public void setShowOrbits(boolean showOrbits) {
+        if (showOrbits != this.showOrbits) backgroundScale = Double.NaN;
+        this.showOrbits = showOrbits;
+    }
+
+    public void setShowLabels(boolean showLabels) {
+        this.showLabels = showLabels;
+    }
+
+    public void setShowDate(boolean showDate) {
+        this.showDate = showDate;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Draw the size bodies at points (pixels from the Sun), at simulation time t (years) in the
+    // view of pixelScale pixels per AU tilted tiltDeg, and return the image (reused by the next
+    // call)
+    public BufferedImage render(float points[], int size, double t, double pixelScale,
+                                double tiltDeg) {
+        if (pixelScale != backgroundScale || tiltDeg != backgroundTilt) {
+            drawBackground(pixelScale, tiltDeg);
+        }
+        System.arraycopy(background, 0, pixels, 0, pixels.length);
+
+        // Only the bodies on the image (or overlapping its edge) are drawn
+        grid.build(points, size, originX, originY, width, height, bodyRadius);
+        float visible[] = grid.visiblePoints();
+        for (int k = 0; k < grid.visibleCount(); k++) {
+            stamp(Math.round(visible[2 * k]), Math.round(visible[2 * k + 1]));
+        }
+
+        // Labels that would overlap a label of a body earlier in the list are left out
+        if (showLabels) {
+            float dx = 10 - bodyRadius;
+            float dy = -bodyRadius;
+            int count = grid.declutter(labelWidth, LABEL_SIZE, dx, dy, MAX_LABELS);
+            for (int k = 0; k < count; k++) {
+                int i = grid.label(k);
+                graphics.drawString(bodies.name(i), grid.screenX(i) + dx, grid.screenY(i) + dy);
+            }
+        }
+        if (showDate) {
+            String date = dateFormat.format(new Date(EPOCH_MILLIS + Math.round(t * YEAR_MILLIS)));
+            graphics.drawString(date, LABEL_SIZE / 2, height - LABEL_SIZE / 2);
+        }
+        return image;
+    }
+
+    // The pixels of the last image rendered, 0xRRGGBB in rows from the top; the top byte is
+    // not used, and Graphics2D may leave it set
+    public int[] pixels() {
+        return pixels;
+    }
+
+    // Write the last image rendered as raw RGBA bytes (4 per pixel, rows from the top), the
+    // layout of ffmpeg's rawvideo rgba input
+    public void writeRgba(OutputStream out) throws IOException {
+        byte row[] = new byte[4 * width];
+        for (int y = 0; y < height; y++) {
+            int p = y * width;
+            for (int x = 0, b = 0; x < width; x++) {
+                int c = pixels[p + x];
+                row[b++] = (byte) (c >> 16);
+                row[b++] = (byte) (c >> 8);
+                row[b++] = (byte) c;
+                row[b++] = (byte) 0xFF;
+            }
+            out.write(row);
+        }
+    }
+
+    // Fill the disk of a body centred on pixel (cx, cy), clipped to the image
+    private void stamp(int cx, int cy) {
+        int y0 = Math.max(cy - bodyRadius, 0);
+        int y1 = Math.min(cy + bodyRadius, height - 1);
+        for (int y = y0; y <= y1; y++) {
+            int half = span[y - cy + bodyRadius];
+            int x0 = Math.max(cx - half, 0);
+            int x1 = Math.min(cx + half, width - 1);
+            if (x0 <= x1) Arrays.fill(pixels, y * width + x0, y * width + x1 + 1, BODY_COLOR);
+        }
+    }
+
+    // Draw the Sun and the orbits for the view into the background raster
+    private void drawBackground(double pixelScale, double tiltDeg) {
+        Arrays.fill(background, BACKGROUND_COLOR);
+        if (showOrbits) {
+            orbits.setTilt(tiltDeg);
+            orbits.setScale(pixelScale);
+            float lines[] = orbits.lines();
+            for (int k = 0; k < orbits.lineCount(); k += 4) {
+                drawLine(originX + lines[k], originY + lines[k + 1],
+                        originX + lines[k + 2], originY + lines[k + 3]);
+            }
+        }
+        Graphics2D g = backgroundImage.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(new Color(SUN_COLOR));
+            g.fill(new Ellipse2D.Float(originX - SUN_RADIUS, originY - SUN_RADIUS,
+                    2 * SUN_RADIUS, 2 * SUN_RADIUS));
+        } finally {
+            g.dispose();
+        }
+        backgroundScale = pixelScale;
+        backgroundTilt = tiltDeg;
+    }
+
+    /* Antialiased orbit segment from (x0, y0) to (x1, y1) into the background, by Wu's algorithm:
+       along the longer axis each step covers the two pixels straddling the line, in proportion to
+       how near it passes.  The orbits are a grey on black, so a pixel keeps the brighter of its
+       grey and the new one, and segments meeting end to end or crossing do not brighten each
+       other.  Graphics2D's antialiased lines took seconds a frame for the orbits of 10^4 bodies
+       (10^6 segments), which a fly-through redraws every frame; this takes a tenth of that.  The
+       segment is first clipped to the image (Liang-Barsky). */
+    private void drawLine(float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float from = 0;
+        float to = 1;
+        float p[] = {-dx, dx, -dy, dy};
+        float q[] = {x0 + 1, width - x0, y0 + 1, height - y0};
+        for (int k = 0; k < 4; k++) {
+            if (p[k] == 0) {
+                if (q[k] < 0) return;              // Parallel to the edge and outside it
+            } else {
+                float r = q[k] / p[k];
+                if (p[k] < 0) {
+                    if (r > to) return;
+                    if (r > from) from = r;
+                } else {
+                    if (r < from) return;
+                    if (r < to) to = r;
+                }
+            }
+        }
+        float ax = x0 + from * dx;
+        float ay = y0 + from * dy;
+        float bx = x0 + to * dx;
+        float by = y0 + to * dy;
+
+        boolean steep = Math.abs(dy) > Math.abs(dx);
+        if (steep) {
+            float swap = ax;
+            ax = ay;
+            ay = swap;
+            swap = bx;
+            bx = by;
+            by = swap;
+        }
+        if (ax > bx) {
+            float swap = ax;
+            ax = bx;
+            bx = swap;
+            swap = ay;
+            ay = by;
+            by = swap;
+        }
+        // Fixed point, 16 bits of fraction, along the longer axis
+        float gradient = bx - ax > 0 ? (by - ay) / (bx - ax) : 0;
+        int start = Math.round(ax);
+        int end = Math.round(bx);
+        int y = (int) ((ay + gradient * (start - ax)) * 65536 + 0.5f);
+        int step = (int) (gradient * 65536);
+        for (int x = start; x <= end; x++, y += step) {
+            int below = y >> 16;
+            int above = (y & 0xFFFF) * ORBIT_LEVEL >> 16;  // Grey of the pixel above the line
+            if (steep) {
+                plot(below, x, ORBIT_LEVEL - above);
+                plot(below + 1, x, above);
+            } else {
+                plot(x, below, ORBIT_LEVEL - above);
+                plot(x, below + 1, above);
+            }
+        }
+    }
+
+    // Brighten background pixel (x, y) to grey level (out of 255)
+    private void plot(int x, int y, int level) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return;
+        int k = y * width + x;
+        if ((background[k] & 0xFF) < level) background[k] = level * 0x010101;
+    }
+}
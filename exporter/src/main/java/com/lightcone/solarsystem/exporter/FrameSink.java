@@ -0,0 +1,12 @@
+package com.lightcone.solarsystem.exporter;
+
+import java.io.IOException;
+
+/* Destination of the encoded frames of an ExportPipeline, which calls write() from its writing
+   thread only, with the frames in order. */
+
+public interface FrameSink {
+
+    // Store frame index, the first length bytes of data (which the caller reuses afterwards)
+    void write(int index, byte data[], int length) throws IOException;
+}
@@ -0,0 +1,72 @@
+package com.lightcone.solarsystem.exporter;
+
+import com.lightcone.solarsystem.kepler.BodySet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/* Command line export of a fly-through of the solar system:  the view starts with the whole of
+   Pluto's orbit on the image, face on, and closes in to the app's view of Jupiter's orbit while
+   tilting to 60 degrees, over the given years.  PNG frames are written one file each
+   (frame000000.png, ...) to the output directory; raw frames are appended to the single file
+   frames.rgba there, which ffmpeg reads with
+
+       ffmpeg -f rawvideo -pix_fmt rgba -s 1920x1080 -r 60 -i frames.rgba fly-through.mp4
+
+   Arguments (output directory, png or raw, years, frames, width, height, threads) are
+   positional, for example with ./gradlew :exporter:export -Pexport="build/frames raw 100 6000". */
+
+public class HeadlessExport {
+
+    private static final String STAGE_NAMES[] = {"propagate", "render", "encode", "write"};
+
+    public static void main(String args[]) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 1) {
+            System.err.println("Usage: HeadlessExport directory [png|raw] [years] [frames] [width] [height] [threads]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        boolean raw = args.length > 1 && "raw".equals(args[1]);
+        double years = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+        int frames = args.length > 3 ? Integer.parseInt(args[3]) : 6000;
+        int width = args.length > 4 ? Integer.parseInt(args[4]) : 1920;
+        int height = args.length > 5 ? Integer.parseInt(args[5]) : 1080;
+        int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+
+        BodySet bodies = BodySet.solarSystem();
+        ExportPipeline pipeline = new ExportPipeline(bodies, -1, width, height);
+        pipeline.setThreads(threads);
+        pipeline.setFormat(raw ? ExportPipeline.RAW : ExportPipeline.PNG);
+        double fit = 0.95 * 0.5 * Math.min(width, height);
+        pipeline.setView(fit / (bodies.a(8) * (1 + bodies.epsilon(8))), 0, fit / bodies.a(4), 60);
+
+        double framesPerSecond;
+        if (raw) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, "frames.rgba")), 1 << 20);
+            try {
+                framesPerSecond = pipeline.export(0, years, frames, new StreamSink(out));
+            } finally {
+                out.close();
+            }
+        } else {
+            framesPerSecond = pipeline.export(0, years, frames,
+                    new DirectorySink(directory, "frame", pipeline.extension()));
+        }
+
+        System.out.println(String.format(Locale.US, "%d frames of %dx%d (%s, %d threads) to %s: %.1f frames/s",
+                frames, width, height, raw ? "raw" : "png", threads, directory, framesPerSecond));
+        for (int s = 0; s < ExportPipeline.STAGES; s++) {
+            System.out.println(String.format(Locale.US, "  %-10s %8.2f ms/frame", STAGE_NAMES[s],
+                    pipeline.stageNanos(s) * 1e-6 / Math.max(frames, 1)));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.lightcone.solarsystem.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/* Writes the frames one after another to a stream, for raw RGBA video piped to an encoder
+   (ffmpeg -f rawvideo -pix_fmt rgba -s WIDTHxHEIGHT -i -) or a single file.  The stream is not
+   closed by the sink. */
+
+public class StreamSink implements FrameSink {
+
+    private final OutputStream out;
+    private long bytes;
+
+    public StreamSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int index, byte data[], int length) throws IOException {
+        out.write(data, 0, length);
+        bytes += length;
+    }
+
+    // Bytes written so far
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,147 @@
+package com.lightcone.solarsystem.exporter;
+
+import com.lightcone.solarsystem.kepler.BodySet;
+import com.lightcone.solarsystem.kepler.KeplerPropagator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class ExportPipelineTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Keeps a copy of every frame, checking they come in order
+    private static class Collector implements FrameSink {
+        final List<byte[]> frames = new ArrayList<byte[]>();
+
+        @Override
+        public void write(int index, byte data[], int length) {
+            assertEquals(frames.size(), index);
+            frames.add(Arrays.copyOf(data, length));
+        }
+    }
+
+    // Frame k rendered directly, as raw RGBA
+    private static byte[] expected(BodySet bodies, double t, double pixelScale) throws IOException {
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(pixelScale);
+        propagator.propagate(t);
+        FrameRenderer renderer = new FrameRenderer(bodies, -1, WIDTH, HEIGHT);
+        renderer.render(propagator.points(), bodies.size(), t, pixelScale, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.writeRgba(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void rawFramesMatchTheRendererInOrder() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        ExportPipeline pipeline = new ExportPipeline(bodies, -1, WIDTH, HEIGHT);
+        pipeline.setFormat(ExportPipeline.RAW);
+        pipeline.setThreads(3);
+        pipeline.setBuffers(4);
+        pipeline.setView(20, 0, 20, 0);
+        Collector sink = new Collector();
+        double framesPerSecond = pipeline.export(0, 2, 21, sink);
+        assertEquals(21, sink.frames.size());
+        assertEquals(21, pipeline.getFramesWritten());
+        assertTrue(framesPerSecond > 0);
+        for (int k = 0; k < 21; k += 5) {
+            assertArrayEquals(expected(bodies, 0.1 * k, 20), sink.frames.get(k));
+        }
+        assertTrue(pipeline.stageNanos(ExportPipeline.RENDER) > 0);
+    }
+
+    @Test
+    public void pngFramesDecodeToTheRenderedImage() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        ExportPipeline pipeline = new ExportPipeline(bodies, -1, WIDTH, HEIGHT);
+        pipeline.setThreads(2);
+        pipeline.setView(20, 0, 20, 0);
+        File directory = new File(folder.getRoot(), "frames");
+        DirectorySink sink = new DirectorySink(directory, "frame", pipeline.extension());
+        pipeline.export(0, 1, 3, sink);
+        assertEquals(3, directory.list().length);
+        assertEquals("frame000002.png", sink.file(2).getName());
+
+        BufferedImage image = ImageIO.read(sink.file(2));
+        byte raw[] = expected(bodies, 1, 20);
+        for (int y = 0; y < HEIGHT; y += 7) {
+            for (int x = 0; x < WIDTH; x += 3) {
+                int p = 4 * (y * WIDTH + x);
+                int rgb = (raw[p] & 0xFF) << 16 | (raw[p + 1] & 0xFF) << 8 | raw[p + 2] & 0xFF;
+                assertEquals(rgb, image.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void theViewMovesOverTheExport() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        ExportPipeline pipeline = new ExportPipeline(bodies, -1, WIDTH, HEIGHT);
+        pipeline.setFormat(ExportPipeline.RAW);
+        pipeline.setView(10, 0, 30, 0);
+        Collector sink = new Collector();
+        pipeline.export(0, 1, 3, sink);
+        assertArrayEquals(expected(bodies, 0, 10), sink.frames.get(0));
+        assertArrayEquals(expected(bodies, 0.5, 20), sink.frames.get(1));
+        assertArrayEquals(expected(bodies, 1, 30), sink.frames.get(2));
+    }
+
+    @Test
+    public void streamSinkAppendsFrames() throws Exception {
+        ExportPipeline pipeline = new ExportPipeline(BodySet.solarSystem(), -1, WIDTH, HEIGHT);
+        pipeline.setFormat(ExportPipeline.RAW);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamSink sink = new StreamSink(out);
+        pipeline.export(0, 1, 5, sink);
+        assertEquals(5L * 4 * WIDTH * HEIGHT, sink.getBytes());
+        assertEquals(sink.getBytes(), out.size());
+    }
+
+    @Test
+    public void aFailingSinkStopsTheExport() throws Exception {
+        ExportPipeline pipeline = new ExportPipeline(BodySet.solarSystem(), -1, WIDTH, HEIGHT);
+        pipeline.setThreads(2);
+        pipeline.setBuffers(2);
+        pipeline.setFormat(ExportPipeline.RAW);
+        try {
+            pipeline.export(0, 10, 1000, new FrameSink() {
+                @Override
+                public void write(int index, byte data[], int length) throws IOException {
+                    if (index == 3) throw new IOException("Disk full");
+                }
+            });
+            fail("Export finished");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+        assertEquals(3, pipeline.getFramesWritten());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void noFramesIsNothingWritten() throws Exception {
+        ExportPipeline pipeline = new ExportPipeline(BodySet.solarSystem(), -1, WIDTH, HEIGHT);
+        Collector sink = new Collector();
+        pipeline.export(0, 1, 0, sink);
+        assertTrue(sink.frames.isEmpty());
+    }
+}
@@ -0,0 +1,111 @@
+package com.lightcone.solarsystem.exporter;
+
+import com.lightcone.solarsystem.kepler.BodySet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class FrameRendererTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 200;
+
+    private static BodySet oneBody() {
+        BodySet bodies = new BodySet(1);
+        bodies.add("Rock", 0, 1, 1, 0, 0f, 1);
+        return bodies;
+    }
+
+    private static int pixel(FrameRenderer renderer, int x, int y) {
+        return renderer.pixels()[y * renderer.getWidth() + x] & 0xFFFFFF;
+    }
+
+    @Test
+    public void drawsTheSunAndTheBodies() {
+        FrameRenderer renderer = new FrameRenderer(oneBody(), -1, WIDTH, HEIGHT);
+        renderer.setShowLabels(false);
+        renderer.setShowDate(false);
+        renderer.render(new float[]{60, -40}, 1, 0, 50, 0);
+        assertEquals(FrameRenderer.SUN_COLOR, pixel(renderer, WIDTH / 2, HEIGHT / 2));
+        assertEquals(FrameRenderer.BODY_COLOR, pixel(renderer, WIDTH / 2 + 60, HEIGHT / 2 - 40));
+        assertEquals(FrameRenderer.BODY_COLOR, pixel(renderer, WIDTH / 2 + 60 + 6, HEIGHT / 2 - 40));
+        assertEquals(FrameRenderer.BACKGROUND_COLOR, pixel(renderer, 5, 5));
+    }
+
+    @Test
+    public void bodiesOffTheImageAreClipped() {
+        FrameRenderer renderer = new FrameRenderer(oneBody(), -1, WIDTH, HEIGHT);
+        renderer.setShowOrbits(false);
+        renderer.setShowDate(false);
+        // Half on the image at the left edge, then entirely off it
+        renderer.render(new float[]{-WIDTH / 2, 0}, 1, 0, 50, 0);
+        assertEquals(FrameRenderer.BODY_COLOR, pixel(renderer, 0, HEIGHT / 2));
+        renderer.render(new float[]{-WIDTH, 0}, 1, 0, 50, 0);
+        assertEquals(FrameRenderer.BACKGROUND_COLOR, pixel(renderer, 0, HEIGHT / 2));
+    }
+
+    @Test
+    public void orbitsAreDrawnForTheView() {
+        FrameRenderer renderer = new FrameRenderer(oneBody(), -1, WIDTH, HEIGHT);
+        renderer.setShowLabels(false);
+        renderer.setShowDate(false);
+        float away[] = {1000, 1000};
+        // A circle of 50 pixels around the Sun, and without orbits none
+        renderer.render(away, 1, 0, 50, 0);
+        assertNotEquals(FrameRenderer.BACKGROUND_COLOR, pixel(renderer, WIDTH / 2 + 50, HEIGHT / 2));
+        renderer.render(away, 1, 0, 80, 0);
+        assertEquals(FrameRenderer.BACKGROUND_COLOR, pixel(renderer, WIDTH / 2 + 50, HEIGHT / 2));
+        renderer.setShowOrbits(false);
+        renderer.render(away, 1, 0, 50, 0);
+        assertEquals(FrameRenderer.BACKGROUND_COLOR, pixel(renderer, WIDTH / 2 + 50, HEIGHT / 2));
+    }
+
+    @Test
+    public void theBackgroundIsNotCarriedIntoTheNextFrame() {
+        FrameRenderer renderer = new FrameRenderer(oneBody(), -1, WIDTH, HEIGHT);
+        renderer.setShowOrbits(false);
+        renderer.setShowLabels(false);
+        renderer.setShowDate(false);
+        renderer.render(new float[]{60, 0}, 1, 0, 50, 0);
+        renderer.render(new float[]{-60, 0}, 1, 0, 50, 0);
+        assertEquals(FrameRenderer.BACKGROUND_COLOR, pixel(renderer, WIDTH / 2 + 60, HEIGHT / 2));
+        assertEquals(FrameRenderer.BODY_COLOR, pixel(renderer, WIDTH / 2 - 60, HEIGHT / 2));
+    }
+
+    @Test
+    public void labelsAndDateAreDrawn() {
+        FrameRenderer renderer = new FrameRenderer(oneBody(), -1, WIDTH, HEIGHT);
+        renderer.setShowOrbits(false);
+        renderer.setShowLabels(false);
+        renderer.setShowDate(false);
+        float points[] = {0, 60};
+        renderer.render(points, 1, 0, 50, 0);
+        int plain[] = renderer.pixels().clone();
+        renderer.setShowLabels(true);
+        renderer.setShowDate(true);
+        renderer.render(points, 1, 0, 50, 0);
+        int changed = 0;
+        for (int k = 0; k < plain.length; k++) {
+            if (plain[k] != renderer.pixels()[k]) changed++;
+        }
+        assertTrue(changed > 100);
+    }
+
+    @Test
+    public void rawFramesAreRgba() throws Exception {
+        FrameRenderer renderer = new FrameRenderer(oneBody(), -1, WIDTH, HEIGHT);
+        renderer.render(new float[]{60, -40}, 1, 0, 50, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.writeRgba(out);
+        byte raw[] = out.toByteArray();
+        assertEquals(4 * WIDTH * HEIGHT, raw.length);
+        int sun = 4 * (HEIGHT / 2 * WIDTH + WIDTH / 2);
+        assertEquals((byte) 0xFF, raw[sun]);
+        assertEquals((byte) 0xFF, raw[sun + 1]);
+        assertEquals(0, raw[sun + 2]);
+        assertEquals((byte) 0xFF, raw[sun + 3]);
+    }
+}
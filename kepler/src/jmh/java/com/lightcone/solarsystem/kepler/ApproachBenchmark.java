@@ -0,0 +1,66 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/* A century's search by ApproachFinder for approaches to Earth within 0.05 AU of the solar
+   system plus bodyCount bodies of the given eccentricity distribution, against the number of
+   threads (1 is serial).  The benchmark bodies all lie in the ecliptic, so every crossing of
+   Earth's orbit is searched; real catalogs, spread in inclination, prune better. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ApproachBenchmark {
+
+    private static final int EARTH = 2;
+
+    @Param({"10000", "100000"})
+    public int bodyCount;
+
+    @Param({"low", "uniform"})
+    public String distribution;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ApproachFinder finder;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BodySet.solarSystem();
+        bodies.addAll(BenchmarkBodies.create(bodyCount, distribution, 42));
+        finder = new ApproachFinder(bodies, EARTH);
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+            finder.setPool(pool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public int century() {
+        return finder.closeApproaches(0, 100, 0.05).size();
+    }
+}
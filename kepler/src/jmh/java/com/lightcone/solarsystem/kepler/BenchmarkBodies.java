@@ -0,0 +1,60 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.Random;
+
+/* Synthetic body sets for the benchmarks.  The eccentricity distribution is selected by name:
+
+        solar     the 12 bodies of BodySet.solarSystem() repeated, with random starting angles
+        low       nearly circular orbits, e in [0, 0.1)
+        high      comet-like orbits, e in [0.6, 0.97)
+        uniform   e in [0, 0.97)
+
+   Semimajor axes are log-uniform between 0.4 and 40 AU and periods follow Kepler's 3rd law.
+   A fixed seed keeps the sets identical from run to run. */
+
+final class BenchmarkBodies {
+
+    static final String DISTRIBUTIONS[] = {"solar", "low", "high", "uniform"};
+
+    private BenchmarkBodies() {
+    }
+
+    static BodySet create(int n, String distribution, long seed) {
+        Random random = new Random(seed);
+        BodySet solar = BodySet.solarSystem();
+        String name[] = new String[n];
+        double epsilon[] = new double[n];
+        double a[] = new double[n];
+        double period[] = new double[n];
+        double theta0[] = new double[n];
+        float orientDeg[] = new float[n];
+        double retroFac[] = new double[n];
+        for (int i = 0; i < n; i++) {
+            name[i] = "Body " + i;
+            theta0[i] = 2 * Math.PI * random.nextDouble();
+            orientDeg[i] = 360 * random.nextFloat();
+            retroFac[i] = 1;
+            if ("solar".equals(distribution)) {
+                int j = i % solar.size();
+                epsilon[i] = solar.epsilon(j);
+                a[i] = solar.a(j);
+                period[i] = solar.period(j);
+                orientDeg[i] = solar.orientDeg(j);
+                retroFac[i] = solar.retroFac(j);
+                continue;
+            }
+            a[i] = 0.4 * Math.pow(100, random.nextDouble());
+            period[i] = Math.pow(a[i], 1.5);
+            if ("low".equals(distribution)) {
+                epsilon[i] = 0.1 * random.nextDouble();
+            } else if ("high".equals(distribution)) {
+                epsilon[i] = 0.6 + 0.37 * random.nextDouble();
+            } else if ("uniform".equals(distribution)) {
+                epsilon[i] = 0.97 * random.nextDouble();
+            } else {
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+        }
+        return new BodySet(name, epsilon, a, period, theta0, orientDeg, retroFac);
+    }
+}
@@ -0,0 +1,78 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/* Cold start of a catalog:  parsing MPCORB text with CatalogLoader against reading the binary
+   CatalogSnapshot of the same bodies.  Each operation loads the whole catalog into an empty
+   BodySet, so the score is the time to a fully loaded catalog. */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CatalogLoadBenchmark {
+
+    // A Ceres record in MPCORB layout, repeated to make the catalog
+    private static final String RECORD = "00001    3.34  0.15 K2555 188.70269   73.27343   80.25221"
+            + "   10.58780  0.0789175  0.21424651   2.7660512  0 E2025-J12  1000  20 1990-2025 0.50"
+            + " M-v 30k MPCLINUX   0000 (1) Ceres                   20250501\n";
+
+    @Param({"100000", "500000"})
+    public int bodyCount;
+
+    private File catalog;
+    private File snapshot;
+    private CatalogLoader loader;
+
+    @Setup
+    public void setUp() throws IOException {
+        catalog = File.createTempFile("MPCORB", ".DAT");
+        snapshot = File.createTempFile("MPCORB", ".snap");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(catalog));
+        byte record[] = RECORD.getBytes("US-ASCII");
+        for (int i = 0; i < bodyCount; i++) out.write(record);
+        out.close();
+        loader = new CatalogLoader(CatalogLoader.MJD_2010_OCT_6);
+        BodySet bodies = new BodySet(bodyCount);
+        loader.load(catalog, bodies);
+        CatalogSnapshot.write(snapshot, bodies, 0, bodies.size(), catalog.length(),
+                catalog.lastModified(), loader.getEpochMjd());
+    }
+
+    @TearDown
+    public void tearDown() {
+        catalog.delete();
+        snapshot.delete();
+    }
+
+    @Benchmark
+    public int parseText() throws IOException {
+        return loader.load(catalog, new BodySet(0));
+    }
+
+    @Benchmark
+    public int readSnapshot() throws IOException {
+        return CatalogSnapshot.read(snapshot, new BodySet(0), catalog.length(),
+                catalog.lastModified(), loader.getEpochMjd());
+    }
+}
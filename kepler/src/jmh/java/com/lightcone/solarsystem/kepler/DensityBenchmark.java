@@ -0,0 +1,77 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/* Per-frame cost of the heat map of a crowded catalog (DensityGrid.build(), binning and shading
+   on a 1080 x 1920 screen at the default zoom of the app) against the number of threads (1 is
+   serial), next to the ScreenGrid that the sprites need in any case. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DensityBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({"10000", "100000"})
+    public int bodyCount;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private KeplerPropagator propagator;
+    private DensityGrid density;
+    private ScreenGrid grid;
+    private int colors[];
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BenchmarkBodies.create(bodyCount, "low", 42);
+        propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(0.95 * WIDTH / 2 / 5.203);
+        propagator.propagate(1);
+        density = new DensityGrid(DensityGrid.DEFAULT_BIN, 7);
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+            density.setPool(pool);
+        }
+        colors = new int[density.bins(WIDTH, HEIGHT)];
+        grid = new ScreenGrid();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public int heatMap() {
+        density.build(propagator.points(), 0, bodyCount, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, colors);
+        return density.binned();
+    }
+
+    @Benchmark
+    public int screenGrid() {
+        grid.build(propagator.points(), bodyCount, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 7);
+        return grid.visibleCount();
+    }
+}
@@ -0,0 +1,86 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* Kepler's equation solvers and the trig kernel they are built on, timed per solution over a
+   block of (M, e) pairs.  newtonFromM is the textbook Newton iteration started from E = M,
+   kept as a baseline for KeplerSolver; sinCos is the cost floor of one sin and one cos. */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeplerSolverBenchmark {
+
+    private static final int N = 4096;
+
+    @Param({"solar", "low", "high", "uniform"})
+    public String distribution;
+
+    private final double meanAnomaly[] = new double[N];
+    private final double epsilon[] = new double[N];
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BenchmarkBodies.create(N, distribution, 42);
+        Random random = new Random(7);
+        for (int i = 0; i < N; i++) {
+            meanAnomaly[i] = 2 * Math.PI * (random.nextDouble() - 0.5);
+            epsilon[i] = bodies.epsilon(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public double halley() {
+        double sum = 0;
+        for (int i = 0; i < N; i++) {
+            sum += KeplerSolver.eccentricAnomaly(meanAnomaly[i], epsilon[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public double newtonFromM() {
+        double sum = 0;
+        for (int i = 0; i < N; i++) {
+            double M = meanAnomaly[i];
+            double e = epsilon[i];
+            double E = M;
+            for (int k = 0; k < 50; k++) {
+                double dE = (E - e * Math.sin(E) - M) / (1 - e * Math.cos(E));
+                E -= dE;
+                if (Math.abs(dE) < KeplerSolver.TOLERANCE) break;
+            }
+            sum += E;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public double sinCos() {
+        double sum = 0;
+        for (int i = 0; i < N; i++) {
+            sum += Math.sin(meanAnomaly[i]) + Math.cos(meanAnomaly[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/* KeplerPropagator.advance() with each PropagationKernel side by side.  The vector kernel needs
+   the vector source set on the classpath and --add-modules jdk.incubator.vector (the jmh task
+   adds both on JDK 16 or later); without them the setup of its runs fails, which JMH reports
+   before going on to the other kernels, rather than timing the fallback under its name. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+    private static final double DT = 1 / 600.0;
+
+    @Param({"scalar", "polynomial", "vector"})
+    public String kernel;
+
+    @Param({"1000", "100000"})
+    public int bodyCount;
+
+    @Param({"low", "high"})
+    public String distribution;
+
+    private KeplerPropagator propagator;
+
+    @Setup
+    public void setUp() {
+        propagator = new KeplerPropagator(BenchmarkBodies.create(bodyCount, distribution, 42), -1);
+        propagator.setScale(100);
+        propagator.setKernel(PropagationKernel.forName(kernel));
+        if (!kernel.equals(propagator.getKernel().name())) {
+            throw new IllegalStateException("Kernel " + kernel + " unavailable (it would fall back to "
+                    + propagator.getKernel().name() + ")");
+        }
+    }
+
+    @Benchmark
+    public float advance() {
+        propagator.advance(DT);
+        return propagator.points()[0];
+    }
+}
@@ -0,0 +1,68 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/* One animation timestep (1/600 year, four integrator steps) of NBodyIntegrator for the nine
+   massive bodies of the solar system plus particleCount test particles, against the number of
+   threads (1 is the serial loop).  Compare with ParallelStepBenchmark for the two-body cost. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NBodyBenchmark {
+
+    private static final double DT = 1 / 600.0;
+
+    @Param({"1000", "100000"})
+    public int particleCount;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private NBodyIntegrator integrator;
+    private ForkJoinPool pool;
+    private double time;
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BodySet.solarSystem();
+        bodies.addAll(BenchmarkBodies.create(particleCount, "uniform", 42));
+        integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        // Never restart:  every invocation integrates
+        integrator.setMaxSpan(Double.POSITIVE_INFINITY);
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+            integrator.setPool(pool);
+        }
+        integrator.propagate(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public double advance() {
+        time += DT;
+        integrator.propagate(time);
+        return integrator.heliocentricX(0);
+    }
+}
@@ -0,0 +1,101 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/* Generation of the orbit polylines drawn by KeplerRunner.drawBackground() on every frame:
+   100 segments per orbit (300 for epsilon > 0.7), each needing distanceFromFocus, sin and cos.
+   The canvas calls are replaced by stores into a line array so only the geometry is timed.
+   The cached OrbitGeometry is timed both on a cache hit and on a zoom change (rescale). */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrbitPathBenchmark {
+
+    private static final int numpoints = 100;
+    private static final double dphi = 2 * Math.PI / numpoints;
+
+    @Param({"12", "1000", "100000"})
+    public int bodyCount;
+
+    @Param({"solar", "low", "high", "uniform"})
+    public String distribution;
+
+    private BodySet bodies;
+    private KeplerPropagator propagator;
+    private float lines[];
+    private OrbitGeometry orbits;
+    private double zoom = 1;
+
+    @Setup
+    public void setUp() {
+        bodies = BenchmarkBodies.create(bodyCount, distribution, 42);
+        propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        lines = new float[4 * 3 * numpoints];
+        orbits = new OrbitGeometry(bodies);
+        orbits.setScale(100);
+        orbits.lines();
+    }
+
+    // The loop of drawBackground(), one orbit after another
+    @Benchmark
+    public float drawBackgroundPolylines() {
+        float sum = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            double c1 = propagator.c1(i);
+            double epsilon = bodies.epsilon(i);
+            double phi = 0;
+            float lastxx = 0;
+            float lastyy = -(float) (OrbitStepper.distanceFromFocus(c1, epsilon, phi) * Math.cos(phi));
+            int plotpoints = numpoints;
+            double delphi = dphi;
+            if (epsilon > 0.7) {
+                plotpoints *= 3;
+                delphi /= 3;
+            }
+            int k = 0;
+            for (int j = 0; j < plotpoints; j++) {
+                phi += delphi;
+                float rr = (float) OrbitStepper.distanceFromFocus(c1, epsilon, phi);
+                float xx = (float) (rr * Math.sin(phi));
+                float yy = -(float) (rr * Math.cos(phi));
+                lines[k++] = lastxx;
+                lines[k++] = lastyy;
+                lines[k++] = xx;
+                lines[k++] = yy;
+                lastxx = xx;
+                lastyy = yy;
+            }
+            sum += lines[k - 1];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float cachedLines() {
+        return orbits.lines()[orbits.lineCount() - 1];
+    }
+
+    @Benchmark
+    public float rescaledLines() {
+        zoom = zoom > 1 ? 1 : 1.1;
+        orbits.setScale(100 * zoom);
+        return orbits.lines()[orbits.lineCount() - 1];
+    }
+}
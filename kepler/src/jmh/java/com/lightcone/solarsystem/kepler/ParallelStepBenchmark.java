@@ -0,0 +1,64 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/* Scaling of KeplerPropagator with the number of threads.  threads = 1 is the serial loop;
+   larger values propagate in chunks on a ForkJoinPool of that parallelism. */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelStepBenchmark {
+
+    private static final double DT = 1 / 600.0;
+
+    @Param({"10000", "100000", "1000000"})
+    public int bodyCount;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"uniform"})
+    public String distribution;
+
+    private KeplerPropagator propagator;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        propagator = new KeplerPropagator(BenchmarkBodies.create(bodyCount, distribution, 42), -1);
+        propagator.setScale(100);
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+            propagator.setPool(pool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public float advance() {
+        propagator.advance(DT);
+        return propagator.x(0);
+    }
+}
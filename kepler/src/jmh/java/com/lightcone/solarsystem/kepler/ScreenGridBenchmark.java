@@ -0,0 +1,69 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/* Per-frame cost of the ScreenGrid:  building the grid from the positions of a frame, choosing
+   the labels, and hit testing a tap.  zoom is the scale relative to the one that fits Jupiter's
+   orbit on the screen, so at larger zooms most bodies are culled. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScreenGridBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({"10000", "100000"})
+    public int bodyCount;
+
+    @Param({"1", "8"})
+    public double zoom;
+
+    private KeplerPropagator propagator;
+    private ScreenGrid grid;
+    private float labelWidth[];
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BenchmarkBodies.create(bodyCount, "solar", 42);
+        propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(zoom * 0.95 * WIDTH / 2 / 5.203);
+        propagator.propagate(1);
+        grid = new ScreenGrid();
+        labelWidth = new float[bodyCount];
+        for (int i = 0; i < bodyCount; i++) labelWidth[i] = 60 + i % 60;
+        grid.build(propagator.points(), bodyCount, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 7);
+    }
+
+    @Benchmark
+    public int build() {
+        grid.build(propagator.points(), bodyCount, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 7);
+        return grid.visibleCount();
+    }
+
+    @Benchmark
+    public int declutter() {
+        return grid.declutter(labelWidth, 30, 3, -7, 200);
+    }
+
+    @Benchmark
+    public int nearest() {
+        return grid.nearest(WIDTH / 2 + 100, HEIGHT / 2 - 50, 40);
+    }
+}
@@ -0,0 +1,62 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/* One animation step for every body: the original incremental update (the newXY() of
+   KeplerRunner, now OrbitStepper.step()) against the closed-form KeplerPropagator.  Throughput
+   gives steps/s; sample time gives the per-step latency distribution. */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+
+    private static final double DT = 1 / 600.0;          // The app's animation timestep (years)
+    private static final double PIXEL_SCALE = 100;
+
+    @Param({"12", "1000", "100000", "1000000"})
+    public int bodyCount;
+
+    @Param({"solar", "low", "high", "uniform"})
+    public String distribution;
+
+    private OrbitStepper stepper;
+    private KeplerPropagator propagator;
+
+    @Setup
+    public void setUp() {
+        BodySet bodies = BenchmarkBodies.create(bodyCount, distribution, 42);
+        stepper = new OrbitStepper(bodies, DT, -1);
+        stepper.setScale(PIXEL_SCALE);
+        stepper.initPositions();
+        propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(PIXEL_SCALE);
+    }
+
+    @Benchmark
+    public float eulerStep() {
+        stepper.step();
+        return stepper.x(0);
+    }
+
+    @Benchmark
+    public float keplerAdvance() {
+        propagator.advance(DT);
+        return propagator.x(0);
+    }
+}
@@ -0,0 +1,593 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* Search of a time window for close approaches of the bodies of a BodySet to a reference body
+   (Earth) and for conjunctions seen from it, on the two-body orbits.  Solving for every body at
+   every instant of a century would be hopeless for a large catalog, so candidates are pruned by
+   orbit geometry first and only a few short stretches of time are searched at all:
+
+        1  orbit bounds:  a body whose distance from the Sun, between perihelion a (1 - e) and
+           aphelion a (1 + e), never comes within maxDistance of the reference body's range of
+           distances cannot approach it (the whole main belt, for Earth)
+        2  MOID bound:  the orbit is sampled at S points evenly spaced in the eccentric anomaly,
+           and at each the distance to the reference orbit is bounded below by the height above the
+           plane of that orbit combined with a bound of the distance to it within the plane (from
+           the gap in radius at the same true anomaly; see bound()).  The position moves by at most
+           a dE between samples, so subtracting a pi / S from the smallest sample gives a lower
+           bound of the minimum orbit intersection distance (MOID); S is chosen to keep that margin
+           under maxDistance / 2.  If the bound exceeds maxDistance the body is dropped.
+        3  arcs:  the same samples mark the arcs of the orbit that come within maxDistance of the
+           reference orbit.  The body can only approach while it is on one of them, so they are
+           turned into the intervals of time it spends there (through the mean anomaly, once per
+           revolution inside the window).
+        4  refinement:  within each interval the bodies are stepped, while further apart than
+           maxDistance, by the time they need to close the gap at their greatest speeds, and
+           otherwise at a spacing short of the time they need to cross maxDistance; each minimum in
+           a short step (a change of sign of its derivative, from the positions and velocities of
+           both orbits) is refined by bisection to 1e-12 years.  Minima closer than maxDistance are
+           the events.
+
+   The bodies are independent, so with a ForkJoinPool (setPool()) catalogs are searched in parallel
+   chunks.  One search for close approaches runs at a time:  a call made while another is under way
+   waits for it, so the counters of a search (getPruned(), getSearched()) are never mixed with
+   those of another.  Conjunctions (equal geocentric ecliptic longitudes, including with the Sun)
+   are found for a short list of bodies by stepping the differences of their longitudes daily and
+   bisecting each change of sign.
+
+   The search is not fast on one thread:  within 0.05 AU of 10^5 benchmark bodies in the ecliptic
+   (ApproachBenchmark), a window of ten years takes 0.8 to 2.5 s and a century 8 to 19 s on one
+   core, depending on the eccentricities.  Callers with a pool should always pass it.
+
+   Positions are heliocentric ecliptic coordinates in AU from the orbital elements of the set, as
+   in NBodyIntegrator.reset(); the screen propagators, which give projected pixels, are not used. */
+
+public class ApproachFinder {
+
+    public static final double DEFAULT_CONJUNCTION_STEP = 1 / 365.25;   // Years
+    public static final int DEFAULT_CHUNK = 4096;                        // Bodies per parallel task
+
+    private static final double TWO_PI = 2 * Math.PI;
+    private static final int MIN_SAMPLES = 64;
+    private static final int MAX_SAMPLES = 1 << 14;
+    private static final double TIME_TOLERANCE = 1e-12;    // Years
+
+    private final BodySet bodies;
+    private final int reference;                   // Index of the reference body (Earth)
+    private int n;
+
+    // Orbit of each body:  a P and b Q (AU), the eccentricity, mean anomaly at t = 0 and mean motion
+    private double aP[];
+    private double bQ[];
+    private double ecc[];
+    private double semiMajor[];
+    private double meanAnomaly0[];
+    private double meanMotion[];
+    private double maxSpeed[];                     // Speed at perihelion (AU/year)
+    private int version = -1;
+
+    // The reference orbit:  unit normal, unit P and Q, range of distances from the Sun, semi-latus
+    // rectum, eccentricity and steepest slope of the radius with the true anomaly (AU / radian)
+    private double normalX;
+    private double normalY;
+    private double normalZ;
+    private double refPX;
+    private double refPY;
+    private double refPZ;
+    private double refQX;
+    private double refQY;
+    private double refQZ;
+    private double refMin;
+    private double refMax;
+    private double refP;
+    private double refE;
+    private double refSlope;
+
+    private ForkJoinPool pool;
+    private int chunk = DEFAULT_CHUNK;
+    private final Object searchLock = new Object();   // Held by the search for close approaches
+    private long pruned;                           // Bodies dropped by bounds in the last search
+    private long searched;                         // Time intervals searched in the last search
+
+    public ApproachFinder(BodySet bodies, int reference) {
+        if (reference < 0 || reference >= bodies.size()) {
+            throw new IllegalArgumentException("No reference body " + reference);
+        }
+        this.bodies = bodies;
+        this.reference = reference;
+    }
+
+    // Search catalogs in parallel chunks of chunk bodies on pool (null for serial)
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setChunk(int chunk) {
+        if (chunk < 1) throw new IllegalArgumentException("Chunk must hold at least one body");
+        this.chunk = chunk;
+    }
+
+    // Close approaches to the reference body within maxDistance (AU) between t0 and t1 (years),
+    // in order of time.  Waits for a search already running on another thread.
+    public List<OrbitEvent> closeApproaches(double t0, double t1, double maxDistance) {
+        if (!(maxDistance > 0) || !(t1 >= t0)) {
+            throw new IllegalArgumentException("Need a positive distance and t1 >= t0");
+        }
+        synchronized (searchLock) {
+            sync();
+            pruned = 0;
+            searched = 0;
+            List<OrbitEvent> events;
+            if (pool != null && n > chunk) {
+                events = pool.invoke(new SearchTask(0, n, t0, t1, maxDistance));
+            } else {
+                events = search(0, n, t0, t1, maxDistance);
+            }
+            Collections.sort(events);
+            return events;
+        }
+    }
+
+    // Search bodies from (inclusive) to to (exclusive)
+    private List<OrbitEvent> search(int from, int to, double t0, double t1, double maxDistance) {
+        List<OrbitEvent> events = new ArrayList<OrbitEvent>();
+        double intervals[] = new double[16];
+        double r[] = new double[12];
+        long dropped = 0;
+        long count = 0;
+        for (int i = from; i < to; i++) {
+            if (i == reference) continue;
+            int k = arcs(i, t0, t1, maxDistance, intervals);
+            if (k < 0) {
+                dropped++;
+                continue;
+            }
+            if (k > intervals.length) {
+                intervals = new double[k];
+                k = arcs(i, t0, t1, maxDistance, intervals);
+            }
+            for (int j = 0; j < k; j += 2) {
+                refine(i, intervals[j], intervals[j + 1], maxDistance, r, events);
+                count++;
+            }
+        }
+        synchronized (this) {
+            pruned += dropped;
+            searched += count;
+        }
+        return events;
+    }
+
+    // Store in intervals the start and end times of the stretches of [t0, t1] that body i spends
+    // within maxDistance of the reference orbit, merged and in order, and return the number of
+    // entries needed (which may exceed intervals.length, when nothing beyond it is stored), or -1
+    // if the bounds rule out any approach
+    private int arcs(int i, double t0, double t1, double maxDistance, double intervals[]) {
+        double e = ecc[i];
+        double a = semiMajor[i];
+        if (a * (1 - e) > refMax + maxDistance || a * (1 + e) < refMin - maxDistance) return -1;
+
+        int samples = (int) Math.min(Math.max(Math.ceil(TWO_PI * a / maxDistance), MIN_SAMPLES),
+                MAX_SAMPLES);
+        double step = TWO_PI / samples;
+        double margin = a * step / 2;
+        double cosStep = Math.cos(step);
+        double sinStep = Math.sin(step);
+        int m = 3 * i;
+
+        // Walk the orbit from E = -pi, rotating cos E and sin E by one step at a time
+        double cosE = -1;
+        double sinE = 0;
+        double previous = bound(m, cosE - e, sinE);
+        double smallest = previous;
+        double pad = timeStep(i, maxDistance);
+        int count = 0;
+        double arcStart = Double.NaN;
+        for (int k = 1; k <= samples; k++) {
+            double c = cosE * cosStep - sinE * sinStep;
+            sinE = sinE * cosStep + cosE * sinStep;
+            cosE = c;
+            if (k == samples) {
+                cosE = -1;
+                sinE = 0;
+            }
+            double current = bound(m, cosE - e, sinE);
+            smallest = Math.min(smallest, current);
+            boolean near = Math.min(previous, current) - margin <= maxDistance;
+            if (near && Double.isNaN(arcStart)) arcStart = -Math.PI + (k - 1) * step;
+            if (Double.isNaN(arcStart) || (near && k < samples)) {
+                previous = current;
+                continue;
+            }
+            // The arc [arcStart, arcEnd] of eccentric anomaly ends here
+            double arcEnd = near ? Math.PI : -Math.PI + (k - 1) * step;
+            double mStart = arcStart - e * Math.sin(arcStart);
+            double mEnd = arcEnd - e * Math.sin(arcEnd);
+            // Times at which the mean anomaly, advancing by meanMotion, passes through the arc
+            double nMotion = meanMotion[i];
+            double period = TWO_PI / nMotion;
+            double first = (mStart - meanAnomaly0[i]) / nMotion;
+            double length = (mEnd - mStart) / nMotion;
+            double turns = Math.floor((t0 - first - length) / period);
+            for (double start = first + turns * period; start <= t1; start += period) {
+                double end = start + length;
+                if (end < t0) continue;
+                count = addInterval(intervals, count, Math.max(start - pad, t0),
+                        Math.min(end + pad, t1));
+            }
+            arcStart = Double.NaN;
+            previous = current;
+        }
+        if (smallest - margin > maxDistance) return -1;
+        return sortAndMerge(intervals, count);
+    }
+
+    // Lower bound of the distance from the point (cos E - e) a P + sin E b Q of orbit m / 3 to the
+    // reference orbit, combining its height h above the reference plane with a bound g' of the
+    // distance in the plane.  With the projection at radius rho and true anomaly v of the
+    // reference orbit, whose radius there is p / (1 + e cos v), a point of the orbit dv away
+    // differs in radius by at least g - L dv (g the gap in radius at v, L = p e / (1 - e)^2 the
+    // steepest slope of the radius) and is at least 2 sqrt(rho q) dv / pi = c dv across, so
+    // g' = g c / sqrt(L^2 + c^2), or the distance outside [q, Q] if greater.
+    private double bound(int m, double cosTerm, double sinE) {
+        double x = cosTerm * aP[m] + sinE * bQ[m];
+        double y = cosTerm * aP[m + 1] + sinE * bQ[m + 1];
+        double z = cosTerm * aP[m + 2] + sinE * bQ[m + 2];
+        double height = x * normalX + y * normalY + z * normalZ;
+        double u = x * refPX + y * refPY + z * refPZ;
+        double w = x * refQX + y * refQY + z * refQZ;
+        double rho = Math.sqrt(u * u + w * w);
+        double inPlane = Math.max(refMin - rho, rho - refMax);
+        if (rho > 0) {
+            double gap = Math.abs(rho - refP / (1 + refE * u / rho));
+            double c = 2 * Math.sqrt(rho * refMin) / Math.PI;
+            inPlane = Math.max(inPlane, gap * c / Math.sqrt(refSlope * refSlope + c * c));
+        }
+        inPlane = Math.max(inPlane, 0);
+        return Math.sqrt(height * height + inPlane * inPlane);
+    }
+
+    // Append the interval [start, end] if it is not empty; intervals beyond the end of the array
+    // are counted but not stored
+    private static int addInterval(double intervals[], int count, double start, double end) {
+        if (end < start) return count;
+        if (count + 1 < intervals.length) {
+            intervals[count] = start;
+            intervals[count + 1] = end;
+        }
+        return count + 2;
+    }
+
+    // Sort the count / 2 intervals by start time and merge those that overlap; returns the new
+    // count, or count unchanged if they did not all fit
+    private static int sortAndMerge(double intervals[], int count) {
+        if (count > intervals.length) return count;
+        // Insertion sort:  the intervals of each arc arrive in order already
+        for (int k = 2; k < count; k += 2) {
+            double start = intervals[k];
+            double end = intervals[k + 1];
+            int j = k - 2;
+            while (j >= 0 && intervals[j] > start) {
+                intervals[j + 2] = intervals[j];
+                intervals[j + 3] = intervals[j + 1];
+                j -= 2;
+            }
+            intervals[j + 2] = start;
+            intervals[j + 3] = end;
+        }
+        int merged = 0;
+        for (int k = 0; k < count; k += 2) {
+            if (merged > 0 && intervals[k] <= intervals[merged - 1]) {
+                intervals[merged - 1] = Math.max(intervals[merged - 1], intervals[k + 1]);
+            } else {
+                intervals[merged] = intervals[k];
+                intervals[merged + 1] = intervals[k + 1];
+                merged += 2;
+            }
+        }
+        return merged;
+    }
+
+    // Spacing of the search for minima of the distance of body i:  a quarter of the time the two
+    // bodies need, at their greatest speeds, to close maxDistance
+    private double timeStep(int i, double maxDistance) {
+        return 0.25 * maxDistance / (maxSpeed[i] + maxSpeed[reference]);
+    }
+
+    // Find the minima of the distance between body i and the reference body in [ta, tb] and add
+    // those within maxDistance to events.  While the bodies are further apart than maxDistance
+    // the step is the time they need to close the gap at their greatest speeds, which no minimum
+    // inside maxDistance can hide in; only steps of the short spacing are checked for minima.
+    private void refine(int i, double ta, double tb, double maxDistance, double r[],
+                        List<OrbitEvent> events) {
+        double speed = maxSpeed[i] + maxSpeed[reference];
+        double fine = timeStep(i, maxDistance);
+        double t = ta;
+        double previous = rangeRate(i, t, r);
+        double d = gap(r);
+        while (t < tb) {
+            double h = Math.max((d - maxDistance) / speed, fine);
+            boolean safe = h > fine;
+            double next = Math.min(t + h, tb);
+            double current = rangeRate(i, next, r);
+            d = gap(r);
+            if (!safe && previous < 0 && current >= 0) {
+                // Closest approach between t and next
+                double lo = t;
+                double hi = next;
+                while (hi - lo > TIME_TOLERANCE) {
+                    double mid = 0.5 * (lo + hi);
+                    if (mid <= lo || mid >= hi) break;
+                    if (rangeRate(i, mid, r) < 0) {
+                        lo = mid;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                double tc = 0.5 * (lo + hi);
+                double dc = distance(i, tc, r);
+                if (dc <= maxDistance) events.add(new OrbitEvent(OrbitEvent.CLOSE_APPROACH, i, reference, tc, dc));
+            }
+            previous = current;
+            t = next;
+        }
+    }
+
+    // Half the derivative of the squared distance between body i and the reference body at t
+    private double rangeRate(int i, double t, double r[]) {
+        state(i, t, r, 0);
+        state(reference, t, r, 6);
+        return (r[0] - r[6]) * (r[3] - r[9]) + (r[1] - r[7]) * (r[4] - r[10])
+                + (r[2] - r[8]) * (r[5] - r[11]);
+    }
+
+    private double distance(int i, double t, double r[]) {
+        state(i, t, r, 0);
+        state(reference, t, r, 6);
+        return gap(r);
+    }
+
+    // Distance between the positions in r[0 .. 2] and r[6 .. 8]
+    private static double gap(double r[]) {
+        double dx = r[0] - r[6];
+        double dy = r[1] - r[7];
+        double dz = r[2] - r[8];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // Store the heliocentric position (AU) and velocity (AU/year) of body i at time t in
+    // r[offset .. offset + 5]
+    private void state(int i, double t, double r[], int offset) {
+        double e = ecc[i];
+        double E = KeplerSolver.eccentricAnomaly(meanAnomaly0[i] + meanMotion[i] * t, e);
+        double cosE = Math.cos(E);
+        double sinE = Math.sin(E);
+        double rate = meanMotion[i] / (1 - e * cosE);   // dE/dt
+        int m = 3 * i;
+        for (int c = 0; c < 3; c++) {
+            r[offset + c] = (cosE - e) * aP[m + c] + sinE * bQ[m + c];
+            r[offset + 3 + c] = rate * (cosE * bQ[m + c] - sinE * aP[m + c]);
+        }
+    }
+
+    // Heliocentric ecliptic position of body i at time t (AU) in r[0 .. 2]
+    public void position(int i, double t, double r[]) {
+        sync();
+        double s[] = new double[6];
+        state(i, t, s, 0);
+        System.arraycopy(s, 0, r, 0, 3);
+    }
+
+    // Lower bound of the minimum distance between the orbit of body i and the reference orbit
+    // (AU), sampled at the resolution used for maxDistance
+    public double moidBound(int i, double maxDistance) {
+        sync();
+        double e = ecc[i];
+        double a = semiMajor[i];
+        int samples = (int) Math.min(Math.max(Math.ceil(TWO_PI * a / maxDistance), MIN_SAMPLES),
+                MAX_SAMPLES);
+        double smallest = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < samples; k++) {
+            double E = -Math.PI + k * TWO_PI / samples;
+            smallest = Math.min(smallest, bound(3 * i, Math.cos(E) - e, Math.sin(E)));
+        }
+        return Math.max(smallest - a * Math.PI / samples, 0);
+    }
+
+    // Conjunctions seen from the reference body between t0 and t1 (years) of every pair of the
+    // bodies given, and of each of them with the Sun, in order of time.  The longitudes are
+    // compared every step years, so conjunctions closer together than that may be missed.
+    public List<OrbitEvent> conjunctions(int indices[], double t0, double t1, double step) {
+        if (!(step > 0) || !(t1 >= t0)) throw new IllegalArgumentException("Need step > 0 and t1 >= t0");
+        sync();
+        int count = indices.length;
+        for (int k = 0; k < count; k++) {
+            if (indices[k] == reference || indices[k] < 0 || indices[k] >= n) {
+                throw new IllegalArgumentException("Cannot take conjunctions of body " + indices[k]);
+            }
+        }
+        int steps = Math.max((int) Math.ceil((t1 - t0) / step), 1);
+        double h = (t1 - t0) / steps;
+        double previous[] = new double[count + 1];     // Longitudes, the Sun last (radians)
+        double current[] = new double[count + 1];
+        double r[] = new double[12];
+        List<OrbitEvent> events = new ArrayList<OrbitEvent>();
+        longitudes(indices, t0, previous, r);
+        for (int s = 1; s <= steps; s++) {
+            double t = t0 + s * h;
+            longitudes(indices, t, current, r);
+            for (int j = 0; j < count; j++) {
+                for (int k = j + 1; k <= count; k++) {
+                    double before = Math.IEEEremainder(previous[j] - previous[k], TWO_PI);
+                    double after = Math.IEEEremainder(current[j] - current[k], TWO_PI);
+                    // A change of sign near 0, not the jump at +-pi (opposition)
+                    if ((before < 0) != (after < 0) && Math.abs(before - after) < Math.PI) {
+                        int other = k == count ? OrbitEvent.SUN : indices[k];
+                        events.add(conjunction(indices[j], other, t - h, t, before, r));
+                    }
+                }
+            }
+            double swap[] = previous;
+            previous = current;
+            current = swap;
+        }
+        Collections.sort(events);
+        return events;
+    }
+
+    // Geocentric ecliptic longitudes of the bodies and the Sun (last) at t
+    private void longitudes(int indices[], double t, double out[], double r[]) {
+        state(reference, t, r, 6);
+        for (int k = 0; k < indices.length; k++) {
+            state(indices[k], t, r, 0);
+            out[k] = Math.atan2(r[1] - r[7], r[0] - r[6]);
+        }
+        out[indices.length] = Math.atan2(-r[7], -r[6]);
+    }
+
+    // Refine the conjunction of body and other (or the Sun) between lo and hi, where the
+    // difference of longitudes at lo is before
+    private OrbitEvent conjunction(int body, int other, double lo, double hi, double before,
+                                   double r[]) {
+        boolean negative = before < 0;
+        while (hi - lo > TIME_TOLERANCE) {
+            double mid = 0.5 * (lo + hi);
+            if (mid <= lo || mid >= hi) break;
+            if ((separation(body, other, mid, r, false) < 0) == negative) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        double t = 0.5 * (lo + hi);
+        return new OrbitEvent(OrbitEvent.CONJUNCTION, body, other, t,
+                Math.abs(separation(body, other, t, r, true)));
+    }
+
+    // Difference of geocentric longitude (or, with latitude, of latitude) of body and other at t
+    private double separation(int body, int other, double t, double r[], boolean latitude) {
+        state(reference, t, r, 6);
+        double ox = -r[6];
+        double oy = -r[7];
+        double oz = -r[8];
+        if (other != OrbitEvent.SUN) {
+            state(other, t, r, 0);
+            ox += r[0];
+            oy += r[1];
+            oz += r[2];
+        }
+        state(body, t, r, 0);
+        double bx = r[0] - r[6];
+        double by = r[1] - r[7];
+        double bz = r[2] - r[8];
+        if (latitude) {
+            return Math.atan2(bz, Math.sqrt(bx * bx + by * by)) - Math.atan2(oz, Math.sqrt(ox * ox + oy * oy));
+        }
+        return Math.IEEEremainder(Math.atan2(by, bx) - Math.atan2(oy, ox), TWO_PI);
+    }
+
+    // Bring the orbits up to date with the BodySet
+    private synchronized void sync() {
+        if (version == bodies.version()) return;
+        n = bodies.size();
+        if (reference >= n) throw new IllegalStateException("Reference body removed");
+        aP = new double[3 * n];
+        bQ = new double[3 * n];
+        ecc = new double[n];
+        semiMajor = new double[n];
+        meanAnomaly0 = new double[n];
+        meanMotion = new double[n];
+        maxSpeed = new double[n];
+        double pq[] = new double[6];
+        for (int i = 0; i < n; i++) {
+            double e = bodies.epsilon(i);
+            double a = bodies.a(i);
+            double b = a * Math.sqrt(1 - e * e);
+            OrbitProjection.perifocal(bodies, i, pq, 0);
+            for (int c = 0; c < 3; c++) {
+                aP[3 * i + c] = a * pq[c];
+                bQ[3 * i + c] = b * pq[3 + c];
+            }
+            ecc[i] = e;
+            semiMajor[i] = a;
+            meanAnomaly0[i] = -bodies.retroFac(i) * KeplerSolver.meanAnomaly(bodies.theta0(i), e);
+            meanMotion[i] = TWO_PI / bodies.period(i);
+            maxSpeed[i] = meanMotion[i] * a * Math.sqrt((1 + e) / (1 - e));
+        }
+        // Normal of the reference orbit, P x Q
+        int m = 3 * reference;
+        double px = aP[m], py = aP[m + 1], pz = aP[m + 2];
+        double qx = bQ[m], qy = bQ[m + 1], qz = bQ[m + 2];
+        double nx = py * qz - pz * qy;
+        double ny = pz * qx - px * qz;
+        double nz = px * qy - py * qx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        normalX = nx / length;
+        normalY = ny / length;
+        normalZ = nz / length;
+        double a = semiMajor[reference];
+        double b = a * Math.sqrt(1 - ecc[reference] * ecc[reference]);
+        refPX = px / a;
+        refPY = py / a;
+        refPZ = pz / a;
+        refQX = qx / b;
+        refQY = qy / b;
+        refQZ = qz / b;
+        refE = ecc[reference];
+        refMin = a * (1 - refE);
+        refMax = a * (1 + refE);
+        refP = a * (1 - refE * refE);
+        refSlope = refP * refE / ((1 - refE) * (1 - refE));
+        version = bodies.version();
+    }
+
+    // Bodies ruled out by the orbit bounds in the last search for close approaches (waiting for
+    // one under way)
+    public long getPruned() {
+        synchronized (searchLock) {
+            return pruned;
+        }
+    }
+
+    // Intervals of time refined in the last search
+    public long getSearched() {
+        synchronized (searchLock) {
+            return searched;
+        }
+    }
+
+    // Task searching a range of bodies, split in halves until no larger than chunk
+    private class SearchTask extends RecursiveTask<List<OrbitEvent>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final double t0;
+        private final double t1;
+        private final double maxDistance;
+
+        SearchTask(int from, int to, double t0, double t1, double maxDistance) {
+            this.from = from;
+            this.to = to;
+            this.t0 = t0;
+            this.t1 = t1;
+            this.maxDistance = maxDistance;
+        }
+
+        @Override
+        protected List<OrbitEvent> compute() {
+            if (to - from <= chunk) return search(from, to, t0, t1, maxDistance);
+            int mid = (from + to) >>> 1;
+            SearchTask right = new SearchTask(mid, to, t0, t1, maxDistance);
+            right.fork();
+            List<OrbitEvent> events = new SearchTask(from, mid, t0, t1, maxDistance).compute();
+            events.addAll(right.join());
+            return events;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.Arrays;
+
+/* Orbital data for a set of bodies moving on elliptical orbits with the Sun at one focus.
+   The semimajor axis a is in astronomical units (AU), eccentricity epsilon is dimensionless,
+   period is in years, and theta0 (initial angle) is in radians, with clockwise positive and
+   measured from the 12-o'clock position.  orientDeg is the relative orientation of the
+   ellipse in degrees, and retroFac controls whether the motion is direct (+1) or
+   retrograde (-1).
+
+   orientDeg places each orbit in the plane of the screen.  The orientation of the orbit in space
+   is given by the inclination inclDeg, the longitude of the ascending node nodeDeg and the
+   argument of perihelion periDeg (degrees, referred to the ecliptic and the vernal equinox), which
+   OrbitProjection turns into screen positions for any tilt of the view.  Bodies added without
+   them are taken to lie in the ecliptic with the orientation orientDeg (i = 0, node 0 and
+   perihelion -orientDeg, or i = 180 and perihelion +orientDeg if retrograde), which gives
+   exactly the flat picture of orientDeg when the ecliptic is seen face-on.
+
+   The data are stored as one primitive array per element (structure of arrays) with no object
+   per body, so that loops over a large catalog run through contiguous memory.  The arrays grow
+   as bodies are added.  Removing a single body moves the last body into its slot, so indices
+   are not stable across remove(); every change to the set increments version(), which the
+   propagators and caches built on the set use to notice that they must be brought up to date. */
+
+public class BodySet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String name[];
+    private double epsilon[];
+    private double a[];
+    private double period[];
+    private double theta0[];
+    private float orientDeg[];
+    private double retroFac[];
+    private double inclDeg[];
+    private double nodeDeg[];
+    private double periDeg[];
+    private int size;
+    private int version;
+
+    // Create an empty set with room for capacity bodies
+    public BodySet(int capacity) {
+        allocate(Math.max(capacity, MIN_CAPACITY));
+    }
+
+    // Create a set holding the bodies given as parallel arrays (which are copied)
+    public BodySet(String name[], double epsilon[], double a[], double period[],
+                   double theta0[], float orientDeg[], double retroFac[]) {
+        this(name.length);
+        addAll(name, epsilon, a, period, theta0, orientDeg, retroFac, 0, name.length);
+    }
+
+    // Create a set holding the bodies given as parallel arrays, with their orientation in space
+    public BodySet(String name[], double epsilon[], double a[], double period[],
+                   double theta0[], float orientDeg[], double retroFac[],
+                   double inclDeg[], double nodeDeg[], double periDeg[]) {
+        this(name.length);
+        addAll(name, epsilon, a, period, theta0, orientDeg, retroFac, inclDeg, nodeDeg, periDeg,
+                0, name.length);
+    }
+
+      /* Data for 8 planets, dwarf planet Pluto, 2 Apollo (Earth-crossing) asteroids,  and Halley's
+      Comet. (See http://neo.jpl.nasa.gov/orbits/ for asteroid and comet orbits.)  The inclination,
+      node and argument of perihelion of the planets, Pluto and Halley are the J2000 mean elements,
+      and their initial angles theta0 follow from the mean longitudes for the date October 6, 2010;
+      orientDeg is minus the longitude of perihelion, their orientation when the inclination is
+      ignored.  The orientations and initial angles of the two asteroids were eyeballed from plots,
+      so are only approximately correct, and they are placed in the ecliptic.  The period and
+      semimajor axis length are not independent, being related by Kepler's 3rd law P = a^{3/2} in
+      these units.  We include them as separate arrays for computational efficiency. */
+
+    public static BodySet solarSystem() {
+        BodySet bodies = new BodySet(
+                new String[]{"Mercury", "Venus", "Earth", "Mars", "Jupiter", "Saturn",
+                        "Uranus", "Neptune", "Pluto"},
+                new double[]{0.206, 0.007, 0.017, 0.093, 0.048, 0.056, 0.047, 0.009, 0.248},
+                new double[]{0.387, 0.723, 1.0, 1.524, 5.203, 9.54, 19.18, 30.06, 39.53},
+                new double[]{0.241, 0.615, 1.0, 1.881, 11.86, 29.46, 84.01, 164.8, 248.5},
+                new double[]{4.84, 2.32, 1.58, 1.60, 0.26, 4.62, 3.01, 1.35, 5.42},
+                new float[]{-77.5f, -131.6f, -102.9f, 24.0f, -14.7f, -92.6f, -170.9f, -45.0f, 135.9f},
+                new double[]{1, 1, 1, 1, 1, 1, 1, 1, 1},     // +1 direct; -1 retrograde
+                new double[]{7.005, 3.395, 0, 1.85, 1.303, 2.485, 0.773, 1.77, 17.14},
+                new double[]{48.331, 76.68, 0, 49.56, 100.46, 113.67, 74.02, 131.78, 110.30},
+                new double[]{29.13, 54.92, 102.94, 286.48, 274.27, 338.93, 96.93, 273.18, 113.77});
+        bodies.add("2008 VB4", 0.617, 2.35, 3.61, 3.1, 70f, 1);
+        bodies.add("2009 FG", 0.529, 1.97, 2.76, 3.1, -45f, 1);
+        bodies.add("Halley", 0.967, 17.83, 75.32, 3.066, 52.9f, -1, 162.26, 58.42, 111.33);
+        return bodies;
+    }
+
+    // Append one body lying in the ecliptic and return its index
+    public int add(String name, double epsilon, double a, double period,
+                   double theta0, float orientDeg, double retroFac) {
+        return add(name, epsilon, a, period, theta0, orientDeg, retroFac,
+                planarIncl(retroFac), 0, planarPeri(orientDeg, retroFac));
+    }
+
+    // Append one body with its orientation in space and return its index
+    public int add(String name, double epsilon, double a, double period, double theta0,
+                   float orientDeg, double retroFac, double inclDeg, double nodeDeg, double periDeg) {
+        ensureCapacity(size + 1);
+        int i = size;
+        this.name[i] = name;
+        this.epsilon[i] = epsilon;
+        this.a[i] = a;
+        this.period[i] = period;
+        this.theta0[i] = theta0;
+        this.orientDeg[i] = orientDeg;
+        this.retroFac[i] = retroFac;
+        this.inclDeg[i] = inclDeg;
+        this.nodeDeg[i] = nodeDeg;
+        this.periDeg[i] = periDeg;
+        size++;
+        version++;
+        return i;
+    }
+
+    // Append count bodies lying in the ecliptic taken from parallel arrays starting at offset
+    public void addAll(String name[], double epsilon[], double a[], double period[],
+                       double theta0[], float orientDeg[], double retroFac[], int offset, int count) {
+        checkLengths(name, epsilon, a, period, theta0, orientDeg, retroFac, offset, count);
+        ensureCapacity(size + count);
+        for (int k = 0; k < count; k++) {
+            inclDeg[size + k] = planarIncl(retroFac[offset + k]);
+            nodeDeg[size + k] = 0;
+            periDeg[size + k] = planarPeri(orientDeg[offset + k], retroFac[offset + k]);
+        }
+        copy(name, epsilon, a, period, theta0, orientDeg, retroFac, offset, count);
+    }
+
+    // Append count bodies with their orientation in space taken from parallel arrays starting
+    // at offset
+    public void addAll(String name[], double epsilon[], double a[], double period[],
+                       double theta0[], float orientDeg[], double retroFac[], double inclDeg[],
+                       double nodeDeg[], double periDeg[], int offset, int count) {
+        checkLengths(name, epsilon, a, period, theta0, orientDeg, retroFac, offset, count);
+        int end = offset + count;
+        if (end > inclDeg.length || end > nodeDeg.length || end > periDeg.length) {
+            throw new IllegalArgumentException("Orbital element arrays too short");
+        }
+        ensureCapacity(size + count);
+        System.arraycopy(inclDeg, offset, this.inclDeg, size, count);
+        System.arraycopy(nodeDeg, offset, this.nodeDeg, size, count);
+        System.arraycopy(periDeg, offset, this.periDeg, size, count);
+        copy(name, epsilon, a, period, theta0, orientDeg, retroFac, offset, count);
+    }
+
+    private void checkLengths(String name[], double epsilon[], double a[], double period[],
+                              double theta0[], float orientDeg[], double retroFac[],
+                              int offset, int count) {
+        int end = offset + count;
+        if (offset < 0 || count < 0 || end > name.length || end > epsilon.length || end > a.length
+                || end > period.length || end > theta0.length || end > orientDeg.length
+                || end > retroFac.length) {
+            throw new IllegalArgumentException("Orbital element arrays too short");
+        }
+    }
+
+    // Copy the planar elements of count bodies to the end of the set (capacity already ensured)
+    private void copy(String name[], double epsilon[], double a[], double period[],
+                      double theta0[], float orientDeg[], double retroFac[], int offset, int count) {
+        System.arraycopy(name, offset, this.name, size, count);
+        System.arraycopy(epsilon, offset, this.epsilon, size, count);
+        System.arraycopy(a, offset, this.a, size, count);
+        System.arraycopy(period, offset, this.period, size, count);
+        System.arraycopy(theta0, offset, this.theta0, size, count);
+        System.arraycopy(orientDeg, offset, this.orientDeg, size, count);
+        System.arraycopy(retroFac, offset, this.retroFac, size, count);
+        size += count;
+        version++;
+    }
+
+    // Append all bodies of another set
+    public void addAll(BodySet other) {
+        addAll(other, 0, other.size);
+    }
+
+    // Append the bodies of another set with indices from (inclusive) to to (exclusive)
+    public void addAll(BodySet other, int from, int to) {
+        if (from < 0 || to > other.size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + other.size);
+        }
+        addAll(other.name, other.epsilon, other.a, other.period, other.theta0, other.orientDeg,
+                other.retroFac, other.inclDeg, other.nodeDeg, other.periDeg, from, to - from);
+    }
+
+    // Inclination and argument of perihelion of an orbit in the ecliptic with the given
+    // orientation on the screen (node 0)
+    static double planarIncl(double retroFac) {
+        return retroFac < 0 ? 180 : 0;
+    }
+
+    static double planarPeri(float orientDeg, double retroFac) {
+        return retroFac < 0 ? orientDeg : -orientDeg;
+    }
+
+    // Remove body i by moving the last body into its place (the order is not preserved)
+    public void remove(int i) {
+        checkIndex(i);
+        int last = size - 1;
+        name[i] = name[last];
+        epsilon[i] = epsilon[last];
+        a[i] = a[last];
+        period[i] = period[last];
+        theta0[i] = theta0[last];
+        orientDeg[i] = orientDeg[last];
+        retroFac[i] = retroFac[last];
+        inclDeg[i] = inclDeg[last];
+        nodeDeg[i] = nodeDeg[last];
+        periDeg[i] = periDeg[last];
+        name[last] = null;
+        size = last;
+        version++;
+    }
+
+    // Remove the bodies with indices from (inclusive) to to (exclusive), keeping the order of
+    // the remaining bodies
+    public void removeRange(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + size);
+        }
+        int tail = size - to;
+        System.arraycopy(name, to, name, from, tail);
+        System.arraycopy(epsilon, to, epsilon, from, tail);
+        System.arraycopy(a, to, a, from, tail);
+        System.arraycopy(period, to, period, from, tail);
+        System.arraycopy(theta0, to, theta0, from, tail);
+        System.arraycopy(orientDeg, to, orientDeg, from, tail);
+        System.arraycopy(retroFac, to, retroFac, from, tail);
+        System.arraycopy(inclDeg, to, inclDeg, from, tail);
+        System.arraycopy(nodeDeg, to, nodeDeg, from, tail);
+        System.arraycopy(periDeg, to, periDeg, from, tail);
+        int newSize = size - (to - from);
+        Arrays.fill(name, newSize, size, null);
+        size = newSize;
+        version++;
+    }
+
+    public void clear() {
+        Arrays.fill(name, 0, size, null);
+        size = 0;
+        version++;
+    }
+
+    // Make room for at least capacity bodies without further growth
+    public void ensureCapacity(int capacity) {
+        if (capacity <= name.length) return;
+        int newCapacity = Math.max(capacity, name.length + (name.length >> 1));
+        name = Arrays.copyOf(name, newCapacity);
+        epsilon = Arrays.copyOf(epsilon, newCapacity);
+        a = Arrays.copyOf(a, newCapacity);
+        period = Arrays.copyOf(period, newCapacity);
+        theta0 = Arrays.copyOf(theta0, newCapacity);
+        orientDeg = Arrays.copyOf(orientDeg, newCapacity);
+        retroFac = Arrays.copyOf(retroFac, newCapacity);
+        inclDeg = Arrays.copyOf(inclDeg, newCapacity);
+        nodeDeg = Arrays.copyOf(nodeDeg, newCapacity);
+        periDeg = Arrays.copyOf(periDeg, newCapacity);
+    }
+
+    // Number of bodies in the set
+    public int size() {
+        return size;
+    }
+
+    // Number of bodies the set can hold before its arrays must grow
+    public int capacity() {
+        return name.length;
+    }
+
+    // Counter incremented by every change to the set
+    public int version() {
+        return version;
+    }
+
+    public String name(int i) {
+        return name[i];
+    }
+
+    public double epsilon(int i) {
+        return epsilon[i];
+    }
+
+    public double a(int i) {
+        return a[i];
+    }
+
+    public double period(int i) {
+        return period[i];
+    }
+
+    public double theta0(int i) {
+        return theta0[i];
+    }
+
+    public float orientDeg(int i) {
+        return orientDeg[i];
+    }
+
+    public double retroFac(int i) {
+        return retroFac[i];
+    }
+
+    // Inclination, longitude of the ascending node and argument of perihelion (degrees)
+    public double inclDeg(int i) {
+        return inclDeg[i];
+    }
+
+    public double nodeDeg(int i) {
+        return nodeDeg[i];
+    }
+
+    public double periDeg(int i) {
+        return periDeg[i];
+    }
+
+    private void allocate(int capacity) {
+        name = new String[capacity];
+        epsilon = new double[capacity];
+        a = new double[capacity];
+        period = new double[capacity];
+        theta0 = new double[capacity];
+        orientDeg = new float[capacity];
+        retroFac = new double[capacity];
+        inclDeg = new double[capacity];
+        nodeDeg = new double[capacity];
+        periDeg = new double[capacity];
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " of " + size);
+    }
+}
@@ -0,0 +1,385 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/* Loader for orbital element catalogs in the fixed-width text formats of the Minor Planet
+   Center (MPCORB.DAT and its extracts) and of JPL's small-body element files (ELEMENTS.NUMBR
+   and ELEMENTS.UNNUM).  The file is memory-mapped a window at a time and the numeric fields are
+   parsed directly from the bytes, so no String is created for them and the heap used does not
+   grow with the size of the file (only the BodySet being filled does).  Bodies are appended to
+   the BodySet as they are parsed, and a Listener is told after every batch, so a display can
+   show the first bodies long before a large file is finished.
+
+   The format is recognized from the line of dashes that ends the header.  In MPCORB the dashes
+   are unbroken and the fields are at the columns documented by the MPC.  In the JPL files the
+   dashes come in groups, one under each column heading, and the columns are located from them.
+   A file with no such line is read as MPCORB records.  Lines that do not hold a complete
+   record (blank lines, headers, comets without a semimajor axis) are skipped.
+
+   The elements are converted to the conventions of BodySet for the display orientation used by
+   KeplerRunner (direct orbits counter-clockwise as seen from the north ecliptic pole, with
+   ecliptic longitude 0 at 12 o'clock):  the mean anomaly is advanced from the epoch of each
+   record to the common epoch given to the constructor and converted to the true anomaly, the
+   orientation is minus the longitude of perihelion, and orbits inclined more than 90 degrees
+   are retrograde.  The inclination, node and argument of perihelion are kept as well, so that
+   OrbitProjection can place the orbit in space.  The period follows from Kepler's 3rd law. */
+
+public class CatalogLoader {
+
+    // Receives each batch of bodies appended to the BodySet
+    public interface Listener {
+        void onBatch(BodySet bodies, int from, int to);
+    }
+
+    public static final double MJD_2010_OCT_6 = 55475.0;  // Epoch of the initial angles of BodySet.solarSystem()
+    public static final int DEFAULT_BATCH = 4096;
+    private static final int DEFAULT_WINDOW = 16 << 20;    // Bytes mapped at a time
+    private static final double GAUSS_K_DEG = 0.9856076686; // Mean motion for a = 1 AU (degrees/day)
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // Columns (0-based start, exclusive end) of the MPCORB fields
+    private static final int MPC_EPOCH[] = {20, 25};
+    private static final int MPC_M[] = {26, 35};
+    private static final int MPC_PERI[] = {37, 46};
+    private static final int MPC_NODE[] = {48, 57};
+    private static final int MPC_INCL[] = {59, 68};
+    private static final int MPC_E[] = {70, 79};
+    private static final int MPC_A[] = {92, 103};
+    private static final int MPC_NAME[] = {166, 194};
+    private static final int MPC_DESIGNATION[] = {0, 7};
+
+    private static final double POW10[] = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int k = 1; k < POW10.length; k++) POW10[k] = 10 * POW10[k - 1];
+    }
+
+    private final double epochMjd;
+    private int batchSize = DEFAULT_BATCH;
+    private boolean loadNames = true;
+    private Listener listener;
+    private int skipped;
+    private int window = DEFAULT_WINDOW;
+
+    // Column positions of the current file: epoch, M, peri, node, incl, e, a, name
+    private final int start[] = new int[8];
+    private final int end[] = new int[8];
+    private boolean mpcEpoch;                      // Whether the epoch is MPC packed (else MJD)
+
+    // Load elements converted to the epoch epochMjd (Modified Julian Date)
+    public CatalogLoader(double epochMjd) {
+        this.epochMjd = epochMjd;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch must hold at least one body");
+        this.batchSize = batchSize;
+    }
+
+    // Whether to keep the names of the bodies (one String each).  Without them only primitive
+    // arrays are filled.
+    public void setLoadNames(boolean loadNames) {
+        this.loadNames = loadNames;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Number of bytes mapped at a time (small windows exercise the window boundaries in tests)
+    void setWindow(int window) {
+        this.window = window;
+    }
+
+    // Epoch (Modified Julian Date) to which the elements are converted
+    public double getEpochMjd() {
+        return epochMjd;
+    }
+
+    // Number of lines skipped by the last load()
+    public int getSkipped() {
+        return skipped;
+    }
+
+    // Append the bodies in file to bodies and return how many were added
+    public int load(File file, BodySet bodies) throws IOException {
+        skipped = 0;
+        int first = bodies.size();
+        int batchStart = first;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            long position = 0;
+            boolean formatKnown = false;
+            while (position < fileSize) {
+                int length = (int) Math.min(window, fileSize - position);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == fileSize;
+                if (!formatKnown) {
+                    position += detectFormat(buffer, length);
+                    formatKnown = true;
+                    continue;
+                }
+                int lineStart = 0;
+                while (lineStart < length) {
+                    int lineEnd = indexOf(buffer, (byte) '\n', lineStart, length);
+                    if (lineEnd < 0) {
+                        if (!last) break;                 // Line continues in the next window
+                        lineEnd = length;
+                    }
+                    int contentEnd = lineEnd;
+                    if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') contentEnd--;
+                    if (!parseRecord(buffer, lineStart, contentEnd, bodies)) skipped++;
+                    lineStart = lineEnd + 1;
+                    if (bodies.size() - batchStart >= batchSize) {
+                        notifyBatch(bodies, batchStart);
+                        batchStart = bodies.size();
+                    }
+                }
+                if (lineStart == 0 && !last) throw new IOException("Line longer than " + window + " bytes");
+                position += Math.min(lineStart, length);
+            }
+            if (bodies.size() > batchStart) notifyBatch(bodies, batchStart);
+        } finally {
+            raf.close();
+        }
+        return bodies.size() - first;
+    }
+
+    private void notifyBatch(BodySet bodies, int from) {
+        if (listener != null) listener.onBatch(bodies, from, bodies.size());
+    }
+
+    // Find the line of dashes ending the header (if any) among the first lines of the file,
+    // set up the columns, and return the offset of the first record.
+    private int detectFormat(ByteBuffer buffer, int length) {
+        int lineStart = 0;
+        int previousStart = -1;
+        int previousEnd = -1;
+        for (int line = 0; line < 200 && lineStart < length; line++) {
+            int lineEnd = indexOf(buffer, (byte) '\n', lineStart, length);
+            if (lineEnd < 0) lineEnd = length;
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') contentEnd--;
+            if (isDashLine(buffer, lineStart, contentEnd)) {
+                if (indexOf(buffer, (byte) ' ', lineStart, contentEnd) < 0) {
+                    setMpcColumns();
+                } else {
+                    setJplColumns(buffer, lineStart, contentEnd, previousStart, previousEnd);
+                }
+                return Math.min(lineEnd + 1, length);
+            }
+            previousStart = lineStart;
+            previousEnd = contentEnd;
+            lineStart = lineEnd + 1;
+        }
+        setMpcColumns();
+        return 0;
+    }
+
+    private void setMpcColumns() {
+        int columns[][] = {MPC_EPOCH, MPC_M, MPC_PERI, MPC_NODE, MPC_INCL, MPC_E, MPC_A, MPC_NAME};
+        for (int k = 0; k < columns.length; k++) {
+            start[k] = columns[k][0];
+            end[k] = columns[k][1];
+        }
+        mpcEpoch = true;
+    }
+
+    // Locate the JPL columns from the groups of dashes and the headings above them
+    private void setJplColumns(ByteBuffer buffer, int dashStart, int dashEnd,
+                               int headStart, int headEnd) {
+        String headings[] = {"Epoch", "M", "w", "Node", "i", "e", "a", "Name"};
+        for (int k = 0; k < 8; k++) start[k] = end[k] = -1;
+        String head = headStart < 0 ? "" : bytesToString(buffer, headStart, headEnd);
+        int col = 0;
+        int width = dashEnd - dashStart;
+        while (col < width) {
+            while (col < width && buffer.get(dashStart + col) != '-') col++;
+            int groupStart = col;
+            while (col < width && buffer.get(dashStart + col) == '-') col++;
+            if (groupStart == col) break;
+            String heading = head.substring(Math.min(groupStart, head.length()),
+                    Math.min(col, head.length())).trim();
+            if (heading.equals("Designation")) heading = "Name";
+            for (int k = 0; k < 8; k++) {
+                if (headings[k].equals(heading)) {
+                    start[k] = groupStart;
+                    end[k] = col;
+                }
+            }
+        }
+        mpcEpoch = false;
+    }
+
+    // Parse one record and append it to bodies; return false if the line holds no record
+    private boolean parseRecord(ByteBuffer buffer, int lineStart, int lineEnd, BodySet bodies) {
+        int length = lineEnd - lineStart;
+        for (int k = 0; k < 7; k++) {
+            if (start[k] < 0 || start[k] >= length) return false;
+        }
+        double epoch = mpcEpoch
+                ? packedEpoch(buffer, lineStart + start[0], lineStart + Math.min(end[0], length))
+                : field(buffer, lineStart, length, 0);
+        double M = field(buffer, lineStart, length, 1);
+        double peri = field(buffer, lineStart, length, 2);
+        double node = field(buffer, lineStart, length, 3);
+        double incl = field(buffer, lineStart, length, 4);
+        double e = field(buffer, lineStart, length, 5);
+        double a = field(buffer, lineStart, length, 6);
+        if (Double.isNaN(epoch) || Double.isNaN(M) || Double.isNaN(peri) || Double.isNaN(node)
+                || Double.isNaN(incl) || !(e >= 0 && e < 1) || !(a > 0)) {
+            return false;
+        }
+
+        double period = a * Math.sqrt(a);
+        double retroFac = incl > 90 ? -1 : 1;
+        // Advance the mean anomaly to the common epoch and find the true anomaly
+        double meanAnomaly = Math.toRadians(M + GAUSS_K_DEG / period * (epochMjd - epoch));
+        double E = KeplerSolver.eccentricAnomaly(meanAnomaly, e);
+        double nu = Math.atan2(Math.sqrt(1 - e * e) * Math.sin(E), Math.cos(E) - e);
+        double varpi = retroFac > 0 ? node + peri : node - peri;
+        float orientDeg = (float) -Math.IEEEremainder(varpi, 360);
+
+        String name = null;
+        if (loadNames) name = recordName(buffer, lineStart, length);
+        bodies.add(name, e, a, period, -retroFac * nu, orientDeg, retroFac, incl, node, peri);
+        return true;
+    }
+
+    private double field(ByteBuffer buffer, int lineStart, int length, int k) {
+        return parseDouble(buffer, lineStart + start[k], lineStart + Math.min(end[k], length));
+    }
+
+    // Name of the body: the readable designation of MPCORB or the Name column of JPL, falling
+    // back to the packed MPC designation
+    private String recordName(ByteBuffer buffer, int lineStart, int length) {
+        if (start[7] >= 0 && start[7] < length) {
+            String name = bytesToString(buffer, lineStart + start[7],
+                    lineStart + Math.min(end[7], length)).trim();
+            if (!name.isEmpty()) return name;
+        }
+        if (mpcEpoch) {
+            return bytesToString(buffer, lineStart + MPC_DESIGNATION[0],
+                    lineStart + Math.min(MPC_DESIGNATION[1], length)).trim();
+        }
+        return null;
+    }
+
+    /* Parse a decimal number (optional sign, digits, point, digits, optional exponent) from the
+    bytes from (inclusive) to to (exclusive), ignoring surrounding blanks.  Returns NaN if the
+    field is empty or malformed. */
+
+    static double parseDouble(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        while (i < to && buffer.get(i) == ' ') i++;
+        while (to > i && buffer.get(to - 1) == ' ') to--;
+        if (i == to) return Double.NaN;
+        boolean negative = false;
+        byte b = buffer.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa < 100000000000000000L) {
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (point) exponent--;
+                } else if (!point) {
+                    exponent++;
+                }
+                digits++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else if (b == 'E' || b == 'e' || b == 'D' || b == 'd') {
+                int value = (int) parseDouble(buffer, i + 1, to);
+                exponent += value;
+                i = to;
+                break;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) return Double.NaN;
+        double value = mantissa;
+        if (exponent < 0) {
+            value = -exponent < POW10.length ? value / POW10[-exponent] : value * Math.pow(10, exponent);
+        } else if (exponent > 0) {
+            value = exponent < POW10.length ? value * POW10[exponent] : value * Math.pow(10, exponent);
+        }
+        return negative ? -value : value;
+    }
+
+    /* Modified Julian Date of an MPC packed epoch such as K107N (2010 July 23): century letter
+    (I = 1800, J = 1900, K = 2000), two digits of year, month (1-9, A-C), and day (1-9, A-V). */
+
+    static double packedEpoch(ByteBuffer buffer, int from, int to) {
+        if (to - from != 5) return Double.NaN;
+        int century = buffer.get(from) - 'I' + 18;
+        int year = 100 * century + 10 * digit(buffer.get(from + 1)) + digit(buffer.get(from + 2));
+        int month = packedDigit(buffer.get(from + 3));
+        int day = packedDigit(buffer.get(from + 4));
+        if (century < 18 || century > 21 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return Double.NaN;
+        }
+        return modifiedJulianDate(year, month, day);
+    }
+
+    // Modified Julian Date at 0h of a Gregorian calendar date
+    static double modifiedJulianDate(int year, int month, int day) {
+        int a = (14 - month) / 12;
+        int y = year + 4800 - a;
+        int m = month + 12 * a - 3;
+        long jdn = day + (153 * m + 2) / 5 + 365L * y + y / 4 - y / 100 + y / 400 - 32045;
+        return jdn - 2400001;
+    }
+
+    private static int digit(byte b) {
+        return b >= '0' && b <= '9' ? b - '0' : -1000;
+    }
+
+    private static int packedDigit(byte b) {
+        if (b >= '1' && b <= '9') return b - '0';
+        if (b >= 'A' && b <= 'V') return b - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isDashLine(ByteBuffer buffer, int from, int to) {
+        int dashes = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '-') {
+                dashes++;
+            } else if (b != ' ') {
+                return false;
+            }
+        }
+        return dashes >= 20;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private static String bytesToString(ByteBuffer buffer, int from, int to) {
+        byte bytes[] = new byte[to - from];
+        for (int i = from; i < to; i++) bytes[i - from] = buffer.get(i);
+        return new String(bytes, ASCII);
+    }
+}
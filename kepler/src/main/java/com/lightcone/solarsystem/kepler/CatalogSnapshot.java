@@ -0,0 +1,296 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/* Binary snapshot of a parsed catalog, so that a large catalog is parsed from text once and
+   afterwards loaded with a single memory map and bulk copies into the BodySet.  All values are
+   little-endian.  The file starts with a header
+
+        int     magic 'KSNP'
+        int     format version
+        int     number of bodies
+        int     number of columns
+        long    length of the source catalog (bytes)
+        long    last-modified time of the source catalog (ms)
+        double  epoch of the elements (MJD)
+        long    CRC32 of everything after the header
+        column descriptors, one per column:  int id, int type, long offset, long length
+
+   followed by the columns, each starting on an 8-byte boundary.  The element columns hold one
+   value per body (double, or float for the orientation, or a byte of +1/-1 for the direction of
+   motion).  The names are a string table:  an int column of count + 1 offsets into a column of
+   UTF-8 bytes, with the name of body i between offsets i and i + 1 (equal offsets for no name).
+   Readers locate the columns through the descriptors and ignore columns they do not know.
+   Version 2 added the inclination, node and argument of perihelion; without them the bodies are
+   read as lying in the ecliptic, and a version 1 snapshot is simply parsed again.
+
+   loadOrParse() uses the snapshot if it exists, is intact (magic, version, checksum) and was made
+   from the catalog file as it is now (same length, modification time, and epoch); otherwise it
+   parses the catalog with a CatalogLoader and writes a fresh snapshot. */
+
+public final class CatalogSnapshot {
+
+    public static final int MAGIC = 0x504E534B;          // "KSNP" read little-endian
+    public static final int VERSION = 2;
+
+    // Column identifiers
+    public static final int COLUMN_A = 1;
+    public static final int COLUMN_EPSILON = 2;
+    public static final int COLUMN_PERIOD = 3;
+    public static final int COLUMN_THETA0 = 4;
+    public static final int COLUMN_ORIENT = 5;
+    public static final int COLUMN_RETRO = 6;
+    public static final int COLUMN_NAME_OFFSETS = 7;
+    public static final int COLUMN_NAME_BYTES = 8;
+    public static final int COLUMN_INCL = 9;
+    public static final int COLUMN_NODE = 10;
+    public static final int COLUMN_PERI = 11;
+
+    // Column types
+    public static final int TYPE_DOUBLE = 1;
+    public static final int TYPE_FLOAT = 2;
+    public static final int TYPE_BYTE = 3;
+    public static final int TYPE_INT = 4;
+
+    private static final int FIXED_HEADER = 4 * 4 + 8 * 4;
+    private static final int DESCRIPTOR = 4 + 4 + 8 + 8;
+    private static final int COLUMNS = 11;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private CatalogSnapshot() {
+    }
+
+    // Return the bodies of catalog (appended to bodies), from snapshot if it is current and
+    // otherwise by parsing catalog with loader, in which case the snapshot is rewritten.
+    public static int loadOrParse(File snapshot, File catalog, CatalogLoader loader, BodySet bodies)
+            throws IOException {
+        if (snapshot.exists()) {
+            try {
+                int n = read(snapshot, bodies, catalog.length(), catalog.lastModified(),
+                        loader.getEpochMjd());
+                if (n >= 0) return n;
+            } catch (IOException e) {
+                // Damaged snapshot: fall through and parse the catalog again
+            }
+        }
+        int first = bodies.size();
+        int n = loader.load(catalog, bodies);
+        try {
+            write(snapshot, bodies, first, n, catalog.length(), catalog.lastModified(),
+                    loader.getEpochMjd());
+        } catch (IOException e) {
+            // The snapshot is only a cache; without it the catalog is parsed again next time
+            snapshot.delete();
+        }
+        return n;
+    }
+
+    // Write count bodies starting at from to file, recording the source catalog it was made from
+    public static void write(File file, BodySet bodies, int from, int count, long sourceLength,
+                             long sourceModified, double epochMjd) throws IOException {
+        // Encode the names first so that the size of the string table is known
+        byte names[][] = new byte[count][];
+        int nameBytes = 0;
+        for (int i = 0; i < count; i++) {
+            String name = bodies.name(from + i);
+            names[i] = name == null ? new byte[0] : name.getBytes(UTF8);
+            nameBytes += names[i].length;
+        }
+
+        int types[] = {TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_FLOAT, TYPE_BYTE,
+                TYPE_INT, TYPE_BYTE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE};
+        long lengths[] = {8L * count, 8L * count, 8L * count, 8L * count, 4L * count, count,
+                4L * (count + 1), nameBytes, 8L * count, 8L * count, 8L * count};
+        long offsets[] = new long[COLUMNS];
+        long position = align(FIXED_HEADER + COLUMNS * DESCRIPTOR);
+        for (int k = 0; k < COLUMNS; k++) {
+            offsets[k] = position;
+            position = align(position + lengths[k]);
+        }
+        long size = position;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            int dataStart = (int) offsets[0];
+            buffer.position(dataStart);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.a(from + i));
+            buffer.position((int) offsets[1]);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.epsilon(from + i));
+            buffer.position((int) offsets[2]);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.period(from + i));
+            buffer.position((int) offsets[3]);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.theta0(from + i));
+            buffer.position((int) offsets[4]);
+            for (int i = 0; i < count; i++) buffer.putFloat(bodies.orientDeg(from + i));
+            buffer.position((int) offsets[5]);
+            for (int i = 0; i < count; i++) buffer.put((byte) (bodies.retroFac(from + i) < 0 ? -1 : 1));
+            buffer.position((int) offsets[6]);
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(offset);
+                offset += names[i].length;
+            }
+            buffer.putInt(offset);
+            buffer.position((int) offsets[7]);
+            for (int i = 0; i < count; i++) buffer.put(names[i]);
+            buffer.position((int) offsets[8]);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.inclDeg(from + i));
+            buffer.position((int) offsets[9]);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.nodeDeg(from + i));
+            buffer.position((int) offsets[10]);
+            for (int i = 0; i < count; i++) buffer.putDouble(bodies.periDeg(from + i));
+
+            buffer.position(0);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(count);
+            buffer.putInt(COLUMNS);
+            buffer.putLong(sourceLength);
+            buffer.putLong(sourceModified);
+            buffer.putDouble(epochMjd);
+            buffer.putLong(checksum(buffer, dataStart, (int) size));
+            for (int k = 0; k < COLUMNS; k++) {
+                buffer.putInt(k + 1);
+                buffer.putInt(types[k]);
+                buffer.putLong(offsets[k]);
+                buffer.putLong(lengths[k]);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Append the bodies in the snapshot file to bodies and return how many were added, or -1 if
+    // the snapshot was made from a different source (length, modification time, or epoch).
+    // Throws IOException if the file is not an intact snapshot.
+    public static int read(File file, BodySet bodies, long sourceLength, long sourceModified,
+                           double epochMjd) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < FIXED_HEADER || size > Integer.MAX_VALUE) throw new IOException("Not a snapshot");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) throw new IOException("Not a snapshot");
+            if (buffer.getInt(4) != VERSION) throw new IOException("Snapshot version " + buffer.getInt(4));
+            int count = buffer.getInt(8);
+            int columns = buffer.getInt(12);
+            if (buffer.getLong(16) != sourceLength || buffer.getLong(24) != sourceModified
+                    || buffer.getDouble(32) != epochMjd) {
+                return -1;
+            }
+            long expected = buffer.getLong(40);
+            if (count < 0 || columns < 0 || FIXED_HEADER + (long) columns * DESCRIPTOR > size) {
+                throw new IOException("Corrupt snapshot header");
+            }
+
+            // Locate the columns
+            long offsets[] = new long[COLUMNS + 1];
+            long lengths[] = new long[COLUMNS + 1];
+            long dataStart = size;
+            for (int k = 0; k < columns; k++) {
+                int base = FIXED_HEADER + k * DESCRIPTOR;
+                int id = buffer.getInt(base);
+                long offset = buffer.getLong(base + 8);
+                long length = buffer.getLong(base + 16);
+                if (offset < 0 || length < 0 || offset + length > size) {
+                    throw new IOException("Corrupt snapshot column " + id);
+                }
+                dataStart = Math.min(dataStart, offset);
+                if (id >= 1 && id <= COLUMNS) {
+                    offsets[id] = offset;
+                    lengths[id] = length;
+                }
+            }
+            if (checksum(buffer, (int) dataStart, (int) size) != expected) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            for (int id = COLUMN_A; id <= COLUMN_RETRO; id++) {
+                long needed = id == COLUMN_ORIENT ? 4L * count : id == COLUMN_RETRO ? count : 8L * count;
+                if (lengths[id] != needed) throw new IOException("Missing snapshot column " + id);
+            }
+
+            // Bulk copies of the columns
+            double a[] = new double[count];
+            double epsilon[] = new double[count];
+            double period[] = new double[count];
+            double theta0[] = new double[count];
+            float orientDeg[] = new float[count];
+            byte retro[] = new byte[count];
+            double retroFac[] = new double[count];
+            column(buffer, offsets[COLUMN_A]).asDoubleBuffer().get(a);
+            column(buffer, offsets[COLUMN_EPSILON]).asDoubleBuffer().get(epsilon);
+            column(buffer, offsets[COLUMN_PERIOD]).asDoubleBuffer().get(period);
+            column(buffer, offsets[COLUMN_THETA0]).asDoubleBuffer().get(theta0);
+            column(buffer, offsets[COLUMN_ORIENT]).asFloatBuffer().get(orientDeg);
+            column(buffer, offsets[COLUMN_RETRO]).get(retro);
+            for (int i = 0; i < count; i++) retroFac[i] = retro[i];
+
+            String name[] = new String[count];
+            if (lengths[COLUMN_NAME_OFFSETS] == 4L * (count + 1)) {
+                int nameOffsets[] = new int[count + 1];
+                column(buffer, offsets[COLUMN_NAME_OFFSETS]).asIntBuffer().get(nameOffsets);
+                byte nameBytes[] = new byte[(int) lengths[COLUMN_NAME_BYTES]];
+                column(buffer, offsets[COLUMN_NAME_BYTES]).get(nameBytes);
+                for (int i = 0; i < count; i++) {
+                    int length = nameOffsets[i + 1] - nameOffsets[i];
+                    if (length > 0) name[i] = new String(nameBytes, nameOffsets[i], length, UTF8);
+                }
+            }
+            if (lengths[COLUMN_INCL] == 8L * count && lengths[COLUMN_NODE] == 8L * count
+                    && lengths[COLUMN_PERI] == 8L * count) {
+                double inclDeg[] = new double[count];
+                double nodeDeg[] = new double[count];
+                double periDeg[] = new double[count];
+                column(buffer, offsets[COLUMN_INCL]).asDoubleBuffer().get(inclDeg);
+                column(buffer, offsets[COLUMN_NODE]).asDoubleBuffer().get(nodeDeg);
+                column(buffer, offsets[COLUMN_PERI]).asDoubleBuffer().get(periDeg);
+                bodies.addAll(name, epsilon, a, period, theta0, orientDeg, retroFac, inclDeg,
+                        nodeDeg, periDeg, 0, count);
+            } else {
+                bodies.addAll(name, epsilon, a, period, theta0, orientDeg, retroFac, 0, count);
+            }
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ByteBuffer column(ByteBuffer buffer, long offset) {
+        ByteBuffer column = buffer.duplicate();
+        column.position((int) offset);
+        return column.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // CRC32 of the bytes from (inclusive) to to (exclusive), copied through a small array
+    private static long checksum(ByteBuffer buffer, int from, int to) {
+        CRC32 crc = new CRC32();
+        ByteBuffer data = buffer.duplicate();
+        data.position(from);
+        data.limit(to);
+        byte chunk[] = new byte[64 * 1024];
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+}
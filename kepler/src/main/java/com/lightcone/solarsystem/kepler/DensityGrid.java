@@ -0,0 +1,306 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* Level of detail for crowded catalogs:  instead of a sprite for every body, the bodies are
+   counted in square bins of a few pixels over the screen and the counts are shaded into a heat
+   map, one ARGB pixel per bin, which the renderer scales up to the screen in a single bitmap
+   draw.  Drawing 10^5 sprites that land in a few hundred pixels shows nothing a heat map would
+   not, at a cost proportional to the number of bodies; the heat map costs one draw whatever the
+   number, and its counts are made in the propagation pass, off the UI thread.
+
+   The shade of a bin depends on its count alone, through a table made once:  the opacity is the
+   fraction of the bin that sprites of the given radius would cover if that many were scattered
+   over it (1 - exp(-count * sprite area / bin area)), so a sparse region fades out as its
+   sprites would, and the hue goes from blue through violet and orange to white with the
+   logarithm of the count.  No count is normalized by the largest of the frame, so the colors do
+   not flicker as bodies come and go.
+
+   Large sets are binned in parallel on a ForkJoinPool (see setPool()):  the bodies are split into
+   stripes, each counting into its own array, and the arrays are then summed and shaded by bin
+   ranges, in parallel again.  The stripe tasks and their arrays are made once and reused
+   (ForkJoinTask.reinitialize()), so once the arrays have grown to the screen nothing is
+   allocated per frame, serial or parallel.  The counts are exactly those of the serial loop.
+
+   When to use it:  crowdedScale() is the number of pixels per AU below which the sprites of a
+   BodySet would cover the area of their orbits more than once over, and weight() turns the
+   current scale into the weight of the heat map against the sprites, 1 well below the crowded
+   scale and 0 well above it, going smoothly from one to the other over a zoom factor of FADE,
+   so the renderer cross-fades the two as the zoom changes instead of switching between them.
+
+   Positions are relative to an origin (the focus) in screen pixels, x to the right and y down, as
+   in a PositionFrame.  A grid belongs to one thread at a time (the SimulationWorker's). */
+
+public class DensityGrid {
+
+    public static final int DEFAULT_BIN = 4;                     // Bin size (pixels)
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;   // Smallest set binned in parallel
+    public static final double FADE = 2;                         // Zoom factor of the cross-fade
+
+    private static final int MAX_STRIPES = 8;
+    private static final int SHADES = 1024;        // Counts with a shade of their own (more saturate)
+    private static final int BIN = 0;              // Phases of the stripe tasks
+    private static final int REDUCE = 1;
+
+    private final int binSize;
+    private final float spriteRadius;              // Radius of the sprites the heat map replaces (pixels)
+    private final int shade[] = new int[SHADES + 1];   // Color of each count (ARGB)
+    private int width;                             // Screen size (pixels)
+    private int height;
+    private int cols;                              // Number of bins across and down
+    private int rows;
+    private int counts[];                          // Bodies in each bin (stripe 0 counts into it)
+    private int partial[][];                       // Counts of each stripe (the first is counts)
+    private int binned;                            // Bodies on the screen in the last build
+    private ForkJoinPool pool;                     // Pool for parallel binning (null for serial)
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private Stripe stripes[];
+    private Phases phases;
+
+    // Arguments of the build in progress, for the stripe tasks
+    private float points[];
+    private float originX;
+    private float originY;
+    private int colors[];
+
+    public DensityGrid(int binSize, float spriteRadius) {
+        if (binSize < 1) throw new IllegalArgumentException("Bin size must be positive");
+        if (spriteRadius <= 0) throw new IllegalArgumentException("Sprite radius must be positive");
+        this.binSize = binSize;
+        this.spriteRadius = spriteRadius;
+        double coverage = Math.PI * spriteRadius * spriteRadius / (binSize * binSize);
+        for (int c = 1; c <= SHADES; c++) {
+            int alpha = (int) Math.round(255 * (1 - Math.exp(-c * coverage)));
+            shade[c] = alpha << 24 | heat(Math.log(c) / Math.log(SHADES));
+        }
+    }
+
+    // Use pool to bin sets of at least parallelThreshold bodies.  A null pool makes binning
+    // serial.
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        stripes = null;
+        partial = null;
+        if (pool == null) return;
+        int count = Math.max(Math.min(pool.getParallelism(), MAX_STRIPES), 1);
+        stripes = new Stripe[count];
+        for (int s = 0; s < count; s++) stripes[s] = new Stripe(s);
+        phases = new Phases();
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // Number of bins on a screen of width x height pixels (the size of the colors of build())
+    public int bins(int width, int height) {
+        return binCols(width) * binRows(height);
+    }
+
+    // Count bodies from (inclusive) to to (exclusive) at positions points (x, y pairs relative to
+    // originX, originY) in the bins of a screen of width x height pixels, leaving out those off
+    // the screen, and store the color of each bin in colors (rows from the top; null for only
+    // the counts)
+    public void build(float points[], int from, int to, float originX, float originY, int width,
+                      int height, int colors[]) {
+        resize(width, height);
+        this.points = points;
+        this.originX = originX;
+        this.originY = originY;
+        this.colors = colors;
+        int bins = cols * rows;
+        if (pool != null && to - from >= parallelThreshold && stripes.length > 1) {
+            int count = stripes.length;
+            for (int s = 0; s < count; s++) {
+                stripes[s].from = from + (int) ((long) (to - from) * s / count);
+                stripes[s].to = from + (int) ((long) (to - from) * (s + 1) / count);
+                stripes[s].binFrom = (int) ((long) bins * s / count);
+                stripes[s].binTo = (int) ((long) bins * (s + 1) / count);
+            }
+            phases.reinitialize();
+            pool.invoke(phases);
+        } else {
+            Arrays.fill(counts, 0, bins, 0);
+            bin(from, to, counts);
+            reduce(0, bins, 0);
+        }
+        binned = 0;
+        for (int b = 0; b < bins; b++) binned += counts[b];
+        this.points = null;
+        this.colors = null;
+    }
+
+    // Count the bodies from (inclusive) to to (exclusive) into target
+    private void bin(int from, int to, int target[]) {
+        float left = -originX;                     // The screen relative to the origin
+        float top = -originY;
+        float right = width - originX;
+        float bottom = height - originY;
+        for (int i = from; i < to; i++) {
+            float x = points[2 * i];
+            float y = points[2 * i + 1];
+            // Written so that NaN positions are left out too
+            if (!(x >= left && x < right && y >= top && y < bottom)) continue;
+            int col = Math.min((int) (originX + x) / binSize, cols - 1);
+            int row = Math.min((int) (originY + y) / binSize, rows - 1);
+            target[row * cols + col]++;
+        }
+    }
+
+    // Add the counts of the first stripes stripes into counts for bins from (inclusive) to to
+    // (exclusive), and shade them
+    private void reduce(int from, int to, int stripes) {
+        for (int s = 1; s < stripes; s++) {
+            int other[] = partial[s];
+            for (int b = from; b < to; b++) counts[b] += other[b];
+        }
+        if (colors == null) return;
+        for (int b = from; b < to; b++) colors[b] = shade[Math.min(counts[b], SHADES)];
+    }
+
+    // Grow the arrays for the screen
+    private void resize(int width, int height) {
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Empty screen");
+        int bins = bins(width, height);
+        this.width = width;
+        this.height = height;
+        cols = binCols(width);
+        rows = binRows(height);
+        if (counts == null || counts.length < bins) counts = new int[bins];
+        if (stripes != null && (partial == null || partial[0].length < bins)) {
+            partial = new int[stripes.length][];
+            partial[0] = counts;
+            for (int s = 1; s < stripes.length; s++) partial[s] = new int[bins];
+        }
+    }
+
+    private int binCols(int width) {
+        return (width + binSize - 1) / binSize;
+    }
+
+    private int binRows(int height) {
+        return (height + binSize - 1) / binSize;
+    }
+
+    // Both phases of a parallel build:  every stripe bins its bodies, then sums and shades its bins
+    private class Phases extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (Stripe stripe : stripes) stripe.start(BIN);
+            invokeAll(stripes);
+            for (Stripe stripe : stripes) stripe.start(REDUCE);
+            invokeAll(stripes);
+        }
+    }
+
+    // One stripe of the bodies and of the bins
+    private class Stripe extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private int phase;
+        int from;                                  // Bodies of the stripe
+        int to;
+        int binFrom;                               // Bins of the stripe
+        int binTo;
+
+        Stripe(int index) {
+            this.index = index;
+        }
+
+        void start(int phase) {
+            this.phase = phase;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            if (phase == BIN) {
+                int target[] = partial[index];
+                Arrays.fill(target, 0, cols * rows, 0);
+                bin(from, to, target);
+            } else {
+                reduce(binFrom, binTo, stripes.length);
+            }
+        }
+    }
+
+    // Color (RGB) of the heat map at u from 0 (sparse) to 1 (dense)
+    private static int heat(double u) {
+        double stops[][] = {
+                {0, 40, 70, 200},                  // Blue
+                {0.35, 150, 60, 220},              // Violet
+                {0.7, 255, 140, 40},               // Orange
+                {1, 255, 250, 220}};               // White
+        int k = 1;
+        while (k < stops.length - 1 && u > stops[k][0]) k++;
+        double f = Math.min(Math.max((u - stops[k - 1][0]) / (stops[k][0] - stops[k - 1][0]), 0), 1);
+        int rgb = 0;
+        for (int c = 1; c <= 3; c++) {
+            int v = (int) Math.round(stops[k - 1][c] + f * (stops[k][c] - stops[k - 1][c]));
+            rgb = rgb << 8 | v;
+        }
+        return rgb;
+    }
+
+    // Pixels per AU below which the sprites of radius spriteRadius of bodies from (inclusive) on
+    // would cover the area of their orbits more than once over.  The orbits are taken to fill a
+    // disk with the root mean square semimajor axis as radius, so n bodies cover it once when
+    // n r^2 = (pixelScale a_rms)^2.  Returns 0 if there are no such bodies.
+    public static double crowdedScale(BodySet bodies, int from, float spriteRadius) {
+        int n = bodies.size() - from;
+        if (n <= 0) return 0;
+        double sum = 0;
+        for (int i = from; i < bodies.size(); i++) sum += bodies.a(i) * bodies.a(i);
+        return spriteRadius * Math.sqrt(n / (sum / n));
+    }
+
+    // Weight of the heat map against the sprites at pixelScale, for a set crowded below
+    // crowdedScale:  1 below crowdedScale / sqrt(FADE), 0 above crowdedScale * sqrt(FADE), and a
+    // smoothstep in the logarithm of the scale between
+    public static float weight(double pixelScale, double crowdedScale) {
+        if (crowdedScale <= 0 || !(pixelScale > 0)) return 0;
+        double u = Math.log(pixelScale / crowdedScale) / Math.log(FADE) + 0.5;
+        if (u <= 0) return 1;
+        if (u >= 1) return 0;
+        return (float) (1 - u * u * (3 - 2 * u));
+    }
+
+    public int getBinSize() {
+        return binSize;
+    }
+
+    public float getSpriteRadius() {
+        return spriteRadius;
+    }
+
+    // Number of bins across and down in the last build
+    public int cols() {
+        return cols;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    // Bodies counted in the bin at col, row in the last build
+    public int count(int col, int row) {
+        return counts[row * cols + col];
+    }
+
+    // Bodies on the screen in the last build
+    public int binned() {
+        return binned;
+    }
+
+    // Color (ARGB) of a bin holding count bodies
+    public int shade(int count) {
+        return shade[Math.min(Math.max(count, 0), SHADES)];
+    }
+}
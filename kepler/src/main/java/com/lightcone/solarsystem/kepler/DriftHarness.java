@@ -0,0 +1,173 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/* Accuracy harness for OrbitStepper:  runs the stepper for a given number of steps and compares
+   every body with its closed-form position (Kepler's equation solved for the same time), so the
+   drift of the incremental scheme over long runs can be measured instead of guessed.  The
+   stepper advances theta in double but keeps the radius in float and feeds it back into the next
+   step, so its error grows with the number of steps; a display left running for 10^6 frames is
+   10^6 steps.
+
+   The angle is compared every sampleEvery steps (the error is the difference between the
+   stepper's theta and the true anomaly, reduced to [-pi, pi]), giving the largest and the RMS
+   angular error of each body.  The period is measured from the stepper itself:  the time at
+   which theta has turned through each whole revolution is interpolated between steps, and the
+   mean time per revolution is compared with the period of the body.  Bodies that do not
+   complete a revolution within the run have no measured period (NaN).
+
+   main() runs the harness headless on the bodies of BodySet.solarSystem() and prints the
+   report, for example with ./gradlew :kepler:drift -Pdrift="1000000 0.0016667 10". */
+
+public class DriftHarness {
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private final BodySet bodies;
+    private final double dt;                       // Timestep of the stepper (years)
+    private final double direction;                // Orbit direction: counter-clockwise -1; clockwise +1
+    private final double pixelScale;               // Number of pixels per AU given to the stepper
+    private final int n;
+    private final double meanAnomaly0[];           // Mean anomaly at t = 0, as in KeplerPropagator
+    private final double meanMotion[];
+    private final double maxError[];               // Largest angular error (radians)
+    private final double sumSquares[];             // Sum of squared angular errors
+    private final int revolutions[];               // Whole revolutions completed by the stepper
+    private final double lastRevolution[];         // Time at which the last one was completed (years)
+    private long samples;
+    private long steps;
+    private long elapsedNanos;
+
+    public DriftHarness(BodySet bodies, double dt, double direction, double pixelScale) {
+        if (dt <= 0) throw new IllegalArgumentException("Timestep must be positive");
+        this.bodies = bodies;
+        this.dt = dt;
+        this.direction = direction;
+        this.pixelScale = pixelScale;
+        n = bodies.size();
+        meanAnomaly0 = new double[n];
+        meanMotion = new double[n];
+        for (int i = 0; i < n; i++) {
+            meanAnomaly0[i] = KeplerSolver.meanAnomaly(-direction * bodies.theta0(i), bodies.epsilon(i));
+            meanMotion[i] = direction * bodies.retroFac(i) * TWO_PI / bodies.period(i);
+        }
+        maxError = new double[n];
+        sumSquares = new double[n];
+        revolutions = new int[n];
+        lastRevolution = new double[n];
+    }
+
+    // Run a fresh stepper for steps steps, comparing with the closed form every sampleEvery steps
+    public void run(long steps, int sampleEvery) {
+        if (steps < 0 || sampleEvery < 1) {
+            throw new IllegalArgumentException("Steps must be positive and samples at least 1 apart");
+        }
+        OrbitStepper stepper = new OrbitStepper(bodies, dt, direction);
+        stepper.setScale(pixelScale);
+        stepper.initPositions();
+        double start[] = new double[n];
+        double turned[] = new double[n];               // Angle turned at the previous step (radians)
+        for (int i = 0; i < n; i++) start[i] = stepper.theta(i);
+        Arrays.fill(maxError, 0);
+        Arrays.fill(sumSquares, 0);
+        Arrays.fill(revolutions, 0);
+        Arrays.fill(lastRevolution, Double.NaN);
+        samples = 0;
+
+        long begin = System.nanoTime();
+        for (long k = 1; k <= steps; k++) {
+            stepper.step();
+            for (int i = 0; i < n; i++) {
+                double angle = Math.abs(stepper.theta(i) - start[i]);
+                double next = TWO_PI * (revolutions[i] + 1);
+                if (angle >= next) {
+                    // Interpolate the time of the revolution within the step
+                    double f = (next - turned[i]) / (angle - turned[i]);
+                    lastRevolution[i] = (k - 1 + f) * dt;
+                    revolutions[i]++;
+                }
+                turned[i] = angle;
+            }
+            if (k % sampleEvery == 0) sample(stepper, k * dt);
+        }
+        elapsedNanos = System.nanoTime() - begin;
+        this.steps = steps;
+    }
+
+    // Compare the angles of the stepper at time t with the closed form
+    private void sample(OrbitStepper stepper, double t) {
+        for (int i = 0; i < n; i++) {
+            double e = bodies.epsilon(i);
+            double E = KeplerSolver.eccentricAnomaly(meanAnomaly0[i] + meanMotion[i] * t, e);
+            // The angle of x = b sin E, y = -a (cos E - e) in the convention of the stepper
+            double theta = Math.atan2(Math.sqrt(1 - e * e) * Math.sin(E), Math.cos(E) - e);
+            double error = Math.abs(Math.IEEEremainder(stepper.theta(i) - theta, TWO_PI));
+            if (error > maxError[i]) maxError[i] = error;
+            sumSquares[i] += error * error;
+        }
+        samples++;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // Largest and RMS angular error of body i over the last run (radians)
+    public double maxAngleError(int i) {
+        return maxError[i];
+    }
+
+    public double rmsAngleError(int i) {
+        return samples == 0 ? 0 : Math.sqrt(sumSquares[i] / samples);
+    }
+
+    // Mean time per revolution of body i measured from the stepper (years), or NaN if it did not
+    // complete one
+    public double measuredPeriod(int i) {
+        return revolutions[i] == 0 ? Double.NaN : lastRevolution[i] / revolutions[i];
+    }
+
+    // Relative error of the measured period, or NaN if body i did not complete a revolution
+    public double periodError(int i) {
+        return measuredPeriod(i) / bodies.period(i) - 1;
+    }
+
+    public int revolutions(int i) {
+        return revolutions[i];
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    // Wall-clock time of the last run, including the comparisons (nanoseconds)
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // Table of the errors of every body
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d steps of %.6g years (%.4g years), %.1f ns/step%n",
+                steps, dt, steps * dt, steps == 0 ? 0.0 : (double) elapsedNanos / steps));
+        sb.append(String.format(Locale.US, "%-10s %12s %12s %6s %12s%n",
+                "Body", "max (rad)", "rms (rad)", "revs", "period err"));
+        for (int i = 0; i < n; i++) {
+            sb.append(String.format(Locale.US, "%-10s %12.4e %12.4e %6d %12.4e%n", bodies.name(i),
+                    maxAngleError(i), rmsAngleError(i), revolutions[i], periodError(i)));
+        }
+        return sb.toString();
+    }
+
+    // Arguments:  number of steps (default 10^6), timestep in years (default 1/600), and steps
+    // between comparisons (default 10)
+    public static void main(String args[]) {
+        long steps = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        double dt = args.length > 1 ? Double.parseDouble(args[1]) : 1 / 600.0;
+        int sampleEvery = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        DriftHarness harness = new DriftHarness(BodySet.solarSystem(), dt, -1, 100);
+        harness.run(steps, sampleEvery);
+        System.out.print(harness.report());
+    }
+}
@@ -0,0 +1,351 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/* Cache of ephemeris tables:  the positions of every body of a BodySet sampled over windows of
+   simulation time, from which the position at any time inside a window is interpolated instead of
+   solving Kepler's equation again.  Window k covers the times k * window to (k + 1) * window
+   (years) with samples + 1 evenly spaced samples holding the position and velocity of each body,
+   in AU, already projected onto the screen for the current tilt (see OrbitProjection).  Between
+   samples the position is the cubic Hermite interpolant of the two neighbouring positions and
+   velocities, which for the default spacing of under three days is within 1e-5 AU of the exact
+   orbit for the bodies of BodySet.solarSystem() (Mercury, the fastest, sets the limit).
+
+   Windows are built lazily on an Executor the first time a time inside them is asked for, and the
+   two neighbours of a window are requested as soon as it is first used, so that playing in either
+   direction or scrubbing nearby finds them ready.  interpolate() never waits for a build: it
+   returns false while the window is not ready and the caller computes the positions directly
+   (with a KeplerPropagator) for that frame.  At most maxWindows windows are kept, the least
+   recently used being evicted first, and no more than fit in maxBytes for the current number of
+   bodies, so the limit shrinks as the BodySet grows; a catalog too large for one window in
+   maxBytes is not cached at all (isEnabled() is false).
+
+   interpolate() is meant to be called from one thread (the simulation worker) and allocates
+   nothing while it stays inside one window.  A change to the BodySet or to the tilt discards
+   every window.
+
+   saved() captures the windows held, for a SimulationCheckpoint, and restore() puts them back
+   in a later process, from any thread; a built window is never changed, so neither copies. */
+
+public class EphemerisCache {
+
+    public static final double DEFAULT_WINDOW = 1;             // Years covered by a window
+    public static final int DEFAULT_SAMPLES = 128;             // Samples per window
+    public static final int DEFAULT_MAX_WINDOWS = 8;
+    public static final long DEFAULT_MAX_BYTES = 32L << 20;
+
+    private final BodySet bodies;
+    private final double direction;                // Orbit direction: counter-clockwise -1; clockwise +1
+    private final double window;
+    private final int samples;
+    private final int windowCount;                 // Most windows kept, whatever their size
+    private final long maxBytes;
+    private final Executor executor;
+    private final Map<Long, Window> windows;       // Built windows by index, in access order
+    private final Set<Long> building = new HashSet<Long>();   // Windows being built
+    private Window current;                        // Window used last (interpolating thread only)
+    private int version;                           // BodySet version of the windows
+    private int windowBodies;                      // Bodies in a window of that version
+    private volatile int maxWindows;               // Windows of that size that fit in maxBytes
+    private double tiltDeg;                        // Tilt the windows are projected for
+    private long hits;
+    private long misses;
+    private long builds;
+    private long evictions;
+
+    // Table of the positions and velocities of all bodies over one window
+    private static final class Window {
+        final long index;
+        final double t0;                           // Start of the window (years)
+        final float data[];                        // x, y, vx, vy of body i at sample j at 4 (j n + i)
+        boolean prefetched;                        // Whether the neighbours have been requested
+
+        Window(long index, double t0, float data[]) {
+            this.index = index;
+            this.t0 = t0;
+            this.data = data;
+        }
+    }
+
+    // Windows held by a cache at some moment, with the layout they were built for
+    public static final class Saved {
+        final double window;
+        final int samples;
+        final int bodies;
+        final double tiltDeg;
+        final long index[];
+        final float data[][];
+
+        Saved(double window, int samples, int bodies, double tiltDeg, long index[], float data[][]) {
+            this.window = window;
+            this.samples = samples;
+            this.bodies = bodies;
+            this.tiltDeg = tiltDeg;
+            this.index = index;
+            this.data = data;
+        }
+
+        public int size() {
+            return index.length;
+        }
+    }
+
+    public EphemerisCache(BodySet bodies, double direction, Executor executor) {
+        this(bodies, direction, DEFAULT_WINDOW, DEFAULT_SAMPLES, DEFAULT_MAX_WINDOWS,
+                DEFAULT_MAX_BYTES, executor);
+    }
+
+    public EphemerisCache(BodySet bodies, double direction, double window, int samples,
+                          int maxWindows, long maxBytes, Executor executor) {
+        if (window <= 0 || samples < 1 || maxWindows < 1) {
+            throw new IllegalArgumentException("Ephemeris window, samples and count must be positive");
+        }
+        this.bodies = bodies;
+        this.direction = direction;
+        this.window = window;
+        this.samples = samples;
+        this.windowCount = maxWindows;
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        this.version = bodies.version();
+        this.windowBodies = bodies.size();
+        this.maxWindows = limit(windowBodies);
+        windows = new LinkedHashMap<Long, Window>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Window> eldest) {
+                if (size() <= EphemerisCache.this.maxWindows) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // Number of windows of n bodies to keep
+    private int limit(int n) {
+        long windowBytes = 16L * (samples + 1) * Math.max(n, 1);
+        return (int) Math.min(windowCount, maxBytes / windowBytes);
+    }
+
+    // Whether the catalog, at its current size, is small enough to be cached at all
+    public boolean isEnabled() {
+        return limit(bodies.size()) > 0;
+    }
+
+    // Write the positions of all bodies at time t (years), in pixels at pixelScale pixels per AU,
+    // into points as x, y pairs and return true, or return false if the window holding t is not
+    // built yet (in which case it is requested).
+    public boolean interpolate(double t, double pixelScale, float points[]) {
+        if (version != bodies.version()) clear();
+        if (maxWindows == 0) return false;
+        long k = (long) Math.floor(t / window);
+        Window w = current;
+        if (w == null || w.index != k) {
+            w = find(k);
+            if (w == null) {
+                misses++;
+                request(k);
+                return false;
+            }
+            current = w;
+        }
+        if (!w.prefetched) {
+            w.prefetched = true;
+            request(k + 1);
+            request(k - 1);
+        }
+        hits++;
+
+        // Cubic Hermite interpolation between samples j and j + 1
+        int n = bodies.size();
+        double h = window / samples;
+        double u = (t - w.t0) / h;
+        int j = Math.min(Math.max((int) u, 0), samples - 1);
+        double s = u - j;
+        double h00 = (1 + 2 * s) * (1 - s) * (1 - s);
+        double h10 = s * (1 - s) * (1 - s) * h;
+        double h01 = s * s * (3 - 2 * s);
+        double h11 = s * s * (s - 1) * h;
+        float data[] = w.data;
+        int p = 4 * j * n;
+        int q = 4 * (j + 1) * n;
+        for (int i = 0; i < n; i++, p += 4, q += 4) {
+            double x = h00 * data[p] + h10 * data[p + 2] + h01 * data[q] + h11 * data[q + 2];
+            double y = h00 * data[p + 1] + h10 * data[p + 3] + h01 * data[q + 1] + h11 * data[q + 3];
+            points[2 * i] = (float) (pixelScale * x);
+            points[2 * i + 1] = (float) (pixelScale * y);
+        }
+        return true;
+    }
+
+    // Project the positions for a view tilted tiltDeg from the ecliptic pole, discarding all
+    // windows built for another tilt
+    public void setTilt(double tiltDeg) {
+        synchronized (windows) {
+            if (tiltDeg == this.tiltDeg) return;
+            this.tiltDeg = tiltDeg;
+        }
+        clear();
+    }
+
+    // Discard all windows, and size the limit for the bodies there are now
+    public void clear() {
+        synchronized (windows) {
+            windows.clear();
+            version = bodies.version();
+            windowBodies = bodies.size();
+            maxWindows = limit(windowBodies);
+        }
+        current = null;
+    }
+
+    // The windows currently held
+    public Saved saved() {
+        synchronized (windows) {
+            long index[] = new long[windows.size()];
+            float data[][] = new float[index.length][];
+            int k = 0;
+            for (Window w : windows.values()) {
+                index[k] = w.index;
+                data[k++] = w.data;
+            }
+            return new Saved(window, samples, bodies.size(), tiltDeg, index, data);
+        }
+    }
+
+    // Hold the saved windows again, unless they were built for another window length, number of
+    // samples, number of bodies or tilt, and return how many were added.  Windows held already
+    // are kept.  The caller must know that the saved windows come from the same BodySet.
+    public int restore(Saved saved) {
+        int added = 0;
+        synchronized (windows) {
+            if (version != bodies.version() || saved.window != window || saved.samples != samples
+                    || saved.bodies != bodies.size() || saved.tiltDeg != tiltDeg) {
+                return 0;
+            }
+            int length = 4 * (samples + 1) * bodies.size();
+            for (int k = 0; k < saved.index.length && windows.size() < maxWindows; k++) {
+                long index = saved.index[k];
+                if (saved.data[k].length != length || windows.containsKey(index)) continue;
+                windows.put(index, new Window(index, index * window, saved.data[k]));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    // Number of windows currently held
+    public int size() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    // Whether the window holding time t is built
+    public boolean isReady(double t) {
+        return find((long) Math.floor(t / window)) != null;
+    }
+
+    // Frames interpolated and frames that found their window not ready (interpolating thread)
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getBuilds() {
+        synchronized (windows) {
+            return builds;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (windows) {
+            return evictions;
+        }
+    }
+
+    private Window find(long k) {
+        synchronized (windows) {
+            return windows.get(k);
+        }
+    }
+
+    // Have window k built unless it is built or being built already
+    private void request(final long k) {
+        final int v;
+        final double tilt;
+        synchronized (windows) {
+            if (windows.containsKey(k) || !building.add(k)) return;
+            v = version;
+            tilt = tiltDeg;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Window w = null;
+                try {
+                    w = build(k, tilt);
+                } finally {
+                    synchronized (windows) {
+                        building.remove(k);
+                        // A window built from an older BodySet or for another tilt is dropped,
+                        // and so is one built for more bodies than the limit was sized for
+                        if (w != null && v == version && tilt == tiltDeg
+                                && w.data.length == 4 * (samples + 1) * windowBodies) {
+                            windows.put(k, w);
+                            builds++;
+                        }
+                    }
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            synchronized (windows) {
+                building.remove(k);
+            }
+            throw e;
+        }
+    }
+
+    // Sample the positions and velocities of all bodies over window k, projected for tilt
+    private Window build(long k, double tilt) {
+        int n = bodies.size();
+        double t0 = k * window;
+        double h = window / samples;
+        float data[] = new float[4 * (samples + 1) * n];
+        double m[] = new double[4];
+        for (int i = 0; i < n; i++) {
+            double e = bodies.epsilon(i);
+            double a = bodies.a(i);
+            double b = a * Math.sqrt(1 - e * e);
+            // The same mean anomaly and motion as KeplerPropagator
+            double meanAnomaly0 = KeplerSolver.meanAnomaly(-direction * bodies.theta0(i), e);
+            double meanMotion = direction * bodies.retroFac(i) * 2 * Math.PI / bodies.period(i);
+            OrbitProjection.screenMatrix(bodies, i, direction, tilt, m, 0);
+            for (int j = 0; j <= samples; j++) {
+                double E = KeplerSolver.eccentricAnomaly(meanAnomaly0 + meanMotion * (t0 + j * h), e);
+                double sinE = Math.sin(E);
+                double cosE = Math.cos(E);
+                double dE = meanMotion / (1 - e * cosE);         // dE/dt from Kepler's equation
+                double x = b * sinE;
+                double y = -a * (cosE - e);
+                double vx = b * cosE * dE;
+                double vy = a * sinE * dE;
+                int p = 4 * (j * n + i);
+                data[p] = (float) (m[0] * x + m[1] * y);
+                data[p + 1] = (float) (m[2] * x + m[3] * y);
+                data[p + 2] = (float) (m[0] * vx + m[1] * vy);
+                data[p + 3] = (float) (m[2] * vx + m[3] * vy);
+            }
+        }
+        return new Window(k, t0, data);
+    }
+}
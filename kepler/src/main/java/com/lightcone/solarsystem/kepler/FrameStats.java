@@ -0,0 +1,57 @@
+package com.lightcone.solarsystem.kepler;
+
+/* Counters of display frames:  the number of frames, the last and the mean interval between
+   them, and the number of frames dropped.  The interval between frames is rounded to a whole
+   number of vsync periods and every period beyond the first counts as a dropped frame, so an
+   interval of about two periods counts one dropped frame and about three counts two. */
+
+public class FrameStats {
+
+    private final long vsyncNanos;                 // Nominal interval between frames
+    private long frames;
+    private long dropped;
+    private long lastFrameNanos;
+    private long lastInterval;
+    private long totalInterval;
+    private long intervals;
+
+    public FrameStats(long vsyncNanos) {
+        this.vsyncNanos = vsyncNanos;
+    }
+
+    // Record a frame with timestamp frameNanos
+    public void record(long frameNanos) {
+        if (lastFrameNanos != 0) {
+            lastInterval = frameNanos - lastFrameNanos;
+            totalInterval += lastInterval;
+            intervals++;
+            long missed = (lastInterval + vsyncNanos / 2) / vsyncNanos - 1;
+            if (missed > 0) dropped += missed;
+        }
+        lastFrameNanos = frameNanos;
+        frames++;
+    }
+
+    // Start a new run of frames (after a pause), keeping the counts
+    public void resume() {
+        lastFrameNanos = 0;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    // Interval between the last two frames (ns)
+    public long getLastFrameNanos() {
+        return lastInterval;
+    }
+
+    // Mean interval between frames (ns)
+    public double getMeanFrameNanos() {
+        return intervals > 0 ? totalInterval / (double) intervals : 0;
+    }
+}
@@ -0,0 +1,278 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* Time-indexed propagator giving the position of every body of a BodySet at an arbitrary time
+   t (years since the epoch of the initial angles).  Instead of accumulating small angular
+   increments as OrbitStepper does, the mean anomaly is advanced in closed form and Kepler's
+   equation is solved for the eccentric anomaly E, so the cost per body is the same whether t
+   is one frame or a century away and no error accumulates from step to step.
+
+   Angles follow the conventions of OrbitStepper: measured clockwise from the 12-o'clock
+   position, with the perihelion at 12 o'clock before the orbit is put in place.  In terms of E
+   the position relative to the focus in the plane of the orbit is
+
+        x = a sqrt(1 - e^2) sin E,        y = -a (cos E - e),
+
+   which avoids computing the true anomaly at all.  Positions are in pixels with y down.  The
+   same loop also projects each position onto the screen, using the orientation of its orbit in
+   space and the tilt of the view folded into one 2 x 2 matrix per body (see OrbitProjection), and
+   stores it in points() as interleaved x, y pairs, the layout expected by Canvas.drawPoints(), so
+   a renderer can draw every body in one call after translating to the focus.
+
+   The per-body constants and positions are held in primitive arrays parallel to the columns of
+   the BodySet.  When the set changes (see BodySet.version()) they are recomputed at the next
+   propagate(); between changes serial propagation allocates nothing.
+
+   Every body is independent of the others, so large sets can be split into chunks propagated
+   in parallel on a ForkJoinPool (see setPool()).  Each body is computed by exactly the same
+   code either way, so the parallel results are bit for bit those of the serial loop.  Sets
+   smaller than the parallel threshold are always propagated serially on the calling thread,
+   where the cost of handing out tasks would exceed the work itself.
+
+   The loop over the bodies is a PropagationKernel (see setKernel()).  The default is the one
+   named by the system property kepler.kernel, or the exact scalar kernel built on KeplerSolver;
+   the polynomial and Vector API kernels trade a bounded error far below a pixel for loops the
+   compiler can vectorize.
+
+   With an NBodyIntegrator (setIntegrator()) the bodies instead move under their mutual gravity:
+   propagate() integrates to the new time and projects the integrator's positions, and x() and
+   y() hold the same screen positions as points(), since there is no fixed orbit plane. */
+
+public class KeplerPropagator {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;  // Smallest set propagated in parallel
+    public static final int DEFAULT_CHUNK = 4096;                // Bodies per parallel task
+
+    private final BodySet bodies;
+    private final double direction;                // Orbit direction: counter-clockwise -1; clockwise +1
+
+    // Per-body columns, read and written by the kernel
+    double meanAnomaly0[];                         // Mean anomaly at t = 0 (radians, clockwise)
+    double meanMotion[];                           // Signed rate of change of mean anomaly (radians/year)
+    double eccentricity[];                         // Copy of the eccentricities of the BodySet
+    double semiMajor[];                            // Semimajor axis (pixels)
+    double semiMinor[];                            // Semiminor axis (pixels)
+    double proj0[];                                // Orbit plane to screen matrix (see OrbitProjection)
+    double proj1[];
+    double proj2[];
+    double proj3[];
+    double scratchM[];                             // Scratch columns for the vectorizable kernels
+    double scratchE[];
+    float x[];                                     // Current x position of body relative to focus (pixels)
+    float y[];                                     // Current y position of body relative to focus (pixels)
+    float points[];                                // Positions projected on the screen (x, y pairs)
+
+    private double c1[];                           // The constant distance scale factor a*(1-epsilon^2)
+    private PropagationKernel kernel = PropagationKernel.fromProperty();
+    private NBodyIntegrator integrator;            // Gravity between the bodies (null for two-body orbits)
+    private int size;                              // Number of bodies the arrays describe
+    private int version = -1;                      // BodySet version the arrays describe
+    private double pixelScale;                     // Number of pixels per AU
+    private double tiltDeg;                        // Tilt of the view from the ecliptic pole (degrees)
+    private double time;                           // Time of current positions (years)
+    private ForkJoinPool pool;                     // Pool for parallel propagation (null for serial)
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private int chunk = DEFAULT_CHUNK;
+
+    public KeplerPropagator(BodySet bodies, double direction) {
+        this.bodies = bodies;
+        this.direction = direction;
+        sync();
+    }
+
+    // Set the number of pixels per AU (layout or zoom change) and recompute the positions
+    public void setScale(double pixelScale) {
+        this.pixelScale = pixelScale;
+        scale(0, size);
+        propagate(time);
+    }
+
+    // Tilt the view by tiltDeg from the ecliptic pole (0 face-on, 90 edge-on) and recompute the
+    // positions
+    public void setTilt(double tiltDeg) {
+        this.tiltDeg = tiltDeg;
+        if (version == bodies.version()) project(0, size);
+        propagate(time);
+    }
+
+    public double getTilt() {
+        return tiltDeg;
+    }
+
+    // Compute the positions of all bodies at time t (years)
+    public void propagate(double t) {
+        if (version != bodies.version()) sync();
+        if (integrator != null) {
+            integrator.propagate(t);
+            integrator.project(pixelScale, direction, tiltDeg, points);
+            for (int i = 0; i < size; i++) {
+                x[i] = points[2 * i];
+                y[i] = points[2 * i + 1];
+            }
+        } else if (pool != null && size >= parallelThreshold) {
+            pool.invoke(new PropagateTask(0, size, t));
+        } else {
+            propagate(0, size, t);
+        }
+        time = t;
+    }
+
+    // Compute the positions of bodies from (inclusive) to to (exclusive) at time t
+    private void propagate(int from, int to, double t) {
+        kernel.propagate(this, from, to, t);
+    }
+
+    // Use kernel for the loop over the bodies
+    public void setKernel(PropagationKernel kernel) {
+        if (kernel == null) throw new IllegalArgumentException("No kernel");
+        this.kernel = kernel;
+    }
+
+    public PropagationKernel getKernel() {
+        return kernel;
+    }
+
+    // Move the bodies with integrator from the next propagate() on, or on their two-body orbits
+    // again if it is null.  The integrator must be built on the same BodySet.
+    public void setIntegrator(NBodyIntegrator integrator) {
+        if (integrator != null && integrator.getBodies() != bodies) {
+            throw new IllegalArgumentException("Integrator of another BodySet");
+        }
+        this.integrator = integrator;
+    }
+
+    public NBodyIntegrator getIntegrator() {
+        return integrator;
+    }
+
+    // Use pool to propagate sets of at least parallelThreshold bodies in chunks of chunk bodies.
+    // A null pool makes propagation serial.
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public void setChunk(int chunk) {
+        if (chunk < 1) throw new IllegalArgumentException("Chunk must hold at least one body");
+        this.chunk = chunk;
+    }
+
+    // Advance the positions by dt (years); dt may be negative
+    public void advance(double dt) {
+        propagate(time + dt);
+    }
+
+    // Bring the per-body arrays up to date with the BodySet
+    private void sync() {
+        int n = bodies.size();
+        if (x == null || x.length < n) {
+            int capacity = bodies.capacity();
+            meanAnomaly0 = new double[capacity];
+            meanMotion = new double[capacity];
+            eccentricity = new double[capacity];
+            semiMajor = new double[capacity];
+            semiMinor = new double[capacity];
+            proj0 = new double[capacity];
+            proj1 = new double[capacity];
+            proj2 = new double[capacity];
+            proj3 = new double[capacity];
+            scratchM = new double[capacity];
+            scratchE = new double[capacity];
+            c1 = new double[capacity];
+            x = new float[capacity];
+            y = new float[capacity];
+            points = new float[2 * capacity];
+        }
+        for (int i = 0; i < n; i++) {
+            double e = bodies.epsilon(i);
+            eccentricity[i] = e;
+            meanAnomaly0[i] = KeplerSolver.meanAnomaly(-direction * bodies.theta0(i), e);
+            meanMotion[i] = direction * bodies.retroFac(i) * 2 * Math.PI / bodies.period(i);
+        }
+        project(0, n);
+        scale(0, n);
+        size = n;
+        version = bodies.version();
+    }
+
+    private void project(int from, int to) {
+        double m[] = new double[4];
+        for (int i = from; i < to; i++) {
+            OrbitProjection.screenMatrix(bodies, i, direction, tiltDeg, m, 0);
+            proj0[i] = m[0];
+            proj1[i] = m[1];
+            proj2[i] = m[2];
+            proj3[i] = m[3];
+        }
+    }
+
+    private void scale(int from, int to) {
+        for (int i = from; i < to; i++) {
+            double e = bodies.epsilon(i);
+            semiMajor[i] = pixelScale * bodies.a(i);
+            semiMinor[i] = semiMajor[i] * Math.sqrt(1 - e * e);
+            c1[i] = semiMajor[i] * (1 - e * e);
+        }
+    }
+
+    // Number of bodies with current positions
+    public int size() {
+        return size;
+    }
+
+    // Task propagating a range of bodies, split in halves until no larger than chunk
+    private class PropagateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final double t;
+
+        PropagateTask(int from, int to, double t) {
+            this.from = from;
+            this.to = to;
+            this.t = t;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                propagate(from, to, t);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PropagateTask(from, mid, t), new PropagateTask(mid, to, t));
+            }
+        }
+    }
+
+    public BodySet getBodies() {
+        return bodies;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public float x(int i) {
+        return x[i];
+    }
+
+    public float y(int i) {
+        return y[i];
+    }
+
+    // Positions projected on the screen as x, y pairs; the first 2 * size() entries are used
+    public float[] points() {
+        return points;
+    }
+
+    public double c1(int i) {
+        return c1[i];
+    }
+}
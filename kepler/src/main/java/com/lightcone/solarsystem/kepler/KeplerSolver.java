@@ -0,0 +1,48 @@
+package com.lightcone.solarsystem.kepler;
+
+/* Solution of Kepler's equation M = E - e sin E for the eccentric anomaly E given the mean
+   anomaly M and the eccentricity e (0 <= e < 1).  The mean anomaly is reduced to [-pi, pi],
+   the iteration is started from Danby's guess E = M + 0.85 e sign(sin M), and refined with
+   Halley's (third order) method.  From that starting point Halley's method converges for every
+   elliptical orbit; typical orbits need two or three iterations and even e = 0.9999 near
+   perihelion needs no more than eight. */
+
+public final class KeplerSolver {
+
+    public static final int MAX_ITERATIONS = 10;     // Iteration cap (never reached for e < 1)
+    public static final double TOLERANCE = 1e-14;    // Convergence criterion on |dE| (radians)
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private KeplerSolver() {
+    }
+
+    // Return the eccentric anomaly E for mean anomaly M (radians) and eccentricity e.  The
+    // result lies in the same 2 pi interval as M.
+    public static double eccentricAnomaly(double M, double e) {
+        // Reduce M to [-pi, pi] without branching on its sign
+        double turns = Math.floor(M / TWO_PI + 0.5);
+        double m = M - turns * TWO_PI;
+        double E = m + 0.85 * e * Math.signum(Math.sin(m));
+        for (int k = 0; k < MAX_ITERATIONS; k++) {
+            double eSin = e * Math.sin(E);
+            double eCos = e * Math.cos(E);
+            double f = E - eSin - m;
+            double fp = 1 - eCos;
+            double dE = f / (fp - 0.5 * f * eSin / fp);
+            E -= dE;
+            if (Math.abs(dE) < TOLERANCE) break;
+        }
+        return E + turns * TWO_PI;
+    }
+
+    // Return the mean anomaly corresponding to true anomaly nu (radians) and eccentricity e.
+    // Signed angles are handled symmetrically, so negative nu gives negative M.
+    public static double meanAnomaly(double nu, double e) {
+        double half = 0.5 * nu;
+        double turns = Math.floor(half / Math.PI + 0.5);
+        half -= turns * Math.PI;
+        double E = 2 * Math.atan2(Math.sqrt(1 - e) * Math.sin(half), Math.sqrt(1 + e) * Math.cos(half));
+        return E - e * Math.sin(E) + turns * TWO_PI;
+    }
+}
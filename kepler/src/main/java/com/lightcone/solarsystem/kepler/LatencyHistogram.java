@@ -0,0 +1,83 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Histogram of durations with one bucket per power of two of nanoseconds:  bucket k counts the
+   durations d with 2^k <= d < 2^(k + 1) (bucket 0 also holds 0 and 1 ns), up to bucket 39 at
+   about nine minutes, which also takes anything longer.  Recording is a few array updates with
+   no allocation and no lock, so it can stay on in the animation loop.
+
+   Each histogram is written by one thread (the stage it times runs on one thread) and may be read
+   by any other.  The writer stores with lazySet(), which is cheaper than an atomic increment and
+   needs no lock since there is no other writer; a reader may see a recording half applied (the
+   count updated but not yet the total), which is harmless for statistics shown on screen. */
+
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 40;
+
+    private static final int COUNT = BUCKETS;
+    private static final int TOTAL = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+
+    private final AtomicLongArray values = new AtomicLongArray(BUCKETS + 3);   // Buckets, count, total, max
+
+    // Record one duration (nanoseconds; negative durations count as 0).  Called by the writing
+    // thread only.
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int k = Math.min(63 - Long.numberOfLeadingZeros(nanos | 1), BUCKETS - 1);
+        values.lazySet(k, values.get(k) + 1);
+        values.lazySet(TOTAL, values.get(TOTAL) + nanos);
+        if (nanos > values.get(MAX)) values.lazySet(MAX, nanos);
+        values.lazySet(COUNT, values.get(COUNT) + 1);
+    }
+
+    // Number of durations recorded
+    public long count() {
+        return values.get(COUNT);
+    }
+
+    // Number of durations recorded in bucket k
+    public long bucket(int k) {
+        return values.get(k);
+    }
+
+    // Lower bound of bucket k (nanoseconds)
+    public static long bucketStart(int k) {
+        return k == 0 ? 0 : 1L << k;
+    }
+
+    public long totalNanos() {
+        return values.get(TOTAL);
+    }
+
+    public long maxNanos() {
+        return values.get(MAX);
+    }
+
+    public double meanNanos() {
+        long count = count();
+        return count == 0 ? 0 : (double) totalNanos() / count;
+    }
+
+    // Upper bound of the duration below which a fraction q of the durations lie (nanoseconds),
+    // to within the factor of two of the buckets; 0 if nothing was recorded
+    public long percentileNanos(double q) {
+        long count = 0;
+        for (int k = 0; k < BUCKETS; k++) count += values.get(k);
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; k++) {
+            seen += values.get(k);
+            if (seen >= rank && seen > 0) return Math.min((1L << (k + 1)) - 1, maxNanos());
+        }
+        return maxNanos();
+    }
+
+    // Forget every duration.  Called by the writing thread, or while it is not recording.
+    public void clear() {
+        for (int k = 0; k < values.length(); k++) values.lazySet(k, 0);
+    }
+}
@@ -0,0 +1,608 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* Newtonian gravity for a BodySet, as an alternative to the independent two-body orbits of
+   KeplerPropagator:  the Sun and the bodies given a mass attract each other, so Jupiter can
+   perturb the asteroids and Halley's Comet, and the bodies without mass (test particles) move in
+   the field of the massive ones without acting on anything.  The force on every body comes from
+   the massive bodies only, so a step costs O(K N) for K massive bodies (the Sun included) and N
+   bodies in all rather than O(N^2), and a catalog of 10^5 asteroids costs little more than 10^5
+   two-body solutions per step.
+
+   Units are AU, years and solar masses, so that GM of the Sun is 4 pi^2.  The integrator is the
+   kick-drift-kick leapfrog with a fixed step (1/2400 year by default):  symplectic, so the energy
+   error oscillates instead of drifting, and time-reversible, so playing backward retraces the same
+   states.  Its error is a slow drift in the phase of each orbit, quadratic in the step; Mercury,
+   with the fewest steps per orbit, sets the step:  at the default it falls behind the exact orbit
+   by about 1e-3 radians a year (sixteen times that at 1/600 year).  The state is barycentric.
+   Positions are reported relative to the Sun and projected onto the screen as by OrbitProjection
+   (ecliptic X, Y, Z to sx = direction Y, sy = -(X cos tilt + Z sin tilt), times the pixel scale).
+
+   Each step is taken in two passes.  The massive bodies, a handful, are stepped first and their
+   positions at the end of every step are recorded; then each test particle is taken through all
+   the steps on its own against that record, keeping its state in registers.  The particles are
+   independent of each other, so with a ForkJoinPool (setPool()) large sets are split into chunks
+   stepped in parallel, and the results are bit for bit those of the serial loop.
+
+   The initial state comes from the orbital elements:  reset(t) places every body where the
+   two-body solution puts it at time t, with the velocity of that orbit under the gravity of the
+   Sun and the body.  propagate(t) integrates to the whole step nearest t, or restarts from the
+   elements at t when t is further than maxSpan years (1 by default) from the current time, so that
+   a seek to a distant date does not have to integrate all the way there.  Neither a step nor a
+   restart allocates once the arrays are sized for the set.  A change to the BodySet also restarts
+   the integration, at the current time.  The masses belong to the bodies, not to their indices:
+   after a change the massive bodies are found again by their orbital elements (remove() moves
+   bodies to other indices), and one no longer in the set is dropped.
+
+   The energy of the massive bodies, which the leapfrog conserves to within a bounded
+   oscillation, is the diagnostic of the integration:  getEnergyError() is its relative change
+   since the last restart (volatile, so it can be shown by another thread). */
+
+public class NBodyIntegrator {
+
+    public static final double GM_SUN = 4 * Math.PI * Math.PI;     // AU^3/year^2
+    public static final double DEFAULT_STEP = 1 / 2400.0;          // Years (3.65 hours)
+    public static final double DEFAULT_MAX_SPAN = 1;                // Years integrated before a restart
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;     // Fewest particles stepped in parallel
+    public static final int DEFAULT_CHUNK = 2048;                  // Particles per parallel task
+
+    private static final int ELEMENTS = 9;                         // Elements identifying a body
+
+    // Masses of the planets and Pluto (solar masses; the Earth with the Moon, Pluto with Charon)
+    private static final String PLANETS[] = {"Mercury", "Venus", "Earth", "Mars", "Jupiter",
+            "Saturn", "Uranus", "Neptune", "Pluto"};
+    private static final double PLANET_MASSES[] = {1.6601e-7, 2.4478e-6, 3.0404e-6, 3.2272e-7,
+            9.5479e-4, 2.8589e-4, 4.3662e-5, 5.1514e-5, 7.396e-9};
+
+    private final BodySet bodies;
+    private final double massOf[];                 // Mass of each body given one (solar masses)
+    private final String massName[];               // Name and elements identifying those bodies
+    private final double massElements[];
+    private final int massAt[];                    // Index of each in the set (-1 if removed)
+    private double mass[] = new double[0];         // Mass of each body (solar masses; 0 if none)
+    private int version = -1;                      // BodySet version the arrays describe
+    private int size;
+
+    // Barycentric state of every body (AU, AU/year) and its acceleration at the current time
+    private double x[];
+    private double y[];
+    private double z[];
+    private double vx[];
+    private double vy[];
+    private double vz[];
+    private double ax[];
+    private double ay[];
+    private double az[];
+    private int particles[];                       // Indices of the test particles
+    private int particleCount;
+
+    // The massive bodies, the Sun first, with their GM (AU^3/year^2) and body index (-1 for the Sun)
+    private int massCount;
+    private int massIndex[];
+    private double gm[];
+    private double mx[];
+    private double my[];
+    private double mz[];
+    private double mvx[];
+    private double mvy[];
+    private double mvz[];
+    private double max[];
+    private double may[];
+    private double maz[];
+    private double track[];                        // Massive positions after each step (x, y, z)
+    private final double pq[] = new double[6];     // Scratch for the perifocal axes of a body
+    private final double found[] = new double[ELEMENTS];   // Scratch for the elements of a body
+
+    private double step = DEFAULT_STEP;
+    private double maxSpan = DEFAULT_MAX_SPAN;
+    private double time;                           // Time of the current state (years)
+    private boolean started;                       // Whether the state has been set up
+    private double energy0;                        // Energy of the massive bodies at the last restart
+    private volatile double energyError;           // Relative change of that energy since then
+    private long steps;                            // Steps taken since the last restart
+    private ForkJoinPool pool;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private int chunk = DEFAULT_CHUNK;
+
+    // Integrate bodies with mass[i] the mass of body i (solar masses, 0 for a test particle).
+    // Bodies beyond the end of mass, including bodies added later, are test particles.
+    public NBodyIntegrator(BodySet bodies, double mass[]) {
+        if (mass.length > bodies.size()) {
+            throw new IllegalArgumentException("More masses than bodies");
+        }
+        this.bodies = bodies;
+        int count = 0;
+        for (int i = 0; i < mass.length; i++) {
+            if (!(mass[i] >= 0)) throw new IllegalArgumentException("Negative mass of body " + i);
+            if (mass[i] > 0) count++;
+        }
+        massOf = new double[count];
+        massName = new String[count];
+        massElements = new double[ELEMENTS * count];
+        massAt = new int[count];
+        int k = 0;
+        for (int i = 0; i < mass.length; i++) {
+            if (mass[i] == 0) continue;
+            massOf[k] = mass[i];
+            massName[k] = bodies.name(i);
+            elements(i, massElements, ELEMENTS * k);
+            massAt[k++] = i;
+        }
+    }
+
+    // Masses of the bodies of the set that are planets or Pluto, found by name; everything else
+    // gets 0 (a test particle)
+    public static double[] planetMasses(BodySet bodies) {
+        double m[] = new double[bodies.size()];
+        for (int i = 0; i < m.length; i++) {
+            for (int k = 0; k < PLANETS.length; k++) {
+                if (PLANETS[k].equals(bodies.name(i))) m[i] = PLANET_MASSES[k];
+            }
+        }
+        return m;
+    }
+
+    // Use a step of step years (the state is kept, and the next propagate() uses the new step)
+    public void setStep(double step) {
+        if (!(step > 0)) throw new IllegalArgumentException("Step must be positive");
+        this.step = step;
+    }
+
+    public double getStep() {
+        return step;
+    }
+
+    // Restart from the orbital elements rather than integrate over more than span years
+    public void setMaxSpan(double span) {
+        if (!(span >= 0)) throw new IllegalArgumentException("Span must not be negative");
+        maxSpan = span;
+    }
+
+    // Use pool to step sets of at least parallelThreshold test particles in chunks of chunk
+    // particles.  A null pool makes stepping serial.
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public void setChunk(int chunk) {
+        if (chunk < 1) throw new IllegalArgumentException("Chunk must hold at least one particle");
+        this.chunk = chunk;
+    }
+
+    // Integrate to the whole step nearest time t (years), or restart at t if it is more than
+    // maxSpan years away or nothing has been integrated yet
+    public void propagate(double t) {
+        if (version != bodies.version()) {
+            sync();
+            if (started) reset(time);
+        }
+        if (!started || Math.abs(t - time) > maxSpan) {
+            reset(t);
+            return;
+        }
+        long count = Math.round((t - time) / step);
+        if (count == 0) return;
+        int n = (int) Math.abs(count);
+        double h = count > 0 ? step : -step;
+        if (track == null || track.length < 3 * massCount * n) track = new double[3 * massCount * n];
+        for (int s = 0; s < n; s++) stepMassive(h, 3 * massCount * s);
+        if (pool != null && particleCount >= parallelThreshold) {
+            pool.invoke(new StepTask(0, particleCount, n, h));
+        } else {
+            stepParticles(0, particleCount, n, h);
+        }
+        for (int k = 1; k < massCount; k++) {
+            int i = massIndex[k];
+            x[i] = mx[k];
+            y[i] = my[k];
+            z[i] = mz[k];
+            vx[i] = mvx[k];
+            vy[i] = mvy[k];
+            vz[i] = mvz[k];
+        }
+        time += count * step;
+        steps += n;
+        energyError = energy0 == 0 ? 0 : (energy() - energy0) / Math.abs(energy0);
+    }
+
+    // Set every body at its two-body position and velocity for time t (years) and restart
+    public void reset(double t) {
+        if (version != bodies.version()) sync();
+        int n = size;
+        double totalMass = 1;
+        double cx = 0, cy = 0, cz = 0, cvx = 0, cvy = 0, cvz = 0;
+        for (int i = 0; i < n; i++) {
+            // Heliocentric state on the orbit, in the perifocal frame first
+            double e = bodies.epsilon(i);
+            double a = bodies.a(i);
+            double m = mass(i);
+            double M = -bodies.retroFac(i) * KeplerSolver.meanAnomaly(bodies.theta0(i), e)
+                    + 2 * Math.PI / bodies.period(i) * t;
+            double E = KeplerSolver.eccentricAnomaly(M, e);
+            double cosE = Math.cos(E);
+            double sinE = Math.sin(E);
+            double root = Math.sqrt(1 - e * e);
+            double xp = a * (cosE - e);
+            double yp = a * root * sinE;
+            double speed = Math.sqrt(GM_SUN * (1 + m) / a) / (1 - e * cosE);
+            double vxp = -speed * sinE;
+            double vyp = speed * root * cosE;
+            OrbitProjection.perifocal(bodies, i, pq, 0);
+            x[i] = xp * pq[0] + yp * pq[3];
+            y[i] = xp * pq[1] + yp * pq[4];
+            z[i] = xp * pq[2] + yp * pq[5];
+            vx[i] = vxp * pq[0] + vyp * pq[3];
+            vy[i] = vxp * pq[1] + vyp * pq[4];
+            vz[i] = vxp * pq[2] + vyp * pq[5];
+            if (m > 0) {
+                totalMass += m;
+                cx += m * x[i];
+                cy += m * y[i];
+                cz += m * z[i];
+                cvx += m * vx[i];
+                cvy += m * vy[i];
+                cvz += m * vz[i];
+            }
+        }
+
+        // Move to the barycentric frame, the Sun being at rest at the origin until now
+        cx /= totalMass;
+        cy /= totalMass;
+        cz /= totalMass;
+        cvx /= totalMass;
+        cvy /= totalMass;
+        cvz /= totalMass;
+        for (int i = 0; i < n; i++) {
+            x[i] -= cx;
+            y[i] -= cy;
+            z[i] -= cz;
+            vx[i] -= cvx;
+            vy[i] -= cvy;
+            vz[i] -= cvz;
+        }
+        mx[0] = -cx;
+        my[0] = -cy;
+        mz[0] = -cz;
+        mvx[0] = -cvx;
+        mvy[0] = -cvy;
+        mvz[0] = -cvz;
+        for (int k = 1; k < massCount; k++) {
+            int i = massIndex[k];
+            mx[k] = x[i];
+            my[k] = y[i];
+            mz[k] = z[i];
+            mvx[k] = vx[i];
+            mvy[k] = vy[i];
+            mvz[k] = vz[i];
+        }
+        accelerateMassive();
+        for (int p = 0; p < particleCount; p++) accelerate(particles[p]);
+        time = t;
+        started = true;
+        steps = 0;
+        energy0 = energy();
+        energyError = 0;
+    }
+
+    // One kick-drift-kick step of h years for the massive bodies, recording their positions in
+    // track at offset
+    private void stepMassive(double h, int offset) {
+        double half = 0.5 * h;
+        for (int k = 0; k < massCount; k++) {
+            mvx[k] += half * max[k];
+            mvy[k] += half * may[k];
+            mvz[k] += half * maz[k];
+            mx[k] += h * mvx[k];
+            my[k] += h * mvy[k];
+            mz[k] += h * mvz[k];
+        }
+        accelerateMassive();
+        for (int k = 0; k < massCount; k++) {
+            mvx[k] += half * max[k];
+            mvy[k] += half * may[k];
+            mvz[k] += half * maz[k];
+            track[offset + 3 * k] = mx[k];
+            track[offset + 3 * k + 1] = my[k];
+            track[offset + 3 * k + 2] = mz[k];
+        }
+    }
+
+    // Mutual accelerations of the massive bodies
+    private void accelerateMassive() {
+        for (int k = 0; k < massCount; k++) {
+            max[k] = 0;
+            may[k] = 0;
+            maz[k] = 0;
+        }
+        for (int j = 0; j < massCount; j++) {
+            for (int k = j + 1; k < massCount; k++) {
+                double dx = mx[k] - mx[j];
+                double dy = my[k] - my[j];
+                double dz = mz[k] - mz[j];
+                double r2 = dx * dx + dy * dy + dz * dz;
+                double inv3 = 1 / (r2 * Math.sqrt(r2));
+                max[j] += gm[k] * inv3 * dx;
+                may[j] += gm[k] * inv3 * dy;
+                maz[j] += gm[k] * inv3 * dz;
+                max[k] -= gm[j] * inv3 * dx;
+                may[k] -= gm[j] * inv3 * dy;
+                maz[k] -= gm[j] * inv3 * dz;
+            }
+        }
+    }
+
+    // Acceleration of body i from the massive bodies (used at a restart; the stepping loop has it
+    // inline)
+    private void accelerate(int i) {
+        double px = x[i];
+        double py = y[i];
+        double pz = z[i];
+        double sx = 0, sy = 0, sz = 0;
+        for (int k = 0; k < massCount; k++) {
+            double dx = px - mx[k];
+            double dy = py - my[k];
+            double dz = pz - mz[k];
+            double r2 = dx * dx + dy * dy + dz * dz;
+            double f = gm[k] / (r2 * Math.sqrt(r2));
+            sx -= f * dx;
+            sy -= f * dy;
+            sz -= f * dz;
+        }
+        ax[i] = sx;
+        ay[i] = sy;
+        az[i] = sz;
+    }
+
+    // Take test particles from (inclusive) to to (exclusive) through n steps of h years against
+    // the recorded positions of the massive bodies
+    private void stepParticles(int from, int to, int n, double h) {
+        double half = 0.5 * h;
+        int stride = 3 * massCount;
+        for (int p = from; p < to; p++) {
+            int i = particles[p];
+            double px = x[i], py = y[i], pz = z[i];
+            double qx = vx[i], qy = vy[i], qz = vz[i];
+            double gx = ax[i], gy = ay[i], gz = az[i];
+            for (int s = 0; s < n; s++) {
+                qx += half * gx;
+                qy += half * gy;
+                qz += half * gz;
+                px += h * qx;
+                py += h * qy;
+                pz += h * qz;
+                gx = 0;
+                gy = 0;
+                gz = 0;
+                int offset = stride * s;
+                for (int k = 0; k < massCount; k++) {
+                    double dx = px - track[offset + 3 * k];
+                    double dy = py - track[offset + 3 * k + 1];
+                    double dz = pz - track[offset + 3 * k + 2];
+                    double r2 = dx * dx + dy * dy + dz * dz;
+                    double f = gm[k] / (r2 * Math.sqrt(r2));
+                    gx -= f * dx;
+                    gy -= f * dy;
+                    gz -= f * dz;
+                }
+                qx += half * gx;
+                qy += half * gy;
+                qz += half * gz;
+            }
+            x[i] = px;
+            y[i] = py;
+            z[i] = pz;
+            vx[i] = qx;
+            vy[i] = qy;
+            vz[i] = qz;
+            ax[i] = gx;
+            ay[i] = gy;
+            az[i] = gz;
+        }
+    }
+
+    // Task stepping a range of test particles, split in halves until no larger than chunk
+    private class StepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int n;
+        private final double h;
+
+        StepTask(int from, int to, int n, double h) {
+            this.from = from;
+            this.to = to;
+            this.n = n;
+            this.h = h;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                stepParticles(from, to, n, h);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StepTask(from, mid, n, h), new StepTask(mid, to, n, h));
+            }
+        }
+    }
+
+    // Total energy of the massive bodies (kinetic plus potential, in units of G solar masses
+    // AU^2/year^2 per solar mass, which is all the relative error needs)
+    public double energy() {
+        double kinetic = 0;
+        double potential = 0;
+        for (int j = 0; j < massCount; j++) {
+            kinetic += 0.5 * gm[j] * (mvx[j] * mvx[j] + mvy[j] * mvy[j] + mvz[j] * mvz[j]);
+            for (int k = j + 1; k < massCount; k++) {
+                double dx = mx[k] - mx[j];
+                double dy = my[k] - my[j];
+                double dz = mz[k] - mz[j];
+                potential -= gm[j] * gm[k] / Math.sqrt(dx * dx + dy * dy + dz * dz);
+            }
+        }
+        return kinetic + potential;
+    }
+
+    // Relative change of the energy of the massive bodies since the last restart
+    public double getEnergyError() {
+        return energyError;
+    }
+
+    // Store the positions relative to the Sun, projected onto the screen, in points as x, y
+    // pairs (pixels, y down).  direction is the orbit direction of the display (counter-clockwise
+    // -1; clockwise +1), pixelScale the number of pixels per AU and tiltDeg the tilt of the view
+    // from the ecliptic pole, as for OrbitProjection.
+    public void project(double pixelScale, double direction, double tiltDeg, float points[]) {
+        double tilt = Math.toRadians(tiltDeg);
+        double sx = direction * pixelScale;
+        double cx = -Math.cos(tilt) * pixelScale;
+        double cz = -Math.sin(tilt) * pixelScale;
+        for (int i = 0; i < size; i++) {
+            double X = x[i] - mx[0];
+            double Y = y[i] - my[0];
+            double Z = z[i] - mz[0];
+            points[2 * i] = (float) (sx * Y);
+            points[2 * i + 1] = (float) (cx * X + cz * Z);
+        }
+    }
+
+    // Size the arrays for the BodySet and sort its bodies into massive ones and test particles
+    private void sync() {
+        int n = bodies.size();
+        locateMasses(n);
+        if (x == null || x.length < n) {
+            int capacity = bodies.capacity();
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            vx = new double[capacity];
+            vy = new double[capacity];
+            vz = new double[capacity];
+            ax = new double[capacity];
+            ay = new double[capacity];
+            az = new double[capacity];
+            particles = new int[capacity];
+        }
+        int count = 1;
+        for (int i = 0; i < n; i++) {
+            if (mass(i) > 0) count++;
+        }
+        massCount = count;
+        massIndex = new int[count];
+        gm = new double[count];
+        mx = new double[count];
+        my = new double[count];
+        mz = new double[count];
+        mvx = new double[count];
+        mvy = new double[count];
+        mvz = new double[count];
+        max = new double[count];
+        may = new double[count];
+        maz = new double[count];
+        massIndex[0] = -1;
+        gm[0] = GM_SUN;
+        int k = 1;
+        particleCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (mass(i) > 0) {
+                massIndex[k] = i;
+                gm[k] = GM_SUN * mass(i);
+                k++;
+            } else {
+                particles[particleCount++] = i;
+            }
+        }
+        track = null;
+        size = n;
+        version = bodies.version();
+    }
+
+    private double mass(int i) {
+        return i < mass.length ? mass[i] : 0;
+    }
+
+    // Give the massive bodies their masses at their indices in the set as it is now, looking for
+    // each where it was last and then, if it has moved, through the whole set
+    private void locateMasses(int n) {
+        mass = new double[n];
+        for (int k = 0; k < massOf.length; k++) {
+            int i = massAt[k];
+            if (i < 0 || i >= n || !isMassive(k, i)) {
+                for (i = 0; i < n; i++) {
+                    if (mass[i] == 0 && isMassive(k, i)) break;
+                }
+                massAt[k] = i < n ? i : -1;
+            }
+            if (massAt[k] >= 0) mass[massAt[k]] = massOf[k];
+        }
+    }
+
+    // Whether body i of the set is massive body k
+    private boolean isMassive(int k, int i) {
+        String name = bodies.name(i);
+        if (name == null ? massName[k] != null : !name.equals(massName[k])) return false;
+        elements(i, found, 0);
+        for (int j = 0; j < ELEMENTS; j++) {
+            long expected = Double.doubleToLongBits(massElements[ELEMENTS * k + j]);
+            if (Double.doubleToLongBits(found[j]) != expected) return false;
+        }
+        return true;
+    }
+
+    // Store the orbital elements of body i at out[offset ..]
+    private void elements(int i, double out[], int offset) {
+        out[offset] = bodies.epsilon(i);
+        out[offset + 1] = bodies.a(i);
+        out[offset + 2] = bodies.period(i);
+        out[offset + 3] = bodies.theta0(i);
+        out[offset + 4] = bodies.orientDeg(i);
+        out[offset + 5] = bodies.retroFac(i);
+        out[offset + 6] = bodies.inclDeg(i);
+        out[offset + 7] = bodies.nodeDeg(i);
+        out[offset + 8] = bodies.periDeg(i);
+    }
+
+    // Number of bodies with current positions
+    public int size() {
+        return size;
+    }
+
+    // Number of massive bodies, the Sun included
+    public int massiveCount() {
+        return massCount;
+    }
+
+    public BodySet getBodies() {
+        return bodies;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    // Steps taken since the last restart
+    public long getSteps() {
+        return steps;
+    }
+
+    // Position of body i relative to the Sun (AU, ecliptic coordinates)
+    public double heliocentricX(int i) {
+        return x[i] - mx[0];
+    }
+
+    public double heliocentricY(int i) {
+        return y[i] - my[0];
+    }
+
+    public double heliocentricZ(int i) {
+        return z[i] - mz[0];
+    }
+}
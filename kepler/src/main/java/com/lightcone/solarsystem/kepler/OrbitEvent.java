@@ -0,0 +1,60 @@
+package com.lightcone.solarsystem.kepler;
+
+/* An event found by ApproachFinder:  a close approach of a body to the reference body (Earth) or a
+   conjunction of two bodies as seen from it.  body and other are indices into the BodySet, other
+   being SUN (-1) for a conjunction with the Sun.  value is the distance at closest approach (AU)
+   or the difference in ecliptic latitude at the conjunction (radians).  Events sort by time. */
+
+public final class OrbitEvent implements Comparable<OrbitEvent> {
+
+    public static final int CLOSE_APPROACH = 0;
+    public static final int CONJUNCTION = 1;
+    public static final int SUN = -1;
+
+    private final int type;
+    private final int body;
+    private final int other;
+    private final double time;
+    private final double value;
+
+    public OrbitEvent(int type, int body, int other, double time, double value) {
+        this.type = type;
+        this.body = body;
+        this.other = other;
+        this.time = time;
+        this.value = value;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public int body() {
+        return body;
+    }
+
+    public int other() {
+        return other;
+    }
+
+    // Time of the event (years since the epoch of the BodySet)
+    public double time() {
+        return time;
+    }
+
+    // Distance (AU) for a close approach; latitude difference (radians) for a conjunction
+    public double value() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(OrbitEvent o) {
+        return Double.compare(time, o.time);
+    }
+
+    @Override
+    public String toString() {
+        return (type == CLOSE_APPROACH ? "approach " : "conjunction ") + body + " " + other
+                + " at " + time + ": " + value;
+    }
+}
@@ -0,0 +1,250 @@
+package com.lightcone.solarsystem.kepler;
+
+/* Cache of the orbit paths of a BodySet, drawn as line segments.  Each orbit is sampled in AU,
+   already projected onto the screen for the tilt of the view (see OrbitProjection), and stored in
+   the layout expected by Canvas.drawLines() (x0, y0, x1, y1 for every segment) so that all orbits
+   can be drawn with a single call.  Coordinates are relative to the focus, with y down.
+
+   The orbits are sampled uniformly in the eccentric anomaly E, x = b sin E, y = -a (cos E - e).
+   For a chord spanning dE the largest distance between chord and ellipse is a dE^2 / 8 (at the
+   ends of the major axis), whatever the eccentricity, so the number of segments needed to stay
+   within a tolerance of t pixels is 2 pi / sqrt(8 t / a) with a in pixels.  Sampling in E also
+   puts the points close together around perihelion where a very elliptical orbit turns sharply,
+   and far apart along the flat stretches.  The count is rounded up to a power of two, and the
+   orbits are sampled again only when a count becomes too small or more than twice as large as
+   needed (or after invalidate()), so most zoom changes only multiply the cached coordinates by
+   the new number of pixels per AU.  Orbits smaller than cullPixels across are not drawn.
+   A change to the BodySet (see BodySet.version()) or to the tilt also causes the orbits to be
+   sampled again.
+
+   Counters record how often lines() was served from the cache, rescaled, or rebuilt.  saved()
+   copies the sampled orbits for a SimulationCheckpoint, and restore() installs them in a later
+   process so that the first lines() only rescales them. */
+
+public class OrbitGeometry {
+
+    public static final double DEFAULT_TOLERANCE = 0.25;   // Allowed deviation from the ellipse (pixels)
+    public static final double DEFAULT_CULL = 3;           // Orbits smaller than this are not drawn (pixels)
+    private static final int MIN_SEGMENTS = 16;
+    private static final int MAX_SEGMENTS = 4096;
+
+    private final BodySet bodies;
+    private final double direction;                // Orbit direction: counter-clockwise -1; clockwise +1
+    private double tiltDeg;                        // Tilt of the view from the ecliptic pole (degrees)
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double cullPixels = DEFAULT_CULL;
+    private int segments[];                        // Number of segments for each orbit (0 if culled)
+    private float unitLines[];                     // Orbit segments in AU
+    private float lines[];                         // Orbit segments in pixels
+    private int lineCount;                         // Number of floats used in lines[]
+    private double pixelScale;                     // Scale of lines[] (pixels per AU)
+    private double requestedScale;                 // Scale requested by the last setScale()
+    private boolean geometryValid;
+    private boolean scaleValid;
+    private int version;                           // BodySet version the geometry describes
+    private long hits;
+    private long rescales;
+    private long rebuilds;
+
+    // Sampled orbits in AU, with the settings they were sampled for
+    public static final class Saved {
+        final double tiltDeg;
+        final double tolerance;
+        final double cullPixels;
+        final int segments[];
+        final float unitLines[];
+
+        Saved(double tiltDeg, double tolerance, double cullPixels, int segments[], float unitLines[]) {
+            this.tiltDeg = tiltDeg;
+            this.tolerance = tolerance;
+            this.cullPixels = cullPixels;
+            this.segments = segments;
+            this.unitLines = unitLines;
+        }
+    }
+
+    // Orbits of bodies moving counter-clockwise, as in KeplerRunner
+    public OrbitGeometry(BodySet bodies) {
+        this(bodies, -1);
+    }
+
+    public OrbitGeometry(BodySet bodies, double direction) {
+        this.bodies = bodies;
+        this.direction = direction;
+    }
+
+    // Set the number of pixels per AU.  Takes effect at the next call of lines().
+    public void setScale(double pixelScale) {
+        requestedScale = pixelScale;
+        if (pixelScale != this.pixelScale) scaleValid = false;
+    }
+
+    // Tilt the view by tiltDeg from the ecliptic pole (0 face-on, 90 edge-on).  Takes effect at
+    // the next call of lines().
+    public void setTilt(double tiltDeg) {
+        if (tiltDeg == this.tiltDeg) return;
+        this.tiltDeg = tiltDeg;
+        invalidate();
+    }
+
+    // Set the largest allowed distance (pixels) between the drawn segments and the true ellipse
+    public void setTolerance(double tolerance) {
+        if (tolerance <= 0) throw new IllegalArgumentException("Tolerance must be positive");
+        this.tolerance = tolerance;
+        invalidate();
+    }
+
+    // Set the on-screen size (pixels) below which an orbit is not drawn
+    public void setCullPixels(double cullPixels) {
+        this.cullPixels = cullPixels;
+        invalidate();
+    }
+
+    // Discard the cached geometry so that the orbits are sampled again at the next lines()
+    public void invalidate() {
+        geometryValid = false;
+        scaleValid = false;
+    }
+
+    // Return the orbit segments in pixels, for use with the first lineCount() entries
+    public float[] lines() {
+        if (version != bodies.version()) invalidate();
+        if (scaleValid && geometryValid) {
+            hits++;
+            return lines;
+        }
+        if (!geometryValid || segmentsChanged(requestedScale)) rebuild(requestedScale);
+        rescale();
+        return lines;
+    }
+
+    // Number of floats (4 per segment) used in the array returned by lines()
+    public int lineCount() {
+        return lineCount;
+    }
+
+    // Number of segments used for orbit i at the current scale (0 if culled)
+    public int segments(int i) {
+        return segments[i];
+    }
+
+    // A copy of the sampled orbits, or null if they are not sampled for the current BodySet
+    public Saved saved() {
+        if (!geometryValid || version != bodies.version()) return null;
+        float copy[] = new float[lineCount];
+        System.arraycopy(unitLines, 0, copy, 0, lineCount);
+        return new Saved(tiltDeg, tolerance, cullPixels, segments.clone(), copy);
+    }
+
+    // Use saved orbits instead of sampling them again, unless orbits are sampled already or the
+    // saved ones are for another number of bodies, tilt, tolerance or culling size.  Returns
+    // whether they were used.  The caller must know that they come from the same BodySet.
+    public boolean restore(Saved saved) {
+        if (geometryValid && version == bodies.version()) return false;
+        if (saved.segments.length != bodies.size() || saved.tiltDeg != tiltDeg
+                || saved.tolerance != tolerance || saved.cullPixels != cullPixels) {
+            return false;
+        }
+        int total = 0;
+        for (int i = 0; i < saved.segments.length; i++) total += 4 * saved.segments[i];
+        if (total != saved.unitLines.length) return false;
+        segments = saved.segments.clone();
+        unitLines = saved.unitLines.clone();
+        lines = new float[total];
+        lineCount = total;
+        version = bodies.version();
+        geometryValid = true;
+        scaleValid = false;
+        return true;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getRescales() {
+        return rescales;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    // Number of segments needed for orbit i at the given scale
+    private int segmentsFor(int i, double scale) {
+        double a = scale * bodies.a(i);
+        if (a * (1 + bodies.epsilon(i)) < cullPixels) return 0;
+        double raw = 2 * Math.PI / Math.sqrt(8 * tolerance / a);
+        int n = MIN_SEGMENTS;
+        while (n < raw && n < MAX_SEGMENTS) n <<= 1;
+        return n;
+    }
+
+    // Whether any orbit is too coarse, much finer than needed, or should change culling
+    private boolean segmentsChanged(double scale) {
+        for (int i = 0; i < bodies.size(); i++) {
+            int needed = segmentsFor(i, scale);
+            int current = segments[i];
+            if (current < needed || current > 2 * needed) return true;
+        }
+        return false;
+    }
+
+    // Sample every orbit in AU with the number of segments needed at the given scale
+    private void rebuild(double scale) {
+        int n = bodies.size();
+        if (segments == null || segments.length != n) segments = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            segments[i] = segmentsFor(i, scale);
+            total += 4 * segments[i];
+        }
+        if (unitLines == null || unitLines.length < total) {
+            unitLines = new float[total];
+            lines = new float[total];
+        }
+        int k = 0;
+        double m[] = new double[4];
+        for (int i = 0; i < n; i++) {
+            int count = segments[i];
+            if (count == 0) continue;
+            double e = bodies.epsilon(i);
+            double a = bodies.a(i);
+            double b = a * Math.sqrt(1 - e * e);
+            OrbitProjection.screenMatrix(bodies, i, direction, tiltDeg, m, 0);
+            double dE = 2 * Math.PI / count;
+
+            // Starting point at perihelion (E = 0)
+            double yy = -a * (1 - e);
+            float lastxx = (float) (m[1] * yy);
+            float lastyy = (float) (m[3] * yy);
+            for (int j = 1; j <= count; j++) {
+                double E = j * dE;
+                double xx = b * Math.sin(E);
+                yy = -a * (Math.cos(E) - e);
+                float rx = (float) (m[0] * xx + m[1] * yy);
+                float ry = (float) (m[2] * xx + m[3] * yy);
+                unitLines[k++] = lastxx;
+                unitLines[k++] = lastyy;
+                unitLines[k++] = rx;
+                unitLines[k++] = ry;
+                lastxx = rx;
+                lastyy = ry;
+            }
+        }
+        lineCount = total;
+        version = bodies.version();
+        geometryValid = true;
+        rebuilds++;
+    }
+
+    private void rescale() {
+        float scale = (float) requestedScale;
+        for (int k = 0; k < lineCount; k++) {
+            lines[k] = scale * unitLines[k];
+        }
+        pixelScale = requestedScale;
+        scaleValid = true;
+        rescales++;
+    }
+}
@@ -0,0 +1,83 @@
+package com.lightcone.solarsystem.kepler;
+
+/* Orientation of an orbit in space and its projection onto the screen.
+
+   The propagators compute a position in the plane of the orbit in the original display
+   convention:  x = b sin E, y = -a (cos E - e), which puts the perihelion at 12 o'clock.  Turning
+   these into the standard perifocal coordinates (xp toward the perihelion, yp 90 degrees ahead in
+   the direction of motion) and rotating by the argument of perihelion w, the inclination i and
+   the longitude of the ascending node W gives the heliocentric ecliptic position
+
+        r = xp P + yp Q,
+        P = (cos W cos w - sin W sin w cos i,  sin W cos w + cos W sin w cos i,  sin w sin i),
+        Q = (-cos W sin w - sin W cos w cos i,  -sin W sin w + cos W cos w cos i,  cos w sin i).
+
+   The screen looks down on the ecliptic from the north with the vernal equinox at 12 o'clock (as
+   the orientation angles of BodySet and CatalogLoader assume), y down, and the camera tilted by an
+   angle about the horizontal axis (0 looks straight down, 90 along the ecliptic).  A propagator
+   with clockwise direction (+1) sees the same orbits mirrored left to right, as from the south.
+   All of these are linear, and the orbit-plane position has no third component, so the whole chain
+   for one body folds into a 2 x 2 matrix:
+
+        sx = m0 x + m1 y,        sy = m2 x + m3 y,
+
+   which costs the propagation loop exactly what the old rotation by orientDeg cost.  The matrix is
+   computed once per body (and again only when the camera tilts).  For an orbit in the ecliptic
+   with the legacy elements of BodySet it reduces to the clockwise rotation by orientDeg. */
+
+public final class OrbitProjection {
+
+    private OrbitProjection() {
+    }
+
+    // Store at m[offset .. offset + 3] the matrix taking the orbit-plane position of body i to
+    // the screen for a camera tilted tiltDeg from the ecliptic pole.  direction is the orbit
+    // direction of the propagator (counter-clockwise -1; clockwise +1).  For an orbit in the
+    // ecliptic seen face-on this is the clockwise rotation by orientDeg when direction is -1.
+    public static void screenMatrix(BodySet bodies, int i, double direction, double tiltDeg,
+                                    double m[], int offset) {
+        double pq[] = new double[6];
+        perifocal(bodies, i, pq, 0);
+        double px = pq[0];
+        double py = pq[1];
+        double pz = pq[2];
+        double qx = pq[3];
+        double qy = pq[4];
+        double qz = pq[5];
+
+        // Orbit plane to perifocal:  xp = -y, yp = s x, where s is the sense of the motion of the
+        // display convention (the propagator's mean motion has the sign of direction * retroFac)
+        double s = direction * bodies.retroFac(i);
+
+        // Ecliptic to screen:  sx = -Y (mirrored for clockwise) and sy = -X cos(tilt) - Z sin(tilt),
+        // so that tilting brings the north side of the ecliptic up the screen
+        double mirror = -direction;
+        double tilt = Math.toRadians(tiltDeg);
+        double cosTilt = Math.cos(tilt);
+        double sinTilt = Math.sin(tilt);
+        m[offset] = -mirror * s * qy;
+        m[offset + 1] = mirror * py;
+        m[offset + 2] = -s * (qx * cosTilt + qz * sinTilt);
+        m[offset + 3] = px * cosTilt + pz * sinTilt;
+    }
+
+    // Store at pq[offset .. offset + 5] the ecliptic components of the perifocal unit vectors P
+    // (toward the perihelion) and Q (90 degrees ahead in the direction of motion) of body i
+    static void perifocal(BodySet bodies, int i, double pq[], int offset) {
+        double node = Math.toRadians(bodies.nodeDeg(i));
+        double peri = Math.toRadians(bodies.periDeg(i));
+        double incl = Math.toRadians(bodies.inclDeg(i));
+        double cosNode = Math.cos(node);
+        double sinNode = Math.sin(node);
+        double cosPeri = Math.cos(peri);
+        double sinPeri = Math.sin(peri);
+        double cosIncl = Math.cos(incl);
+        double sinIncl = Math.sin(incl);
+        pq[offset] = cosNode * cosPeri - sinNode * sinPeri * cosIncl;
+        pq[offset + 1] = sinNode * cosPeri + cosNode * sinPeri * cosIncl;
+        pq[offset + 2] = sinPeri * sinIncl;
+        pq[offset + 3] = -cosNode * sinPeri - sinNode * cosPeri * cosIncl;
+        pq[offset + 4] = -sinNode * sinPeri + cosNode * cosPeri * cosIncl;
+        pq[offset + 5] = cosPeri * sinIncl;
+    }
+}
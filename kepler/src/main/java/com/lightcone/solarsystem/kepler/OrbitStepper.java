@@ -0,0 +1,105 @@
+package com.lightcone.solarsystem.kepler;
+
+/* Stepping engine that advances every body of a BodySet by one animation timestep.  The angle
+   theta is incremented by an amount consistent with Kepler's 2nd law (equal areas in equal
+   time) and the new position is found from the equation of the ellipse.  Positions are in
+   pixels measured from the focus (the Sun), with x to the right and y down, so a view only has
+   to add the screen coordinates of the focus.
+
+   This is a first-order explicit scheme, so error accumulates with the number of steps
+   (DriftHarness measures how much).  The display uses KeplerPropagator; this engine is kept as
+   the reference for the original animation when comparing accuracy and speed.  It works on the
+   bodies present when it is constructed and does not follow later changes to the BodySet. */
+
+public class OrbitStepper {
+
+    private final BodySet bodies;
+    private final int n;                           // Number of bodies stepped
+    private final double direction;                // Orbit direction: counter-clockwise -1; clockwise +1
+    private final double dt;                       // Animation timestep (years)
+    private final float x[];                       // Current x position of body relative to focus (pixels)
+    private final float y[];                       // Current y position of body relative to focus (pixels)
+    private final float R0[];                      // Radius of orbit in pixels
+    private final double theta[];                  // Body angle (radians clockwise from 12 o'clock)
+    private final double dTheta[];                 // Angular increment each step (radians)
+    private final double c1[];                     // The constant distance scale factor a*(1-epsilon^2)
+    private final double c2[];                     // Constant used to compute dTheta[i] from dt
+
+    public OrbitStepper(BodySet bodies, double dt, double direction) {
+        this.bodies = bodies;
+        this.dt = dt;
+        this.direction = direction;
+        n = bodies.size();
+        x = new float[n];
+        y = new float[n];
+        R0 = new float[n];
+        theta = new double[n];
+        dTheta = new double[n];
+        c1 = new double[n];
+        c2 = new double[n];
+        for (int i = 0; i < n; i++) {
+            theta[i] = -direction * bodies.theta0(i);
+        }
+    }
+
+    // Compute scales c1[] and c2[] carrying distance units in pixels.  Called whenever the
+    // number of pixels per AU changes (layout or zoom).
+    public void setScale(double pixelScale) {
+        for (int i = 0; i < n; i++) {
+            double epsilon = bodies.epsilon(i);
+            double a = bodies.a(i);
+            c1[i] = pixelScale * a * (1 - epsilon * epsilon);
+            c2[i] = direction * 2 * Math.PI * Math.sqrt(1 - epsilon * epsilon)
+                    * dt * (pixelScale * a) * (pixelScale * a) / bodies.period(i);
+        }
+    }
+
+    // Set the radius and position of each body from its current angle using the current scale
+    public void initPositions() {
+        for (int i = 0; i < n; i++) {
+            R0[i] = (float) distanceFromFocus(c1[i], bodies.epsilon(i), theta[i]);
+            // The change in theta consistent with Kepler's 2nd law (equal areas in equal time)
+            dTheta[i] = c2[i] / R0[i] / R0[i];
+            x[i] = -R0[i] * (float) Math.sin(theta[i]);
+            y[i] = -R0[i] * (float) Math.cos(theta[i]);
+        }
+    }
+
+      /* Increment angle theta and compute the new x and y.  The orbits of the
+      planets are ellipses with the Sun at one focus.   */
+
+    public void step() {
+        for (int i = 0; i < n; i++) {
+            dTheta[i] = bodies.retroFac(i) * c2[i] / R0[i] / R0[i];
+            theta[i] += dTheta[i];
+            R0[i] = (float) distanceFromFocus(c1[i], bodies.epsilon(i), theta[i]);
+            x[i] = (float) (R0[i] * Math.sin(theta[i]));
+            y[i] = -(float) (R0[i] * Math.cos(theta[i]));
+        }
+    }
+
+    // Return distance from focus for elliptical orbit (in units of c1)
+    public static double distanceFromFocus(double c1, double epsilon, double theta) {
+        return (c1 / (1 + epsilon * Math.cos(theta)));
+    }
+
+    public BodySet getBodies() {
+        return bodies;
+    }
+
+    public float x(int i) {
+        return x[i];
+    }
+
+    public float y(int i) {
+        return y[i];
+    }
+
+    public double theta(int i) {
+        return theta[i];
+    }
+
+    public double c1(int i) {
+        return c1[i];
+    }
+}
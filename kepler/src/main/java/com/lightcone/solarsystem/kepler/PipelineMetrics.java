@@ -0,0 +1,222 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Instrumentation of the animation pipeline:  a LatencyHistogram for the time of each stage of a
+   frame, the simulation steps taken, and the number of bodies, together with the hit counts of
+   the ephemeris tables and the orbit geometry cache when they are watched (and the energy error
+   of an NBodyIntegrator while one moves the bodies).  The stages are
+
+        PROPAGATE    positions for the new simulation time (solved or interpolated), worker thread
+        CULL         ScreenGrid of the positions (culling and the cell index) and the heat map
+                     of crowded bodies (DensityGrid), worker thread
+        TESSELLATE   orbit segments (a cache hit, a rescale or a rebuild), UI thread
+        DRAW         the rest of onDraw, UI thread
+
+   Recording allocates nothing.  sample() turns the counters into rates (simulation steps and
+   frames per second) at most once per interval, and lines() formats them for an on-screen
+   overlay; both run on the UI thread.  write() dumps everything, including the histograms, as
+   text for offline analysis. */
+
+public class PipelineMetrics {
+
+    public static final int PROPAGATE = 0;
+    public static final int CULL = 1;
+    public static final int TESSELLATE = 2;
+    public static final int DRAW = 3;
+    public static final int STAGES = 4;
+    public static final long DEFAULT_INTERVAL = 1000000000L;    // Nanoseconds between rate samples
+
+    private static final String STAGE_NAMES[] = {"propagate", "cull", "tessellate", "draw"};
+
+    private final LatencyHistogram stages[] = new LatencyHistogram[STAGES];
+    private final AtomicLong steps = new AtomicLong();  // Simulation steps taken (worker thread)
+    private volatile int bodies;                   // Number of bodies in the last frame
+    private EphemerisCache ephemeris;              // Watched caches (null if not watched)
+    private OrbitGeometry orbits;
+    private volatile NBodyIntegrator integrator;   // Watched integration (null if none)
+    private final long interval;
+    private long sampleNanos;                      // Time of the last rate sample (UI thread)
+    private long sampleSteps;
+    private long sampleFrames;
+    private double stepsPerSecond;
+    private double framesPerSecond;
+    private String lines[];                        // Overlay text of the last sample
+
+    public PipelineMetrics() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    public PipelineMetrics(long interval) {
+        this.interval = interval;
+        for (int s = 0; s < STAGES; s++) stages[s] = new LatencyHistogram();
+    }
+
+    // Report the hit rates of these caches as well (either may be null)
+    public void watch(EphemerisCache ephemeris, OrbitGeometry orbits) {
+        this.ephemeris = ephemeris;
+        this.orbits = orbits;
+    }
+
+    // Report the energy error of integrator as well (null to stop)
+    public void watch(NBodyIntegrator integrator) {
+        this.integrator = integrator;
+        lines = null;
+    }
+
+    // Record the duration of one run of stage (nanoseconds).  Each stage must be recorded from
+    // one thread only.
+    public void record(int stage, long nanos) {
+        stages[stage].record(nanos);
+    }
+
+    // Count simulation steps taken (called by the thread advancing the clock)
+    public void addSteps(long count) {
+        if (count != 0) steps.lazySet(steps.get() + Math.abs(count));
+    }
+
+    public void setBodies(int count) {
+        bodies = count;
+    }
+
+    public LatencyHistogram stage(int stage) {
+        return stages[stage];
+    }
+
+    public static String stageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public long getSteps() {
+        return steps.get();
+    }
+
+    public int getBodies() {
+        return bodies;
+    }
+
+    // Frames drawn (the number of DRAW recordings)
+    public long getFrames() {
+        return stages[DRAW].count();
+    }
+
+    // Update the rates if at least the sampling interval has passed since the last update, and
+    // return whether they were updated
+    public boolean sample(long nowNanos) {
+        if (sampleNanos == 0) {
+            sampleNanos = nowNanos;
+            sampleSteps = getSteps();
+            sampleFrames = getFrames();
+            return false;
+        }
+        long elapsed = nowNanos - sampleNanos;
+        if (elapsed < interval) return false;
+        long stepCount = getSteps();
+        long frameCount = getFrames();
+        stepsPerSecond = 1e9 * (stepCount - sampleSteps) / elapsed;
+        framesPerSecond = 1e9 * (frameCount - sampleFrames) / elapsed;
+        sampleNanos = nowNanos;
+        sampleSteps = stepCount;
+        sampleFrames = frameCount;
+        lines = null;
+        return true;
+    }
+
+    // Simulation steps and frames per second over the last sampling interval
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    // Fraction of lookups served by the ephemeris tables and by the cached orbit segments (NaN
+    // if not watched or not used yet)
+    public double ephemerisHitRate() {
+        if (ephemeris == null) return Double.NaN;
+        return rate(ephemeris.getHits(), ephemeris.getMisses());
+    }
+
+    public double orbitHitRate() {
+        if (orbits == null) return Double.NaN;
+        return rate(orbits.getHits(), orbits.getRescales() + orbits.getRebuilds());
+    }
+
+    private static double rate(long hits, long misses) {
+        return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+    }
+
+    // Text of the on-screen overlay, one line per entry.  The lines are formatted again only
+    // after sample() has updated the rates, so drawing them every frame allocates nothing.
+    public String[] lines() {
+        if (lines == null) {
+            NBodyIntegrator nbody = integrator;
+            String text[] = new String[nbody != null ? STAGES + 4 : STAGES + 3];
+            text[0] = String.format(Locale.US, "%.0f fps  %.0f steps/s  %d bodies",
+                    framesPerSecond, stepsPerSecond, bodies);
+            for (int s = 0; s < STAGES; s++) {
+                LatencyHistogram h = stages[s];
+                text[s + 1] = String.format(Locale.US, "%-10s mean %7.3f  p99 %7.3f  max %7.3f ms",
+                        STAGE_NAMES[s], h.meanNanos() / 1e6, h.percentileNanos(0.99) / 1e6,
+                        h.maxNanos() / 1e6);
+            }
+            text[STAGES + 1] = String.format(Locale.US, "ephemeris hits %s", percent(ephemerisHitRate()));
+            text[STAGES + 2] = String.format(Locale.US, "orbit cache hits %s", percent(orbitHitRate()));
+            if (nbody != null) {
+                text[STAGES + 3] = String.format(Locale.US, "n-body energy error %.2e",
+                        nbody.getEnergyError());
+            }
+            lines = text;
+        }
+        return lines;
+    }
+
+    private static String percent(double rate) {
+        return Double.isNaN(rate) ? "-" : String.format(Locale.US, "%.1f%%", 100 * rate);
+    }
+
+    // Write every counter and histogram as text
+    public void write(Writer out) throws IOException {
+        out.write(String.format(Locale.US, "frames %d%nsteps %d%nbodies %d%n", getFrames(),
+                getSteps(), bodies));
+        out.write(String.format(Locale.US, "fps %.2f%nsteps_per_second %.2f%n", framesPerSecond,
+                stepsPerSecond));
+        if (ephemeris != null) {
+            out.write(String.format(Locale.US, "ephemeris hits %d misses %d builds %d evictions %d%n",
+                    ephemeris.getHits(), ephemeris.getMisses(), ephemeris.getBuilds(),
+                    ephemeris.getEvictions()));
+        }
+        if (orbits != null) {
+            out.write(String.format(Locale.US, "orbits hits %d rescales %d rebuilds %d%n",
+                    orbits.getHits(), orbits.getRescales(), orbits.getRebuilds()));
+        }
+        NBodyIntegrator nbody = integrator;
+        if (nbody != null) {
+            out.write(String.format(Locale.US, "nbody massive %d energy_error %.3e%n",
+                    nbody.massiveCount(), nbody.getEnergyError()));
+        }
+        out.write(String.format(Locale.US, "%nstage count mean_ns p50_ns p90_ns p99_ns max_ns%n"));
+        for (int s = 0; s < STAGES; s++) {
+            LatencyHistogram h = stages[s];
+            out.write(String.format(Locale.US, "%s %d %.0f %d %d %d %d%n", STAGE_NAMES[s], h.count(),
+                    h.meanNanos(), h.percentileNanos(0.5), h.percentileNanos(0.9),
+                    h.percentileNanos(0.99), h.maxNanos()));
+        }
+        out.write(String.format(Locale.US, "%nbucket_start_ns"));
+        for (int s = 0; s < STAGES; s++) out.write(" " + STAGE_NAMES[s]);
+        out.write(String.format(Locale.US, "%n"));
+        for (int k = 0; k < LatencyHistogram.BUCKETS; k++) {
+            long total = 0;
+            for (int s = 0; s < STAGES; s++) total += stages[s].bucket(k);
+            if (total == 0) continue;
+            out.write(Long.toString(LatencyHistogram.bucketStart(k)));
+            for (int s = 0; s < STAGES; s++) out.write(" " + stages[s].bucket(k));
+            out.write(String.format(Locale.US, "%n"));
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,122 @@
+package com.lightcone.solarsystem.kepler;
+
+/* One published set of body positions at one simulation time, relative to the focus in pixels
+   with y down and already projected by the orientation of each orbit.  The positions are stored as
+   interleaved x, y pairs, the layout expected by Canvas.drawPoints(), so a renderer draws all
+   bodies with one call.  Frames are preallocated and reused through a TripleBuffer, so the array
+   only grows when the number of bodies grows.  Each frame carries a ScreenGrid of its positions,
+   built by the producer when the screen geometry is known, for culling, label placement, and
+   hit testing by the renderer, and, when the bodies are crowded at the scale of the frame, a
+   heat map of them from a DensityGrid with the weight to draw it at against the sprites. */
+
+public class PositionFrame {
+
+    private float points[];                        // Screen positions (x, y pairs)
+    private int size;                              // Number of bodies in the frame
+    private double time;                           // Simulation time of the positions (years)
+    private long sequence;                         // Number of the frame in order of publication
+    private final ScreenGrid grid = new ScreenGrid();
+    private boolean gridBuilt;                     // Whether grid describes this frame
+    private int density[];                         // Heat map of the crowded bodies (ARGB, by bin)
+    private int densityCols;                       // Number of bins across and down
+    private int densityRows;
+    private int densityBin;                        // Bin size (pixels)
+    private float densityWeight;                   // Weight of the heat map against the sprites (0 if none)
+
+    public PositionFrame(int capacity) {
+        points = new float[2 * capacity];
+    }
+
+    // Copy the current positions of the propagator into the frame
+    void copyFrom(KeplerPropagator propagator, long sequence) {
+        set(propagator.points(), propagator.size(), propagator.getTime(), sequence);
+    }
+
+    // Fill the frame with size x, y pairs from points
+    void set(float points[], int size, double time, long sequence) {
+        if (2 * size > this.points.length) this.points = new float[2 * size];
+        System.arraycopy(points, 0, this.points, 0, 2 * size);
+        this.size = size;
+        this.time = time;
+        this.sequence = sequence;
+        gridBuilt = false;
+        densityWeight = 0;
+    }
+
+    // Index the positions on a screen of width x height pixels with the focus at originX, originY
+    void buildGrid(float originX, float originY, int width, int height, float margin) {
+        grid.build(points, size, originX, originY, width, height, margin);
+        gridBuilt = true;
+    }
+
+    // Make the heat map of the bodies from (inclusive) on with density, to be drawn at weight
+    // (0 for none, when it is not made) on a screen of width x height pixels with the focus at
+    // originX, originY
+    void buildDensity(DensityGrid density, int from, float originX, float originY, int width,
+                      int height, float weight) {
+        densityWeight = 0;
+        if (weight <= 0) return;
+        int bins = density.bins(width, height);
+        if (this.density == null || this.density.length < bins) this.density = new int[bins];
+        density.build(points, Math.min(from, size), size, originX, originY, width, height, this.density);
+        densityCols = density.cols();
+        densityRows = density.rows();
+        densityBin = density.getBinSize();
+        densityWeight = weight;
+    }
+
+    // Screen-space index of the positions, or null if the screen geometry was not known
+    public ScreenGrid grid() {
+        return gridBuilt ? grid : null;
+    }
+
+    // Weight of the heat map against the sprites, from 0 (sprites only, no heat map) to 1 (heat
+    // map only)
+    public float densityWeight() {
+        return densityWeight;
+    }
+
+    // Colors (ARGB) of the bins of the heat map, densityCols() x densityRows() in rows from the
+    // top of the screen, each bin densityBin() pixels square; valid when densityWeight() > 0
+    public int[] density() {
+        return density;
+    }
+
+    public int densityCols() {
+        return densityCols;
+    }
+
+    public int densityRows() {
+        return densityRows;
+    }
+
+    public int densityBin() {
+        return densityBin;
+    }
+
+    // Number of bodies in the frame
+    public int size() {
+        return size;
+    }
+
+    // Positions as x, y pairs; the first 2 * size() entries are used
+    public float[] points() {
+        return points;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public float x(int i) {
+        return points[2 * i];
+    }
+
+    public float y(int i) {
+        return points[2 * i + 1];
+    }
+}
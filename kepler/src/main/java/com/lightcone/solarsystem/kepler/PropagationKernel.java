@@ -0,0 +1,88 @@
+package com.lightcone.solarsystem.kepler;
+
+/* The loop of KeplerPropagator over the bodies:  from the per-body columns of the propagator
+   (mean anomaly at t = 0, mean motion, eccentricity, axes and projection matrix) compute the
+   positions in the plane of the orbit and on the screen for a time t.  Three kernels exist:
+
+        scalar       KeplerSolver and Math.sin/cos per body, exact to the last bit (the default)
+        polynomial   branch-free passes over the columns with a fixed number of Halley
+                     iterations and a polynomial sincos (see PolynomialKernel), which the JIT
+                     can vectorize
+        vector       the same algorithm written with the JDK Vector API (jdk.incubator.vector),
+                     present only when the optional vector classes are on the classpath and the
+                     incubator module is enabled (JDK 16 or later; never on Android)
+
+   The kernel is chosen at runtime:  forName() takes one of these names or "fastest" (vector if
+   available, otherwise polynomial), and fromProperty() reads the name from the system property
+   kepler.kernel.  A kernel holds no state, so one instance serves any number of propagators and
+   threads. */
+
+public abstract class PropagationKernel {
+
+    public static final String PROPERTY = "kepler.kernel";
+    public static final String SCALAR = "scalar";
+    public static final String POLYNOMIAL = "polynomial";
+    public static final String VECTOR = "vector";
+    public static final String FASTEST = "fastest";
+
+    private static final String VECTOR_CLASS = "com.lightcone.solarsystem.kepler.VectorKernel";
+
+    private static PropagationKernel vector;       // Vector API kernel once looked up
+    private static boolean vectorChecked;
+
+    public abstract String name();
+
+    // Compute the positions of bodies from (inclusive) to to (exclusive) of p at time t (years)
+    abstract void propagate(KeplerPropagator p, int from, int to, double t);
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    public static PropagationKernel scalar() {
+        return ScalarKernel.INSTANCE;
+    }
+
+    public static PropagationKernel polynomial() {
+        return PolynomialKernel.INSTANCE;
+    }
+
+    // The Vector API kernel, or null if this runtime cannot load it
+    public static synchronized PropagationKernel vector() {
+        if (!vectorChecked) {
+            vectorChecked = true;
+            try {
+                vector = (PropagationKernel) Class.forName(VECTOR_CLASS).newInstance();
+            } catch (Exception e) {
+                vector = null;                       // Classes not on the classpath
+            } catch (LinkageError e) {
+                vector = null;                       // Incubator module not enabled
+            }
+        }
+        return vector;
+    }
+
+    // The kernel of the given name (see above); vector falls back to polynomial when the Vector
+    // API is not available
+    public static PropagationKernel forName(String name) {
+        if (SCALAR.equals(name)) return scalar();
+        if (POLYNOMIAL.equals(name)) return polynomial();
+        if (VECTOR.equals(name) || FASTEST.equals(name)) {
+            PropagationKernel kernel = vector();
+            return kernel != null ? kernel : polynomial();
+        }
+        throw new IllegalArgumentException("Unknown propagation kernel " + name);
+    }
+
+    // The kernel named by the system property kepler.kernel (scalar if it is not set)
+    public static PropagationKernel fromProperty() {
+        String name;
+        try {
+            name = System.getProperty(PROPERTY, SCALAR);
+        } catch (SecurityException e) {
+            name = SCALAR;
+        }
+        return forName(name);
+    }
+}
@@ -0,0 +1,31 @@
+package com.lightcone.solarsystem.kepler;
+
+/* The exact kernel:  Kepler's equation solved by KeplerSolver to full double precision and the
+   position computed with Math.sin and Math.cos, one body at a time. */
+
+final class ScalarKernel extends PropagationKernel {
+
+    static final ScalarKernel INSTANCE = new ScalarKernel();
+
+    private ScalarKernel() {
+    }
+
+    @Override
+    public String name() {
+        return SCALAR;
+    }
+
+    @Override
+    void propagate(KeplerPropagator p, int from, int to, double t) {
+        for (int i = from; i < to; i++) {
+            double e = p.eccentricity[i];
+            double E = KeplerSolver.eccentricAnomaly(p.meanAnomaly0[i] + p.meanMotion[i] * t, e);
+            double xx = p.semiMinor[i] * Math.sin(E);
+            double yy = -p.semiMajor[i] * (Math.cos(E) - e);
+            p.x[i] = (float) xx;
+            p.y[i] = (float) yy;
+            p.points[2 * i] = (float) (p.proj0[i] * xx + p.proj1[i] * yy);
+            p.points[2 * i + 1] = (float) (p.proj2[i] * xx + p.proj3[i] * yy);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.Arrays;
+
+/* Uniform grid over the screen, indexing the bodies of one frame of positions by the square cell
+   they fall in.  It is rebuilt for every frame with a counting sort (two passes over the bodies,
+   no comparisons), so the cost is proportional to the number of bodies and nothing is allocated
+   once the arrays have grown to the size of the catalog and the screen.
+
+   Bodies more than margin pixels outside the screen are left out of the grid, so the renderer
+   draws only the visible bodies (visiblePoints(), ordered by cell) and a tap is tested against
+   the few bodies in the cells around it rather than the whole catalog (nearest()).  declutter()
+   chooses the labels to draw:  it goes through the visible bodies in catalog order, so the
+   bodies that come first (the planets in the default set) have priority, and drops any label
+   whose box would overlap a label already placed, using a coarse occupancy grid of the screen.
+
+   Positions given to build() are relative to an origin (the focus) in screen pixels, x to the
+   right and y down, as in a PositionFrame. */
+
+public class ScreenGrid {
+
+    public static final int DEFAULT_CELL = 32;           // Cell size for bodies (pixels)
+    public static final int LABEL_CELL = 8;              // Cell size for label occupancy (pixels)
+
+    private final int cellSize;
+    private int width;                             // Screen size (pixels)
+    private int height;
+    private int cols;                              // Number of cells across and down
+    private int rows;
+    private float originX;                         // Screen position of the origin of the points
+    private float originY;
+    private float points[];                        // Positions the grid was built from (x, y pairs)
+    private int size;                              // Number of bodies in points
+    private int cell[];                            // Cell of each body (-1 if off-screen)
+    private int cellStart[];                       // Start of each cell in items (cols * rows + 1)
+    private int items[];                           // Indices of the visible bodies, by cell
+    private float visiblePoints[];                 // Screen positions of the visible bodies, by cell
+    private int visibleCount;
+    private boolean occupied[];                    // Label occupancy, LABEL_CELL cells
+    private int labels[];                          // Indices of the bodies whose labels are drawn
+    private int labelCount;
+
+    public ScreenGrid() {
+        this(DEFAULT_CELL);
+    }
+
+    public ScreenGrid(int cellSize) {
+        if (cellSize < 1) throw new IllegalArgumentException("Cell size must be positive");
+        this.cellSize = cellSize;
+    }
+
+    // Index size bodies at positions points (x, y pairs relative to originX, originY) on a screen
+    // of width x height pixels, leaving out bodies more than margin pixels off-screen
+    public void build(float points[], int size, float originX, float originY, int width, int height,
+                      float margin) {
+        this.points = points;
+        this.size = size;
+        this.originX = originX;
+        this.originY = originY;
+        resize(width, height, size);
+
+        // Count the bodies in each cell
+        int cells = cols * rows;
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        float left = -margin;
+        float top = -margin;
+        float right = width + margin;
+        float bottom = height + margin;
+        for (int i = 0; i < size; i++) {
+            float sx = originX + points[2 * i];
+            float sy = originY + points[2 * i + 1];
+            if (sx < left || sx >= right || sy < top || sy >= bottom) {
+                cell[i] = -1;
+                continue;
+            }
+            int col = Math.min(Math.max((int) sx / cellSize, 0), cols - 1);
+            int row = Math.min(Math.max((int) sy / cellSize, 0), rows - 1);
+            int c = row * cols + col;
+            cell[i] = c;
+            cellStart[c + 1]++;
+        }
+
+        // Prefix sums give the start of each cell; then place the bodies, using cellStart[c + 1]
+        // as the fill position of cell c until it has been filled
+        for (int c = 0; c < cells; c++) cellStart[c + 1] += cellStart[c];
+        visibleCount = cellStart[cells];
+        for (int c = cells; c > 0; c--) cellStart[c] = cellStart[c - 1];
+        for (int i = 0; i < size; i++) {
+            int c = cell[i];
+            if (c < 0) continue;
+            int k = cellStart[c + 1]++;
+            items[k] = i;
+            visiblePoints[2 * k] = originX + points[2 * i];
+            visiblePoints[2 * k + 1] = originY + points[2 * i + 1];
+        }
+        labelCount = 0;
+    }
+
+    // Index of the visible body nearest to screen position (x, y) within maxDistance pixels, or -1
+    public int nearest(float x, float y, float maxDistance) {
+        if (cols == 0) return -1;
+        int col0 = Math.max((int) Math.floor((x - maxDistance) / cellSize), 0);
+        int col1 = Math.min((int) Math.floor((x + maxDistance) / cellSize), cols - 1);
+        int row0 = Math.max((int) Math.floor((y - maxDistance) / cellSize), 0);
+        int row1 = Math.min((int) Math.floor((y + maxDistance) / cellSize), rows - 1);
+        int best = -1;
+        float bestDistance2 = maxDistance * maxDistance;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                int c = row * cols + col;
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    float dx = visiblePoints[2 * k] - x;
+                    float dy = visiblePoints[2 * k + 1] - y;
+                    float distance2 = dx * dx + dy * dy;
+                    if (distance2 <= bestDistance2) {
+                        // Equal distances go to the body that comes first in the catalog
+                        if (distance2 == bestDistance2 && best >= 0 && items[k] > best) continue;
+                        best = items[k];
+                        bestDistance2 = distance2;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // Choose at most maxLabels labels that do not overlap.  The label of body i is a box
+    // labelWidth[i] wide and labelHeight high with its lower left corner (the text baseline) at
+    // (dx, dy) from the body; bodies with labelWidth[i] <= 0 get no label.  Returns the number of
+    // labels chosen (see label()).
+    public int declutter(float labelWidth[], float labelHeight, float dx, float dy, int maxLabels) {
+        int ocols = (width + LABEL_CELL - 1) / LABEL_CELL;
+        int orows = (height + LABEL_CELL - 1) / LABEL_CELL;
+        Arrays.fill(occupied, 0, ocols * orows, false);
+        labelCount = 0;
+        int n = Math.min(size, labelWidth.length);
+        for (int i = 0; i < n && labelCount < maxLabels; i++) {
+            if (cell[i] < 0 || labelWidth[i] <= 0) continue;
+            float x0 = originX + points[2 * i] + dx;
+            float x1 = x0 + labelWidth[i];
+            float y1 = originY + points[2 * i + 1] + dy;
+            float y0 = y1 - labelHeight;
+            if (x1 < 0 || y1 < 0 || x0 >= width || y0 >= height) continue;   // Label off-screen
+            int col0 = x0 > 0 ? (int) x0 / LABEL_CELL : 0;
+            int col1 = Math.min((int) x1 / LABEL_CELL, ocols - 1);
+            int row0 = y0 > 0 ? (int) y0 / LABEL_CELL : 0;
+            int row1 = Math.min((int) y1 / LABEL_CELL, orows - 1);
+            if (overlaps(col0, col1, row0, row1, ocols)) continue;
+            for (int row = row0; row <= row1; row++) {
+                Arrays.fill(occupied, row * ocols + col0, row * ocols + col1 + 1, true);
+            }
+            labels[labelCount++] = i;
+        }
+        return labelCount;
+    }
+
+    private boolean overlaps(int col0, int col1, int row0, int row1, int ocols) {
+        // Most candidates in a crowded region are rejected by a corner, so try those first
+        if (occupied[row0 * ocols + col0] || occupied[row0 * ocols + col1]
+                || occupied[row1 * ocols + col0] || occupied[row1 * ocols + col1]) {
+            return true;
+        }
+        for (int row = row0; row <= row1; row++) {
+            for (int c = row * ocols + col0; c <= row * ocols + col1; c++) {
+                if (occupied[c]) return true;
+            }
+        }
+        return false;
+    }
+
+    // Grow the arrays for the screen and the number of bodies
+    private void resize(int width, int height, int size) {
+        if (width != this.width || height != this.height || cellStart == null) {
+            this.width = width;
+            this.height = height;
+            cols = Math.max((width + cellSize - 1) / cellSize, 1);
+            rows = Math.max((height + cellSize - 1) / cellSize, 1);
+            cellStart = new int[cols * rows + 1];
+            int ocols = (width + LABEL_CELL - 1) / LABEL_CELL;
+            int orows = (height + LABEL_CELL - 1) / LABEL_CELL;
+            occupied = new boolean[ocols * orows];
+        }
+        if (cell == null || cell.length < size) {
+            cell = new int[size];
+            items = new int[size];
+            visiblePoints = new float[2 * size];
+            labels = new int[size];
+        }
+    }
+
+    // Whether body i is within the screen (and its margin)
+    public boolean isVisible(int i) {
+        return i >= 0 && i < size && cell[i] >= 0;
+    }
+
+    // Screen position of body i
+    public float screenX(int i) {
+        return originX + points[2 * i];
+    }
+
+    public float screenY(int i) {
+        return originY + points[2 * i + 1];
+    }
+
+    // Screen positions of the visible bodies as x, y pairs; the first 2 * visibleCount() are used
+    public float[] visiblePoints() {
+        return visiblePoints;
+    }
+
+    public int visibleCount() {
+        return visibleCount;
+    }
+
+    // Index of the body of the kth label chosen by the last declutter()
+    public int label(int k) {
+        return labels[k];
+    }
+
+    public int labelCount() {
+        return labelCount;
+    }
+}
@@ -0,0 +1,362 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/* Checkpoint of a running simulation, written when the app is paused so that after the process
+   is killed it comes back where it was:  the simulation time and rate, the view (zoom, tilt,
+   what is shown, the selected body), and optionally the derived caches (the sampled orbits of an
+   OrbitGeometry and the windows of an EphemerisCache), which for a large catalog take far longer
+   to compute again than to read.  The file (big-endian, as written by DataOutputStream) holds
+
+        int     magic 'KCKP'
+        int     format version
+        int     number of bodies
+        long    fingerprint of the BodySet (CRC32 of the orbital elements)
+        double  simulation time (years), rate (timesteps per second)
+        long    delay (ms per timestep)
+        double  zoom factor, tilt (degrees)
+        int     flags (SHOW_ORBITS ...), selected body (-1 for none)
+        long    CRC32 of the header
+
+   followed by the caches and their own CRC32:
+
+        int     1 if orbits follow:  double tilt, tolerance, cull size;  int count of bodies
+                and count of floats;  the segments of each orbit;  the floats of the segments
+        int     number of ephemeris windows:  double window length, tilt;  int samples, bodies;
+                then for each a long index, an int count of floats and the floats
+
+   readState() reads the header only, so the view can be set up and the first frame drawn at
+   once; readCaches() reads the rest, on a background thread, and restoreOrbits() and
+   restoreEphemeris() put the caches back.  A checkpoint only applies to the BodySet it was made
+   for (matches()).  write() goes through a temporary file renamed over the old one, so a process
+   killed mid-write leaves the previous checkpoint intact. */
+
+public class SimulationCheckpoint {
+
+    public static final int MAGIC = 0x4B434B50;          // "KCKP"
+    public static final int VERSION = 1;
+
+    // Flags
+    public static final int SHOW_ORBITS = 1;
+    public static final int SHOW_LABELS = 2;
+    public static final int SHOW_METRICS = 4;
+    public static final int ANIMATING = 8;
+    public static final int GRAVITY = 16;
+
+    private static final int HEADER = 4 + 4 + 4 + 8 + 8 + 8 + 8 + 8 + 8 + 4 + 4 + 8;
+    private static final int BLOCK = 16 * 1024;           // Floats converted at a time
+
+    private final int bodyCount;
+    private final long fingerprint;
+    private double time;                           // Simulation time (years)
+    private double rate;                           // Timesteps per second (negative backward)
+    private long delay;                            // Milliseconds of wall-clock time per timestep
+    private double zoom = 1;
+    private double tiltDeg;
+    private int flags = SHOW_ORBITS | ANIMATING;
+    private int selected = -1;
+    private OrbitGeometry.Saved orbits;            // Caches (null if not saved or not read)
+    private EphemerisCache.Saved ephemeris;
+
+    // A checkpoint for bodies, with the default view
+    public SimulationCheckpoint(BodySet bodies) {
+        this(bodies.size(), fingerprint(bodies));
+    }
+
+    private SimulationCheckpoint(int bodyCount, long fingerprint) {
+        this.bodyCount = bodyCount;
+        this.fingerprint = fingerprint;
+    }
+
+    // CRC32 of the orbital elements of every body
+    public static long fingerprint(BodySet bodies) {
+        CRC32 crc = new CRC32();
+        byte buffer[] = new byte[8 * 9];
+        for (int i = 0; i < bodies.size(); i++) {
+            int p = 0;
+            p = put(buffer, p, Double.doubleToLongBits(bodies.epsilon(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.a(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.period(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.theta0(i)));
+            p = put(buffer, p, Float.floatToIntBits(bodies.orientDeg(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.retroFac(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.inclDeg(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.nodeDeg(i)));
+            p = put(buffer, p, Double.doubleToLongBits(bodies.periDeg(i)));
+            crc.update(buffer, 0, p);
+        }
+        return crc.getValue();
+    }
+
+    private static int put(byte buffer[], int p, long bits) {
+        for (int k = 0; k < 8; k++) buffer[p++] = (byte) (bits >>> (8 * k));
+        return p;
+    }
+
+    // Whether the checkpoint was made for these bodies
+    public boolean matches(BodySet bodies) {
+        return bodies.size() == bodyCount && fingerprint(bodies) == fingerprint;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public void setTime(double time) {
+        this.time = time;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public void setZoom(double zoom) {
+        this.zoom = zoom;
+    }
+
+    public double getTilt() {
+        return tiltDeg;
+    }
+
+    public void setTilt(double tiltDeg) {
+        this.tiltDeg = tiltDeg;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public int getSelected() {
+        return selected;
+    }
+
+    public void setSelected(int selected) {
+        this.selected = selected;
+    }
+
+    // Save the sampled orbits of geometry (a copy) and the windows held by cache with the
+    // checkpoint; either may be null.  Called on the thread that owns geometry.
+    public void saveCaches(OrbitGeometry geometry, EphemerisCache cache) {
+        orbits = geometry != null ? geometry.saved() : null;
+        ephemeris = cache != null ? cache.saved() : null;
+    }
+
+    // Put the saved orbits back into geometry (on the thread that owns it); returns whether they
+    // were used
+    public boolean restoreOrbits(OrbitGeometry geometry) {
+        return orbits != null && geometry.restore(orbits);
+    }
+
+    // Put the saved windows back into cache and return how many were used
+    public int restoreEphemeris(EphemerisCache cache) {
+        return ephemeris != null ? cache.restore(ephemeris) : 0;
+    }
+
+    // Write the checkpoint, with any caches saved, to file
+    public void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024), crc));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bodyCount);
+            out.writeLong(fingerprint);
+            out.writeDouble(time);
+            out.writeDouble(rate);
+            out.writeLong(delay);
+            out.writeDouble(zoom);
+            out.writeDouble(tiltDeg);
+            out.writeInt(flags);
+            out.writeInt(selected);
+            out.writeLong(crc.getValue());
+
+            crc.reset();
+            OrbitGeometry.Saved o = orbits;
+            out.writeInt(o != null ? 1 : 0);
+            if (o != null) {
+                out.writeDouble(o.tiltDeg);
+                out.writeDouble(o.tolerance);
+                out.writeDouble(o.cullPixels);
+                out.writeInt(o.segments.length);
+                out.writeInt(o.unitLines.length);
+                for (int i = 0; i < o.segments.length; i++) out.writeInt(o.segments[i]);
+                writeFloats(out, o.unitLines);
+            }
+            EphemerisCache.Saved e = ephemeris;
+            out.writeInt(e != null ? e.size() : 0);
+            if (e != null && e.size() > 0) {
+                out.writeDouble(e.window);
+                out.writeDouble(e.tiltDeg);
+                out.writeInt(e.samples);
+                out.writeInt(e.bodies);
+                for (int w = 0; w < e.size(); w++) {
+                    float data[] = e.data[w];
+                    out.writeLong(e.index[w]);
+                    out.writeInt(data.length);
+                    writeFloats(out, data);
+                }
+            }
+            out.writeLong(crc.getValue());
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            // Some file systems will not rename over an existing file
+            file.delete();
+            if (!temporary.renameTo(file)) throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    // The simulation and view state in file, without the caches, or null if there is no
+    // checkpoint.  Throws IOException if the file is not an intact checkpoint.
+    public static SimulationCheckpoint readState(File file) throws IOException {
+        InputStream stream;
+        try {
+            stream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(stream, HEADER), crc));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a checkpoint");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Checkpoint version " + version);
+            SimulationCheckpoint checkpoint = new SimulationCheckpoint(in.readInt(), in.readLong());
+            checkpoint.time = in.readDouble();
+            checkpoint.rate = in.readDouble();
+            checkpoint.delay = in.readLong();
+            checkpoint.zoom = in.readDouble();
+            checkpoint.tiltDeg = in.readDouble();
+            checkpoint.flags = in.readInt();
+            checkpoint.selected = in.readInt();
+            long expected = crc.getValue();
+            if (in.readLong() != expected) throw new IOException("Checkpoint header checksum mismatch");
+            return checkpoint;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Read the caches saved in file, which must be the file this checkpoint was read from.
+    // Throws IOException if they are damaged, when none are restored.
+    public void readCaches(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        // Counts are checked against the file before anything is made from them, as the checksum
+        // can only be checked at the end
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024), crc));
+        try {
+            in.readFully(new byte[HEADER]);
+            crc.reset();
+            OrbitGeometry.Saved o = null;
+            if (in.readInt() != 0) {
+                double tilt = in.readDouble();
+                double tolerance = in.readDouble();
+                double cull = in.readDouble();
+                int count = in.readInt();
+                int length = in.readInt();
+                if (count != bodyCount || length < 0 || 4L * count + 4L * length > fileLength) {
+                    throw new IOException("Corrupt checkpoint orbits");
+                }
+                int segments[] = new int[count];
+                float unitLines[] = new float[length];
+                for (int i = 0; i < count; i++) segments[i] = in.readInt();
+                readFloats(in, unitLines);
+                o = new OrbitGeometry.Saved(tilt, tolerance, cull, segments, unitLines);
+            }
+            EphemerisCache.Saved e = null;
+            int windows = in.readInt();
+            if (windows < 0) throw new IOException("Corrupt checkpoint ephemeris");
+            if (windows > 0) {
+                double window = in.readDouble();
+                double tilt = in.readDouble();
+                int samples = in.readInt();
+                int bodies = in.readInt();
+                long windowBytes = 8 + 4 + 16L * (samples + 1) * bodies;
+                if (samples < 1 || bodies != bodyCount || windowBytes > Integer.MAX_VALUE
+                        || windows > fileLength / windowBytes) {
+                    throw new IOException("Corrupt checkpoint ephemeris");
+                }
+                long index[] = new long[windows];
+                float data[][] = new float[windows][];
+                for (int w = 0; w < windows; w++) {
+                    index[w] = in.readLong();
+                    int length = in.readInt();
+                    if (length != 4L * (samples + 1) * bodies) {
+                        throw new IOException("Corrupt checkpoint window " + index[w]);
+                    }
+                    data[w] = new float[length];
+                    readFloats(in, data[w]);
+                }
+                e = new EphemerisCache.Saved(window, samples, bodies, tilt, index, data);
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) throw new IOException("Checkpoint checksum mismatch");
+            orbits = o;
+            ephemeris = e;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Floats in bulk through a byte array, so that the checksum is updated a block at a time
+    private static void writeFloats(DataOutputStream out, float values[]) throws IOException {
+        byte bytes[] = new byte[4 * Math.min(values.length, BLOCK)];
+        for (int k = 0; k < values.length; k += BLOCK) {
+            int count = Math.min(values.length - k, BLOCK);
+            ByteBuffer.wrap(bytes).asFloatBuffer().put(values, k, count);
+            out.write(bytes, 0, 4 * count);
+        }
+    }
+
+    private static void readFloats(DataInputStream in, float values[]) throws IOException {
+        byte bytes[] = new byte[4 * Math.min(values.length, BLOCK)];
+        for (int k = 0; k < values.length; k += BLOCK) {
+            int count = Math.min(values.length - k, BLOCK);
+            in.readFully(bytes, 0, 4 * count);
+            ByteBuffer.wrap(bytes).asFloatBuffer().get(values, k, count);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.lightcone.solarsystem.kepler;
+
+/* Simulation clock decoupling the simulated time from the display frames.  Each frame reports
+   its timestamp; the wall-clock time since the previous frame, multiplied by the rate (steps per
+   second), is added to an accumulator and whole timesteps are taken from it.  The simulated time
+   therefore advances in fixed steps of the same size however irregular the frames are, and its
+   speed depends only on the rate.  At most maxStepsPerFrame steps are taken in one frame, so a
+   long stall (or a debugger pause) does not make the simulation leap ahead.
+
+   The rate may be negative, which runs the simulation backward, and seek() jumps to any time;
+   the steps are then counted from the time sought.
+
+   All times passed in are in nanoseconds, as given by System.nanoTime() or the display's vsync
+   timestamps. */
+
+public class SimulationClock {
+
+    public static final int DEFAULT_MAX_STEPS_PER_FRAME = 64;
+
+    private final double step;                     // Simulation timestep (years)
+    private volatile double rate;                  // Timesteps per second of wall-clock time
+    private int maxStepsPerFrame = DEFAULT_MAX_STEPS_PER_FRAME;
+    private double accumulator;                    // Fraction of a timestep not yet taken
+    private long steps;                            // Timesteps taken since origin (signed)
+    private double origin;                         // Time of the last seek (years)
+    private volatile double time;                  // Simulated time (years)
+    private long lastFrameNanos;                   // Timestamp of the previous frame (0 if none)
+
+    public SimulationClock(double step, double rate) {
+        this.step = step;
+        this.rate = rate;
+    }
+
+    // Advance the clock to a frame at frameNanos and return the number of timesteps taken
+    // (negative when running backward).  The first frame after construction or resume() only
+    // sets the reference time, and a frame no later than the previous one is ignored, so that it
+    // never moves the reference time back.
+    public int advance(long frameNanos) {
+        if (lastFrameNanos == 0) {
+            lastFrameNanos = frameNanos;
+            return 0;
+        }
+        long elapsed = frameNanos - lastFrameNanos;
+        if (elapsed <= 0) return 0;
+        lastFrameNanos = frameNanos;
+        accumulator += 1e-9 * elapsed * rate;
+        // Whole steps toward zero, so that backward running takes the same steps as forward
+        int n = (int) Math.max(Math.min((long) accumulator, maxStepsPerFrame), -maxStepsPerFrame);
+        accumulator -= n;
+        if (Math.abs(accumulator) > maxStepsPerFrame) accumulator = 0;  // Drop the time lost to a stall
+        steps += n;
+        time = origin + steps * step;
+        return n;
+    }
+
+    // Forget the previous frame, so that time spent paused is not simulated
+    public void resume() {
+        lastFrameNanos = 0;
+    }
+
+    // Jump to time t (years), discarding any fraction of a step not yet taken
+    public void seek(double t) {
+        origin = t;
+        steps = 0;
+        accumulator = 0;
+        time = t;
+    }
+
+    // Simulated time (years); may be read from any thread
+    public double getTime() {
+        return time;
+    }
+
+    public double getStep() {
+        return step;
+    }
+
+    // Timesteps taken since the last seek (or construction); negative after running backward
+    public long getSteps() {
+        return steps;
+    }
+
+    // Number of timesteps simulated per second of wall-clock time (negative when running backward)
+    public double getRate() {
+        return rate;
+    }
+
+    // May be called from another thread than the one advancing the clock
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    // Run in the opposite direction at the same speed
+    public void reverse() {
+        rate = -rate;
+    }
+
+    public void setMaxStepsPerFrame(int maxStepsPerFrame) {
+        this.maxStepsPerFrame = maxStepsPerFrame;
+    }
+}
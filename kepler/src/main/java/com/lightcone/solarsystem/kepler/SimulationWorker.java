@@ -0,0 +1,348 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Background thread that owns a propagator and its simulation clock and publishes the positions
+   to a renderer through a TripleBuffer.  The renderer calls requestFrame() with each vsync
+   timestamp; the worker advances the clock to that time, propagates, and publishes a complete
+   frame, which the renderer picks up with acquireFrame().  The propagator and clock are used only
+   on the worker thread while it runs, so nothing has to be locked; a new scale is handed over
+   with setScale() and applied by the worker before its next frame (or at once, on the calling
+   thread, while the worker is stopped).  Once setViewport() has given the screen geometry each
+   frame also carries a ScreenGrid of its positions, built here rather than on the UI thread.
+   With a DensityGrid (setDensity()) a frame whose scale is below the crowded scale of the
+   bodies also carries a heat map of them, with the weight to cross-fade it with the sprites.
+
+   seek() jumps the simulation to any time and setTilt() tilts the view, both handed over like the
+   scale.  With an EphemerisCache (setEphemeris()) the positions are interpolated from its tables
+   whenever the window holding the time is built, and computed by the propagator while it is being
+   built, so neither a seek nor fast playing ever waits for a table.  The tables hold the two-body
+   orbits, so they are bypassed while the propagator moves the bodies with an NBodyIntegrator
+   (setIntegrator()).
+
+   addBodies() appends bodies to the BodySet, a batch of a catalog being loaded, say.  The set is
+   changed on the calling thread while no worker thread runs (a running worker is stopped, and
+   started again without losing simulated time), so that thread may read the set without locking
+   while another is being appended; the propagator and the caches notice the change through
+   BodySet.version(), and the next frame published holds the new bodies.
+
+   With PipelineMetrics (setMetrics()) the worker records the time it spends computing positions
+   and building the grid of each frame, and the simulation steps it takes.
+
+   start() and stop() may be called any number of times from any thread:  at most one worker
+   thread exists at a time, start() does nothing while it is running, and stop() waits until the
+   thread has finished, so the propagator may be used directly again once stop() returns. */
+
+public class SimulationWorker implements Runnable {
+
+    private static final long NONE = Double.doubleToLongBits(Double.NaN);  // No seek or tilt pending
+
+    private final KeplerPropagator propagator;
+    private final SimulationClock clock;
+    private final TripleBuffer<PositionFrame> frames;
+    private final AtomicLong pendingFrame = new AtomicLong();    // Requested frame time (0 if none)
+    private volatile long lastFrameNanos;         // Last frame time requested (0 if none)
+    private final AtomicLong pendingScale = new AtomicLong();    // Bits of scale to apply (0 if none)
+    private final AtomicLong pendingSeek = new AtomicLong(NONE);     // Bits of time to seek to
+    private final AtomicLong pendingTilt = new AtomicLong(NONE);     // Bits of tilt to apply
+    private volatile float viewport[];            // Width, height, origin x, y, margin (pixels)
+    private volatile boolean running;
+    private boolean keepClock;                     // Whether the next thread goes on from the clock
+    private Thread thread;                         // Worker thread (guarded by this)
+    private int threadsStarted;                    // Number of worker threads started (guarded by this)
+    private long sequence;                         // Number of frames published
+    private boolean publish;                       // Whether positions changed since the last frame
+    private float lastViewport[];                  // Viewport of the last published frame
+    private EphemerisCache ephemeris;              // Tables to interpolate from (null for none)
+    private float interpolated[];                  // Positions interpolated from the ephemeris
+    private boolean fromEphemeris;                 // Whether the current positions are interpolated
+    private double scale;                          // Number of pixels per AU
+    private int bodiesVersion;                     // BodySet version of the positions published
+    private DensityGrid density;                   // Heat map of crowded bodies (null for none)
+    private int densityFrom;                       // Bodies before this one are never in the heat map
+    private double crowdedScale;                   // Scale below which the bodies are crowded
+    private int densityVersion = -1;               // BodySet version crowdedScale is for
+    private PipelineMetrics metrics;               // Stage timings and counters (null for none)
+
+    public SimulationWorker(KeplerPropagator propagator, SimulationClock clock) {
+        this.propagator = propagator;
+        this.clock = clock;
+        int n = propagator.getBodies().size();
+        bodiesVersion = propagator.getBodies().version();
+        frames = new TripleBuffer<PositionFrame>(new PositionFrame(n), new PositionFrame(n),
+                new PositionFrame(n));
+    }
+
+    // Start the worker thread unless it is already running.  Returns whether a thread was started.
+    public synchronized boolean start() {
+        if (thread != null) return false;
+        running = true;
+        // A frame from before the stop is not asked for again (see wake())
+        if (!keepClock) lastFrameNanos = 0;
+        thread = new Thread(this, "SimulationWorker");
+        thread.setDaemon(true);
+        threadsStarted++;
+        thread.start();
+        return true;
+    }
+
+    // Stop the worker thread (if running) and wait for it to finish
+    public synchronized void stop() {
+        if (thread == null) return;
+        running = false;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    // Number of worker threads started over the lifetime of the worker
+    public synchronized int getThreadsStarted() {
+        return threadsStarted;
+    }
+
+    // Ask for the positions of a frame at frameNanos (called on the renderer's thread)
+    public void requestFrame(long frameNanos) {
+        lastFrameNanos = frameNanos;
+        pendingFrame.set(frameNanos);
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    // Have the running worker apply a change handed over from another thread.  The last frame
+    // requested is asked for again (unless a newer one is pending), so the clock does not move:  a
+    // time taken now would lie between two frames and make the next one count the gap twice.
+    private void wake() {
+        long last = lastFrameNanos;
+        if (last != 0) pendingFrame.compareAndSet(0, last);
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    // Set the number of pixels per AU; applied by the worker before its next frame, or
+    // immediately (with a new frame published) if the worker is stopped
+    public synchronized void setScale(double pixelScale) {
+        pendingScale.set(Double.doubleToLongBits(pixelScale));
+        if (thread == null) {
+            update(0);
+        } else {
+            wake();
+        }
+    }
+
+    // Set the screen geometry used to build the ScreenGrid of each frame:  the screen is width x
+    // height pixels with the focus at originX, originY, and bodies more than margin pixels off the
+    // screen are culled
+    public synchronized void setViewport(int width, int height, float originX, float originY,
+                                         float margin) {
+        viewport = new float[]{width, height, originX, originY, margin};
+        if (thread == null) {
+            update(0);
+        } else {
+            wake();
+        }
+    }
+
+    // Jump to simulation time t (years); applied by the worker before its next frame, or
+    // immediately if the worker is stopped
+    public synchronized void seek(double t) {
+        if (Double.isNaN(t)) throw new IllegalArgumentException("Seek to NaN");
+        pendingSeek.set(Double.doubleToLongBits(t));
+        if (thread == null) {
+            update(0);
+        } else {
+            wake();
+        }
+    }
+
+    // Tilt the view by tiltDeg from the ecliptic pole (0 face-on, 90 edge-on); applied by the
+    // worker before its next frame, or immediately if the worker is stopped
+    public synchronized void setTilt(double tiltDeg) {
+        if (Double.isNaN(tiltDeg)) throw new IllegalArgumentException("Tilt of NaN");
+        pendingTilt.set(Double.doubleToLongBits(tiltDeg));
+        if (thread == null) {
+            update(0);
+        } else {
+            wake();
+        }
+    }
+
+    // Interpolate positions from cache when it has the tables (null to always propagate).  Must
+    // be called while the worker is stopped.
+    public synchronized void setEphemeris(EphemerisCache cache) {
+        if (thread != null) throw new IllegalStateException("Worker is running");
+        ephemeris = cache;
+    }
+
+    // Move the bodies under their mutual gravity with integrator (null for the two-body orbits)
+    // and publish their positions at the current time.  Must be called while the worker is
+    // stopped.
+    public synchronized void setIntegrator(NBodyIntegrator integrator) {
+        if (thread != null) throw new IllegalStateException("Worker is running");
+        propagator.setIntegrator(integrator);
+        pendingSeek.set(Double.doubleToLongBits(clock.getTime()));
+        update(0);
+    }
+
+    // Make a heat map of the bodies from index from on with grid when they are crowded at the
+    // current scale (null for never), for the renderer to draw in place of their sprites.  The
+    // bodies before from (the planets, say) are left to be drawn as sprites.  Must be called
+    // while the worker is stopped.
+    public synchronized void setDensity(DensityGrid grid, int from) {
+        if (thread != null) throw new IllegalStateException("Worker is running");
+        density = grid;
+        densityFrom = from;
+        densityVersion = -1;
+        publish = true;
+    }
+
+    // Append the bodies of batch to the BodySet of the propagator and publish their positions at
+    // the current time.  The set is changed on the calling thread with the worker thread stopped;
+    // a running worker is started again afterwards, going on from the same clock.
+    public synchronized void addBodies(BodySet batch) {
+        boolean wasRunning = thread != null;
+        stop();
+        propagator.getBodies().addAll(batch);
+        update(0);
+        if (wasRunning) {
+            keepClock = true;
+            start();
+        }
+    }
+
+    // Record stage timings and counters in metrics (null for none).  Must be called while the
+    // worker is stopped.
+    public synchronized void setMetrics(PipelineMetrics metrics) {
+        if (thread != null) throw new IllegalStateException("Worker is running");
+        this.metrics = metrics;
+    }
+
+    // Whether the last positions computed were interpolated from the ephemeris tables
+    public boolean isFromEphemeris() {
+        return fromEphemeris;
+    }
+
+    // The newest complete frame of positions (called on the renderer's thread only)
+    public PositionFrame acquireFrame() {
+        return frames.acquire();
+    }
+
+    @Override
+    public void run() {
+        // The time spent stopped is not simulated (except for the moment addBodies() stops the
+        // thread), and the first frame is always published
+        if (!keepClock) clock.resume();
+        keepClock = false;
+        publish = true;
+        while (running) {
+            long frameNanos = pendingFrame.getAndSet(0);
+            if (frameNanos == 0) {
+                LockSupport.park(this);
+            } else {
+                update(frameNanos);
+            }
+        }
+    }
+
+    // Apply a pending scale, tilt and seek, take in a change to the BodySet, advance the clock to frameNanos (if not 0), and
+    // publish the positions if they changed.  Runs on the worker thread, or on the thread of
+    // setScale() while stopped (and in tests, which drive the worker frame by frame without
+    // starting it).
+    void update(long frameNanos) {
+        boolean moved = false;
+        long scaleBits = pendingScale.getAndSet(0);
+        if (scaleBits != 0) {
+            scale = Double.longBitsToDouble(scaleBits);
+            propagator.setScale(scale);
+            moved = true;
+        }
+        long tiltBits = pendingTilt.getAndSet(NONE);
+        if (tiltBits != NONE) {
+            double tilt = Double.longBitsToDouble(tiltBits);
+            if (ephemeris != null) ephemeris.setTilt(tilt);
+            propagator.setTilt(tilt);
+            moved = true;
+        }
+        long seekBits = pendingSeek.getAndSet(NONE);
+        if (seekBits != NONE) {
+            clock.seek(Double.longBitsToDouble(seekBits));
+            moved = true;
+        }
+        int version = propagator.getBodies().version();
+        if (version != bodiesVersion) {
+            bodiesVersion = version;
+            moved = true;
+        }
+        if (frameNanos != 0) {
+            int steps = clock.advance(frameNanos);
+            if (steps != 0) {
+                moved = true;
+                if (metrics != null) metrics.addSteps(steps);
+            }
+        }
+        if (moved) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            locate(clock.getTime());
+            if (metrics != null) metrics.record(PipelineMetrics.PROPAGATE, System.nanoTime() - start);
+            publish = true;
+        }
+        float view[] = viewport;
+        if (view != lastViewport) {
+            lastViewport = view;
+            publish = true;
+        }
+        if (publish) {
+            PositionFrame frame = frames.back();
+            if (fromEphemeris) {
+                frame.set(interpolated, propagator.size(), clock.getTime(), ++sequence);
+            } else {
+                frame.copyFrom(propagator, ++sequence);
+            }
+            if (view != null) {
+                long start = metrics != null ? System.nanoTime() : 0;
+                frame.buildGrid(view[2], view[3], (int) view[0], (int) view[1], view[4]);
+                if (density != null) buildDensity(frame, view);
+                if (metrics != null) metrics.record(PipelineMetrics.CULL, System.nanoTime() - start);
+            }
+            if (metrics != null) metrics.setBodies(frame.size());
+            frames.publish();
+            publish = false;
+        }
+    }
+
+    // Make the heat map of frame if the bodies are crowded at the current scale
+    private void buildDensity(PositionFrame frame, float view[]) {
+        BodySet bodies = propagator.getBodies();
+        if (densityVersion != bodies.version()) {
+            crowdedScale = DensityGrid.crowdedScale(bodies, densityFrom, density.getSpriteRadius());
+            densityVersion = bodies.version();
+        }
+        frame.buildDensity(density, densityFrom, view[2], view[3], (int) view[0], (int) view[1],
+                DensityGrid.weight(scale, crowdedScale));
+    }
+
+    // Compute the positions at time t, from the ephemeris tables if they are ready
+    private void locate(double t) {
+        fromEphemeris = false;
+        // The tables hold two-body orbits, so an N-body integration always propagates
+        if (ephemeris != null && ephemeris.isEnabled() && propagator.getIntegrator() == null) {
+            int n = propagator.getBodies().size();
+            if (interpolated == null || interpolated.length < 2 * n) interpolated = new float[2 * n];
+            // After a change to the BodySet the propagator first resyncs (in propagate())
+            if (propagator.size() == n) fromEphemeris = ephemeris.interpolate(t, scale, interpolated);
+        }
+        if (!fromEphemeris) propagator.propagate(t);
+    }
+}
@@ -0,0 +1,54 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Lock-free triple buffer handing frames from one producer thread to one consumer thread.  Of
+   the three preallocated frames the producer owns one (which it fills), the consumer owns one
+   (which it reads), and the third is the most recently published frame.  publish() swaps the
+   producer's frame with the published one and acquire() swaps the consumer's frame with it if a
+   newer frame has been published since, each with a single atomic exchange.  Neither side ever
+   waits for the other, and neither ever sees a frame while the other is using it, so the
+   consumer always reads a complete frame (the newest one available) and the producer never
+   blocks on a slow consumer; frames the consumer does not get to in time are simply skipped.
+
+   The exchanged value is the index of the middle frame, with FRESH set when it has been
+   published and not yet acquired.  There must be exactly one producer and one consumer thread. */
+
+public class TripleBuffer<T> {
+
+    private static final int INDEX = 3;
+    private static final int FRESH = 4;
+
+    private final Object frames[];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;                          // Frame owned by the producer
+    private int front = 2;                         // Frame owned by the consumer
+
+    public TripleBuffer(T first, T second, T third) {
+        frames = new Object[]{first, second, third};
+    }
+
+    // The frame the producer fills next
+    @SuppressWarnings("unchecked")
+    public T back() {
+        return (T) frames[back];
+    }
+
+    // Publish the back frame and take the previous middle frame as the new back frame
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    // Return the newest published frame; the same frame as before if nothing new was published.
+    // The frame stays valid until the next call of acquire().
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) front = middle.getAndSet(front) & INDEX;
+        return (T) frames[front];
+    }
+
+    // Whether a frame has been published and not yet acquired
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+}
@@ -0,0 +1,226 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ApproachFinderTest {
+
+    private static final int MERCURY = 0;
+    private static final int VENUS = 1;
+    private static final int EARTH = 2;
+    private static final int JUPITER = 4;
+    private static final double DAY = 1 / 365.25;
+
+    // The solar system followed by count near-Earth asteroids
+    private static BodySet withNearEarth(int count, long seed) {
+        return TestBodies.asteroids(count, 0.8, 1.5, 0.5, 10, seed);
+    }
+
+    private static double distance(ApproachFinder finder, int i, double t) {
+        double r[] = new double[3];
+        double s[] = new double[3];
+        finder.position(i, t, r);
+        finder.position(EARTH, t, s);
+        double dx = r[0] - s[0];
+        double dy = r[1] - s[1];
+        double dz = r[2] - s[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    @Test
+    public void findsTheMinimaOfABruteForceSearch() throws Exception {
+        BodySet bodies = withNearEarth(60, 3);
+        ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        double maxDistance = 0.1;
+        double t1 = 3;
+        List<OrbitEvent> events = finder.closeApproaches(0, t1, maxDistance);
+        assertFalse(events.isEmpty());
+        for (OrbitEvent event : events) {
+            assertEquals(OrbitEvent.CLOSE_APPROACH, event.type());
+            assertEquals(EARTH, event.other());
+            assertTrue(event.value() <= maxDistance);
+            assertEquals(distance(finder, event.body(), event.time()), event.value(), 1e-12);
+        }
+        // Every minimum of the distance sampled every 1e-4 years, clear of the threshold, has an
+        // event close by
+        double h = 1e-4;
+        int found = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            if (i == EARTH) continue;
+            double before = distance(finder, i, 0);
+            double now = distance(finder, i, h);
+            for (int k = 2; k * h <= t1; k++) {
+                double after = distance(finder, i, k * h);
+                double t = (k - 1) * h;
+                if (now < before && now <= after && now < 0.95 * maxDistance) {
+                    boolean matched = false;
+                    for (OrbitEvent event : events) {
+                        if (event.body() == i && Math.abs(event.time() - t) < 2 * h) {
+                            assertTrue(event.value() <= now);
+                            matched = true;
+                        }
+                    }
+                    assertTrue("Minimum of body " + i + " at " + t, matched);
+                    found++;
+                }
+                before = now;
+                now = after;
+            }
+        }
+        assertTrue(found > 0);
+        assertTrue(events.size() >= found);
+    }
+
+    @Test
+    public void moidBoundIsALowerBound() throws Exception {
+        BodySet bodies = withNearEarth(40, 5);
+        ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        double earth[] = new double[3 * 2000];
+        double r[] = new double[3];
+        for (int k = 0; k < 2000; k++) {
+            finder.position(EARTH, k / 2000.0, r);
+            System.arraycopy(r, 0, earth, 3 * k, 3);
+        }
+        for (int i = 0; i < bodies.size(); i++) {
+            if (i == EARTH) continue;
+            // Smallest distance between points of both orbits, an upper bound of the MOID
+            double period = bodies.period(i);
+            double smallest = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < 2000; j++) {
+                finder.position(i, j * period / 2000, r);
+                for (int k = 0; k < 2000; k++) {
+                    double dx = r[0] - earth[3 * k];
+                    double dy = r[1] - earth[3 * k + 1];
+                    double dz = r[2] - earth[3 * k + 2];
+                    smallest = Math.min(smallest, dx * dx + dy * dy + dz * dz);
+                }
+            }
+            assertTrue(bodies.name(i) + " " + i, finder.moidBound(i, 0.05) <= Math.sqrt(smallest));
+        }
+    }
+
+    @Test
+    public void prunesTheMainBelt() throws Exception {
+        Random random = new Random(9);
+        BodySet bodies = BodySet.solarSystem();
+        for (int k = 0; k < 500; k++) {
+            double a = 2.2 + 1.1 * random.nextDouble();
+            bodies.add(null, 0.15 * random.nextDouble(), a, Math.pow(a, 1.5),
+                    2 * Math.PI * random.nextDouble(), 0, 1, 15 * random.nextDouble(),
+                    360 * random.nextDouble(), 360 * random.nextDouble());
+        }
+        ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        assertTrue(finder.closeApproaches(0, 100, 0.2).size() > 0);    // Venus and Mars
+        long pruned = finder.getPruned();
+        assertTrue(pruned >= 500);
+        assertTrue(finder.getSearched() > 0);
+    }
+
+    @Test
+    public void parallelSearchMatchesSerial() throws Exception {
+        BodySet bodies = withNearEarth(400, 7);
+        ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        List<OrbitEvent> serial = finder.closeApproaches(0, 10, 0.05);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            finder.setPool(pool);
+            finder.setChunk(16);
+            List<OrbitEvent> parallel = finder.closeApproaches(0, 10, 0.05);
+            assertEquals(serial.size(), parallel.size());
+            for (int k = 0; k < serial.size(); k++) {
+                assertEquals(serial.get(k).body(), parallel.get(k).body());
+                assertEquals(serial.get(k).time(), parallel.get(k).time(), 0);
+                assertEquals(serial.get(k).value(), parallel.get(k).value(), 0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentSearchesKeepTheirOwnCounts() throws Exception {
+        BodySet bodies = withNearEarth(400, 11);
+        final ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        finder.closeApproaches(0, 10, 0.05);
+        final long pruned = finder.getPruned();
+        final long searched = finder.getSearched();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            finder.setPool(pool);
+            finder.setChunk(16);
+            final AtomicInteger mismatches = new AtomicInteger();
+            Thread threads[] = new Thread[4];
+            for (int k = 0; k < threads.length; k++) {
+                threads[k] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 5; j++) {
+                            finder.closeApproaches(0, 10, 0.05);
+                            if (finder.getPruned() != pruned || finder.getSearched() != searched) {
+                                mismatches.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+                threads[k].start();
+            }
+            for (Thread thread : threads) thread.join();
+            assertEquals(0, mismatches.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void followsChangesToTheBodySet() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        assertTrue(finder.closeApproaches(0, 10, 0.01).isEmpty());
+        // A body ahead of Earth on a slightly larger, slower orbit is overtaken
+        bodies.add("Leader", bodies.epsilon(EARTH), 1.002, Math.pow(1.002, 1.5),
+                bodies.theta0(EARTH) - 0.05, bodies.orientDeg(EARTH), 1);
+        List<OrbitEvent> events = finder.closeApproaches(0, 10, 0.01);
+        assertFalse(events.isEmpty());
+        assertEquals(bodies.size() - 1, events.get(0).body());
+    }
+
+    @Test
+    public void findsKnownConjunctions() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        ApproachFinder finder = new ApproachFinder(bodies, EARTH);
+        List<OrbitEvent> events = finder.conjunctions(new int[]{MERCURY, VENUS, JUPITER}, 0, 1,
+                ApproachFinder.DEFAULT_CONJUNCTION_STEP);
+        for (int k = 1; k < events.size(); k++) {
+            assertTrue(events.get(k - 1).time() <= events.get(k).time());
+        }
+        // Inferior conjunction of Venus (Oct 28 2010), superior conjunction of Mercury (Oct 16
+        // 2010), Jupiter behind the Sun (Apr 6 2011), days after the epoch
+        assertEquals(22.8, conjunction(events, VENUS, OrbitEvent.SUN) / DAY, 1.5);
+        assertEquals(10.9, conjunction(events, MERCURY, OrbitEvent.SUN) / DAY, 1.5);
+        assertEquals(182.9, conjunction(events, JUPITER, OrbitEvent.SUN) / DAY, 1.5);
+        for (OrbitEvent event : events) {
+            assertEquals(OrbitEvent.CONJUNCTION, event.type());
+            assertTrue(Math.abs(event.value()) < 0.2);
+        }
+    }
+
+    // Time of the first conjunction of body with other
+    private static double conjunction(List<OrbitEvent> events, int body, int other) {
+        for (OrbitEvent event : events) {
+            if (event.body() == body && event.other() == other) return event.time();
+        }
+        fail("No conjunction of " + body + " with " + other);
+        return 0;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheReferenceInConjunctions() throws Exception {
+        new ApproachFinder(BodySet.solarSystem(), EARTH).conjunctions(new int[]{EARTH}, 0, 1, DAY);
+    }
+}
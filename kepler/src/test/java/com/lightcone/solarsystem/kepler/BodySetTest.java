@@ -0,0 +1,82 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BodySetTest {
+
+    @Test
+    public void growsAsBodiesAreAdded() throws Exception {
+        BodySet bodies = new BodySet(0);
+        int initialCapacity = bodies.capacity();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, bodies.add("Body " + i, 0.1, 1 + i, Math.pow(1 + i, 1.5), 0, 0f, 1));
+        }
+        assertEquals(1000, bodies.size());
+        assertTrue(bodies.capacity() > initialCapacity);
+        assertEquals(500.0, bodies.a(499), 0);
+        assertEquals("Body 999", bodies.name(999));
+    }
+
+    @Test
+    public void bulkAddCopiesEveryColumn() throws Exception {
+        BodySet bodies = new BodySet(4);
+        bodies.addAll(BodySet.solarSystem());
+        bodies.addAll(BodySet.solarSystem());
+        assertEquals(24, bodies.size());
+        assertEquals("Halley", bodies.name(23));
+        assertEquals(0.967, bodies.epsilon(23), 0);
+        assertEquals(75.32, bodies.period(23), 0);
+        assertEquals(52.9f, bodies.orientDeg(23), 0);
+        assertEquals(-1, bodies.retroFac(23), 0);
+        assertEquals(162.26, bodies.inclDeg(23), 0);
+        assertEquals(58.42, bodies.nodeDeg(23), 0);
+        assertEquals(111.33, bodies.periDeg(23), 0);
+        // The asteroids have no orientation in space and lie in the ecliptic
+        assertEquals(0, bodies.inclDeg(21), 0);
+        assertEquals(-70, bodies.periDeg(21), 0);
+    }
+
+    @Test
+    public void removeMovesLastBodyIntoSlot() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        int version = bodies.version();
+        bodies.remove(2);
+        assertEquals(11, bodies.size());
+        assertEquals("Halley", bodies.name(2));
+        assertEquals("Pluto", bodies.name(8));
+        assertTrue(bodies.version() != version);
+    }
+
+    @Test
+    public void removeRangeKeepsOrder() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        bodies.removeRange(1, 9);
+        assertEquals(4, bodies.size());
+        assertEquals("Mercury", bodies.name(0));
+        assertEquals("2008 VB4", bodies.name(1));
+        assertEquals("Halley", bodies.name(3));
+        assertEquals(17.83, bodies.a(3), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void removeOutsideSetRejected() throws Exception {
+        BodySet.solarSystem().remove(12);
+    }
+
+    @Test
+    public void propagatorFollowsChangesToSet() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(10);
+        bodies.addAll(BodySet.solarSystem());
+        propagator.propagate(1);
+        assertEquals(24, propagator.size());
+        assertEquals(propagator.x(11), propagator.x(23), 0);
+        assertEquals(propagator.y(11), propagator.y(23), 0);
+        bodies.clear();
+        propagator.propagate(2);
+        assertEquals(0, propagator.size());
+    }
+}
@@ -0,0 +1,207 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CatalogLoaderTest {
+
+    private static final double MJD_2025_MAY_5 = 60800;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File resource(String name) throws Exception {
+        File file = folder.newFile(name);
+        InputStream in = getClass().getResourceAsStream(name);
+        OutputStream out = new FileOutputStream(file);
+        byte buffer[] = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+        out.close();
+        in.close();
+        return file;
+    }
+
+    @Test
+    public void loadsMpcorbRecords() throws Exception {
+        BodySet bodies = new BodySet(0);
+        CatalogLoader loader = new CatalogLoader(MJD_2025_MAY_5);
+        assertEquals(6, loader.load(resource("MPCORB.sample"), bodies));
+        assertEquals(1, loader.getSkipped());                  // The blank line
+        assertEquals("(1) Ceres", bodies.name(0));
+        assertEquals(2.7660512, bodies.a(0), 1e-12);
+        assertEquals(0.0789175, bodies.epsilon(0), 1e-12);
+        assertEquals(Math.pow(2.7660512, 1.5), bodies.period(0), 1e-9);
+        assertEquals(1, bodies.retroFac(0), 0);
+        // Dioretsa is inclined 160 degrees, so it orbits retrograde
+        assertEquals("(20461) Dioretsa", bodies.name(5));
+        assertEquals(-1, bodies.retroFac(5), 0);
+        // At its own epoch the orientation is minus the longitude of perihelion
+        assertEquals(-Math.IEEEremainder(80.25221 + 73.27343, 360), bodies.orientDeg(0), 1e-4);
+        // The orientation in space is kept as given
+        assertEquals(10.58780, bodies.inclDeg(0), 1e-12);
+        assertEquals(80.25221, bodies.nodeDeg(0), 1e-12);
+        assertEquals(73.27343, bodies.periDeg(0), 1e-12);
+    }
+
+    @Test
+    public void jplAndMpcFormatsAgree() throws Exception {
+        BodySet mpc = new BodySet(0);
+        BodySet jpl = new BodySet(0);
+        new CatalogLoader(CatalogLoader.MJD_2010_OCT_6).load(resource("MPCORB.sample"), mpc);
+        CatalogLoader loader = new CatalogLoader(CatalogLoader.MJD_2010_OCT_6);
+        assertEquals(6, loader.load(resource("ELEMENTS.NUMBR.sample"), jpl));
+        assertEquals(0, loader.getSkipped());
+        assertEquals("Ceres", jpl.name(0));
+        for (int i = 0; i < 6; i++) {
+            assertEquals(mpc.a(i), jpl.a(i), 1e-12);
+            assertEquals(mpc.epsilon(i), jpl.epsilon(i), 1e-12);
+            assertEquals(mpc.theta0(i), jpl.theta0(i), 1e-9);
+            assertEquals(mpc.orientDeg(i), jpl.orientDeg(i), 1e-4);
+            assertEquals(mpc.retroFac(i), jpl.retroFac(i), 0);
+            assertEquals(mpc.inclDeg(i), jpl.inclDeg(i), 1e-9);
+            assertEquals(mpc.nodeDeg(i), jpl.nodeDeg(i), 1e-9);
+            assertEquals(mpc.periDeg(i), jpl.periDeg(i), 1e-9);
+        }
+    }
+
+    @Test
+    public void meanAnomalyAdvancedToCommonEpoch() throws Exception {
+        BodySet bodies = new BodySet(0);
+        new CatalogLoader(MJD_2025_MAY_5 + 100).load(resource("MPCORB.sample"), bodies);
+        // Ceres: M = 188.70269 + 100 n at the new epoch, true anomaly measured clockwise
+        double e = 0.0789175;
+        double M = Math.toRadians(188.70269 + 100 * 0.9856076686 / Math.pow(2.7660512, 1.5));
+        double E = KeplerSolver.eccentricAnomaly(M, e);
+        double nu = Math.atan2(Math.sqrt(1 - e * e) * Math.sin(E), Math.cos(E) - e);
+        assertEquals(-nu, bodies.theta0(0), 1e-9);
+    }
+
+    @Test
+    public void streamsAcrossWindowsInBatches() throws Exception {
+        // Many copies of the sample records, read through windows much smaller than the file
+        File file = folder.newFile("MPCORB.large");
+        List<String> records = new ArrayList<String>();
+        for (String line : new String(readAll(resource("MPCORB.sample")), "US-ASCII").split("\n")) {
+            if (line.length() > 190 && !line.startsWith("-")) records.add(line);
+        }
+        OutputStream out = new FileOutputStream(file);
+        for (int k = 0; k < 500; k++) {
+            out.write((records.get(k % records.size()) + "\n").getBytes("US-ASCII"));
+        }
+        out.close();
+
+        final List<int[]> batches = new ArrayList<int[]>();
+        BodySet bodies = new BodySet(0);
+        CatalogLoader loader = new CatalogLoader(MJD_2025_MAY_5);
+        loader.setWindow(1000);
+        loader.setBatchSize(64);
+        loader.setLoadNames(false);
+        loader.setListener(new CatalogLoader.Listener() {
+            @Override
+            public void onBatch(BodySet bodies, int from, int to) {
+                batches.add(new int[]{from, to});
+            }
+        });
+        int loaded = loader.load(file, bodies);
+        assertEquals("skipped " + loader.getSkipped(), 500, loaded);
+        assertNull(bodies.name(0));
+        int expected = 0;
+        for (int batch[] : batches) {
+            assertEquals(expected, batch[0]);
+            expected = batch[1];
+        }
+        assertEquals(500, expected);
+        assertEquals(8, batches.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(bodies.a(i % records.size()), bodies.a(i), 0);
+        }
+    }
+
+    @Test
+    public void batchesAreShownBeforeTheLoadEnds() throws Exception {
+        // Each batch is handed from the listener to a running worker, which publishes the
+        // positions of the bodies loaded so far while the rest of the file is still unread
+        final BodySet bodies = BodySet.solarSystem();
+        final int planets = bodies.size();
+        final SimulationWorker worker = new SimulationWorker(new KeplerPropagator(bodies, -1),
+                new SimulationClock(1 / 600.0, 50));
+        worker.setScale(100);
+        worker.seek(2);
+        worker.start();
+        final List<Integer> shown = new ArrayList<Integer>();
+        CatalogLoader loader = new CatalogLoader(CatalogLoader.MJD_2010_OCT_6);
+        loader.setBatchSize(2);
+        loader.setListener(new CatalogLoader.Listener() {
+            @Override
+            public void onBatch(BodySet catalog, int from, int to) {
+                BodySet batch = new BodySet(to - from);
+                batch.addAll(catalog, from, to);
+                worker.addBodies(batch);
+                assertTrue(worker.isRunning());
+                shown.add(worker.acquireFrame().size());
+            }
+        });
+        BodySet catalog = new BodySet(0);
+        assertEquals(6, loader.load(resource("MPCORB.sample"), catalog));
+        worker.stop();
+        assertEquals(Arrays.asList(planets + 2, planets + 4, planets + 6), shown);
+
+        // The positions are those of the whole set at the time sought
+        KeplerPropagator check = new KeplerPropagator(bodies, -1);
+        check.setScale(100);
+        check.propagate(2);
+        PositionFrame frame = worker.acquireFrame();
+        assertEquals(2, frame.getTime(), 0);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(check.points()[2 * i], frame.x(i), 0);
+            assertEquals(check.points()[2 * i + 1], frame.y(i), 0);
+        }
+        assertEquals(catalog.a(5), bodies.a(planets + 5), 0);
+    }
+
+    @Test
+    public void parsesNumbersFromBytes() throws Exception {
+        assertEquals(188.70269, parse("  188.70269"), 1e-12);
+        assertEquals(-0.5, parse("-.5 "), 0);
+        assertEquals(1.5e-3, parse("1.5E-3"), 1e-18);
+        assertEquals(42, parse("42"), 0);
+        assertTrue(Double.isNaN(parse("     ")));
+        assertTrue(Double.isNaN(parse("1.2.3")));
+    }
+
+    @Test
+    public void convertsDatesToModifiedJulianDate() throws Exception {
+        assertEquals(CatalogLoader.MJD_2010_OCT_6, CatalogLoader.modifiedJulianDate(2010, 10, 6), 0);
+        assertEquals(51544, CatalogLoader.modifiedJulianDate(2000, 1, 1), 0);
+        ByteBuffer packed = ByteBuffer.wrap("K2555J9611".getBytes("US-ASCII"));
+        assertEquals(MJD_2025_MAY_5, CatalogLoader.packedEpoch(packed, 0, 5), 0);
+        assertEquals(CatalogLoader.modifiedJulianDate(1996, 1, 1), CatalogLoader.packedEpoch(packed, 5, 10), 0);
+    }
+
+    private static double parse(String text) {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(Charset.forName("US-ASCII")));
+        return CatalogLoader.parseDouble(buffer, 0, text.length());
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        InputStream in = new java.io.FileInputStream(file);
+        byte bytes[] = new byte[(int) file.length()];
+        int n = 0;
+        while (n < bytes.length) n += in.read(bytes, n, bytes.length - n);
+        in.close();
+        return bytes;
+    }
+}
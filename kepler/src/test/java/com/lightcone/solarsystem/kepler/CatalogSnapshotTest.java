@@ -0,0 +1,104 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class CatalogSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File catalog() throws Exception {
+        File file = folder.newFile("MPCORB.DAT");
+        InputStream in = getClass().getResourceAsStream("MPCORB.sample");
+        OutputStream out = new FileOutputStream(file);
+        byte buffer[] = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+        out.close();
+        in.close();
+        return file;
+    }
+
+    private static void assertSameBodies(BodySet expected, BodySet actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.name(i), actual.name(i));
+            assertEquals(expected.a(i), actual.a(i), 0);
+            assertEquals(expected.epsilon(i), actual.epsilon(i), 0);
+            assertEquals(expected.period(i), actual.period(i), 0);
+            assertEquals(expected.theta0(i), actual.theta0(i), 0);
+            assertEquals(expected.orientDeg(i), actual.orientDeg(i), 0);
+            assertEquals(expected.retroFac(i), actual.retroFac(i), 0);
+            assertEquals(expected.inclDeg(i), actual.inclDeg(i), 0);
+            assertEquals(expected.nodeDeg(i), actual.nodeDeg(i), 0);
+            assertEquals(expected.periDeg(i), actual.periDeg(i), 0);
+        }
+    }
+
+    @Test
+    public void roundTripPreservesEveryColumn() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        bodies.add(null, 0.5, 3, Math.pow(3, 1.5), 1, 10f, -1);
+        File file = folder.newFile("bodies.snap");
+        CatalogSnapshot.write(file, bodies, 0, bodies.size(), 123, 456, 55475);
+        BodySet read = new BodySet(0);
+        assertEquals(13, CatalogSnapshot.read(file, read, 123, 456, 55475));
+        assertSameBodies(bodies, read);
+    }
+
+    @Test
+    public void staleSnapshotNotUsed() throws Exception {
+        File file = folder.newFile("bodies.snap");
+        CatalogSnapshot.write(file, BodySet.solarSystem(), 0, 12, 123, 456, 55475);
+        assertEquals(-1, CatalogSnapshot.read(file, new BodySet(0), 124, 456, 55475));
+        assertEquals(-1, CatalogSnapshot.read(file, new BodySet(0), 123, 457, 55475));
+        assertEquals(-1, CatalogSnapshot.read(file, new BodySet(0), 123, 456, 60000));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptSnapshotRejected() throws Exception {
+        File file = folder.newFile("bodies.snap");
+        CatalogSnapshot.write(file, BodySet.solarSystem(), 0, 12, 123, 456, 55475);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 20);
+        raf.write(0x55);
+        raf.close();
+        CatalogSnapshot.read(file, new BodySet(0), 123, 456, 55475);
+    }
+
+    @Test
+    public void loadOrParseWritesThenUsesSnapshot() throws Exception {
+        File catalog = catalog();
+        File snapshot = new File(folder.getRoot(), "MPCORB.snap");
+        CatalogLoader loader = new CatalogLoader(CatalogLoader.MJD_2010_OCT_6);
+        BodySet parsed = new BodySet(0);
+        assertEquals(6, CatalogSnapshot.loadOrParse(snapshot, catalog, loader, parsed));
+        assertTrue(snapshot.exists());
+
+        BodySet loaded = new BodySet(0);
+        assertEquals(6, CatalogSnapshot.read(snapshot, loaded, catalog.length(),
+                catalog.lastModified(), CatalogLoader.MJD_2010_OCT_6));
+        assertSameBodies(parsed, loaded);
+
+        // A damaged snapshot falls back to parsing and is rewritten
+        RandomAccessFile raf = new RandomAccessFile(snapshot, "rw");
+        raf.seek(raf.length() - 1);
+        raf.write(0x7f);
+        raf.close();
+        BodySet reparsed = new BodySet(0);
+        assertEquals(6, CatalogSnapshot.loadOrParse(snapshot, catalog, loader, reparsed));
+        assertSameBodies(parsed, reparsed);
+        assertEquals(6, CatalogSnapshot.read(snapshot, new BodySet(0), catalog.length(),
+                catalog.lastModified(), CatalogLoader.MJD_2010_OCT_6));
+    }
+}
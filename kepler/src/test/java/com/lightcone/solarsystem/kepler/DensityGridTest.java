@@ -0,0 +1,139 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class DensityGridTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    // A main belt of n asteroids after the bodies of the solar system
+    private static BodySet belt(int n) {
+        return TestBodies.asteroids(n, 2.1, 3.3, 0.3, 0, 3);
+    }
+
+    @Test
+    public void bodiesAreCountedInTheirBins() {
+        DensityGrid grid = new DensityGrid(4, 7);
+        float points[] = {0, 0, 1, 1, -10, 5, -9, 6, 1000, 0, Float.NaN, 0};
+        int colors[] = new int[grid.bins(100, 60)];
+        grid.build(points, 0, 6, 50, 30, 100, 60, colors);
+        assertEquals(25, grid.cols());
+        assertEquals(15, grid.rows());
+        assertEquals(2, grid.count(12, 7));                // (50, 30) and (51, 31)
+        assertEquals(1, grid.count(10, 8));                // (40, 35), and (41, 36) below
+        assertEquals(1, grid.count(10, 9));
+        assertEquals(4, grid.binned());                    // One off the screen, one NaN
+        assertEquals(grid.shade(2), colors[7 * 25 + 12]);
+        assertEquals(0, colors[0]);
+    }
+
+    @Test
+    public void bodiesBeforeFromAreLeftOut() {
+        DensityGrid grid = new DensityGrid(4, 7);
+        float points[] = {0, 0, 0, 0, 0, 0};
+        grid.build(points, 1, 3, 50, 30, 100, 60, null);
+        assertEquals(2, grid.count(12, 7));
+    }
+
+    @Test
+    public void shadesGrowWithTheCount() {
+        DensityGrid grid = new DensityGrid(4, 1);
+        assertEquals(0, grid.shade(0));
+        int previous = 0;
+        for (int c = 1; c <= 1024; c *= 2) {
+            int alpha = grid.shade(c) >>> 24;
+            assertTrue(alpha >= previous);
+            previous = alpha;
+        }
+        assertEquals(255, previous);
+        // Sparse bins are blue and dense ones nearly white
+        assertTrue((grid.shade(1) & 0xFF) > (grid.shade(1) >> 16 & 0xFF));
+        assertTrue((grid.shade(5000) & 0xFF) > 200);
+        assertTrue((grid.shade(5000) >> 16 & 0xFF) > 200);
+        assertEquals(grid.shade(1024), grid.shade(5000));
+    }
+
+    @Test
+    public void parallelCountsEqualSerial() throws Exception {
+        BodySet bodies = belt(100000);
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(150);
+        propagator.propagate(2);
+        DensityGrid serial = new DensityGrid(4, 7);
+        DensityGrid parallel = new DensityGrid(4, 7);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.setPool(pool);
+            int bins = serial.bins(WIDTH, HEIGHT);
+            int serialColors[] = new int[bins];
+            int parallelColors[] = new int[bins];
+            for (int k = 0; k < 3; k++) {
+                propagator.propagate(2 + k);
+                serial.build(propagator.points(), 9, bodies.size(), 540, 960, WIDTH, HEIGHT, serialColors);
+                parallel.build(propagator.points(), 9, bodies.size(), 540, 960, WIDTH, HEIGHT, parallelColors);
+                assertArrayEquals(serialColors, parallelColors);
+                assertEquals(serial.binned(), parallel.binned());
+                assertTrue(serial.binned() > 90000);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void buildsAllocateNothing() {
+        Assume.assumeTrue(FrameAllocationTest.allocatedBytes() >= 0);
+        BodySet bodies = belt(20000);
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(150);
+        propagator.propagate(1);
+        DensityGrid grid = new DensityGrid(4, 7);
+        int colors[] = new int[grid.bins(WIDTH, HEIGHT)];
+        for (int k = 0; k < 200; k++) {
+            grid.build(propagator.points(), 0, bodies.size(), 540, 960, WIDTH, HEIGHT, colors);
+        }
+        long overhead = -FrameAllocationTest.allocatedBytes() + FrameAllocationTest.allocatedBytes();
+        long before = FrameAllocationTest.allocatedBytes();
+        for (int k = 0; k < 100; k++) {
+            grid.build(propagator.points(), 0, bodies.size(), 540, 960, WIDTH, HEIGHT, colors);
+        }
+        assertEquals(0, FrameAllocationTest.allocatedBytes() - before - overhead);
+    }
+
+    @Test
+    public void crowdedScaleGrowsWithTheCatalog() {
+        assertEquals(0, DensityGrid.crowdedScale(BodySet.solarSystem(), 12, 7), 0);
+        // The dozen bodies of the solar system are never crowded on a screen
+        assertTrue(DensityGrid.crowdedScale(BodySet.solarSystem(), 0, 7) < 5);
+        double small = DensityGrid.crowdedScale(belt(1000), 12, 7);
+        double large = DensityGrid.crowdedScale(belt(100000), 12, 7);
+        assertEquals(10, large / small, 0.5);
+        // A belt of 10^5 is crowded at the default zoom of the app (about 100 pixels per AU)
+        assertTrue(large > 400);
+    }
+
+    @Test
+    public void weightCrossFadesOverTheFade() {
+        double crowded = 500;
+        assertEquals(1, DensityGrid.weight(crowded / 2, crowded), 0);
+        assertEquals(1, DensityGrid.weight(crowded / Math.sqrt(DensityGrid.FADE), crowded), 0);
+        assertEquals(0.5, DensityGrid.weight(crowded, crowded), 1e-6);
+        assertEquals(0, DensityGrid.weight(crowded * Math.sqrt(DensityGrid.FADE), crowded), 0);
+        assertEquals(0, DensityGrid.weight(crowded * 10, crowded), 0);
+        assertEquals(0, DensityGrid.weight(100, 0), 0);
+        // No jumps as the zoom changes in small steps
+        float last = 1;
+        for (double s = crowded / 2; s < crowded * 2; s *= 1.01) {
+            float w = DensityGrid.weight(s, crowded);
+            assertTrue(w <= last);
+            assertTrue(last - w < 0.03);
+            last = w;
+        }
+    }
+}
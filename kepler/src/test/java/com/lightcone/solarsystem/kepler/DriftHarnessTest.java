@@ -0,0 +1,56 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DriftHarnessTest {
+
+    private static final int EARTH = 2;
+    private static final int PLUTO = 8;
+
+    // Largest angular error (radians) of each body of BodySet.solarSystem() over 150000 steps of
+    // 1/600 year (250 years, so that Pluto goes round once), as measured when the harness was
+    // written, and the relative period errors.  A change to OrbitStepper that makes any of them
+    // worse by more than the margin fails.  The run of 10^6 steps is left to DriftHarness.main().
+    private static final double MAX_ERROR[] = {0.14, 2.0e-4, 1.8e-4, 6.5e-4, 7.6e-5, 2.4e-5,
+            1.3e-5, 7.1e-7, 1.1e-5, 0.022, 0.017, 0.13};
+    private static final double PERIOD_ERROR[] = {1.4e-5, 1e-9, 3e-9, 5e-8, 1e-9, 1e-9,
+            1e-9, 1e-9, 1e-9, 1.1e-6, 1.1e-6, 1.8e-7};
+    private static final double MARGIN = 1.25;
+
+    @Test
+    public void driftOverPlutoOrbitWithinBaseline() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        DriftHarness harness = new DriftHarness(bodies, 1 / 600.0, -1, 100);
+        harness.run(150000, 10);
+        for (int i = 0; i < bodies.size(); i++) {
+            String report = bodies.name(i) + "\n" + harness.report();
+            assertTrue(report, harness.maxAngleError(i) <= MARGIN * MAX_ERROR[i]);
+            assertTrue(report, harness.rmsAngleError(i) <= harness.maxAngleError(i));
+            assertTrue(report, Math.abs(harness.periodError(i)) <= MARGIN * PERIOD_ERROR[i]);
+        }
+    }
+
+    @Test
+    public void periodsMeasuredFromRevolutions() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        DriftHarness harness = new DriftHarness(bodies, 1 / 600.0, -1, 100);
+        harness.run(6000, 1);
+        assertEquals(10, harness.revolutions(EARTH));
+        assertEquals(1.0, harness.measuredPeriod(EARTH), 1e-6);
+        // Pluto has not gone round once in 10 years
+        assertEquals(0, harness.revolutions(PLUTO));
+        assertTrue(Double.isNaN(harness.periodError(PLUTO)));
+    }
+
+    @Test
+    public void smallerTimestepDriftsLess() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        DriftHarness coarse = new DriftHarness(bodies, 1 / 300.0, -1, 100);
+        DriftHarness fine = new DriftHarness(bodies, 1 / 1200.0, -1, 100);
+        coarse.run(30000, 10);
+        fine.run(120000, 40);
+        assertTrue(fine.maxAngleError(0) < coarse.maxAngleError(0) / 4);
+    }
+}
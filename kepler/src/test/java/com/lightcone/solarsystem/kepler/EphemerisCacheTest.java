@@ -0,0 +1,143 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class EphemerisCacheTest {
+
+    // Runs builds on the calling thread
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // Holds builds until run() is called
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void run() {
+            while (!queue.isEmpty()) queue.remove(0).run();
+        }
+    }
+
+    @Test
+    public void interpolationMatchesPropagator() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        EphemerisCache cache = new EphemerisCache(bodies, -1, DIRECT);
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        float points[] = new float[2 * bodies.size()];
+        Random random = new Random(7);
+        for (int k = 0; k < 300; k++) {
+            double t = 120 * (random.nextDouble() - 0.5);
+            if (!cache.interpolate(t, 100, points)) assertTrue(cache.interpolate(t, 100, points));
+            propagator.propagate(t);
+            for (int i = 0; i < bodies.size(); i++) {
+                assertEquals(bodies.name(i), propagator.points()[2 * i], points[2 * i], 0.002);
+                assertEquals(bodies.name(i), propagator.points()[2 * i + 1], points[2 * i + 1], 0.002);
+            }
+        }
+    }
+
+    @Test
+    public void neverWaitsForABuild() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        EphemerisCache cache = new EphemerisCache(BodySet.solarSystem(), -1, executor);
+        float points[] = new float[24];
+        assertFalse(cache.interpolate(50.8, 100, points));
+        assertFalse(cache.interpolate(50.9, 100, points));
+        assertEquals(1, executor.queue.size());
+        executor.run();
+        assertTrue(cache.interpolate(50.9, 100, points));
+
+        // The neighbouring windows are requested as soon as a window is used
+        assertEquals(2, executor.queue.size());
+        executor.run();
+        assertTrue(cache.isReady(49.5));
+        assertTrue(cache.isReady(51.5));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedWindowsAreEvicted() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        EphemerisCache cache = new EphemerisCache(BodySet.solarSystem(), -1, 1, 64, 4,
+                EphemerisCache.DEFAULT_MAX_BYTES, executor);
+        float points[] = new float[24];
+        for (int k = 0; k < 20; k++) {
+            cache.interpolate(k + 0.5, 100, points);
+            executor.run();
+            assertTrue(cache.size() <= 4);
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.isReady(19.5));
+        assertFalse(cache.isReady(5.5));
+    }
+
+    @Test
+    public void largeCatalogIsNotCached() throws Exception {
+        BodySet bodies = new BodySet(0);
+        for (int k = 0; k < 100; k++) bodies.addAll(BodySet.solarSystem());
+        EphemerisCache cache = new EphemerisCache(bodies, -1, 1, 64, 8, 1 << 16, DIRECT);
+        assertFalse(cache.isEnabled());
+        assertFalse(cache.interpolate(1, 100, new float[2 * bodies.size()]));
+    }
+
+    @Test
+    public void growingCatalogStaysWithinTheBudget() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        long maxBytes = 2 << 20;
+        EphemerisCache cache = new EphemerisCache(bodies, -1, 1, 64, 8, maxBytes, DIRECT);
+        cache.interpolate(0.5, 100, new float[2 * bodies.size()]);
+        assertTrue(cache.interpolate(0.5, 100, new float[2 * bodies.size()]));
+        assertTrue(cache.size() > 1);
+        // Windows of 1200 bodies take 16 * 65 * 1200 bytes, so only one fits
+        for (int k = 0; k < 99; k++) bodies.addAll(BodySet.solarSystem());
+        float points[] = new float[2 * bodies.size()];
+        for (int k = 0; k < 5; k++) {
+            cache.interpolate(k + 0.5, 100, points);
+            assertTrue(cache.size() * 16L * 65 * bodies.size() <= maxBytes);
+        }
+        assertTrue(cache.isEnabled());
+        // And none of 10^4
+        for (int k = 0; k < 800; k++) bodies.addAll(BodySet.solarSystem());
+        assertFalse(cache.isEnabled());
+        assertFalse(cache.interpolate(1.5, 100, new float[2 * bodies.size()]));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void workerSeeksAcrossDecades() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        SimulationWorker worker = new SimulationWorker(new KeplerPropagator(bodies, -1),
+                new SimulationClock(1 / 600.0, 50));
+        worker.setEphemeris(new EphemerisCache(bodies, -1, DIRECT));
+        worker.setScale(100);
+
+        // Mid 2061 is about 50.8 years after the epoch; the first seek finds no table yet
+        worker.seek(50.8);
+        assertFalse(worker.isFromEphemeris());
+        PositionFrame first = worker.acquireFrame();
+        assertEquals(50.8, first.getTime(), 0);
+        float x = first.x(11);
+        float y = first.y(11);
+        worker.seek(50.8);
+        assertTrue(worker.isFromEphemeris());
+        PositionFrame second = worker.acquireFrame();
+        assertEquals(x, second.x(11), 0.01);
+        assertEquals(y, second.y(11), 0.01);
+    }
+}
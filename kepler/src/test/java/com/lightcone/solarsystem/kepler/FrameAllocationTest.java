@@ -0,0 +1,63 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class FrameAllocationTest {
+
+    private static final long MS = 1000000L;
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM cannot tell (also used by
+    // the allocation tests of other classes)
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+        if (!sun.isThreadAllocatedMemorySupported()) return -1;
+        if (!sun.isThreadAllocatedMemoryEnabled()) sun.setThreadAllocatedMemoryEnabled(true);
+        return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void framesAllocateNothing() throws Exception {
+        Assume.assumeTrue(allocatedBytes() >= 0);
+        BodySet bodies = BodySet.solarSystem();
+        for (int k = 0; k < 20; k++) bodies.addAll(BodySet.solarSystem());
+        SimulationWorker worker = new SimulationWorker(new KeplerPropagator(bodies, -1),
+                new SimulationClock(1 / 600.0, 50));
+        PipelineMetrics metrics = new PipelineMetrics();
+        worker.setMetrics(metrics);
+        worker.setScale(100);
+        worker.setViewport(1080, 1920, 540, 960, 7);
+
+        // Simulate frames and pick them up as the worker and onDraw would, first to warm up
+        long t = 1000 * MS;
+        float sum = 0;
+        for (int k = 0; k < 20000; k++) {
+            worker.update(t += 16 * MS);
+            PositionFrame frame = worker.acquireFrame();
+            sum += frame.points()[2 * frame.size() - 1];
+            sum += frame.grid().nearest(540, 960, 50);
+            metrics.record(PipelineMetrics.DRAW, k);
+        }
+        // The query itself allocates a little, so measure that first
+        long overhead = -allocatedBytes() + allocatedBytes();
+        long before = allocatedBytes();
+        for (int k = 0; k < 1000; k++) {
+            worker.update(t += 16 * MS);
+            PositionFrame frame = worker.acquireFrame();
+            sum += frame.points()[2 * frame.size() - 1];
+            sum += frame.grid().nearest(540, 960, 50);
+            metrics.record(PipelineMetrics.DRAW, k);
+        }
+        long allocated = allocatedBytes() - before - overhead;
+        assertFalse(Float.isNaN(sum));
+        assertEquals(0, allocated);
+        assertEquals(21000, metrics.getFrames());
+        assertTrue(metrics.stage(PipelineMetrics.CULL).count() > 0);
+    }
+}
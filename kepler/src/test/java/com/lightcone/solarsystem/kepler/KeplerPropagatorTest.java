@@ -0,0 +1,75 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeplerPropagatorTest {
+
+    @Test
+    public void startsWhereOrbitStepperStarts() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        OrbitStepper stepper = new OrbitStepper(bodies, 1 / 600.0, -1);
+        stepper.setScale(100);
+        stepper.initPositions();
+        stepper.step();
+        propagator.propagate(1 / 600.0);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(bodies.name(i), stepper.x(i), propagator.x(i), 0.05f);
+            assertEquals(bodies.name(i), stepper.y(i), propagator.y(i), 0.05f);
+        }
+    }
+
+    @Test
+    public void returnsToStartAfterWholePeriods() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        for (int i = 0; i < bodies.size(); i++) {
+            propagator.propagate(0);
+            float x0 = propagator.x(i);
+            float y0 = propagator.y(i);
+            propagator.propagate(7 * bodies.period(i));
+            assertEquals(bodies.name(i), x0, propagator.x(i), 1e-3f);
+            assertEquals(bodies.name(i), y0, propagator.y(i), 1e-3f);
+        }
+    }
+
+    @Test
+    public void seekMatchesManySmallSteps() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator stepped = new KeplerPropagator(bodies, -1);
+        KeplerPropagator seeked = new KeplerPropagator(bodies, -1);
+        stepped.setScale(100);
+        seeked.setScale(100);
+        for (int k = 0; k < 60000; k++) stepped.advance(1 / 600.0);
+        seeked.propagate(100);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(bodies.name(i), seeked.x(i), stepped.x(i), 1e-3f);
+            assertEquals(bodies.name(i), seeked.y(i), stepped.y(i), 1e-3f);
+        }
+    }
+
+    @Test
+    public void pointsAreProjectedOntoScreen() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        propagator.setTilt(30);
+        propagator.propagate(3.7);
+        float points[] = propagator.points();
+        double m[] = new double[4];
+        for (int i = 0; i < bodies.size(); i++) {
+            OrbitProjection.screenMatrix(bodies, i, -1, 30, m, 0);
+            double x = propagator.x(i);
+            double y = propagator.y(i);
+            assertEquals(bodies.name(i), m[0] * x + m[1] * y, points[2 * i], 1e-3);
+            assertEquals(bodies.name(i), m[2] * x + m[3] * y, points[2 * i + 1], 1e-3);
+        }
+        // Seen face-on the Earth, in the ecliptic, keeps its distance from the Sun
+        propagator.setTilt(0);
+        assertEquals(Math.hypot(propagator.x(2), propagator.y(2)), Math.hypot(points[4], points[5]), 1e-3);
+    }
+}
@@ -0,0 +1,29 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeplerSolverTest {
+
+    @Test
+    public void solvesKeplerEquationUpToHighEccentricity() throws Exception {
+        double eccentricities[] = {0, 0.017, 0.248, 0.617, 0.967, 0.999, 0.9999};
+        for (double e : eccentricities) {
+            for (double M = -20; M <= 20; M += 0.01) {
+                double E = KeplerSolver.eccentricAnomaly(M, e);
+                assertEquals("e=" + e + " M=" + M, M, E - e * Math.sin(E), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void meanAnomalyInvertsEccentricAnomaly() throws Exception {
+        double e = 0.967;
+        for (double nu = -10; nu <= 10; nu += 0.05) {
+            double E = KeplerSolver.eccentricAnomaly(KeplerSolver.meanAnomaly(nu, e), e);
+            double nu2 = Math.atan2(Math.sqrt(1 - e * e) * Math.sin(E), Math.cos(E) - e);
+            assertEquals("nu=" + nu, 0, Math.IEEEremainder(nu2 - nu, 2 * Math.PI), 1e-9);
+        }
+    }
+}
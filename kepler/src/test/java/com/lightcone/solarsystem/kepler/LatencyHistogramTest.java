@@ -0,0 +1,42 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void durationsFallInPowerOfTwoBuckets() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(1);
+        h.record(1023);
+        h.record(1024);
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(6, h.count());
+        assertEquals(3, h.bucket(0));
+        assertEquals(1, h.bucket(9));
+        assertEquals(1, h.bucket(10));
+        assertEquals(1, h.bucket(LatencyHistogram.BUCKETS - 1));
+        assertEquals(1024, LatencyHistogram.bucketStart(10));
+        assertEquals(Long.MAX_VALUE, h.maxNanos());
+    }
+
+    @Test
+    public void percentilesBoundedByBucket() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int k = 0; k < 990; k++) h.record(1000000);        // 1 ms
+        for (int k = 0; k < 10; k++) h.record(20000000);        // 20 ms
+        assertEquals(1000, h.count());
+        assertEquals((990 * 1000000L + 10 * 20000000L) / 1000.0, h.meanNanos(), 1e-6);
+        long p50 = h.percentileNanos(0.5);
+        assertTrue(p50 >= 1000000 && p50 < 2000000);
+        assertTrue(h.percentileNanos(0.99) < 2000000);
+        assertEquals(20000000, h.percentileNanos(0.999));
+        h.clear();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentileNanos(0.5));
+    }
+}
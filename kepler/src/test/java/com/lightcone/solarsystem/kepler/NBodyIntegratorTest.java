@@ -0,0 +1,248 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class NBodyIntegratorTest {
+
+    private static final int EARTH = 2;
+    private static final int JUPITER = 4;
+    private static final int VB4 = 9;
+
+    // The solar system with periods from Kepler's 3rd law, as Newtonian gravity gives them
+    private static BodySet keplerianSolarSystem() {
+        BodySet solar = BodySet.solarSystem();
+        BodySet bodies = new BodySet(solar.size());
+        for (int i = 0; i < solar.size(); i++) {
+            bodies.add(solar.name(i), solar.epsilon(i), solar.a(i), Math.pow(solar.a(i), 1.5),
+                    solar.theta0(i), solar.orientDeg(i), solar.retroFac(i), solar.inclDeg(i),
+                    solar.nodeDeg(i), solar.periDeg(i));
+        }
+        return bodies;
+    }
+
+    // The solar system followed by count asteroids between 2 and 3.5 AU
+    private static BodySet withAsteroids(int count, long seed) {
+        return TestBodies.asteroids(count, 2, 3.5, 0.3, 20, seed);
+    }
+
+    @Test
+    public void sunAloneGivesTheKeplerOrbits() throws Exception {
+        BodySet bodies = keplerianSolarSystem();
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, new double[0]);
+        integrator.setMaxSpan(10);
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        propagator.setTilt(30);
+        float points[] = new float[2 * bodies.size()];
+        for (int k = 0; k <= 120; k++) {
+            double t = k / 60.0;
+            integrator.propagate(t);
+            integrator.project(100, -1, 30, points);
+            propagator.propagate(t);
+            for (int i = 0; i < bodies.size(); i++) {
+                // Leapfrog phase error, largest for Mercury (0.09 pixels after 2 years)
+                assertEquals(bodies.name(i), propagator.points()[2 * i], points[2 * i], 0.15);
+                assertEquals(bodies.name(i), propagator.points()[2 * i + 1], points[2 * i + 1], 0.15);
+            }
+        }
+        assertEquals(1, integrator.massiveCount());
+        assertEquals(4800, integrator.getSteps());
+    }
+
+    @Test
+    public void energyOscillatesWithoutDrift() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        integrator.setMaxSpan(Double.POSITIVE_INFINITY);
+        integrator.propagate(0);
+        assertEquals(10, integrator.massiveCount());
+        double first = 0;
+        double second = 0;
+        for (int k = 1; k <= 2000; k++) {
+            integrator.propagate(k / 10.0);
+            double error = Math.abs(integrator.getEnergyError());
+            if (k <= 1000) {
+                first = Math.max(first, error);
+            } else {
+                second = Math.max(second, error);
+            }
+        }
+        // 200 years:  no larger in the second century than in the first
+        assertTrue("first " + first, first < 1e-7);
+        assertTrue("second " + second, second < 1.5 * first);
+        assertEquals(480000, integrator.getSteps());
+    }
+
+    @Test
+    public void jupiterPerturbsTheAsteroids() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        double masses[] = NBodyIntegrator.planetMasses(bodies);
+        NBodyIntegrator perturbed = new NBodyIntegrator(bodies, masses);
+        masses[JUPITER] = 0;
+        NBodyIntegrator unperturbed = new NBodyIntegrator(bodies, masses);
+        perturbed.setMaxSpan(100);
+        unperturbed.setMaxSpan(100);
+        perturbed.propagate(0);
+        unperturbed.propagate(0);
+        perturbed.propagate(20);
+        unperturbed.propagate(20);
+        double dx = perturbed.heliocentricX(VB4) - unperturbed.heliocentricX(VB4);
+        double dy = perturbed.heliocentricY(VB4) - unperturbed.heliocentricY(VB4);
+        double dz = perturbed.heliocentricZ(VB4) - unperturbed.heliocentricZ(VB4);
+        assertTrue(Math.sqrt(dx * dx + dy * dy + dz * dz) > 1e-3);
+        assertEquals(9, unperturbed.massiveCount());
+    }
+
+    @Test
+    public void testParticlesDoNotMoveMassiveBodies() throws Exception {
+        BodySet planets = BodySet.solarSystem();
+        BodySet crowded = withAsteroids(500, 5);
+        NBodyIntegrator alone = new NBodyIntegrator(planets, NBodyIntegrator.planetMasses(planets));
+        NBodyIntegrator among = new NBodyIntegrator(crowded, NBodyIntegrator.planetMasses(crowded));
+        for (int k = 0; k <= 10; k++) {
+            alone.propagate(0.1 * k);
+            among.propagate(0.1 * k);
+        }
+        for (int i = 0; i < planets.size(); i++) {
+            assertEquals(alone.heliocentricX(i), among.heliocentricX(i), 0);
+            assertEquals(alone.heliocentricY(i), among.heliocentricY(i), 0);
+            assertEquals(alone.heliocentricZ(i), among.heliocentricZ(i), 0);
+        }
+    }
+
+    @Test
+    public void parallelStepsMatchSerialSteps() throws Exception {
+        BodySet bodies = withAsteroids(20000, 9);
+        double masses[] = NBodyIntegrator.planetMasses(bodies);
+        NBodyIntegrator serial = new NBodyIntegrator(bodies, masses);
+        NBodyIntegrator parallel = new NBodyIntegrator(bodies, masses);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.setPool(pool);
+        parallel.setParallelThreshold(1);
+        parallel.setChunk(1000);
+        for (int k = 0; k <= 5; k++) {
+            serial.propagate(0.05 * k);
+            parallel.propagate(0.05 * k);
+        }
+        pool.shutdown();
+        float a[] = new float[2 * bodies.size()];
+        float b[] = new float[2 * bodies.size()];
+        serial.project(50, -1, 20, a);
+        parallel.project(50, -1, 20, b);
+        assertArrayEquals(a, b, 0f);
+    }
+
+    @Test
+    public void playingBackwardRetracesTheStates() throws Exception {
+        BodySet bodies = withAsteroids(100, 3);
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        integrator.propagate(0);
+        double x0 = integrator.heliocentricX(VB4);
+        double y0 = integrator.heliocentricY(VB4);
+        double earth = integrator.heliocentricX(EARTH);
+        integrator.propagate(0.5);
+        assertNotEquals(x0, integrator.heliocentricX(VB4), 1e-3);
+        integrator.propagate(0);
+        assertEquals(x0, integrator.heliocentricX(VB4), 1e-12);
+        assertEquals(y0, integrator.heliocentricY(VB4), 1e-12);
+        assertEquals(earth, integrator.heliocentricX(EARTH), 1e-12);
+        assertEquals(2400, integrator.getSteps());
+    }
+
+    @Test
+    public void distantTimesRestartFromTheElements() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        integrator.propagate(0);
+        integrator.propagate(0.5);
+        assertEquals(1200, integrator.getSteps());
+        integrator.propagate(50);
+        assertEquals(0, integrator.getSteps());
+        assertEquals(50, integrator.getTime(), 0);
+        assertEquals(0, integrator.getEnergyError(), 0);
+
+        // A body added to the set is a test particle, and the integration restarts
+        bodies.add("Ceres", 0.076, 2.77, 4.6, 1.0, 0, 1, 10.6, 80.3, 73.6);
+        integrator.propagate(50.1);
+        assertEquals(240, integrator.getSteps());
+        assertEquals(10, integrator.massiveCount());
+        assertEquals(bodies.size(), integrator.size());
+    }
+
+    @Test
+    public void restartsAndStepsAllocateNothing() throws Exception {
+        Assume.assumeTrue(FrameAllocationTest.allocatedBytes() >= 0);
+        BodySet bodies = withAsteroids(1000, 5);
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        // Every jump of 10 years is a restart, followed by 24 steps
+        for (int k = 0; k < 200; k++) {
+            integrator.propagate(10 * k);
+            integrator.propagate(10 * k + 0.01);
+        }
+        long overhead = -FrameAllocationTest.allocatedBytes() + FrameAllocationTest.allocatedBytes();
+        long before = FrameAllocationTest.allocatedBytes();
+        for (int k = 0; k < 100; k++) {
+            integrator.propagate(10 * k);
+            integrator.propagate(10 * k + 0.01);
+        }
+        assertEquals(0, FrameAllocationTest.allocatedBytes() - before - overhead);
+    }
+
+    @Test
+    public void massesFollowTheirBodiesAcrossRemoval() throws Exception {
+        BodySet bodies = withAsteroids(20, 7);
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        integrator.propagate(0);
+        // Mercury goes and the last asteroid takes its index; Jupiter keeps its own
+        bodies.remove(0);
+        integrator.propagate(0.5);
+        assertEquals(9, integrator.massiveCount());
+        NBodyIntegrator fresh = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        fresh.propagate(0);
+        fresh.propagate(0.5);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(fresh.heliocentricX(i), integrator.heliocentricX(i), 0);
+            assertEquals(fresh.heliocentricY(i), integrator.heliocentricY(i), 0);
+        }
+        // Massive bodies moved to other indices still pull on the others
+        bodies.removeRange(0, 1);
+        assertEquals("Jupiter", bodies.name(JUPITER - 1));
+        integrator.propagate(1);
+        assertEquals(9, integrator.massiveCount());
+        fresh = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        fresh.propagate(0.5);
+        fresh.propagate(1);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(fresh.heliocentricX(i), integrator.heliocentricX(i), 0);
+            assertEquals(fresh.heliocentricY(i), integrator.heliocentricY(i), 0);
+        }
+    }
+
+    @Test
+    public void propagatorProjectsTheIntegration() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(100);
+        propagator.setIntegrator(integrator);
+        propagator.setTilt(45);
+        propagator.propagate(0.25);
+        float points[] = new float[2 * bodies.size()];
+        integrator.project(100, -1, 45, points);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(points[2 * i], propagator.points()[2 * i], 0);
+            assertEquals(points[2 * i + 1], propagator.points()[2 * i + 1], 0);
+            assertEquals(points[2 * i], propagator.x(i), 0);
+        }
+        try {
+            propagator.setIntegrator(new NBodyIntegrator(BodySet.solarSystem(), new double[0]));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
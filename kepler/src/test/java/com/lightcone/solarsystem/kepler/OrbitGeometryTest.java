@@ -0,0 +1,96 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrbitGeometryTest {
+
+    private static final int MERCURY = 0;
+    private static final int HALLEY = 11;
+
+    @Test
+    public void rebuildsOnlyWhenSegmentCountsChange() throws Exception {
+        OrbitGeometry orbits = new OrbitGeometry(BodySet.solarSystem());
+        orbits.setScale(10);
+        orbits.lines();
+        orbits.lines();
+        orbits.lines();
+        assertEquals(1, orbits.getRebuilds());
+        assertEquals(1, orbits.getRescales());
+        assertEquals(2, orbits.getHits());
+
+        // A small zoom keeps the segment counts, so the cached orbits are only rescaled
+        orbits.setScale(10.2);
+        orbits.lines();
+        assertEquals(1, orbits.getRebuilds());
+        assertEquals(2, orbits.getRescales());
+
+        // A large zoom needs more segments
+        orbits.setScale(100);
+        orbits.lines();
+        assertEquals(2, orbits.getRebuilds());
+        assertEquals(3, orbits.getRescales());
+
+        orbits.invalidate();
+        orbits.lines();
+        assertEquals(3, orbits.getRebuilds());
+        assertEquals(4, orbits.getRescales());
+    }
+
+    @Test
+    public void segmentsStayWithinTolerance() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        OrbitGeometry orbits = new OrbitGeometry(bodies);
+        double pixelScale = 40;
+        orbits.setScale(pixelScale);
+        float lines[] = orbits.lines();
+        int k = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            double a = pixelScale * bodies.a(i);
+            double e = bodies.epsilon(i);
+            double b = a * Math.sqrt(1 - e * e);
+            double m[] = new double[4];
+            OrbitProjection.screenMatrix(bodies, i, -1, 0, m, 0);
+            int count = orbits.segments(i);
+            int start = k;
+            for (int j = 0; j < count; j++, k += 4) {
+                if (j > 0) {
+                    assertEquals(lines[k - 2], lines[k], 0);
+                    assertEquals(lines[k - 1], lines[k + 1], 0);
+                }
+                // Distance from the middle of the chord to the ellipse
+                double E = (j + 0.5) * 2 * Math.PI / count;
+                double xx = b * Math.sin(E);
+                double yy = -a * (Math.cos(E) - e);
+                double ex = m[0] * xx + m[1] * yy;
+                double ey = m[2] * xx + m[3] * yy;
+                double mx = 0.5 * (lines[k] + lines[k + 2]);
+                double my = 0.5 * (lines[k + 1] + lines[k + 3]);
+                assertTrue(bodies.name(i), Math.hypot(ex - mx, ey - my)
+                        <= OrbitGeometry.DEFAULT_TOLERANCE + 1e-3);
+            }
+            if (count > 0) {
+                // Last segment returns to the perihelion
+                assertEquals(lines[start], lines[k - 2], 1e-4f * (float) a);
+                assertEquals(lines[start + 1], lines[k - 1], 1e-4f * (float) a);
+            }
+        }
+        assertEquals(k, orbits.lineCount());
+    }
+
+    @Test
+    public void smallOrbitsCulledAndLargeOrbitsRefined() throws Exception {
+        OrbitGeometry orbits = new OrbitGeometry(BodySet.solarSystem());
+        orbits.setScale(2);
+        orbits.lines();
+        assertEquals(0, orbits.segments(MERCURY));
+        int farHalley = orbits.segments(HALLEY);
+        assertTrue(farHalley > 0);
+
+        orbits.setScale(200);
+        orbits.lines();
+        assertTrue(orbits.segments(MERCURY) > 0);
+        assertTrue(orbits.segments(HALLEY) > farHalley);
+    }
+}
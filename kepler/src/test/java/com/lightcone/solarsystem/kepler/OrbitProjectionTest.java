@@ -0,0 +1,77 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OrbitProjectionTest {
+
+    private static final int EARTH = 2;
+    private static final int PLUTO = 8;
+
+    @Test
+    public void planarBodiesAreRotatedByOrientation() throws Exception {
+        Random random = new Random(3);
+        BodySet bodies = new BodySet(0);
+        for (int k = 0; k < 100; k++) {
+            bodies.add(null, 0.5, 1, 1, 0, 720 * random.nextFloat() - 360, k % 2 == 0 ? 1 : -1);
+        }
+        double m[] = new double[4];
+        for (int i = 0; i < bodies.size(); i++) {
+            OrbitProjection.screenMatrix(bodies, i, -1, 0, m, 0);
+            double orient = Math.toRadians(bodies.orientDeg(i));
+            assertEquals(Math.cos(orient), m[0], 1e-12);
+            assertEquals(-Math.sin(orient), m[1], 1e-12);
+            assertEquals(Math.sin(orient), m[2], 1e-12);
+            assertEquals(Math.cos(orient), m[3], 1e-12);
+        }
+    }
+
+    @Test
+    public void faceOnAreaShrinksByCosineOfInclination() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        double m[] = new double[4];
+        for (int i = 0; i < bodies.size(); i++) {
+            OrbitProjection.screenMatrix(bodies, i, -1, 0, m, 0);
+            double cosIncl = Math.cos(Math.toRadians(bodies.inclDeg(i)));
+            assertEquals(bodies.name(i), Math.abs(cosIncl), Math.abs(m[0] * m[3] - m[1] * m[2]), 1e-12);
+        }
+    }
+
+    @Test
+    public void edgeOnShowsOnlyInclinedOrbits() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        propagator.setScale(10);
+        propagator.setTilt(90);
+        double plutoHeight = 0;
+        for (int k = 0; k < 250; k++) {
+            propagator.propagate(k);
+            float points[] = propagator.points();
+            assertEquals(0, points[2 * EARTH + 1], 1e-4);
+            plutoHeight = Math.max(plutoHeight, Math.abs(points[2 * PLUTO + 1]));
+        }
+        // Pluto rises up to about a (1 + e) sin i above the ecliptic
+        assertTrue(plutoHeight > 10 * 39.53 * Math.sin(Math.toRadians(17.14)));
+        assertTrue(plutoHeight < 10 * 39.53 * 1.248 * Math.sin(Math.toRadians(17.14)));
+    }
+
+    @Test
+    public void clockwiseDirectionMirrorsTheView() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator counter = new KeplerPropagator(bodies, -1);
+        KeplerPropagator clockwise = new KeplerPropagator(bodies, 1);
+        counter.setScale(10);
+        clockwise.setScale(10);
+        counter.setTilt(40);
+        clockwise.setTilt(40);
+        counter.propagate(12.3);
+        clockwise.propagate(12.3);
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(bodies.name(i), -counter.points()[2 * i], clockwise.points()[2 * i], 1e-3);
+            assertEquals(bodies.name(i), counter.points()[2 * i + 1], clockwise.points()[2 * i + 1], 1e-3);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrbitStepperTest {
+
+    private static final int EARTH = 2;
+
+    @Test
+    public void earthCompletesOneOrbitPerYear() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        OrbitStepper stepper = new OrbitStepper(bodies, 1 / 600.0, -1);
+        stepper.setScale(100);
+        stepper.initPositions();
+        double start = stepper.theta(EARTH);
+        for (int k = 0; k < 600; k++) stepper.step();
+        // Counter-clockwise motion, so theta decreases by 2 pi in one period
+        assertEquals(-2 * Math.PI, stepper.theta(EARTH) - start, 0.01);
+    }
+
+    @Test
+    public void positionsLieOnEllipse() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        OrbitStepper stepper = new OrbitStepper(bodies, 1 / 600.0, -1);
+        double pixelScale = 50;
+        stepper.setScale(pixelScale);
+        stepper.initPositions();
+        for (int k = 0; k < 100; k++) stepper.step();
+        for (int i = 0; i < bodies.size(); i++) {
+            double r = Math.hypot(stepper.x(i), stepper.y(i));
+            double a = pixelScale * bodies.a(i);
+            double e = bodies.epsilon(i);
+            assertTrue(bodies.name(i), r >= a * (1 - e) * 0.999 && r <= a * (1 + e) * 1.001);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedElementArraysRejected() throws Exception {
+        new BodySet(new String[]{"A"}, new double[]{0.1}, new double[]{1}, new double[]{1},
+                new double[]{0}, new float[]{0}, new double[0]);
+    }
+}
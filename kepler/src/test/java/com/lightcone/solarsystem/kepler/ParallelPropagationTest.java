@@ -0,0 +1,34 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelPropagationTest {
+
+    @Test
+    public void parallelResultsIdenticalToSerial() throws Exception {
+        BodySet bodies = TestBodies.random(100000, 1);
+        KeplerPropagator serial = new KeplerPropagator(bodies, -1);
+        KeplerPropagator parallel = new KeplerPropagator(bodies, -1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.setPool(pool);
+            parallel.setChunk(1000);
+            serial.setScale(100);
+            parallel.setScale(100);
+            for (double t = -50; t <= 50; t += 12.5) {
+                serial.propagate(t);
+                parallel.propagate(t);
+                for (int i = 0; i < bodies.size(); i++) {
+                    assertEquals(Float.floatToIntBits(serial.x(i)), Float.floatToIntBits(parallel.x(i)));
+                    assertEquals(Float.floatToIntBits(serial.y(i)), Float.floatToIntBits(parallel.y(i)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
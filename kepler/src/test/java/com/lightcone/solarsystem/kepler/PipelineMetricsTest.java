@@ -0,0 +1,85 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void ratesSampledOncePerInterval() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics(1000 * MS);
+        assertFalse(metrics.sample(5000 * MS));
+        for (int k = 0; k < 60; k++) {
+            metrics.addSteps(-3);                      // Playing backward counts as well
+            metrics.record(PipelineMetrics.DRAW, 2 * MS);
+        }
+        assertFalse(metrics.sample(5500 * MS));
+        assertTrue(metrics.sample(6000 * MS));
+        assertEquals(60, metrics.getFramesPerSecond(), 1e-9);
+        assertEquals(180, metrics.getStepsPerSecond(), 1e-9);
+        String lines[] = metrics.lines();
+        assertSame(lines, metrics.lines());
+        assertTrue(lines[0], lines[0].startsWith("60 fps  180 steps/s"));
+    }
+
+    @Test
+    public void workerRecordsStagesAndCachesAreWatched() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        SimulationWorker worker = new SimulationWorker(new KeplerPropagator(bodies, -1),
+                new SimulationClock(1 / 600.0, 50));
+        EphemerisCache ephemeris = new EphemerisCache(bodies, -1, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+        });
+        OrbitGeometry orbits = new OrbitGeometry(bodies);
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.watch(ephemeris, orbits);
+        worker.setEphemeris(ephemeris);
+        worker.setMetrics(metrics);
+        worker.setScale(100);
+        worker.setViewport(1080, 1920, 540, 960, 7);
+        long t = 1000 * MS;
+        for (int k = 0; k < 10; k++) worker.update(t += 20 * MS);
+        assertEquals(12, metrics.getBodies());
+        assertEquals(9, metrics.getSteps());           // The first frame only starts the clock
+        assertTrue(metrics.stage(PipelineMetrics.PROPAGATE).count() >= 9);
+        assertTrue(metrics.stage(PipelineMetrics.CULL).count() >= 9);
+        // The first frame misses the tables, which are then built at once by the executor
+        assertEquals(0.9, metrics.ephemerisHitRate(), 0.1);
+        assertTrue(Double.isNaN(metrics.orbitHitRate()));
+
+        StringWriter out = new StringWriter();
+        metrics.write(out);
+        String text = out.toString();
+        assertTrue(text, text.contains("steps 9"));
+        assertTrue(text, text.contains("propagate "));
+        assertTrue(text, text.contains("bucket_start_ns propagate cull tessellate draw"));
+    }
+
+    @Test
+    public void integratorEnergyIsReportedWhileWatched() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        integrator.propagate(0);
+        integrator.propagate(0.5);
+        PipelineMetrics metrics = new PipelineMetrics();
+        int plain = metrics.lines().length;
+        metrics.watch(integrator);
+        String lines[] = metrics.lines();
+        assertEquals(plain + 1, lines.length);
+        assertTrue(lines[plain], lines[plain].startsWith("n-body energy error "));
+        StringWriter out = new StringWriter();
+        metrics.write(out);
+        assertTrue(out.toString().contains("nbody massive 10 energy_error "));
+        metrics.watch(null);
+        assertEquals(plain, metrics.lines().length);
+    }
+}
@@ -0,0 +1,84 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PropagationKernelTest {
+
+    private static KeplerPropagator propagator(BodySet bodies, PropagationKernel kernel) {
+        KeplerPropagator p = new KeplerPropagator(bodies, -1);
+        p.setKernel(kernel);
+        p.setScale(100);
+        p.setTilt(30);
+        return p;
+    }
+
+    @Test
+    public void polynomialSinCosAreAccurate() throws Exception {
+        double worst = 0;
+        for (int k = -100000; k <= 100000; k++) {
+            double x = Math.PI * k / 100000;
+            worst = Math.max(worst, Math.abs(PolynomialKernel.sin(x) - Math.sin(x)));
+            worst = Math.max(worst, Math.abs(PolynomialKernel.cos(x) - Math.cos(x)));
+        }
+        assertTrue("error " + worst, worst < 2.5e-11);
+    }
+
+    @Test
+    public void polynomialMatchesScalar() throws Exception {
+        BodySet bodies = TestBodies.random(5000, 7);
+        KeplerPropagator exact = propagator(bodies, PropagationKernel.scalar());
+        KeplerPropagator fast = propagator(bodies, PropagationKernel.polynomial());
+        for (double t = -1000; t <= 1000; t += 37.3) {
+            exact.propagate(t);
+            fast.propagate(t);
+            for (int i = 0; i < bodies.size(); i++) {
+                // Pixels at 100 per AU and up to 40 AU:  the float rounding dominates
+                assertEquals(exact.x(i), fast.x(i), 1e-3);
+                assertEquals(exact.y(i), fast.y(i), 1e-3);
+                assertEquals(exact.points()[2 * i], fast.points()[2 * i], 1e-3);
+                assertEquals(exact.points()[2 * i + 1], fast.points()[2 * i + 1], 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void vectorMatchesPolynomialExactly() throws Exception {
+        PropagationKernel vector = PropagationKernel.vector();
+        Assume.assumeNotNull(vector);
+        // An odd count leaves a remainder after the last whole vector
+        BodySet bodies = TestBodies.random(1003, 11);
+        KeplerPropagator fast = propagator(bodies, PropagationKernel.polynomial());
+        KeplerPropagator vectorized = propagator(bodies, vector);
+        for (double t = -50; t <= 50; t += 3.7) {
+            fast.propagate(t);
+            vectorized.propagate(t);
+            assertArrayEquals(fast.points(), vectorized.points(), 0f);
+            for (int i = 0; i < bodies.size(); i++) {
+                assertEquals(fast.x(i), vectorized.x(i), 0f);
+                assertEquals(fast.y(i), vectorized.y(i), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void kernelsAreSelectedByName() throws Exception {
+        assertSame(PropagationKernel.scalar(), PropagationKernel.forName("scalar"));
+        assertSame(PropagationKernel.polynomial(), PropagationKernel.forName("polynomial"));
+        PropagationKernel fastest = PropagationKernel.forName("fastest");
+        if (PropagationKernel.vector() == null) {
+            assertSame(PropagationKernel.polynomial(), fastest);
+        } else {
+            assertEquals("vector", fastest.name());
+        }
+        assertSame(fastest, PropagationKernel.forName("vector"));
+        try {
+            PropagationKernel.forName("simd");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("scalar", new KeplerPropagator(BodySet.solarSystem(), -1).getKernel().name());
+    }
+}
@@ -0,0 +1,121 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ScreenGridTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    // Positions relative to the screen center, spread over about three times the screen
+    private static float[] randomPoints(int n, long seed) {
+        Random random = new Random(seed);
+        float points[] = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            points[2 * i] = (float) (3 * WIDTH * (random.nextDouble() - 0.5));
+            points[2 * i + 1] = (float) (3 * HEIGHT * (random.nextDouble() - 0.5));
+        }
+        return points;
+    }
+
+    @Test
+    public void keepsExactlyTheBodiesOnScreen() throws Exception {
+        int n = 100000;
+        float points[] = randomPoints(n, 1);
+        ScreenGrid grid = new ScreenGrid();
+        grid.build(points, n, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 7);
+        int expected = 0;
+        for (int i = 0; i < n; i++) {
+            float sx = WIDTH / 2 + points[2 * i];
+            float sy = HEIGHT / 2 + points[2 * i + 1];
+            boolean visible = sx >= -7 && sx < WIDTH + 7 && sy >= -7 && sy < HEIGHT + 7;
+            assertEquals(visible, grid.isVisible(i));
+            if (visible) expected++;
+        }
+        assertEquals(expected, grid.visibleCount());
+        float visible[] = grid.visiblePoints();
+        for (int k = 0; k < grid.visibleCount(); k++) {
+            assertTrue(visible[2 * k] >= -7 && visible[2 * k] < WIDTH + 7);
+            assertTrue(visible[2 * k + 1] >= -7 && visible[2 * k + 1] < HEIGHT + 7);
+        }
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() throws Exception {
+        int n = 20000;
+        float points[] = randomPoints(n, 2);
+        ScreenGrid grid = new ScreenGrid();
+        grid.build(points, n, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 0);
+        Random random = new Random(3);
+        for (int tap = 0; tap < 500; tap++) {
+            float x = WIDTH * random.nextFloat();
+            float y = HEIGHT * random.nextFloat();
+            int best = -1;
+            float bestDistance2 = 40 * 40;
+            for (int i = 0; i < n; i++) {
+                if (!grid.isVisible(i)) continue;
+                float dx = grid.screenX(i) - x;
+                float dy = grid.screenY(i) - y;
+                float distance2 = dx * dx + dy * dy;
+                if (distance2 < bestDistance2) {
+                    best = i;
+                    bestDistance2 = distance2;
+                }
+            }
+            int found = grid.nearest(x, y, 40);
+            if (best < 0) {
+                assertEquals(-1, found);
+            } else {
+                float dx = grid.screenX(found) - x;
+                float dy = grid.screenY(found) - y;
+                assertEquals(bestDistance2, dx * dx + dy * dy, 0);
+            }
+        }
+    }
+
+    @Test
+    public void overlappingLabelsAreDropped() throws Exception {
+        // Bodies 0 and 1 are close together, body 2 is far from both
+        float points[] = {0, 0, 5, 3, 300, 400};
+        float widths[] = {80, 80, 80};
+        ScreenGrid grid = new ScreenGrid();
+        grid.build(points, 3, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 0);
+        assertEquals(2, grid.declutter(widths, 30, 3, -7, 100));
+        assertEquals(0, grid.label(0));
+        assertEquals(2, grid.label(1));
+
+        // No label for a body without a width, and no more than the maximum
+        widths[0] = 0;
+        assertEquals(2, grid.declutter(widths, 30, 3, -7, 100));
+        assertEquals(1, grid.label(0));
+        assertEquals(1, grid.declutter(widths, 30, 3, -7, 1));
+    }
+
+    @Test
+    public void chosenLabelsNeverOverlap() throws Exception {
+        int n = 5000;
+        float points[] = randomPoints(n, 4);
+        float widths[] = new float[n];
+        Random random = new Random(5);
+        for (int i = 0; i < n; i++) widths[i] = 20 + 100 * random.nextFloat();
+        ScreenGrid grid = new ScreenGrid();
+        grid.build(points, n, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT, 0);
+        int count = grid.declutter(widths, 30, 3, -7, n);
+        assertTrue(count > 10);
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                int i = grid.label(a);
+                int j = grid.label(b);
+                boolean apart = grid.screenX(i) + 3 + widths[i] < grid.screenX(j) + 3
+                        || grid.screenX(j) + 3 + widths[j] < grid.screenX(i) + 3
+                        || grid.screenY(i) - 7 < grid.screenY(j) - 7 - 30
+                        || grid.screenY(j) - 7 < grid.screenY(i) - 7 - 30;
+                assertTrue(apart);
+            }
+        }
+    }
+}
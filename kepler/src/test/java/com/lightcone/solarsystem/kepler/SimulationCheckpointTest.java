@@ -0,0 +1,221 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SimulationCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SimulationCheckpoint checkpoint(BodySet bodies) {
+        SimulationCheckpoint checkpoint = new SimulationCheckpoint(bodies);
+        checkpoint.setTime(12.5);
+        checkpoint.setRate(-50);
+        checkpoint.setDelay(20);
+        checkpoint.setZoom(2.25);
+        checkpoint.setTilt(30);
+        checkpoint.setFlags(SimulationCheckpoint.SHOW_LABELS | SimulationCheckpoint.GRAVITY);
+        checkpoint.setSelected(4);
+        return checkpoint;
+    }
+
+    @Test
+    public void stateRoundTrips() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        File file = new File(folder.getRoot(), "checkpoint");
+        checkpoint(bodies).write(file);
+        SimulationCheckpoint read = SimulationCheckpoint.readState(file);
+        assertTrue(read.matches(bodies));
+        assertEquals(12.5, read.getTime(), 0);
+        assertEquals(-50, read.getRate(), 0);
+        assertEquals(20, read.getDelay());
+        assertEquals(2.25, read.getZoom(), 0);
+        assertEquals(30, read.getTilt(), 0);
+        assertTrue(read.hasFlag(SimulationCheckpoint.SHOW_LABELS));
+        assertTrue(read.hasFlag(SimulationCheckpoint.GRAVITY));
+        assertFalse(read.hasFlag(SimulationCheckpoint.SHOW_ORBITS));
+        assertEquals(4, read.getSelected());
+        assertFalse(new File(folder.getRoot(), "checkpoint.tmp").exists());
+    }
+
+    @Test
+    public void missingCheckpointReadsAsNull() throws Exception {
+        assertNull(SimulationCheckpoint.readState(new File(folder.getRoot(), "none")));
+    }
+
+    @Test
+    public void otherBodiesDoNotMatch() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        File file = new File(folder.getRoot(), "checkpoint");
+        checkpoint(bodies).write(file);
+        BodySet changed = BodySet.solarSystem();
+        changed.add("Extra", 0.1, 2, Math.pow(2, 1.5), 0, 0f, 1);
+        assertFalse(SimulationCheckpoint.readState(file).matches(changed));
+        BodySet moved = new BodySet(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            moved.add(bodies.name(i), bodies.epsilon(i), bodies.a(i), bodies.period(i),
+                    bodies.theta0(i) + (i == 3 ? 1e-9 : 0), bodies.orientDeg(i), bodies.retroFac(i),
+                    bodies.inclDeg(i), bodies.nodeDeg(i), bodies.periDeg(i));
+        }
+        assertFalse(SimulationCheckpoint.readState(file).matches(moved));
+    }
+
+    @Test
+    public void cachesRoundTrip() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        OrbitGeometry geometry = new OrbitGeometry(bodies);
+        geometry.setTilt(30);
+        geometry.setScale(100);
+        float expected[] = geometry.lines().clone();
+        EphemerisCache cache = new EphemerisCache(bodies, -1, EphemerisCacheTest.DIRECT);
+        cache.setTilt(30);
+        float points[] = new float[2 * bodies.size()];
+        assertFalse(cache.interpolate(3.5, 100, points));     // Builds windows 3, 2 and 4
+        assertTrue(cache.interpolate(3.5, 100, points));
+        assertEquals(3, cache.size());
+
+        SimulationCheckpoint checkpoint = checkpoint(bodies);
+        checkpoint.saveCaches(geometry, cache);
+        File file = new File(folder.getRoot(), "checkpoint");
+        checkpoint.write(file);
+
+        // A new process:  the state first, then the caches
+        SimulationCheckpoint read = SimulationCheckpoint.readState(file);
+        read.readCaches(file);
+        OrbitGeometry restoredGeometry = new OrbitGeometry(bodies);
+        restoredGeometry.setTilt(30);
+        restoredGeometry.setScale(100);
+        assertTrue(read.restoreOrbits(restoredGeometry));
+        float lines[] = restoredGeometry.lines();
+        assertEquals(geometry.lineCount(), restoredGeometry.lineCount());
+        for (int k = 0; k < geometry.lineCount(); k++) assertEquals(expected[k], lines[k], 0);
+        assertEquals(0, restoredGeometry.getRebuilds());
+        assertEquals(1, restoredGeometry.getRescales());
+
+        EphemerisCache restoredCache = new EphemerisCache(bodies, -1, EphemerisCacheTest.DIRECT);
+        restoredCache.setTilt(30);
+        assertEquals(3, read.restoreEphemeris(restoredCache));
+        float restored[] = new float[points.length];
+        assertTrue(restoredCache.interpolate(3.5, 100, restored));
+        assertArrayEquals(points, restored, 0);
+        assertEquals(0, restoredCache.getBuilds());          // Its neighbours are restored too
+    }
+
+    @Test
+    public void cachesForAnotherViewAreNotUsed() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        OrbitGeometry geometry = new OrbitGeometry(bodies);
+        geometry.setScale(100);
+        geometry.lines();
+        EphemerisCache cache = new EphemerisCache(bodies, -1, EphemerisCacheTest.DIRECT);
+        cache.interpolate(0.5, 100, new float[2 * bodies.size()]);
+        SimulationCheckpoint checkpoint = checkpoint(bodies);
+        checkpoint.saveCaches(geometry, cache);
+        File file = new File(folder.getRoot(), "checkpoint");
+        checkpoint.write(file);
+
+        SimulationCheckpoint read = SimulationCheckpoint.readState(file);
+        read.readCaches(file);
+        OrbitGeometry tilted = new OrbitGeometry(bodies);
+        tilted.setTilt(45);
+        assertFalse(read.restoreOrbits(tilted));
+        EphemerisCache tiltedCache = new EphemerisCache(bodies, -1, EphemerisCacheTest.DIRECT);
+        tiltedCache.setTilt(45);
+        assertEquals(0, read.restoreEphemeris(tiltedCache));
+        assertEquals(0, tiltedCache.size());
+    }
+
+    @Test
+    public void damagedCachesAreRejectedButTheStateIsRead() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        OrbitGeometry geometry = new OrbitGeometry(bodies);
+        geometry.setScale(100);
+        geometry.lines();
+        SimulationCheckpoint checkpoint = checkpoint(bodies);
+        checkpoint.saveCaches(geometry, null);
+        File file = new File(folder.getRoot(), "checkpoint");
+        checkpoint.write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 20);
+        int b = raf.read();
+        raf.seek(raf.length() - 20);
+        raf.write(b ^ 0xFF);
+        raf.close();
+
+        SimulationCheckpoint read = SimulationCheckpoint.readState(file);
+        assertEquals(12.5, read.getTime(), 0);
+        try {
+            read.readCaches(file);
+            fail("Damaged caches read");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(read.restoreOrbits(new OrbitGeometry(bodies)));
+    }
+
+    // Overwrite the int at position of file with value
+    private static void writeInt(File file, long position, int value) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(position);
+        raf.writeInt(value);
+        raf.close();
+    }
+
+    @Test
+    public void damagedCountsAreRejectedBeforeAllocating() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        EphemerisCache cache = new EphemerisCache(bodies, -1, EphemerisCacheTest.DIRECT);
+        cache.interpolate(0.5, 100, new float[2 * bodies.size()]);
+        OrbitGeometry geometry = new OrbitGeometry(bodies);
+        geometry.setScale(100);
+        geometry.lines();
+        int counts[] = {Integer.MAX_VALUE, -1};
+        for (int value : counts) {
+            // The number of windows, after the header and an empty orbit section
+            File file = new File(folder.getRoot(), "windows" + value);
+            SimulationCheckpoint checkpoint = checkpoint(bodies);
+            checkpoint.saveCaches(null, cache);
+            checkpoint.write(file);
+            writeInt(file, 76 + 4, value);
+            try {
+                SimulationCheckpoint.readState(file).readCaches(file);
+                fail("Window count " + value + " read");
+            } catch (IOException e) {
+                // Expected
+            }
+            // The length of the orbit segments, after their tilt, tolerance, cull and count
+            file = new File(folder.getRoot(), "orbits" + value);
+            checkpoint = checkpoint(bodies);
+            checkpoint.saveCaches(geometry, null);
+            checkpoint.write(file);
+            writeInt(file, 76 + 4 + 24 + 4, value);
+            try {
+                SimulationCheckpoint.readState(file).readCaches(file);
+                fail("Orbit length " + value + " read");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void damagedHeaderIsRejected() throws Exception {
+        File file = new File(folder.getRoot(), "checkpoint");
+        checkpoint(BodySet.solarSystem()).write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(24);
+        int b = raf.read();
+        raf.seek(24);
+        raf.write(b ^ 0x01);
+        raf.close();
+        SimulationCheckpoint.readState(file);
+    }
+}
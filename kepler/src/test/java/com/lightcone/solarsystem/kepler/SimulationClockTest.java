@@ -0,0 +1,89 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimulationClockTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void advancesAtRateWhateverTheFrameTiming() throws Exception {
+        SimulationClock regular = new SimulationClock(1 / 600.0, 50);
+        SimulationClock jittery = new SimulationClock(1 / 600.0, 50);
+        long t = 1000 * MS;
+        regular.advance(t);
+        jittery.advance(t);
+        for (int k = 1; k <= 600; k++) {
+            regular.advance(t + k * 16667000L);
+            jittery.advance(t + k * 16667000L + (k % 3 == 0 ? 9 * MS : 0));
+        }
+        // 600 frames of 1/60 s at 50 steps per second
+        assertEquals(500, regular.getSteps());
+        assertEquals(500, jittery.getSteps(), 1);
+        assertEquals(500 / 600.0, regular.getTime(), 1e-12);
+    }
+
+    @Test
+    public void stallDoesNotLeapAhead() throws Exception {
+        SimulationClock clock = new SimulationClock(1 / 600.0, 1000);
+        clock.setMaxStepsPerFrame(10);
+        clock.advance(MS);
+        assertEquals(10, clock.advance(MS + 5000 * MS));
+        assertEquals(1, clock.advance(MS + 5001 * MS));
+    }
+
+    @Test
+    public void pausedTimeNotSimulated() throws Exception {
+        SimulationClock clock = new SimulationClock(1 / 600.0, 100);
+        clock.advance(MS);
+        clock.advance(101 * MS);
+        assertEquals(10, clock.getSteps());
+        clock.resume();
+        assertEquals(0, clock.advance(60000 * MS));
+        clock.advance(60100 * MS);
+        assertEquals(20, clock.getSteps());
+    }
+
+    @Test
+    public void earlierFrameTimeDoesNotMoveTheReference() throws Exception {
+        // A stamp taken between two vsync frames arriving after the later one is ignored, so the
+        // next frame counts only the time since the last frame that moved the clock
+        SimulationClock clock = new SimulationClock(1 / 600.0, 100);
+        clock.advance(MS);
+        assertEquals(10, clock.advance(101 * MS));
+        assertEquals(0, clock.advance(91 * MS));
+        assertEquals(0, clock.advance(101 * MS));
+        assertEquals(10, clock.advance(201 * MS));
+        assertEquals(20, clock.getSteps());
+    }
+
+    @Test
+    public void seeksAndRunsBackward() throws Exception {
+        SimulationClock clock = new SimulationClock(1 / 600.0, 100);
+        clock.seek(50);
+        assertEquals(50, clock.getTime(), 0);
+        clock.advance(MS);
+        clock.advance(101 * MS);
+        assertEquals(50 + 10 / 600.0, clock.getTime(), 1e-12);
+        clock.reverse();
+        assertEquals(-100, clock.getRate(), 0);
+        assertEquals(-20, clock.advance(301 * MS));
+        assertEquals(50 - 10 / 600.0, clock.getTime(), 1e-12);
+    }
+
+    @Test
+    public void countsDroppedFrames() throws Exception {
+        FrameStats stats = new FrameStats(16 * MS);
+        long t = MS;
+        stats.record(t);
+        stats.record(t += 16 * MS);
+        stats.record(t += 33 * MS);
+        stats.record(t += 48 * MS);
+        assertEquals(4, stats.getFrames());
+        assertEquals(3, stats.getDroppedFrames());
+        assertEquals(48 * MS, stats.getLastFrameNanos());
+        assertEquals(97 * MS / 3.0, stats.getMeanFrameNanos(), 1);
+    }
+}
@@ -0,0 +1,238 @@
+package com.lightcone.solarsystem.kepler;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SimulationWorkerTest {
+
+    private static final long MS = 1000000L;
+
+    // Worker counting how many of its threads run at the same time
+    private static class CountingWorker extends SimulationWorker {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicBoolean overlap = new AtomicBoolean();
+
+        CountingWorker(KeplerPropagator propagator, SimulationClock clock) {
+            super(propagator, clock);
+        }
+
+        @Override
+        public void run() {
+            if (active.incrementAndGet() > 1) overlap.set(true);
+            try {
+                super.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void concurrentStartAndStopNeverRunTwoThreads() throws Exception {
+        final CountingWorker worker = new CountingWorker(
+                new KeplerPropagator(BodySet.solarSystem(), -1), new SimulationClock(1 / 600.0, 50));
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread callers[] = new Thread[8];
+        for (int k = 0; k < callers.length; k++) {
+            final int seed = k;
+            callers[k] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 500; j++) {
+                        if ((j + seed) % 3 == 0) worker.stop();
+                        else worker.start();
+                        worker.requestFrame(System.nanoTime());
+                    }
+                }
+            };
+            callers[k].start();
+        }
+        go.countDown();
+        for (Thread caller : callers) caller.join();
+        worker.stop();
+        worker.stop();
+        assertFalse(worker.overlap.get());
+        assertEquals(0, worker.active.get());
+        assertFalse(worker.isRunning());
+        assertTrue(worker.getThreadsStarted() >= 1);
+    }
+
+    @Test
+    public void publishesPositionsOfRequestedFrame() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        KeplerPropagator propagator = new KeplerPropagator(bodies, -1);
+        SimulationClock clock = new SimulationClock(1 / 600.0, 1000);
+        SimulationWorker worker = new SimulationWorker(propagator, clock);
+        assertEquals(0, worker.acquireFrame().size());
+
+        // While stopped a new scale is applied and published at once
+        worker.setScale(50);
+        assertEquals(bodies.size(), worker.acquireFrame().size());
+        assertEquals(50 * bodies.a(0) * (1 - bodies.epsilon(0) * bodies.epsilon(0)), propagator.c1(0), 1e-9);
+
+        assertTrue(worker.start());
+        assertFalse(worker.start());
+        worker.setScale(100);
+        worker.requestFrame(1000 * MS);
+        worker.requestFrame(1100 * MS);
+        PositionFrame frame = worker.acquireFrame();
+        for (int k = 0; k < 1000 && frame.getTime() == 0; k++) {
+            Thread.sleep(2);
+            worker.requestFrame((1100 + k) * MS);
+            frame = worker.acquireFrame();
+        }
+        worker.stop();
+        assertEquals(bodies.size(), frame.size());
+        assertTrue(frame.getTime() > 0);
+
+        // Once stopped the propagator belongs to the caller again
+        KeplerPropagator check = new KeplerPropagator(bodies, -1);
+        check.setScale(100);
+        check.propagate(frame.getTime());
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(check.points()[2 * i], frame.x(i), 0);
+            assertEquals(check.points()[2 * i + 1], frame.y(i), 0);
+        }
+    }
+
+    @Test
+    public void changesBetweenFramesDoNotMoveTheClock() throws Exception {
+        // A scale and a tilt handed to the running worker between two frames are applied at the
+        // time of the last frame, so the next frame takes only the steps of its own interval
+        SimulationClock clock = new SimulationClock(1 / 600.0, 100);
+        SimulationWorker worker = new SimulationWorker(new KeplerPropagator(BodySet.solarSystem(), -1),
+                clock);
+        worker.setScale(50);
+        worker.start();
+        awaitFrame(worker, 1000 * MS);
+        awaitFrame(worker, 1100 * MS);
+        long sequence = worker.acquireFrame().getSequence();
+        worker.setScale(60);
+        worker.setTilt(30);
+        awaitSequence(worker, sequence);
+        awaitFrame(worker, 1200 * MS);
+        worker.stop();
+        assertEquals(20, clock.getSteps());
+    }
+
+    // Request a frame at frameNanos and wait until the worker has published it
+    private static void awaitFrame(SimulationWorker worker, long frameNanos) throws Exception {
+        long sequence = worker.acquireFrame().getSequence();
+        worker.requestFrame(frameNanos);
+        awaitSequence(worker, sequence);
+    }
+
+    // Wait for a frame published after the one numbered sequence
+    private static void awaitSequence(SimulationWorker worker, long sequence) throws Exception {
+        for (int k = 0; k < 2000 && worker.acquireFrame().getSequence() == sequence; k++) {
+            Thread.sleep(1);
+        }
+        assertTrue("no frame published", worker.acquireFrame().getSequence() > sequence);
+    }
+
+    @Test
+    public void tripleBufferNeverHandsOutTornFrames() throws Exception {
+        final int n = 1000;
+        final int frames = 100000;
+        final TripleBuffer<PositionFrame> buffer = new TripleBuffer<PositionFrame>(
+                new PositionFrame(n), new PositionFrame(n), new PositionFrame(n));
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                float points[] = new float[2 * n];
+                for (int s = 1; s <= frames; s++) {
+                    for (int i = 0; i < n; i++) {
+                        points[2 * i] = s;
+                        points[2 * i + 1] = -s;
+                    }
+                    buffer.back().set(points, n, s, s);
+                    buffer.publish();
+                }
+            }
+        };
+        producer.start();
+        long last = 0;
+        int seen = 0;
+        while (last < frames) {
+            PositionFrame frame = buffer.acquire();
+            long s = frame.getSequence();
+            assertTrue(s >= last);
+            if (s == 0) continue;
+            for (int i = 0; i < n; i++) {
+                assertEquals(s, frame.x(i), 0);
+                assertEquals(-s, frame.y(i), 0);
+            }
+            if (s > last) seen++;
+            last = s;
+        }
+        producer.join();
+        assertTrue(seen > 0);
+    }
+
+    @Test
+    public void integratorPositionsArePublished() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        SimulationClock clock = new SimulationClock(1 / 600.0, 50);
+        SimulationWorker worker = new SimulationWorker(new KeplerPropagator(bodies, -1), clock);
+        worker.setScale(100);
+        worker.seek(3);
+        float twoBody = worker.acquireFrame().x(4);
+        NBodyIntegrator integrator = new NBodyIntegrator(bodies, NBodyIntegrator.planetMasses(bodies));
+        worker.setIntegrator(integrator);
+        PositionFrame frame = worker.acquireFrame();
+        float points[] = new float[2 * bodies.size()];
+        integrator.project(100, -1, 0, points);
+        assertEquals(3, integrator.getTime(), 0);
+        assertEquals(points[8], frame.x(4), 0);
+        // Jupiter starts on its orbit
+        assertEquals(twoBody, frame.x(4), 0.1);
+        worker.setIntegrator(null);
+        assertEquals(twoBody, worker.acquireFrame().x(4), 0);
+    }
+
+    @Test
+    public void crowdedFramesCarryAHeatMap() throws Exception {
+        BodySet bodies = BodySet.solarSystem();
+        int planets = bodies.size();
+        for (int i = 0; i < 20000; i++) {
+            double a = 2.1 + 1.2 * i / 20000.0;
+            bodies.add(null, 0.1, a, Math.pow(a, 1.5), 0.001 * i, 0f, 1);
+        }
+        SimulationWorker worker = new SimulationWorker(new KeplerPropagator(bodies, -1),
+                new SimulationClock(1 / 600.0, 50));
+        worker.setDensity(new DensityGrid(DensityGrid.DEFAULT_BIN, 7), planets);
+        worker.setViewport(1080, 1920, 540, 960, 7);
+        double crowded = DensityGrid.crowdedScale(bodies, planets, 7);
+
+        worker.setScale(crowded / 4);
+        PositionFrame frame = worker.acquireFrame();
+        assertEquals(1, frame.densityWeight(), 0);
+        assertEquals(270, frame.densityCols());
+        assertEquals(480, frame.densityRows());
+        int shaded = 0;
+        for (int b = 0; b < frame.densityCols() * frame.densityRows(); b++) {
+            if (frame.density()[b] != 0) shaded++;
+        }
+        assertTrue(shaded > 100);
+
+        worker.setScale(crowded);
+        assertEquals(0.5, worker.acquireFrame().densityWeight(), 1e-6);
+        worker.setScale(crowded * 4);
+        assertEquals(0, worker.acquireFrame().densityWeight(), 0);
+
+        // Without a grid there is never a heat map
+        worker.setDensity(null, 0);
+        worker.setScale(crowded / 4);
+        assertEquals(0, worker.acquireFrame().densityWeight(), 0);
+    }
+}
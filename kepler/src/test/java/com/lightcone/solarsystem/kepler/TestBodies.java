@@ -0,0 +1,39 @@
+package com.lightcone.solarsystem.kepler;
+
+import java.util.Random;
+
+/* Random body sets shared by the tests.  The same seed always gives the same bodies. */
+final class TestBodies {
+
+    private TestBodies() {
+    }
+
+    // Random orbits from 0.4 to 40 AU and up to e = 0.999, in 3D, with a mix of prograde and
+    // retrograde bodies
+    static BodySet random(int n, long seed) {
+        Random random = new Random(seed);
+        BodySet bodies = new BodySet(n);
+        for (int i = 0; i < n; i++) {
+            double a = 0.4 * Math.pow(100, random.nextDouble());
+            bodies.add("Body " + i, 0.999 * random.nextDouble(), a, Math.pow(a, 1.5),
+                    2 * Math.PI * random.nextDouble(), 0, random.nextInt(4) == 0 ? -1 : 1,
+                    180 * random.nextDouble(), 360 * random.nextDouble(), 360 * random.nextDouble());
+        }
+        return bodies;
+    }
+
+    // The solar system followed by count asteroids from aMin to aMax AU, with eccentricities
+    // below eMax and inclinations below inclMax degrees
+    static BodySet asteroids(int count, double aMin, double aMax, double eMax, double inclMax,
+            long seed) {
+        Random random = new Random(seed);
+        BodySet bodies = BodySet.solarSystem();
+        for (int k = 0; k < count; k++) {
+            double a = aMin + (aMax - aMin) * random.nextDouble();
+            bodies.add(null, eMax * random.nextDouble(), a, Math.pow(a, 1.5),
+                    2 * Math.PI * random.nextDouble(), 0, 1, inclMax * random.nextDouble(),
+                    360 * random.nextDouble(), 360 * random.nextDouble());
+        }
+        return bodies;
+    }
+}